@@ -3,6 +3,7 @@ import groovy.lang.MissingPropertyException
 plugins {
     id("java")
     id("com.github.johnrengelman.shadow") version "7.1.2"
+    id("me.champeau.jmh") version "0.7.1"
 }
 
 group = "net.foster.testing"
@@ -22,12 +23,67 @@ repositories {
         name = "Aikar"
         url = uri("https://repo.aikar.co/content/groups/aikar/")
     }
+    maven {
+        name = "jitpack"
+        url = uri("https://jitpack.io")
+    }
+}
+
+// Headless load simulation of joins, quits and commands, run with "gradlew simulate --args='--players 20000'"
+sourceSets {
+    create("sim") {
+        compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+        runtimeClasspath += sourceSets.main.get().output + sourceSets.main.get().runtimeClasspath
+    }
 }
 
 dependencies {
     compileOnly("io.papermc.paper:paper-api:1.18.2-R0.1-SNAPSHOT")
+    compileOnly("com.github.MilkBowl:VaultAPI:1.7") { // Provided by the Vault plugin
+        isTransitive = false
+    }
 
     implementation("co.aikar:acf-paper:0.5.1-SNAPSHOT") // ACF (Command framework)
+    implementation("com.h2database:h2:2.2.224") // Embedded H2 account store, not provided by the server
+
+    // Benchmarks run headless, so the server API and the SQLite driver have to be on the classpath
+    jmhImplementation("io.papermc.paper:paper-api:1.18.2-R0.1-SNAPSHOT")
+    jmhImplementation("org.xerial:sqlite-jdbc:3.36.0.3")
+
+    // The simulation runs headless too, and logs through slf4j like the server does
+    "simRuntimeOnly"("io.papermc.paper:paper-api:1.18.2-R0.1-SNAPSHOT")
+    "simRuntimeOnly"("org.xerial:sqlite-jdbc:3.36.0.3")
+    "simRuntimeOnly"("org.slf4j:slf4j-simple:1.8.0-beta4")
+
+    // Tests use the managers directly, so the server API is needed at compile time as well
+    testImplementation("io.papermc.paper:paper-api:1.18.2-R0.1-SNAPSHOT")
+    testImplementation("com.github.MilkBowl:VaultAPI:1.7") {
+        isTransitive = false
+    }
+    testImplementation("org.junit.jupiter:junit-jupiter:5.10.2")
+    testRuntimeOnly("org.xerial:sqlite-jdbc:3.36.0.3") // Provided by the server, the stores are tested on it as well
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    resultFormat.set("JSON")
+    // Versioned file name, so results from different releases can be compared
+    resultsFile.set(layout.buildDirectory.file("reports/jmh/results-${project.version}.json"))
+}
+
+tasks.register<JavaExec>("simulate") {
+    group = "verification"
+    description = "Runs the load simulation against a temporary SQLite database"
+    classpath = sourceSets["sim"].runtimeClasspath
+    mainClass.set("net.foster.testing.orbital.simulation.LoadSimulation")
+}
+
+tasks.register<JavaExec>("footprint") {
+    group = "verification"
+    description = "Compares the heap used per account by a map of boxed balances and by the account table"
+    classpath = sourceSets["sim"].runtimeClasspath
+    mainClass.set("net.foster.testing.orbital.simulation.FootprintComparison")
 }
 
 val targetJavaVersion = 17
@@ -47,6 +103,10 @@ tasks {
         }
     }
 
+    test {
+        useJUnitPlatform()
+    }
+
     shadowJar {
         archiveFileName.set("${project.name}-${project.version}.jar")
 
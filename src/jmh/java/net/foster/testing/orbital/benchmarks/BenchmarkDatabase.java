@@ -0,0 +1,56 @@
+package net.foster.testing.orbital.benchmarks;
+
+import net.foster.testing.orbital.data.Database;
+import net.foster.testing.orbital.data.store.AccountStore;
+import net.foster.testing.orbital.data.store.StorageException;
+import net.foster.testing.orbital.managers.Economy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A {@link Database} on a temporary store, for benchmarks that need real storage
+ */
+final class BenchmarkDatabase implements AutoCloseable {
+    private final Path directory;
+    final AccountStore store;
+    final Economy econ = new Economy();
+    final Database database;
+
+    BenchmarkDatabase() throws IOException, StorageException {
+        this(AccountStore.Backend.SQLITE);
+    }
+
+    BenchmarkDatabase(AccountStore.Backend backend) throws IOException, StorageException {
+        directory = Files.createTempDirectory("orbital-bench");
+        store = backend.open(directory.resolve("players"), "orbital", 4);
+        store.initialize();
+        database = new Database(econ, store, 500);
+    }
+
+    /**
+     * Inserts rows for the given players, each with a balance of 100
+     */
+    void insert(List<UUID> uuids) throws StorageException {
+        List<AccountStore.Account> accounts = new ArrayList<>(uuids.size());
+        for (UUID uuid : uuids) {
+            accounts.add(new AccountStore.Account(uuid, 100_00));
+        }
+        store.upsertBatch(accounts);
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
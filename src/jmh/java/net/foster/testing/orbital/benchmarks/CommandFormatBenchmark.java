@@ -0,0 +1,77 @@
+package net.foster.testing.orbital.benchmarks;
+
+import co.aikar.commands.bukkit.contexts.OnlinePlayer;
+import net.foster.testing.orbital.commands.PlayerCommands;
+import net.foster.testing.orbital.managers.CooldownService;
+import net.foster.testing.orbital.managers.Economy;
+import net.foster.testing.orbital.managers.Leaderboard;
+import net.foster.testing.orbital.metrics.MetricsRegistry;
+import net.foster.testing.orbital.utils.ThreadGuard;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message formatting of {@link PlayerCommands}, using the messages from the bundled config.yml
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandFormatBenchmark {
+    private BenchmarkDatabase storage;
+    private PlayerCommands commands;
+    private Player sender;
+    private OnlinePlayer target;
+
+    @Setup
+    public void setup(Blackhole blackhole) throws Exception {
+        YamlConfiguration config;
+        try (Reader reader = new InputStreamReader(Objects.requireNonNull(
+                PlayerCommands.class.getClassLoader().getResourceAsStream("config.yml")), StandardCharsets.UTF_8)) {
+            config = YamlConfiguration.loadConfiguration(reader);
+        }
+
+        // "/give" writes the transfer into the database
+        storage = new BenchmarkDatabase();
+        Economy econ = storage.econ;
+        commands = new PlayerCommands(econ, storage.database, new Leaderboard(), new CooldownService(0, TimeUnit.SECONDS),
+                new MetricsRegistry(), new ThreadGuard(Thread.currentThread(), ThreadGuard.Mode.OFF, 0), config.getConfigurationSection("commands"));
+        sender = StubPlayers.player(UUID.randomUUID(), "Sender", blackhole::consume);
+        Player targetPlayer = StubPlayers.player(UUID.randomUUID(), "Target", blackhole::consume);
+        target = new OnlinePlayer(targetPlayer);
+        econ.depositPlayer(sender, 1_000_000);
+        econ.depositPlayer(targetPlayer, 1234.56);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        storage.database.getExecutor().shutdown(30, TimeUnit.SECONDS);
+        storage.close();
+    }
+
+    @Benchmark
+    public void balanceSelf() {
+        commands.onBal(sender, null);
+    }
+
+    @Benchmark
+    public void balanceTarget() {
+        commands.onBal(sender, target);
+    }
+
+    @Benchmark
+    public void give() {
+        commands.onGive(sender, target, new String[]{"0.01"});
+    }
+}
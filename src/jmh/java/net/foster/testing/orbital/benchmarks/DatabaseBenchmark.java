@@ -0,0 +1,62 @@
+package net.foster.testing.orbital.benchmarks;
+
+import net.foster.testing.orbital.data.store.AccountStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single account reads and writes through {@link net.foster.testing.orbital.data.Database} against every store backend
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class DatabaseBenchmark {
+    private static final int ROWS = 10_000;
+
+    @Param({"sqlite", "h2", "file"})
+    public String backend;
+
+    private BenchmarkDatabase database;
+    private UUID[] uuids;
+
+    @Setup
+    public void setup() throws Exception {
+        database = new BenchmarkDatabase(AccountStore.Backend.fromName(backend));
+        List<UUID> rows = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(UUID.randomUUID());
+        }
+        database.insert(rows);
+        uuids = rows.toArray(new UUID[0]);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Benchmark
+    public long load() {
+        UUID uuid = uuids[ThreadLocalRandom.current().nextInt(ROWS)];
+        return database.database.write(store -> store.load(uuid, 0)).join();
+    }
+
+    @Benchmark
+    public void update() {
+        UUID uuid = uuids[ThreadLocalRandom.current().nextInt(ROWS)];
+        AccountStore.Account account = new AccountStore.Account(uuid, ThreadLocalRandom.current().nextLong(100_000));
+        database.database.write(store -> {
+            store.upsertBatch(List.of(account));
+            return null;
+        }).join();
+    }
+}
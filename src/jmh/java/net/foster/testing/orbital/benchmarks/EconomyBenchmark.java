@@ -0,0 +1,54 @@
+package net.foster.testing.orbital.benchmarks;
+
+import net.foster.testing.orbital.managers.Economy;
+import org.bukkit.OfflinePlayer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Balance reads and deposits on a shared Economy manager
+ * Runs once per nested class, each with a different amount of threads
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public abstract class EconomyBenchmark {
+    private static final int ACCOUNTS = 10_000;
+
+    private Economy econ;
+    private OfflinePlayer[] players;
+
+    @Setup
+    public void setup() {
+        econ = new Economy();
+        players = new OfflinePlayer[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            players[i] = StubPlayers.offlinePlayer();
+            econ.depositPlayer(players[i], 100);
+        }
+    }
+
+    @Benchmark
+    public double getBalance() {
+        return econ.getBalance(players[ThreadLocalRandom.current().nextInt(ACCOUNTS)]);
+    }
+
+    @Benchmark
+    public void depositPlayer() {
+        econ.depositPlayer(players[ThreadLocalRandom.current().nextInt(ACCOUNTS)], 1.25);
+    }
+
+    @Threads(1)
+    public static class OneThread extends EconomyBenchmark {}
+
+    @Threads(4)
+    public static class FourThreads extends EconomyBenchmark {}
+
+    @Threads(16)
+    public static class SixteenThreads extends EconomyBenchmark {}
+}
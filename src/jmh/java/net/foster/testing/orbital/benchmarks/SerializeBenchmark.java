@@ -0,0 +1,56 @@
+package net.foster.testing.orbital.benchmarks;
+
+import net.foster.testing.orbital.data.store.AccountStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving every account after all of them changed, which is the worst case for an autosave
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializeBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int accounts;
+
+    @Param({"sqlite", "h2", "file"})
+    public String backend;
+
+    private BenchmarkDatabase database;
+    private List<UUID> uuids;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        database = new BenchmarkDatabase(AccountStore.Backend.fromName(backend));
+        uuids = new ArrayList<>(accounts);
+        for (int i = 0; i < accounts; i++) {
+            uuids.add(UUID.randomUUID());
+        }
+        database.insert(uuids);
+    }
+
+    @Setup(Level.Invocation)
+    public void changeEveryAccount() {
+        for (UUID uuid : uuids) {
+            database.econ.addMinor(uuid, 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Benchmark
+    public int serializePlayerDatas() {
+        return database.database.serializePlayerDatas();
+    }
+}
@@ -0,0 +1,71 @@
+package net.foster.testing.orbital.benchmarks;
+
+import net.foster.testing.orbital.data.store.AccountStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bulk work of every store backend: a wave of logins, filling the leaderboard on startup and reading the top balances
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StoreBenchmark {
+    private static final int LOGIN_WAVE = 200;
+
+    @Param({"sqlite", "h2", "file"})
+    public String backend;
+
+    @Param({"100000"})
+    public int accounts;
+
+    private BenchmarkDatabase database;
+    private UUID[] uuids;
+
+    @Setup
+    public void setup() throws Exception {
+        database = new BenchmarkDatabase(AccountStore.Backend.fromName(backend));
+        List<UUID> rows = new ArrayList<>(accounts);
+        for (int i = 0; i < accounts; i++) {
+            rows.add(UUID.randomUUID());
+        }
+        database.insert(rows);
+        uuids = rows.toArray(new UUID[0]);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    /**
+     * Players joining after a restart, mostly known accounts and a few new ones
+     */
+    @Benchmark
+    public Map<UUID, Long> loadMany() throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Set<UUID> wave = new HashSet<>(LOGIN_WAVE * 2);
+        while (wave.size() < LOGIN_WAVE) {
+            wave.add(random.nextInt(10) == 0 ? UUID.randomUUID() : uuids[random.nextInt(accounts)]);
+        }
+        return database.store.loadMany(wave, 0);
+    }
+
+    @Benchmark
+    public int scanAll() throws Exception {
+        long[] sum = new long[1];
+        int rows = database.store.scanAll((mostSigBits, leastSigBits, balance) -> sum[0] += balance);
+        return rows + (int) sum[0];
+    }
+
+    @Benchmark
+    public List<AccountStore.Account> topN() throws Exception {
+        return database.store.topN(10);
+    }
+}
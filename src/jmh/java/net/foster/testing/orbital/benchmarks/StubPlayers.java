@@ -0,0 +1,77 @@
+package net.foster.testing.orbital.benchmarks;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Player stand-ins for running without a server
+ * Only identity, name and messages are implemented, every other method returns a default value
+ */
+public final class StubPlayers {
+    private StubPlayers() {}
+
+    /**
+     * Creates an offline player with a random UUID
+     * @return A stub {@link OfflinePlayer}
+     */
+    public static OfflinePlayer offlinePlayer() {
+        return player(UUID.randomUUID(), "offline", message -> {});
+    }
+
+    /**
+     * Creates an online player
+     * @param uuid UUID of the player
+     * @param name Name of the player
+     * @param messages Receives every message sent to the player
+     * @return A stub {@link Player}
+     */
+    public static Player player(UUID uuid, String name, Consumer<String> messages) {
+        return (Player) Proxy.newProxyInstance(StubPlayers.class.getClassLoader(), new Class<?>[]{Player.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getUniqueId" -> uuid;
+                    case "getName" -> name;
+                    case "sendMessage" -> {
+                        if(args != null && args.length == 1 && args[0] instanceof String message) {
+                            messages.accept(message);
+                        }
+                        yield null;
+                    }
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> uuid.hashCode();
+                    case "toString" -> "StubPlayer{" + name + "}";
+                    default -> defaultValue(method.getReturnType());
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if(!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if(type == boolean.class) {
+            return false;
+        }
+        if(type == char.class) {
+            return '\0';
+        }
+        if(type == float.class) {
+            return 0f;
+        }
+        if(type == double.class) {
+            return 0d;
+        }
+        if(type == long.class) {
+            return 0L;
+        }
+        if(type == int.class) {
+            return 0;
+        }
+        if(type == short.class) {
+            return (short) 0;
+        }
+        return (byte) 0;
+    }
+}
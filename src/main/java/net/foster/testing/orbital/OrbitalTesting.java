@@ -1,35 +1,59 @@
 package net.foster.testing.orbital;
 
 import co.aikar.commands.PaperCommandManager;
+import net.foster.testing.orbital.api.EconomyService;
+import net.foster.testing.orbital.commands.AdminCommands;
 import net.foster.testing.orbital.commands.PlayerCommands;
 import net.foster.testing.orbital.data.ConfigManager;
 import net.foster.testing.orbital.data.Database;
+import net.foster.testing.orbital.data.Settings;
+import net.foster.testing.orbital.hooks.VaultHook;
 import net.foster.testing.orbital.listeners.PlayerJoinListener;
+import net.foster.testing.orbital.listeners.PlayerPreLoginListener;
 import net.foster.testing.orbital.listeners.PlayerQuitListener;
+import net.foster.testing.orbital.managers.CooldownService;
 import net.foster.testing.orbital.managers.Economy;
+import net.foster.testing.orbital.managers.EconomyProvider;
+import net.foster.testing.orbital.managers.Leaderboard;
+import net.foster.testing.orbital.metrics.MetricsRegistry;
+import net.foster.testing.orbital.payouts.PayoutEngine;
+import net.foster.testing.orbital.sync.BalanceSync;
+import net.foster.testing.orbital.sync.LoopbackTransport;
+import net.foster.testing.orbital.sync.SocketTransport;
+import net.foster.testing.orbital.sync.SyncTransport;
+import net.foster.testing.orbital.utils.ThreadGuard;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.scheduler.BukkitRunnable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.util.HashMap;
-import java.util.UUID;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public final class OrbitalTesting extends JavaPlugin {
 
-    private final HashMap<UUID, Integer> activeCountdowns = new HashMap<>();
+    private CooldownService earnCooldown;
+    private PlayerCommands playerCommands;
     private static OrbitalTesting instance;
     private static final Logger LOGGER = LoggerFactory.getLogger(OrbitalTesting.class);
 
     private static Economy econ;
+    private Leaderboard leaderboard;
+    private BalanceSync balanceSync;
+    private MetricsRegistry metrics;
+    private ThreadGuard threadGuard;
+    private PayoutEngine payoutEngine;
 
 
     /* Database */
     private Database database;
-    public static String TABLE_NAME;
-    public static String DATABASE_PATH;
 
     @Override
     public void onEnable() {
@@ -41,25 +65,131 @@ public final class OrbitalTesting extends JavaPlugin {
         PaperCommandManager manager = new PaperCommandManager(this);
         manager.enableUnstableAPI("help");
         ConfigManager.setup();
+        metrics = new MetricsRegistry();
+        // onEnable runs on the server thread
+        threadGuard = new ThreadGuard(Thread.currentThread(), ConfigManager.getSettings().guardMode(),
+                ConfigManager.getSettings().guardTickBudgetNanos());
+        threadGuard.registerMetrics(metrics);
+        threadGuard.start(this);
         econ = new Economy();
+        leaderboard = new Leaderboard();
+        econ.addListener(leaderboard); // Before the database, so balances restored from the journal are ranked
+        earnCooldown = new CooldownService(ConfigManager.getSettings().earnCooldownSeconds(), TimeUnit.SECONDS);
 
         // Dependent on only itself and high priority classes
+        setupSync(); // Before the database, so balances restored from the journal reach the other servers
         setupServer(); // Sets up database (Depends on ConfigManager)
+        registerServices(); // Depends on the database
+        setupPayouts(); // Depends on the database and the leaderboard
+        setupMetrics(); // Depends on the sync and the database
 
         // Commands
-        manager.registerCommand(new PlayerCommands(this, econ));
+        playerCommands = new PlayerCommands(this, econ);
+        manager.registerCommand(playerCommands);
+        manager.registerCommand(new AdminCommands(this, playerCommands));
 
         // Listeners
+        getServer().getPluginManager().registerEvents(new PlayerPreLoginListener(database),  this);
         getServer().getPluginManager().registerEvents(new PlayerJoinListener(database),  this);
-        getServer().getPluginManager().registerEvents(new PlayerQuitListener(database),  this);
-
-        tickCountdown();
+        getServer().getPluginManager().registerEvents(new PlayerQuitListener(database, balanceSync),  this);
     }
 
     @Override
     public void onDisable() {
         // Plugin shutdown logic
-        database.save(false);
+        getServer().getServicesManager().unregisterAll(this);
+        // Closed first, changes from other servers would be rejected once the economy is frozen
+        if(balanceSync != null) {
+            balanceSync.close();
+        }
+        if(payoutEngine != null) {
+            payoutEngine.close();
+        }
+        // Waiting for the final save on the server thread is intended while it stops
+        threadGuard.setMode(ThreadGuard.Mode.OFF);
+        database.shutdown();
+    }
+
+    /**
+     * Connects to the other servers if balance sync is enabled
+     */
+    private void setupSync() {
+        Settings settings = ConfigManager.getSettings();
+        if(!settings.syncEnabled()) {
+            return;
+        }
+
+        SyncTransport transport;
+        try {
+            transport = switch (settings.syncTransport().toLowerCase()) {
+                case "loopback" -> new LoopbackTransport(new LoopbackTransport.Hub());
+                case "socket" -> new SocketTransport(new InetSocketAddress(settings.syncBind(), settings.syncPort()),
+                        parsePeers(settings.syncPeers()), settings.syncSecret());
+                default -> throw new IllegalArgumentException("Unknown sync transport: " + settings.syncTransport());
+            };
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.error("Could not start balance sync, balances are not synced with other servers", e);
+            return;
+        }
+
+        balanceSync = new BalanceSync(econ, transport, settings.syncNodeId());
+        econ.addListener(balanceSync);
+
+        // Versions only matter while changes are in flight, so old ones are forgotten
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                balanceSync.prune(TimeUnit.HOURS.toMillis(1));
+            }
+        }.runTaskTimerAsynchronously(this, 20 * 60 * 5, 20 * 60 * 5);
+    }
+
+    /**
+     * Registers the metrics of the managers and starts writing them to a file if enabled
+     * The database and the commands register their own metrics
+     */
+    private void setupMetrics() {
+        metrics.gauge("accounts_loaded", "Accounts held in memory", () -> econ.getAccounts().size());
+        metrics.counter("accounts_evicted_total", "Accounts removed from memory", econ::getEvictionCount);
+        metrics.gauge("leaderboard_size", "Balances in the leaderboard", leaderboard::size);
+        if(balanceSync != null) {
+            metrics.counter("sync_messages_total", "Sync messages by outcome", balanceSync::getPublished, "result", "published");
+            metrics.counter("sync_messages_total", "Sync messages by outcome", balanceSync::getApplied, "result", "applied");
+            metrics.counter("sync_messages_total", "Sync messages by outcome", balanceSync::getStored, "result", "stored");
+            metrics.counter("sync_messages_total", "Sync messages by outcome", balanceSync::getStale, "result", "stale");
+            metrics.counter("sync_messages_total", "Sync messages by outcome", balanceSync::getSkipped, "result", "skipped");
+            metrics.counter("sync_messages_total", "Sync messages by outcome", balanceSync::getInvalidated, "result", "invalidated");
+            metrics.counter("sync_messages_total", "Sync messages by outcome", balanceSync::getDropped, "result", "dropped");
+        }
+
+        Settings settings = ConfigManager.getSettings();
+        if(!settings.metricsDumpEnabled()) {
+            return;
+        }
+        Path path = getDataFolder().toPath().resolve(settings.metricsDumpPath());
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                try {
+                    metrics.dump(path);
+                } catch (IOException e) {
+                    LOGGER.warn("Could not write metrics to " + path, e);
+                }
+            }
+        }.runTaskTimerAsynchronously(this, settings.metricsDumpIntervalTicks(), settings.metricsDumpIntervalTicks());
+        LOGGER.info("Writing metrics to " + path);
+    }
+
+    private static List<InetSocketAddress> parsePeers(List<String> peers) {
+        List<InetSocketAddress> addresses = new ArrayList<>(peers.size());
+        for (String peer : peers) {
+            int separator = peer.lastIndexOf(':');
+            if(separator < 0) {
+                throw new IllegalArgumentException("Sync peer must be \"host:port\": " + peer);
+            }
+            addresses.add(new InetSocketAddress(peer.substring(0, separator), Integer.parseInt(peer.substring(separator + 1))));
+        }
+        return addresses;
     }
 
     /**
@@ -67,41 +197,112 @@ public final class OrbitalTesting extends JavaPlugin {
      */
     private void setupServer() {
         /* Setup of Database management */
-        DATABASE_PATH = getDataFolder().getAbsolutePath() + File.separator + ConfigManager.getString("database.path") + ".db";
-
         database = new Database(this, econ);
         CompletableFuture<Void> cf = database.initialize();
         if(cf == null || cf.isCancelled()) {
             LOGGER.error("Database initialization was cancelled");
+            return;
+        }
+        if(balanceSync != null) {
+            // Every backend has its own storage, so changes to accounts that are not loaded here are written into it
+            balanceSync.setStorage(database::applyRemote);
+        }
+        cf.thenCompose(v -> database.loadLeaderboard(leaderboard))
+                .thenAccept(rows -> LOGGER.info("Loaded " + rows + " balances into the leaderboard"))
+                .exceptionally(e -> {
+                    LOGGER.error("Database could not be initialized, balances are not saved", e);
+                    return null;
+                });
+    }
+
+    /**
+     * Creates the payout engine, and schedules payouts if an interval is set
+     */
+    private void setupPayouts() {
+        Settings settings = ConfigManager.getSettings();
+        payoutEngine = new PayoutEngine(econ, database, leaderboard, settings.payoutThreads(), getDataFolder().toPath().resolve("payouts.last"));
+        if(settings.payoutIntervalMillis() > 0) {
+            payoutEngine.start(this, settings.payoutIntervalMillis());
+        }
+    }
+
+    /**
+     * Registers the economy for other plugins, through the {@link EconomyService} and through Vault if it is installed
+     */
+    private void registerServices() {
+        EconomyService economyService = new EconomyProvider(econ, database);
+        getServer().getServicesManager().register(EconomyService.class, economyService, this, ServicePriority.Normal);
+
+        if(getServer().getPluginManager().getPlugin("Vault") != null) {
+            VaultHook.register(this, econ, economyService, threadGuard);
+            LOGGER.info("Registered economy in Vault");
         }
     }
 
+    /**
+     * Loads config.yml again and applies every setting that can change while running
+     * Database settings are only applied after a restart
+     * @throws IOException If config.yml could not be read
+     * @throws InvalidConfigurationException If config.yml is not valid, the current settings are kept
+     */
+    public void reloadSettings() throws IOException, InvalidConfigurationException {
+        Settings settings = ConfigManager.reload();
+        earnCooldown.setDuration(settings.earnCooldownSeconds(), TimeUnit.SECONDS);
+        threadGuard.setMode(settings.guardMode());
+        threadGuard.setTickBudgetNanos(settings.guardTickBudgetNanos());
+        playerCommands.reloadMessages(ConfigManager.getConfigurationSection("commands"));
+    }
+
     public static OrbitalTesting getInstance() {
         return instance;
     }
 
     /**
-     * Ticks the countdown for "/earn" command
-     * Runnable ticks every second
+     * @return Database manager of the server
      */
-    private void tickCountdown() {
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                for (UUID uuid : activeCountdowns.keySet()) {
-                    int time = activeCountdowns.get(uuid);
-                    if(time <= 0) {
-                        activeCountdowns.remove(uuid);
-                        continue;
-                    }
-
-                    activeCountdowns.put(uuid, time - 1);
-                }
-            }
-        }.runTaskTimer(this, 1, 20); // Runs every second
+    public Database getDatabase() {
+        return database;
+    }
+
+    /**
+     * @return Engine running interest, wealth tax and wages
+     */
+    public PayoutEngine getPayoutEngine() {
+        return payoutEngine;
+    }
+
+    /**
+     * @return Leaderboard of every known balance
+     */
+    public Leaderboard getLeaderboard() {
+        return leaderboard;
     }
 
-    public HashMap<UUID, Integer> getActiveCooldowns() {
-        return activeCountdowns;
+    /**
+     * @return Balance sync with the other servers, null if it is disabled
+     */
+    public BalanceSync getBalanceSync() {
+        return balanceSync;
+    }
+
+    /**
+     * @return Registry of every metric of the plugin
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Guard checking which thread economy code runs on
+     */
+    public ThreadGuard getThreadGuard() {
+        return threadGuard;
+    }
+
+    /**
+     * @return Cooldown of the "/earn" command
+     */
+    public CooldownService getEarnCooldown() {
+        return earnCooldown;
     }
 }
@@ -0,0 +1,76 @@
+package net.foster.testing.orbital.api;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Economy API for other plugins, registered in the Bukkit ServicesManager
+ * Amounts are in minor units (cents), so no rounding happens between plugins
+ * Accounts of offline players are loaded from the database when needed, which is why every method returns a future
+ * Futures of loaded accounts complete right away, others complete on a database thread
+ */
+public interface EconomyService {
+    /**
+     * @param uuid UUID of player
+     * @return The balance in minor units
+     */
+    CompletableFuture<Long> getBalance(UUID uuid);
+
+    /**
+     * Gets many balances, loading every missing account in a single database transaction
+     * @param uuids UUIDs of players
+     * @return The balance in minor units for each player
+     */
+    CompletableFuture<Map<UUID, Long>> getBalances(Collection<UUID> uuids);
+
+    /**
+     * @param uuid UUID of player
+     * @param amount Amount in minor units, must not be negative
+     * @return The new balance in minor units
+     */
+    CompletableFuture<Long> deposit(UUID uuid, long amount);
+
+    /**
+     * Withdraws from a player, unless the balance is too low
+     * @param uuid UUID of player
+     * @param amount Amount in minor units, must not be negative
+     * @return Whether the amount was withdrawn
+     */
+    CompletableFuture<Boolean> withdraw(UUID uuid, long amount);
+
+    /**
+     * Deposits to many players, loading every missing account in a single database transaction
+     * Either every amount is deposited or none of them, so a failed future can be retried without paying anyone twice
+     * @param amounts Amount in minor units for each player, must not be negative
+     * @return A future completed when every amount is deposited
+     */
+    CompletableFuture<Void> depositAll(Map<UUID, Long> amounts);
+
+    /**
+     * Loads accounts into memory, creating them with the start money if they do not exist
+     * @param uuids UUIDs of players
+     * @return A future completed when every account is loaded
+     */
+    CompletableFuture<Void> load(Collection<UUID> uuids);
+
+    /**
+     * Loads an account into memory if it exists, without creating it
+     * @param uuid UUID of player
+     * @return Whether the account exists
+     */
+    CompletableFuture<Boolean> find(UUID uuid);
+
+    /**
+     * @param uuid UUID of player
+     * @return Whether the account is in memory, so calls for it complete right away
+     */
+    boolean isLoaded(UUID uuid);
+
+    /**
+     * @param amount Amount in minor units
+     * @return The amount formatted for players, like "$1,234.56"
+     */
+    String format(long amount);
+}
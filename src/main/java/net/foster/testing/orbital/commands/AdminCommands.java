@@ -0,0 +1,97 @@
+package net.foster.testing.orbital.commands;
+
+import co.aikar.commands.BaseCommand;
+import co.aikar.commands.annotation.*;
+import net.foster.testing.orbital.OrbitalTesting;
+import net.foster.testing.orbital.payouts.PayoutEngine;
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+@CommandAlias("eco")
+@CommandPermission("orbital.operator")
+public class AdminCommands extends BaseCommand {
+    /* Instances */
+    private final OrbitalTesting orbitalTesting;
+    private final PlayerCommands playerCommands;
+
+    /* Utilities */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdminCommands.class);
+    public AdminCommands(OrbitalTesting orbitalTesting, PlayerCommands playerCommands) {
+        this.orbitalTesting = orbitalTesting;
+        this.playerCommands = playerCommands;
+    }
+
+    @Subcommand("reload")
+    @Syntax("&e - Reload config.yml, database settings apply after a restart")
+    public void onReload(CommandSender sender) {
+        try {
+            orbitalTesting.reloadSettings();
+        } catch (IOException | InvalidConfigurationException e) {
+            LOGGER.error("config.yml could not be reloaded", e);
+            sender.sendMessage(playerCommands.getMessages().render(Message.ECO_RELOAD_FAILED, String.valueOf(e.getMessage())));
+            return;
+        }
+        sender.sendMessage(playerCommands.getMessages().render(Message.ECO_RELOADED));
+    }
+
+    @Subcommand("export")
+    @Syntax("&e - Save every balance and write them into a snapshot file in the exports folder")
+    public void onExport(CommandSender sender) {
+        orbitalTesting.getDatabase().export().whenComplete((export, e) -> Bukkit.getScheduler().runTask(orbitalTesting, () -> {
+            Messages messages = playerCommands.getMessages();
+            if(e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                sender.sendMessage(messages.render(Message.ECO_EXPORT_FAILED, String.valueOf(cause.getMessage())));
+                return;
+            }
+            sender.sendMessage(messages.render(Message.ECO_EXPORTED,
+                    String.valueOf(export.getValue().records()), export.getKey().getFileName().toString()));
+        }));
+    }
+
+    @Subcommand("payout")
+    @Syntax("&e - Pay wages and apply interest and wealth tax to every account now")
+    public void onPayout(CommandSender sender) {
+        Messages messages = playerCommands.getMessages();
+        PayoutEngine payouts = orbitalTesting.getPayoutEngine();
+        CompletableFuture<List<PayoutEngine.Result>> payout = payouts.run();
+        if(payout == null) {
+            sender.sendMessage(messages.render(Message.ECO_PAYOUT_RUNNING, payouts.getPhase(), String.valueOf(payouts.getProgress())));
+            return;
+        }
+        sender.sendMessage(messages.render(Message.ECO_PAYOUT_STARTED));
+        payout.whenComplete((results, e) -> Bukkit.getScheduler().runTask(orbitalTesting, () -> {
+            if(e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                sender.sendMessage(messages.render(Message.ECO_PAYOUT_FAILED, String.valueOf(cause.getMessage())));
+                return;
+            }
+            for (PayoutEngine.Result result : results) {
+                sender.sendMessage(messages.render(Message.ECO_PAYOUT_RESULT, result.rule(), String.valueOf(result.accounts()),
+                        String.valueOf(result.nanos() / 1_000_000), String.valueOf(result.accountsPerSecond())));
+            }
+        }));
+    }
+
+    @Subcommand("stats")
+    @Syntax("[filter] &e - Show the metrics whose name contains the filter, latencies as percentiles")
+    public void onStats(CommandSender sender, @Optional String filter) {
+        Messages messages = playerCommands.getMessages();
+        Map<String, String> described = orbitalTesting.getMetrics().describe(filter);
+        if(described.isEmpty()) {
+            sender.sendMessage(messages.render(Message.ECO_STATS_EMPTY, String.valueOf(filter)));
+            return;
+        }
+        sender.sendMessage(messages.render(Message.ECO_STATS_HEADER));
+        described.forEach((name, value) -> sender.sendMessage(messages.render(Message.ECO_STATS_ENTRY, name, value)));
+    }
+}
@@ -0,0 +1,66 @@
+package net.foster.testing.orbital.commands;
+
+/**
+ * Every message in the "commands" section of config.yml, with the placeholders it accepts
+ */
+public enum Message {
+    ACCOUNT_NOT_LOADED("account-not-loaded", "player"),
+
+    BALANCE_SELF("balance.no-target", "balance"),
+    BALANCE_TARGET("balance.target", "target_player", "balance"),
+
+    GIVE_TARGET_NOT_SPECIFIED("give.target-not-specified"),
+    GIVE_INCORRECT_AMOUNT("give.incorrect-amount-input"),
+    GIVE_SELF_USAGE("give.self-usage"),
+    GIVE_CANNOT_AFFORD("give.cannot-afford"),
+    GIVE_GIVEN("give.given", "target_player", "amount"),
+    GIVE_RECEIVED("give.received", "sender_player", "amount"),
+
+    SET_BALANCE_TARGET_NOT_SPECIFIED("set-balance.target-not-specified"),
+    SET_BALANCE_POSITIVE_AMOUNT("set-balance.positive-amount"),
+    SET_BALANCE_INCORRECT_AMOUNT("set-balance.incorrect-amount-input"),
+    SET_BALANCE_COMPLETED("set-balance.completed", "target_player", "new_amount"),
+    SET_BALANCE_FAILED("set-balance.failed", "target_player"),
+
+    EARN_COOLDOWN("earn.cooldown", "time"),
+    EARN_MONEY_GIVEN("earn.money-given", "money"),
+
+    BALTOP_HEADER("baltop.header", "page", "pages"),
+    BALTOP_ENTRY("baltop.entry", "rank", "player", "balance"),
+    BALTOP_OWN_RANK("baltop.own-rank", "rank"),
+    BALTOP_EMPTY_PAGE("baltop.empty-page", "page"),
+
+    ECO_RELOADED("eco.reloaded"),
+    ECO_RELOAD_FAILED("eco.reload-failed", "error"),
+    ECO_EXPORTED("eco.exported", "count", "file"),
+    ECO_EXPORT_FAILED("eco.export-failed", "error"),
+    ECO_STATS_HEADER("eco.stats-header"),
+    ECO_STATS_ENTRY("eco.stats-entry", "name", "value"),
+    ECO_STATS_EMPTY("eco.stats-empty", "filter"),
+    ECO_PAYOUT_STARTED("eco.payout-started"),
+    ECO_PAYOUT_RUNNING("eco.payout-running", "phase", "accounts"),
+    ECO_PAYOUT_RESULT("eco.payout-result", "rule", "accounts", "time", "rate"),
+    ECO_PAYOUT_FAILED("eco.payout-failed", "error");
+
+    private final String path;
+    private final String[] placeholders;
+
+    Message(String path, String... placeholders) {
+        this.path = path;
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * @return Path of the message inside the "commands" section
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return Names of the placeholders, in the order values are passed when rendering
+     */
+    public String[] getPlaceholders() {
+        return placeholders;
+    }
+}
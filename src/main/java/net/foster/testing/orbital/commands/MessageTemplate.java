@@ -0,0 +1,89 @@
+package net.foster.testing.orbital.commands;
+
+import org.bukkit.ChatColor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message from config.yml parsed once into literal parts and placeholders
+ * Color codes are translated when parsing, so rendering only appends strings into a reused builder
+ */
+public final class MessageTemplate {
+    private static final ThreadLocal<StringBuilder> BUILDER = ThreadLocal.withInitial(() -> new StringBuilder(128));
+
+    /* literals[i] comes before the value of slots[i], the last literal comes after every placeholder */
+    private final String[] literals;
+    private final int[] slots;
+    private final String constant;
+
+    private MessageTemplate(String[] literals, int[] slots) {
+        this.literals = literals;
+        this.slots = slots;
+        this.constant = slots.length == 0 ? literals[0] : null;
+    }
+
+    /**
+     * Parses a message, placeholders are written as %name%
+     * Text between two % that is not one of the placeholders is kept as is
+     * @param raw Message with '&' color codes
+     * @param placeholders Names of the placeholders, in the order values are passed to {@link #render(String...)}
+     * @return The parsed template
+     */
+    public static MessageTemplate compile(String raw, String... placeholders) {
+        String text = ChatColor.translateAlternateColorCodes('&', raw);
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+
+        int literalStart = 0;
+        int index = text.indexOf('%');
+        while (index >= 0) {
+            int end = text.indexOf('%', index + 1);
+            if(end < 0) {
+                break;
+            }
+
+            int slot = indexOf(placeholders, text, index + 1, end);
+            if(slot < 0) {
+                // Not a placeholder, the closing % may start one
+                index = end;
+                continue;
+            }
+            literals.add(text.substring(literalStart, index));
+            slots.add(slot);
+            literalStart = end + 1;
+            index = text.indexOf('%', literalStart);
+        }
+        literals.add(text.substring(literalStart));
+
+        return new MessageTemplate(literals.toArray(new String[0]), slots.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private static int indexOf(String[] placeholders, String text, int start, int end) {
+        for (int i = 0; i < placeholders.length; i++) {
+            if(placeholders[i].length() == end - start && text.startsWith(placeholders[i], start)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Renders the message in a single pass
+     * @param values Values of the placeholders, in the order given to {@link #compile(String, String...)}
+     * @return The message ready to send
+     */
+    public String render(String... values) {
+        if(constant != null) {
+            return constant;
+        }
+
+        StringBuilder builder = BUILDER.get();
+        builder.setLength(0);
+        for (int i = 0; i < slots.length; i++) {
+            builder.append(literals[i]).append(values[slots[i]]);
+        }
+        builder.append(literals[slots.length]);
+        return builder.toString();
+    }
+}
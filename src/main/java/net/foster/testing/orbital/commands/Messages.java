@@ -0,0 +1,45 @@
+package net.foster.testing.orbital.commands;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Every {@link Message} parsed from one version of config.yml
+ * Immutable, a reload builds a new instance instead of changing this one
+ */
+public final class Messages {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Messages.class);
+
+    private final MessageTemplate[] templates = new MessageTemplate[Message.values().length];
+
+    private Messages(ConfigurationSection commandsSection) {
+        for (Message message : Message.values()) {
+            String raw = commandsSection.getString(message.getPath());
+            if(raw == null) {
+                LOGGER.error("commands." + message.getPath() + " not found in config.yml");
+                raw = message.getPath();
+            }
+            templates[message.ordinal()] = MessageTemplate.compile(raw, message.getPlaceholders());
+        }
+    }
+
+    /**
+     * Parses every message in the section
+     * Missing messages are logged and replaced by their path
+     * @param commandsSection The "commands" section of config.yml
+     * @return The parsed messages
+     */
+    public static Messages load(ConfigurationSection commandsSection) {
+        return new Messages(commandsSection);
+    }
+
+    /**
+     * @param message Message to render
+     * @param values Values of the placeholders, in the order given by {@link Message#getPlaceholders()}
+     * @return The message ready to send
+     */
+    public String render(Message message, String... values) {
+        return templates[message.ordinal()].render(values);
+    }
+}
@@ -5,9 +5,17 @@ import co.aikar.commands.annotation.*;
 import co.aikar.commands.bukkit.contexts.OnlinePlayer;
 import net.foster.testing.orbital.OrbitalTesting;
 import net.foster.testing.orbital.data.ConfigManager;
+import net.foster.testing.orbital.data.Database;
+import net.foster.testing.orbital.managers.AccountNotLoadedException;
+import net.foster.testing.orbital.managers.CooldownService;
 import net.foster.testing.orbital.managers.Economy;
+import net.foster.testing.orbital.managers.Leaderboard;
+import net.foster.testing.orbital.managers.Transaction;
+import net.foster.testing.orbital.metrics.LatencyHistogram;
+import net.foster.testing.orbital.metrics.MetricsRegistry;
+import net.foster.testing.orbital.utils.Money;
+import net.foster.testing.orbital.utils.ThreadGuard;
 import org.bukkit.Bukkit;
-import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Player;
@@ -15,102 +23,154 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Syntax;
-import java.text.NumberFormat;
-import java.util.HashMap;
-import java.util.Locale;
-import java.util.Objects;
+import java.util.List;
 import java.util.UUID;
 
 public class PlayerCommands extends BaseCommand {
     /* Instances */
-    private final OrbitalTesting orbitalTesting;
     private final Economy econ;
+    private final Database database;
+    private final Leaderboard leaderboard;
+    private final CooldownService earnCooldown;
+    private final ThreadGuard threadGuard;
 
     /* Variables */
-    private final ConfigurationSection commandsSection;
+    private volatile Messages messages;
+
+    /* Statistics */
+    private final LatencyHistogram balanceLatency;
+    private final LatencyHistogram giveLatency;
+    private final LatencyHistogram setBalanceLatency;
+    private final LatencyHistogram earnLatency;
+    private final LatencyHistogram baltopLatency;
 
     /* Utilities */
-    private final NumberFormat numberFormatUS = NumberFormat.getCurrencyInstance(Locale.US);
     private static final Logger LOGGER = LoggerFactory.getLogger(PlayerCommands.class);
     public PlayerCommands(OrbitalTesting orbitalTesting, Economy econ) {
-        this.orbitalTesting = orbitalTesting;
+        this(econ, orbitalTesting.getDatabase(), orbitalTesting.getLeaderboard(), orbitalTesting.getEarnCooldown(),
+                orbitalTesting.getMetrics(), orbitalTesting.getThreadGuard(), ConfigManager.getConfigurationSection("commands"));
+    }
+
+    /**
+     * Creates the commands without the plugin, like for benchmarks and the load simulation
+     * @param econ Economy manager the commands change
+     * @param database Database transactions are written to
+     * @param leaderboard Leaderboard shown by "/baltop"
+     * @param earnCooldown Cooldown of "/earn"
+     * @param metrics Registry the command latencies are registered in
+     * @param threadGuard Guard the time of each command is counted against
+     * @param commandsSection The "commands" section of config.yml
+     */
+    public PlayerCommands(Economy econ, Database database, Leaderboard leaderboard, CooldownService earnCooldown,
+                          MetricsRegistry metrics, ThreadGuard threadGuard, ConfigurationSection commandsSection) {
         this.econ = econ;
+        this.database = database;
+        this.leaderboard = leaderboard;
+        this.earnCooldown = earnCooldown;
+        this.threadGuard = threadGuard;
+
+        balanceLatency = metrics.histogram("command_seconds", "Time to run a command", "command", "balance");
+        giveLatency = metrics.histogram("command_seconds", "Time to run a command", "command", "give");
+        setBalanceLatency = metrics.histogram("command_seconds", "Time to run a command", "command", "setbalance");
+        earnLatency = metrics.histogram("command_seconds", "Time to run a command", "command", "earn");
+        baltopLatency = metrics.histogram("command_seconds", "Time to run a command", "command", "baltop");
+
+        reloadMessages(commandsSection);
+    }
+
+    /**
+     * @return Messages of the currently loaded config.yml
+     */
+    public Messages getMessages() {
+        return messages;
+    }
 
-        commandsSection = ConfigManager.getConfigurationSection("commands");
+    /**
+     * Parses the messages again, commands running at the same time keep using the old ones
+     * @param commandsSection The "commands" section of config.yml
+     */
+    public void reloadMessages(ConfigurationSection commandsSection) {
         if(commandsSection == null) {
             LOGGER.error("\"commands\" section not found in config.yml");
             throw new NullPointerException();
         }
+        messages = Messages.load(commandsSection);
     }
 
     @CommandAlias("balance|bal")
     @Syntax("[player] &e - Check balance of player (default is sender)")
     public void onBal(CommandSender sender, @Optional OnlinePlayer targetOnlinePlayer) {
-        if(targetOnlinePlayer == null) {
-            if(sender instanceof Player) {
-                String balance = numberFormatUS.format(econ.getBalance((Player) sender));
-
-                sender.sendMessage(
-                        ChatColor.translateAlternateColorCodes('&',
-                                Objects.requireNonNull(commandsSection.getString("balance.no-target"))
-                                        .replace("%balance%", balance)));
+        long start = System.nanoTime();
+        try {
+            if(targetOnlinePlayer == null) {
+                if(sender instanceof Player) {
+                    String balance = Money.format(econ.getBalanceMinor(((Player) sender).getUniqueId()));
+                    sender.sendMessage(messages.render(Message.BALANCE_SELF, balance));
+                }
+                return;
             }
-            return;
-        }
 
-        Player target = targetOnlinePlayer.getPlayer();
-        String balance = numberFormatUS.format(econ.getBalance(target));
-        sender.sendMessage(
-                ChatColor.translateAlternateColorCodes('&',
-                        Objects.requireNonNull(commandsSection.getString("balance.target"))
-                                .replace("%target_player%", target.getName())
-                                .replace("%balance%", balance)));
+            Player target = targetOnlinePlayer.getPlayer();
+            String balance = Money.format(econ.getBalanceMinor(target.getUniqueId()));
+            sender.sendMessage(messages.render(Message.BALANCE_TARGET, target.getName(), balance));
+        } finally {
+            recordTime(balanceLatency, "balance", start);
+        }
     }
 
     @CommandAlias("give")
     @Subcommand("target amount")
     @Syntax("<target> <amount> &e - Give target player money")
     public void onGive(Player sender, OnlinePlayer targetOnlinePlayer, String[] args) {
-        if(targetOnlinePlayer == null) {
-            sender.sendMessage(ChatColor.translateAlternateColorCodes('&',
-                    Objects.requireNonNull(commandsSection.getString("give.target-not-specified"))));
-            return;
-        }
-        Player target = targetOnlinePlayer.getPlayer();
-
-        double amount;
+        long start = System.nanoTime();
         try {
-            amount = Double.parseDouble(args[0]);
-        } catch(NumberFormatException ignored) {
-            sender.sendMessage(ChatColor.translateAlternateColorCodes('&',
-                    Objects.requireNonNull(commandsSection.getString("give.incorrect-amount-input"))));
-            return;
-        }
+            Messages messages = this.messages;
+            if(targetOnlinePlayer == null) {
+                sender.sendMessage(messages.render(Message.GIVE_TARGET_NOT_SPECIFIED));
+                return;
+            }
+            Player target = targetOnlinePlayer.getPlayer();
 
-        if(sender.equals(target)) {
-            sender.sendMessage(
-                    ChatColor.translateAlternateColorCodes('&',
-                            Objects.requireNonNull(commandsSection.getString("give.self-usage"))));
-            return;
-        }
+            long amount;
+            try {
+                amount = Money.toMinor(Double.parseDouble(args[0]));
+            } catch(NumberFormatException ignored) {
+                sender.sendMessage(messages.render(Message.GIVE_INCORRECT_AMOUNT));
+                return;
+            }
+            // Giving a negative amount would take money from the target
+            if(amount <= 0) {
+                sender.sendMessage(messages.render(Message.GIVE_INCORRECT_AMOUNT));
+                return;
+            }
+
+            if(sender.equals(target)) {
+                sender.sendMessage(messages.render(Message.GIVE_SELF_USAGE));
+                return;
+            }
+
+            // The balance check and both changes happen at once, so concurrent gives cannot overdraw the sender
+            Transaction transaction = new Transaction().transfer(sender.getUniqueId(), target.getUniqueId(), amount);
+            try {
+                if(!econ.execute(transaction)) {
+                    sender.sendMessage(messages.render(Message.GIVE_CANNOT_AFFORD));
+                    return;
+                }
+            } catch (AccountNotLoadedException e) {
+                sender.sendMessage(messages.render(Message.ACCOUNT_NOT_LOADED, playerName(e.getUuid())));
+                return;
+            } catch (ArithmeticException e) {
+                // The balance of the target would overflow
+                sender.sendMessage(messages.render(Message.GIVE_INCORRECT_AMOUNT));
+                return;
+            }
+            database.persist(transaction);
 
-        if(econ.getBalance(sender) < amount) {
-            sender.sendMessage(ChatColor.translateAlternateColorCodes('&',
-                    Objects.requireNonNull(commandsSection.getString("give.cannot-afford"))));
-        } else {
-            String amountFormatted = numberFormatUS.format(amount);
-
-            econ.withdrawPlayer(sender, amount);
-            sender.sendMessage(ChatColor.translateAlternateColorCodes('&',
-                    Objects.requireNonNull(commandsSection.getString("give.given"))
-                            .replace("%target_player%", target.getName())
-                            .replace("%amount%", amountFormatted)));
-
-            econ.depositPlayer(target, amount);
-            target.sendMessage(ChatColor.translateAlternateColorCodes('&',
-                    Objects.requireNonNull(commandsSection.getString("give.received"))
-                            .replace("%amount%", amountFormatted)
-                            .replace("%sender_player%", sender.getName())));
+            String amountFormatted = Money.format(amount);
+            sender.sendMessage(messages.render(Message.GIVE_GIVEN, target.getName(), amountFormatted));
+            target.sendMessage(messages.render(Message.GIVE_RECEIVED, sender.getName(), amountFormatted));
+        } finally {
+            recordTime(giveLatency, "give", start);
         }
     }
 
@@ -119,55 +179,119 @@ public class PlayerCommands extends BaseCommand {
     @Syntax("<target> <amount> &e - Give target player money")
     @CommandPermission("orbital.operator")
     public void onSetBal(CommandSender sender, OnlinePlayer targetOnlinePlayer, String[] args) {
-        if(targetOnlinePlayer == null) {
-            sender.sendMessage(ChatColor.translateAlternateColorCodes('&',
-                    Objects.requireNonNull(commandsSection.getString("set-balance.target-not-specified"))));
-            return;
-        }
-        Player target = targetOnlinePlayer.getPlayer();
-
-        double amount;
+        long start = System.nanoTime();
         try {
-            amount = Double.parseDouble(args[0]);
-            // Amount must be positive
-            if(amount < 0) {
-                sender.sendMessage(ChatColor.translateAlternateColorCodes('&',
-                        Objects.requireNonNull(commandsSection.getString("set-balance.positive-amount"))));
+            Messages messages = this.messages;
+            if(targetOnlinePlayer == null) {
+                sender.sendMessage(messages.render(Message.SET_BALANCE_TARGET_NOT_SPECIFIED));
+                return;
+            }
+            Player target = targetOnlinePlayer.getPlayer();
+
+            long amount;
+            try {
+                double parsed = Double.parseDouble(args[0]);
+                // "Infinity" and "NaN" parse too, and amounts beyond the range of minor units would be clamped
+                if(!Double.isFinite(parsed) || Math.abs(parsed) >= Money.toMajor(Long.MAX_VALUE)) {
+                    sender.sendMessage(messages.render(Message.SET_BALANCE_INCORRECT_AMOUNT));
+                    return;
+                }
+                // Amount must be positive
+                if(parsed < 0) {
+                    sender.sendMessage(messages.render(Message.SET_BALANCE_POSITIVE_AMOUNT));
+                    return;
+                }
+                amount = Money.toMinor(parsed);
+            } catch(NumberFormatException ignored) {
+                sender.sendMessage(messages.render(Message.SET_BALANCE_INCORRECT_AMOUNT));
                 return;
             }
-        } catch(NumberFormatException ignored) {
-            sender.sendMessage(ChatColor.translateAlternateColorCodes('&',
-                    Objects.requireNonNull(commandsSection.getString("set-balance.incorrect-amount-input"))));
-            return;
-        }
 
-        double balanceChange = amount - econ.getBalance(target);
-        econ.depositPlayer(target, balanceChange);
-        target.sendMessage(ChatColor.translateAlternateColorCodes('&',
-                Objects.requireNonNull(commandsSection.getString("set-balance.completed"))
-                        .replace("%target_player%", target.getName())
-                        .replace("%new_amount%", String.valueOf(numberFormatUS.format(amount)))));
+            Transaction transaction = new Transaction().set(target.getUniqueId(), amount);
+            if(!econ.execute(transaction)) {
+                sender.sendMessage(messages.render(Message.SET_BALANCE_FAILED, target.getName()));
+                return;
+            }
+            database.persist(transaction);
+            target.sendMessage(messages.render(Message.SET_BALANCE_COMPLETED, target.getName(), Money.format(amount)));
+        } finally {
+            recordTime(setBalanceLatency, "setbalance", start);
+        }
     }
 
     @CommandAlias("earn")
     public void onEarn(Player sender) {
-        HashMap<UUID, Integer> activeCountdowns = orbitalTesting.getActiveCooldowns();
-        if (activeCountdowns.containsKey(sender.getUniqueId())) {
-            sender.sendMessage(
-                    ChatColor.translateAlternateColorCodes('&',
-                            Objects.requireNonNull(commandsSection.getString("earn.cooldown"))
-                                    .replace("%time%", activeCountdowns.get(sender.getUniqueId()).toString())));
-            return;
+        long start = System.nanoTime();
+        try {
+            if (!earnCooldown.tryStart(sender.getUniqueId())) {
+                sender.sendMessage(messages.render(Message.EARN_COOLDOWN,
+                        String.valueOf(earnCooldown.getRemainingSeconds(sender.getUniqueId()))));
+                return;
+            }
+
+            final double random = (Math.random() * (5 - 1)) + 1; // Between 1 and 5
+            try {
+                econ.depositPlayer(sender, random);
+            } catch (AccountNotLoadedException e) {
+                // Nothing was earned, so the player may try again once the account is loaded
+                earnCooldown.reset(sender.getUniqueId());
+                sender.sendMessage(messages.render(Message.ACCOUNT_NOT_LOADED, sender.getName()));
+                return;
+            }
+
+            sender.sendMessage(messages.render(Message.EARN_MONEY_GIVEN, Money.format(Money.toMinor(random))));
+        } finally {
+            recordTime(earnLatency, "earn", start);
         }
+    }
+
+    @CommandAlias("baltop")
+    @Syntax("[page] &e - Show the players with the highest balance")
+    public void onBalTop(CommandSender sender, @Optional @Default("1") Integer page) {
+        long start = System.nanoTime();
+        try {
+            Messages messages = this.messages;
+            int pageSize = ConfigManager.getSettings().baltopPageSize();
+            int pages = (int) Math.max(1, (leaderboard.size() + (long) pageSize - 1) / pageSize);
+            if(page < 1 || page > pages) {
+                sender.sendMessage(messages.render(Message.BALTOP_EMPTY_PAGE, String.valueOf(page)));
+                return;
+            }
 
-        final double random = (Math.random() * (5 - 1)) + 1; // Between 1 and 5
-        econ.depositPlayer(sender, random);
+            List<Leaderboard.Entry> entries = leaderboard.getPage(page, pageSize);
+            if(entries.isEmpty()) {
+                sender.sendMessage(messages.render(Message.BALTOP_EMPTY_PAGE, String.valueOf(page)));
+                return;
+            }
 
-        sender.sendMessage(
-                ChatColor.translateAlternateColorCodes('&',
-                        Objects.requireNonNull(commandsSection.getString("earn.money-given"))
-                                .replace("%money%", String.valueOf(numberFormatUS.format(random)))));
+            sender.sendMessage(messages.render(Message.BALTOP_HEADER, String.valueOf(page), String.valueOf(pages)));
+            for (Leaderboard.Entry entry : entries) {
+                sender.sendMessage(messages.render(Message.BALTOP_ENTRY,
+                        String.valueOf(entry.rank()), playerName(entry.uuid()), Money.format(entry.balance())));
+            }
+
+            if(sender instanceof Player) {
+                int rank = leaderboard.getRank(((Player) sender).getUniqueId());
+                if(rank > 0) {
+                    sender.sendMessage(messages.render(Message.BALTOP_OWN_RANK, String.valueOf(rank)));
+                }
+            }
+        } finally {
+            recordTime(baltopLatency, "baltop", start);
+        }
+    }
+
+    /**
+     * Records the time of a command, and counts it against the tick budget when run on the server thread
+     */
+    private void recordTime(LatencyHistogram histogram, String section, long start) {
+        long elapsed = System.nanoTime() - start;
+        histogram.record(elapsed);
+        threadGuard.record(section, elapsed);
+    }
 
-        activeCountdowns.put(sender.getUniqueId(), 60);
+    private static String playerName(UUID uuid) {
+        String name = Bukkit.getOfflinePlayer(uuid).getName();
+        return name != null ? name : uuid.toString();
     }
 }
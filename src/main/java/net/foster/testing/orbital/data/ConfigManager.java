@@ -2,16 +2,28 @@ package net.foster.testing.orbital.data;
 
 import net.foster.testing.orbital.OrbitalTesting;
 import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitRunnable;
-
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 
 public class ConfigManager {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigManager.class);
     private static JavaPlugin main;
     public FileConfiguration config;
     private static ConfigManager instance;
+    private static volatile Settings settings;
 
     private ConfigManager() {
         main = OrbitalTesting.getInstance();
@@ -22,17 +34,13 @@ public class ConfigManager {
 
     /**
      * Method used on server startup
-     * starts an autosaving task of the config.yml file
+     * adds missing defaults to config.yml and reads the settings
      */
     private void instantiate() {
         setupConfig();
-
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                saveConfig();
-            }
-        }.runTaskTimerAsynchronously(main, getInt("config-save-interval") * 20L * 60L, getInt("config-save-interval") * 20L * 60L);
+        migrateConfig();
+        saveConfig();
+        settings = Settings.from(config);
     }
 
     /**
@@ -44,11 +52,47 @@ public class ConfigManager {
     }
 
     /**
-     * Saves all config files for plugin
+     * Replaces keys of older config.yml files, the file is written by the next {@link #saveConfig()}
+     * Done here and not when the settings are read, so the warning is logged once and not on every reload
      */
-    public void saveConfig() {
-        config.options().copyDefaults();
-        main.saveConfig();
+    private void migrateConfig() {
+        if(config.isSet("database.save-interval")) {
+            long seconds = config.getLong("database.save-interval") * 60;
+            config.set("database.flush-interval", seconds);
+            config.set("database.save-interval", null);
+            LOGGER.warn("database.save-interval is deprecated, replaced it with database.flush-interval: " + seconds + " (seconds) in config.yml");
+        }
+    }
+
+    /**
+     * Saves config.yml if the loaded configuration differs from the file, like when defaults were added
+     * The file is written next to config.yml and moved over it, so a crash never leaves it half written
+     * @return Whether the file was written
+     */
+    public synchronized boolean saveConfig() {
+        Path file = main.getDataFolder().toPath().resolve("config.yml");
+        String content = config.saveToString();
+        try {
+            if(Files.exists(file) && content.equals(Files.readString(file, StandardCharsets.UTF_8))) {
+                return false;
+            }
+
+            Path temp = Files.createTempFile(file.getParent(), "config", ".yml.tmp");
+            try {
+                Files.writeString(temp, content, StandardCharsets.UTF_8);
+                try {
+                    Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("Could not save config.yml", e);
+            return false;
+        }
     }
 
     /**
@@ -62,6 +106,41 @@ public class ConfigManager {
         return instance;
     }
 
+    /**
+     * Loads config.yml from disk again and publishes new settings
+     * The file is parsed before anything is replaced, so an invalid file keeps the current settings
+     * @return The new settings
+     * @throws IOException If config.yml could not be read
+     * @throws InvalidConfigurationException If config.yml is not valid YAML
+     */
+    public static synchronized Settings reload() throws IOException, InvalidConfigurationException {
+        new YamlConfiguration().load(new File(main.getDataFolder(), "config.yml"));
+
+        main.reloadConfig();
+        instance.config = main.getConfig();
+        instance.setupConfig();
+        instance.migrateConfig();
+        instance.saveConfig();
+        settings = Settings.from(instance.config);
+        return settings;
+    }
+
+    /**
+     * Publishes settings without the plugin, for running without a server like the load simulation
+     * The methods reading config.yml by path cannot be used then
+     * @param settings Settings to publish
+     */
+    public static void useSettings(Settings settings) {
+        ConfigManager.settings = settings;
+    }
+
+    /**
+     * @return Settings of the currently loaded config.yml, safe to read from any thread
+     */
+    public static Settings getSettings() {
+        return settings;
+    }
+
     public static String getString(String path) {
         return main.getConfig().getString(path);
     }
@@ -87,14 +166,4 @@ public class ConfigManager {
     public static ConfigurationSection getConfigurationSection(String path) {
         return main.getConfig().getConfigurationSection(path);
     }
-
-    /* Plugin specific methods */
-
-    /**
-     * Gets the database save interval in minutes
-     * @return Minute amount for interval
-     */
-    public static long getDataSaveInterval() {
-        return main.getConfig().getLong("database.save-interval") * 20 /* Seconds */ * 60 /* Minutes */;
-    }
 }
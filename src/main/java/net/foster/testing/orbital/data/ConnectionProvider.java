@@ -0,0 +1,44 @@
+package net.foster.testing.orbital.data;
+
+import java.sql.SQLException;
+
+/**
+ * Hands out long-lived database connections to {@link Database}
+ * Connections must be returned by closing the {@link PooledConnection}
+ */
+public interface ConnectionProvider extends AutoCloseable {
+    /**
+     * Checks out a connection used for reading, blocks until one is free
+     * @return A {@link PooledConnection} that is returned to the pool when closed
+     * @throws SQLException If the connection could not be checked out
+     */
+    PooledConnection reader() throws SQLException;
+
+    /**
+     * Checks out the connection used for writing, blocks until it is free
+     * @return A {@link PooledConnection} that is returned to the pool when closed
+     * @throws SQLException If the connection could not be checked out
+     */
+    PooledConnection writer() throws SQLException;
+
+    /**
+     * @return Amount of times a connection has been checked out
+     */
+    long getCheckouts();
+
+    /**
+     * @return Amount of checkouts that had to wait for a connection to be returned
+     */
+    long getContendedCheckouts();
+
+    /**
+     * @return Total time spent waiting for a connection in nanoseconds
+     */
+    long getWaitNanos();
+
+    /**
+     * Closes every connection held by the provider
+     */
+    @Override
+    void close();
+}
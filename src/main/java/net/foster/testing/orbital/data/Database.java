@@ -1,254 +1,1005 @@
 package net.foster.testing.orbital.data;
 
 import net.foster.testing.orbital.OrbitalTesting;
-import net.foster.testing.orbital.lambda.SafeConsumer;
+import net.foster.testing.orbital.data.store.AccountStore;
+import net.foster.testing.orbital.data.store.JdbcAccountStore;
+import net.foster.testing.orbital.data.store.StorageException;
 import net.foster.testing.orbital.lambda.SafeFunction;
+import net.foster.testing.orbital.managers.BalanceListener;
 import net.foster.testing.orbital.managers.Economy;
+import net.foster.testing.orbital.managers.Leaderboard;
+import net.foster.testing.orbital.managers.Transaction;
+import net.foster.testing.orbital.metrics.LatencyHistogram;
+import net.foster.testing.orbital.metrics.MetricsRegistry;
+import net.foster.testing.orbital.sync.BalanceSync;
+import net.foster.testing.orbital.utils.Money;
+import net.foster.testing.orbital.utils.ThreadGuard;
 import org.bukkit.Bukkit;
-import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
 import org.bukkit.scheduler.BukkitRunnable;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.sql.*;
-import java.util.UUID;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
-import java.util.function.Function;
-
-import static net.foster.testing.orbital.OrbitalTesting.TABLE_NAME;
 
 /**
- * Database manager that handles data for a local SQLite database
+ * Database manager that loads and saves balances through an {@link AccountStore}
+ * Every store call runs on the {@link DatabaseExecutor}, reads on the read lane and writes on the single write lane
+ * Store calls failing because another connection locks the database are tried again, every task has a timeout, and balance
+ * writes that fail for good are kept in a {@link DeadLetterQueue} until a save writes them
  */
 public class Database {
     private final OrbitalTesting orbitalTesting;
     private final Economy econ;
-    public static final ExecutorService EXECUTOR = Executors.newCachedThreadPool();
+    private AccountStore store;
+    private WriteBehindFlusher flusher;
+    private Journal journal;
+    private Path snapshotPath;
+    private volatile long nextSnapshotAt;
+    /* Balances the last shutdown could not write, restored on startup and deleted once saved */
+    private Path pendingPath;
+    private volatile boolean pendingRestored;
+
+    private final DatabaseExecutor executor;
+    private final Lane reads;
+    private final Lane writes;
+    private final RetryPolicy retryPolicy;
+    private final long operationTimeoutNanos;
+    private final DeadLetterQueue deadLetters;
+    private final MetricsRegistry metrics;
+    private final ThreadGuard threadGuard;
     private static final Logger LOGGER = LoggerFactory.getLogger(Database.class);
+    /* Rows written this long before a snapshot are read again on load, in case the clock was set back */
+    private static final long SNAPSHOT_CLOCK_MARGIN_MILLIS = 60_000;
+    private static final DateTimeFormatter EXPORT_NAME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    /* Time an interrupted final save gets to stop before the store is closed under it */
+    private static final long SHUTDOWN_WRITER_JOIN_MILLIS = 1_000;
+
+    /* Statistics */
+    private final LongAdder preloads = new LongAdder();
+    private final LongAdder preloadNanos = new LongAdder();
+    private final LongAdder preloadTimeouts = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder coalescedLoads = new LongAdder();
+    private final LongAdder savedAccounts = new LongAdder();
+    private volatile long lastSaveAccounts;
+    private final LatencyHistogram preloadLatency;
+    private final LatencyHistogram joinPreloadedLatency;
+    private final LatencyHistogram joinLoadedLatency;
+    private final LatencyHistogram saveLatency;
+    private final LatencyHistogram snapshotLatency;
+
+    /* Loads that are running, so a player is never loaded twice at once */
+    private final Map<UUID, CompletableFuture<Void>> loading = new ConcurrentHashMap<>();
+    /* Held for reading by loads and for writing by work that changes stored and loaded balances together, see writeThrough */
+    private final ReentrantReadWriteLock loadFence = new ReentrantReadWriteLock();
 
     public Database(OrbitalTesting orbitalTesting, Economy econ) {
+        this(orbitalTesting, econ, new DatabaseExecutor(
+                ConfigManager.getSettings().executorReadThreads(),
+                ConfigManager.getSettings().executorQueueCapacity(),
+                ConfigManager.getSettings().executorRejectionPolicy(),
+                ConfigManager.getSettings().executorVirtualThreads()), orbitalTesting.getMetrics(), orbitalTesting.getThreadGuard(),
+                RetryPolicy.from(ConfigManager.getSettings()), ConfigManager.getSettings().operationTimeoutMillis());
+    }
+
+    private Database(OrbitalTesting orbitalTesting, Economy econ, DatabaseExecutor executor, MetricsRegistry metrics,
+                     ThreadGuard threadGuard, RetryPolicy retryPolicy, long operationTimeoutMillis) {
         this.orbitalTesting = orbitalTesting;
         this.econ = econ;
+        this.executor = executor;
+        this.metrics = metrics;
+        this.threadGuard = threadGuard;
+        this.retryPolicy = retryPolicy;
+        this.operationTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(operationTimeoutMillis);
+        this.deadLetters = new DeadLetterQueue(econ);
+
+        reads = new Lane("read", executor.reads(), metrics);
+        writes = new Lane("write", executor.writes(), metrics);
+        metrics.gauge("dead_letter_accounts", "Balances kept because their write failed, until a save writes them", deadLetters::size);
+        metrics.counter("dead_letters_total", "Balances whose write failed after every attempt", deadLetters::getReceived);
+        metrics.counter("dead_letters_redelivered_total", "Balances written by a save after their write failed", deadLetters::getRedelivered);
+        metrics.histogram("executor_queue_seconds", "Time database tasks waited in a queue", executor.getQueueLatency());
+        metrics.histogram("executor_task_seconds", "Time database tasks spent running", executor.getExecutionLatency());
+        metrics.gauge("executor_queue_depth", "Database tasks waiting in both lanes", executor::getQueueDepth);
+        metrics.gauge("executor_active_tasks", "Database tasks running in both lanes", executor::getActiveTasks);
+        preloadLatency = metrics.histogram("preload_seconds", "Time to load a batch of balances from the store");
+        joinPreloadedLatency = metrics.histogram("join_load_seconds", "Time until the balance of a joining player is available", "source", "preloaded");
+        joinLoadedLatency = metrics.histogram("join_load_seconds", "Time until the balance of a joining player is available", "source", "store");
+        metrics.counter("preloaded_accounts_total", "Balances loaded from the store", preloads::sum);
+        metrics.counter("preload_timeouts_total", "Logins whose balance was not loaded within the preload timeout", preloadTimeouts::sum);
+        metrics.counter("account_cache_total", "Accounts asked for by a preload", cacheHits::sum, "result", "hit");
+        metrics.counter("account_cache_total", "Accounts asked for by a preload", cacheMisses::sum, "result", "miss");
+        metrics.counter("account_cache_total", "Accounts asked for by a preload", coalescedLoads::sum, "result", "coalesced");
+        saveLatency = metrics.histogram("save_seconds", "Time of a save, including the snapshot");
+        metrics.counter("saved_accounts_total", "Changed balances written by saves", savedAccounts::sum);
+        metrics.gauge("last_save_accounts", "Changed balances written by the last save", () -> lastSaveAccounts);
+        snapshotLatency = metrics.histogram("snapshot_seconds", "Time to write a snapshot of every balance");
+    }
+
+    /**
+     * Creates a database manager on an already initialized store, without a running server
+     * {@link #initialize()} must not be called
+     * @param econ Economy manager to load and save balances for
+     * @param store Store used for every load and save
+     * @param flushBatchSize Max amount of balances written in a single transaction
+     */
+    public Database(Economy econ, AccountStore store, int flushBatchSize) {
+        this(null, econ, new DatabaseExecutor(4, 10_000, DatabaseExecutor.RejectionPolicy.BLOCK, false), new MetricsRegistry(),
+                new ThreadGuard(Thread.currentThread(), ThreadGuard.Mode.OFF, 0), RetryPolicy.DEFAULT, 30_000);
+        this.store = store;
+        this.flusher = new WriteBehindFlusher(this, econ, flushBatchSize);
     }
 
     /**
-     * Initializes the database and creates the file if missing
-     * @return A {@link CompletableFuture<Void>} to handle exceptions
+     * Opens the store selected in config.yml and creates its storage if missing
+     * @return A {@link CompletableFuture<Void>} to handle exceptions, null if the store could not be opened
      */
     public CompletableFuture<Void> initialize() {
-        TABLE_NAME = ConfigManager.getString("database.table-name");
-        if(TABLE_NAME == null) {
+        Settings settings = ConfigManager.getSettings();
+        if(settings.tableName() == null) {
             LOGGER.error("database.table-name not found in config.yml");
             return null;
         }
-        if (!Files.exists(Paths.get(orbitalTesting.DATABASE_PATH))) {
-            return openConnection().thenAcceptAsync(connection -> {
-                try(PreparedStatement statement = connection.prepareStatement(
-                        "CREATE TABLE IF NOT EXISTS `" + TABLE_NAME +
-                                "` (`uuid` VARCHAR(36), `balance` DOUBLE)")) {
-                    statement.execute();
-                    LOGGER.info("SQLite file created");
-                } catch (Exception e) {
-                    LOGGER.error("Something went wrong while creating the SQLite file", e);
-                }
-            }, EXECUTOR);
+
+        Path path = orbitalTesting.getDataFolder().toPath().resolve(settings.databasePath());
+        try {
+            store = settings.databaseBackend().open(path, settings.tableName(), settings.readConnections());
+        } catch (StorageException e) {
+            LOGGER.error("Connection to database could not open", e);
+            return null;
+        }
+        LOGGER.info("Using " + settings.databaseBackend().name().toLowerCase(Locale.ROOT) + " account store");
+        if(store instanceof JdbcAccountStore jdbcStore) {
+            ConnectionProvider provider = jdbcStore.getConnectionProvider();
+            metrics.counter("connection_checkouts_total", "Connections checked out of the pool", provider::getCheckouts);
+            metrics.counter("connection_contended_checkouts_total", "Checkouts that waited for a connection", provider::getContendedCheckouts);
+            metrics.counter("connection_wait_nanoseconds_total", "Time spent waiting for a connection", provider::getWaitNanos);
+        }
+
+        flusher = new WriteBehindFlusher(this, econ, settings.flushBatchSize());
+        pendingPath = path.resolveSibling(path.getFileName() + ".pending");
+        restorePending();
+        if(settings.journalEnabled()) {
+            openJournal();
+        }
+        if(settings.snapshotEnabled()) {
+            snapshotPath = path.resolveSibling(path.getFileName() + ".snapshot");
+            nextSnapshotAt = System.currentTimeMillis() + settings.snapshotIntervalMillis();
         }
 
         autoSave();
-        return null;
+        // Migrations may copy every row, so they are not bound by the operation timeout
+        return this.write(store -> {
+            store.initialize();
+            return null;
+        }, 0, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Opens a connection to the database
-     * For SQLite a connection can be opened for every query without a performance decrease
-     * Because the database is local and not remote
-     * @return A {@link CompletableFuture<Connection>} containing the {@link Connection}
+     * Restores balances the last shutdown could not write into the store, see {@link #shutdown()}
+     * Restored balances are marked as changed, the file is deleted once a save wrote them
      */
-    public static CompletableFuture<Connection> openConnection() {
-        CompletableFuture<Connection> connection = new CompletableFuture<>();
-        CompletableFuture.runAsync(() -> {
-            try {
-                connection.complete(DriverManager.getConnection("jdbc:sqlite:" + OrbitalTesting.DATABASE_PATH));
-            } catch(Exception e) {
-                LOGGER.error("Connection to database could not open", e);
+    private void restorePending() {
+        if(!Files.exists(pendingPath)) {
+            return;
+        }
+        try {
+            Snapshot.Info info = Snapshot.read(pendingPath, (most, least, balances, count) -> {
+                for (int i = 0; i < count; i++) {
+                    econ.setBalanceMinor(new UUID(most[i], least[i]), balances[i]);
+                }
+            });
+            pendingRestored = true;
+            LOGGER.info("Restored " + info.records() + " balances the last shutdown could not save");
+        } catch (IOException e) {
+            LOGGER.error("Balances the last shutdown could not save are unreadable, they are kept in " + pendingPath, e);
+        }
+    }
+
+    /**
+     * Restores balances changed after the last save from the journal, then starts journaling new changes
+     * Must run before any player joins, so restored balances are not replaced by older ones from the database
+     */
+    private void openJournal() {
+        Path directory = orbitalTesting.getDataFolder().toPath().resolve("journal");
+        try {
+            int restored = Journal.replay(directory, econ);
+            if(restored > 0) {
+                LOGGER.info("Restored " + restored + " balances from the journal");
             }
-        }, EXECUTOR);
-        return connection;
+
+            journal = new Journal(directory, ConfigManager.getSettings().journalSyncIntervalMillis());
+            econ.addListener(journal);
+        } catch (IOException e) {
+            LOGGER.error("Journal could not be opened, changes since the last save will be lost on a crash", e);
+        }
+    }
+
+    /**
+     * @return The {@link DatabaseExecutor} every query runs on
+     */
+    public DatabaseExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return The registry every database metric is registered in
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The guard checking which thread database calls are made on
+     */
+    public ThreadGuard getThreadGuard() {
+        return threadGuard;
+    }
+
+    /**
+     * @return The {@link AccountStore} every load and save goes through, null before {@link #initialize()}
+     */
+    public AccountStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return Balances whose write failed for good and that are not written yet
+     */
+    public DeadLetterQueue getDeadLetters() {
+        return deadLetters;
     }
 
     /**
-     * Executes a query to database
-     * @param query A String query to send to the database
-     * @param initializer A {@link Consumer} that can throw a checked exception.
-     * @param process A {@link Function} that can throw a checked exception.
-     * @return A {@link CompletableFuture<T>} for handling exceptions
+     * Runs a read on the store with the timeout set in config.yml, see {@link #write(SafeFunction, long, TimeUnit)}
+     * @param work A {@link SafeFunction} using the store
+     * @return A {@link CompletableFuture<T>} containing the result of the work
      * @param <T> The type of the result for {@link SafeFunction}
      */
-    public <T> CompletableFuture<T> query(String query, @NotNull SafeConsumer<PreparedStatement> initializer, @NotNull SafeFunction<ResultSet, T> process) {
-        return CompletableFuture.supplyAsync(() -> {
-            try(Connection connection = Database.openConnection().get();
-                PreparedStatement statement = connection.prepareStatement(query);
-                ResultSet resultSet = statement.executeQuery()) {
-                initializer.consume(statement);
-                return process.apply(resultSet);
-            } catch(Exception e) {
-                LOGGER.error("Error when preparing statement for query: " + query, e);
-                throw new RuntimeException();
+    public <T> CompletableFuture<T> read(@NotNull SafeFunction<AccountStore, T> work) {
+        return read(work, operationTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs a read on the store, see {@link #write(SafeFunction, long, TimeUnit)}
+     * @param work A {@link SafeFunction} using the store
+     * @param timeout Max time until the future completes, 0 to wait for as long as the work takes
+     * @param unit Unit of the timeout
+     * @return A {@link CompletableFuture<T>} containing the result of the work
+     * @param <T> The type of the result for {@link SafeFunction}
+     */
+    public <T> CompletableFuture<T> read(@NotNull SafeFunction<AccountStore, T> work, long timeout, TimeUnit unit) {
+        return submit(reads, work, unit.toNanos(timeout), null);
+    }
+
+    /**
+     * Runs a write on the store with the timeout set in config.yml, see {@link #write(SafeFunction, long, TimeUnit)}
+     * @param work A {@link SafeFunction} using the store
+     * @return A {@link CompletableFuture<T>} containing the result of the work
+     * @param <T> The type of the result for {@link SafeFunction}
+     */
+    public <T> CompletableFuture<T> write(@NotNull SafeFunction<AccountStore, T> work) {
+        return write(work, operationTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs a write on the store, writes never run at the same time
+     * Work failing with a {@link StorageException} that is retryable, like when another connection locks the database, is run
+     * again as set by the {@link RetryPolicy}. A failed store call changes nothing, so work must only change memory after its store calls
+     * The future fails with a {@link TimeoutException} once the timeout passed, counted from this call. Work that did not start by then
+     * is skipped, running work is not interrupted and may still finish, but is not tried again
+     * Otherwise the future fails with the exception thrown by the work as its cause
+     * @param work A {@link SafeFunction} using the store
+     * @param timeout Max time until the future completes, 0 to wait for as long as the work takes
+     * @param unit Unit of the timeout
+     * @return A {@link CompletableFuture<T>} containing the result of the work
+     * @param <T> The type of the result for {@link SafeFunction}
+     */
+    public <T> CompletableFuture<T> write(@NotNull SafeFunction<AccountStore, T> work, long timeout, TimeUnit unit) {
+        return submit(writes, work, unit.toNanos(timeout), null);
+    }
+
+    /**
+     * Runs a write that changes stored balances and the same accounts in memory, like a payout rule, with the timeout set in config.yml
+     * Loads run on the read lane and wait while it runs, so no balance is read before the work and put into memory after it,
+     * which would lose the change or apply it twice. Work must be short, as logins wait for it
+     * @param work A {@link SafeFunction} using the store
+     * @return A {@link CompletableFuture<T>} containing the result of the work
+     * @param <T> The type of the result for {@link SafeFunction}
+     */
+    public <T> CompletableFuture<T> writeThrough(@NotNull SafeFunction<AccountStore, T> work) {
+        return write(store -> {
+            loadFence.writeLock().lock();
+            try {
+                return work.apply(store);
+            } finally {
+                loadFence.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Applies a balance change made on another server, see {@link BalanceSync.Storage}
+     * A loaded account is changed in memory, otherwise the balance in the dead letter queue or the stored one is changed and written
+     * Loads wait while it runs, so a load reads the balance either before the change and gets it in memory, or after it
+     * @param uuid UUID of the account
+     * @param set Whether the amount replaces the balance, otherwise it is added
+     * @param amount Amount to add or balance to set in minor units
+     * @return A {@link CompletableFuture<Void>} completed once the change is applied
+     */
+    public CompletableFuture<Void> applyRemote(UUID uuid, boolean set, long amount) {
+        long startMoney = Money.toMinor(ConfigManager.getSettings().startMoney());
+        int type = set ? BalanceListener.SET : BalanceListener.DEPOSIT;
+        return this.writeThrough(store -> {
+            if(econ.getAccounts().applyRemote(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), type, amount)) {
+                return null;
+            }
+            // A failed write left the stored balance unchanged, so the change goes on top of the one it failed to write
+            Long unwritten = deadLetters.claim(uuid);
+            try {
+                long balance = amount;
+                if(!set) {
+                    Long stored = unwritten != null ? unwritten : store.findMany(List.of(uuid)).get(uuid);
+                    balance = Math.addExact(balance, stored != null ? stored : startMoney);
+                }
+                store.upsertBatch(List.of(new AccountStore.Account(uuid, balance)));
+                return null;
+            } catch (StorageException | ArithmeticException e) {
+                if(unwritten != null) {
+                    deadLetters.restore(List.of(new AccountStore.Account(uuid, unwritten)));
+                }
+                throw e;
             }
-        }, EXECUTOR);
+        });
+    }
+
+    /**
+     * Writes balances in a single write, they are kept in the {@link DeadLetterQueue} if the write fails for good
+     * @param operation Name of the write, used in the log
+     * @param accounts Balances to write
+     * @return A {@link CompletableFuture<Void>} completed when the balances are written
+     */
+    CompletableFuture<Void> writeBalances(String operation, List<AccountStore.Account> accounts) {
+        return submit(writes, store -> {
+            store.upsertBatch(accounts);
+            return null;
+        }, operationTimeoutNanos, e -> deadLetters.add(operation, accounts, e));
     }
 
     /**
-     * Updates query to database
-     * Must be a SQL Data Manipulation Language (DML) statement, such as INSERT, UPDATE or DELETE
-     * @param query A String query to send to the database
-     * @param initializer A {@link Consumer} that can throw a checked exception.
-     * @return A {@link CompletableFuture<Void>} for handling exceptions
+     * Keeps balances that were never written in the {@link DeadLetterQueue}
+     * Called before the accounts can be evicted, so a load after the eviction takes the balance from the queue
+     * @param operation Name of the write, used in the log
+     * @param accounts Balances that were not written
+     * @param cause Error that stopped them from being written
      */
-    public CompletableFuture<Void> update(String query, @NotNull SafeConsumer<PreparedStatement> initializer) {
-        return CompletableFuture.runAsync(() -> {
-            try(Connection connection = Database.openConnection().get();
-                PreparedStatement statement = connection.prepareStatement(query)) {
-                initializer.consume(statement);
-                statement.executeUpdate();
+    void deadLetter(String operation, List<AccountStore.Account> accounts, Throwable cause) {
+        if(!accounts.isEmpty()) {
+            deadLetters.add(operation, accounts, cause);
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Lane lane, SafeFunction<AccountStore, T> work, long timeoutNanos, Consumer<Exception> onFailure) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        CompletableFuture<T> result = new CompletableFuture<>();
+        // Not supplyAsync, which skips work whose future already timed out, so a balance write would never reach the dead letter queue
+        lane.executor.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                if(timeoutNanos > 0 && start - deadline >= 0) {
+                    throw new TimeoutException("Skipped after waiting " + TimeUnit.NANOSECONDS.toMillis(start - deadline + timeoutNanos)
+                            + " ms in the queue of the " + lane.name + " lane");
+                }
+                // Only the case with the caller-runs rejection policy and a full queue
+                threadGuard.checkBlocking("Account store " + lane.name);
+                result.complete(attempt(lane, work, timeoutNanos > 0 ? deadline : 0));
             } catch(Exception e) {
-                LOGGER.error("Error when preparing statement for query: " + query, e);
-                throw new RuntimeException();
+                lane.failures.increment();
+                LOGGER.error("Error when running a " + lane.name + " on the account store", e);
+                if(onFailure != null) {
+                    onFailure.accept(e);
+                }
+                result.completeExceptionally(e);
+            } catch(Error e) {
+                result.completeExceptionally(e);
+                throw e;
+            } finally {
+                lane.latency.recordSince(start);
             }
-        }, EXECUTOR);
+        });
+        if(timeoutNanos > 0) {
+            result.orTimeout(timeoutNanos, TimeUnit.NANOSECONDS).whenComplete((v, e) -> {
+                if(e instanceof TimeoutException) {
+                    lane.timeouts.increment();
+                }
+            });
+        }
+        return result;
     }
 
     /**
-     * Creates default data for a player, which is inserted into the database
-     * @param uuid UUID for player to create default data for
+     * Runs work until it succeeds, fails with an error that is not retryable, runs out of attempts or the next attempt would
+     * start after the deadline
+     * @param deadline Time from {@link System#nanoTime()} after which no attempt starts, 0 if there is none
      */
-    public void createDefaultData(UUID uuid) {
-        Player player = Bukkit.getPlayer(uuid);
-        if(player == null) {
-            LOGGER.error("Player was null for uuid in createDefaultData: " + uuid);
-            return;
+    private <T> T attempt(Lane lane, SafeFunction<AccountStore, T> work, long deadline) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return work.apply(store);
+            } catch (StorageException e) {
+                long delay = retryPolicy.delayNanos(attempt);
+                if(!e.isRetryable() || attempt >= retryPolicy.attempts() || (deadline != 0 && System.nanoTime() + delay - deadline >= 0)) {
+                    throw e;
+                }
+                lane.retries.increment();
+                LOGGER.debug("Account store " + lane.name + " failed on attempt " + attempt + ", trying again in "
+                        + TimeUnit.NANOSECONDS.toMillis(delay) + " ms: " + e.getCause());
+                TimeUnit.NANOSECONDS.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * A lane of the {@link DatabaseExecutor} with its statistics
+     */
+    private static final class Lane {
+        private final String name;
+        private final Executor executor;
+
+        /* Statistics */
+        private final LatencyHistogram latency;
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        private Lane(String name, Executor executor, MetricsRegistry metrics) {
+            this.name = name;
+            this.executor = executor;
+            latency = metrics.histogram("store_seconds", "Time spent in the account store", "lane", name);
+            metrics.counter("store_retries_total", "Store calls tried again because the database was locked", retries::sum, "lane", name);
+            metrics.counter("store_timeouts_total", "Database tasks that did not complete within their timeout", timeouts::sum, "lane", name);
+            metrics.counter("store_failures_total", "Database tasks that failed after every attempt", failures::sum, "lane", name);
+        }
+    }
+
+    /**
+     * Writes the balances resulting from an applied transaction into the store as a single write
+     * Accounts without a row get one, so a transfer to a player that never joined is not lost
+     * @param transaction Transaction applied by {@link Economy#execute(Transaction)}
+     * @return A {@link CompletableFuture<Void>} completed when the balances are written
+     */
+    public CompletableFuture<Void> persist(Transaction transaction) {
+        List<AccountStore.Account> accounts = new ArrayList<>();
+        transaction.getBalances().forEach((uuid, balance) -> accounts.add(new AccountStore.Account(uuid, balance)));
+        return writeBalances("transaction", accounts);
+    }
+
+    /**
+     * Adds every balance in the database to the leaderboard
+     * If a snapshot exists it is bulk loaded, and only rows written after it are read from the store
+     * Players already in the leaderboard are skipped, since their balance may have changed since the last save
+     * @param leaderboard Leaderboard to fill
+     * @return A {@link CompletableFuture<Integer>} containing the amount of balances read
+     */
+    public CompletableFuture<Integer> loadLeaderboard(Leaderboard leaderboard) {
+        Path snapshot = snapshotPath;
+        // Reads every row, so it is not bound by the operation timeout
+        if(snapshot == null || !Files.exists(snapshot)) {
+            return this.read(store -> store.scanAll(leaderboard::seed), 0, TimeUnit.MILLISECONDS);
         }
 
+        return this.read(store -> {
+            try {
+                Snapshot.Info info = Snapshot.readInfo(snapshot);
+                // Seeding keeps the first balance of a player, so rows written after the snapshot go in first
+                int newer = store.scanSince(info.createdAtMillis() - SNAPSHOT_CLOCK_MARGIN_MILLIS, leaderboard::seed);
+                Snapshot.read(snapshot, leaderboard::seedAll);
+                LOGGER.info("Loaded " + info.records() + " balances from the snapshot and " + newer + " newer ones from the store");
+                return (int) info.records() + newer;
+            } catch (IOException e) {
+                LOGGER.warn("Snapshot could not be read, loading every balance from the store", e);
+                return store.scanAll(leaderboard::seed);
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+    }
 
-        this.update("INSERT OR IGNORE INTO " + TABLE_NAME + " (uuid, balance) VALUES (?, ?)",
-                statement -> {
-                    statement.setString(1, uuid.toString());
-                    statement.setInt(2, ConfigManager.getInt("start-money"));
-                });
+    /**
+     * Writes every saved balance into a snapshot file, in the format read by {@link #loadLeaderboard(Leaderboard)}
+     * Changed balances are saved first, so the export holds every balance up to now
+     * @return A {@link CompletableFuture} containing the path and header of the written file
+     */
+    public CompletableFuture<Map.Entry<Path, Snapshot.Info>> export() {
+        Path file = orbitalTesting.getDataFolder().toPath().resolve("exports")
+                .resolve("balances-" + LocalDateTime.now().format(EXPORT_NAME) + ".snapshot");
+        return this.read(store -> {
+            serializePlayerDatas();
+            Files.createDirectories(file.getParent());
+            return Map.entry(file, Snapshot.write(store, file));
+        }, 0, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Loads the balance from database into balances map in Economy manager
+     * Replaces the snapshot read on startup, blocks until it is written
+     */
+    private void writeSnapshot() {
+        long interval = ConfigManager.getSettings().snapshotIntervalMillis();
+        long start = System.nanoTime();
+        try {
+            Snapshot.Info info = this.read(store -> Snapshot.write(store, snapshotPath), 0, TimeUnit.MILLISECONDS).join();
+            snapshotLatency.recordSince(start);
+            nextSnapshotAt = info.createdAtMillis() + interval;
+            LOGGER.debug("Wrote snapshot of " + info.records() + " balances");
+        } catch (CompletionException e) {
+            // Logged by read, the previous snapshot is kept and stays valid
+            nextSnapshotAt = System.currentTimeMillis() + interval;
+        }
+    }
+
+    /**
+     * Loads the balance of a player into the Economy manager on the read lane
+     * A player that is not in the database starts with the start money, the next save creates their row
+     * An account that is already loaded is kept, since it may have changes that are not saved yet
+     * @param uuid UUID for player to load
+     * @return A {@link CompletableFuture<Void>} completed when the balance is loaded
+     */
+    public CompletableFuture<Void> preloadPlayerData(UUID uuid) {
+        return preloadPlayerData(List.of(uuid));
+    }
+
+    /**
+     * Loads the balances of many players into the Economy manager in a single transaction, see {@link #preloadPlayerData(UUID)}
+     * Players that are already being loaded are not loaded again, the returned future waits for the running load instead
+     * @param uuids UUIDs for players to load
+     * @return A {@link CompletableFuture<Void>} completed when every balance is loaded
+     */
+    public CompletableFuture<Void> preloadPlayerData(Collection<UUID> uuids) {
+        CompletableFuture<Void> batchLoaded = new CompletableFuture<>();
+        List<UUID> batch = new ArrayList<>();
+        List<CompletableFuture<Void>> waiting = new ArrayList<>();
+        for (UUID uuid : new LinkedHashSet<>(uuids)) {
+            if(econ.hasAccount(uuid)) {
+                cacheHits.increment();
+                continue;
+            }
+            CompletableFuture<Void> running = loading.putIfAbsent(uuid, batchLoaded);
+            if(running != null) {
+                coalescedLoads.increment();
+                waiting.add(running);
+            } else {
+                batch.add(uuid);
+            }
+        }
+
+        if(!batch.isEmpty()) {
+            cacheMisses.add(batch.size());
+            waiting.add(batchLoaded);
+            loadBalances(batch, true).whenComplete((v, e) -> {
+                for (UUID uuid : batch) {
+                    loading.remove(uuid, batchLoaded);
+                }
+                if(e != null) {
+                    batchLoaded.completeExceptionally(e);
+                } else {
+                    batchLoaded.complete(null);
+                }
+            });
+        }
+
+        if(waiting.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return waiting.size() == 1 ? waiting.get(0) : CompletableFuture.allOf(waiting.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Loads the balance of a player into the Economy manager only if the player has one, nothing is written
+     * @param uuid UUID for player to look up
+     * @return A {@link CompletableFuture<Boolean>} containing whether the player has a balance, which is loaded then
+     */
+    public CompletableFuture<Boolean> findPlayerData(UUID uuid) {
+        if(econ.hasAccount(uuid)) {
+            cacheHits.increment();
+            return CompletableFuture.completedFuture(true);
+        }
+        // Created by the running load if it is missing
+        CompletableFuture<Void> running = loading.get(uuid);
+        if(running != null) {
+            coalescedLoads.increment();
+            return running.thenApply(v -> true);
+        }
+        cacheMisses.increment();
+        return loadBalances(List.of(uuid), false).thenApply(v -> econ.hasAccount(uuid));
+    }
+
+    /**
+     * @param create Whether players without a row start with the start money, otherwise they are not loaded
+     */
+    private CompletableFuture<Void> loadBalances(List<UUID> missing, boolean create) {
+        long start = System.nanoTime();
+        long startMoney = Money.toMinor(ConfigManager.getSettings().startMoney());
+        // Only reads, so a load never waits behind writes. Created players without a row start with the start money and are
+        // marked as changed, so the next save creates their row
+        return this.read(store -> {
+            // A payout rule either changed the row and the loaded account after this, or both before
+            loadFence.readLock().lock();
+            try {
+                Map<UUID, Long> balances = store.findMany(missing);
+                int loaded = 0;
+                for (UUID uuid : missing) {
+                    Long stored = balances.get(uuid);
+                    // A failed write left the stored balance unchanged, so the one it failed to write is loaded and written by the next save
+                    Long unwritten = deadLetters.claim(uuid);
+                    if(!create && stored == null && unwritten == null) {
+                        continue;
+                    }
+                    long balance = unwritten != null ? unwritten : stored != null ? stored : startMoney;
+                    if(econ.loadBalanceMinor(uuid, balance) && (unwritten != null || stored == null)) {
+                        econ.markDirty(uuid);
+                    }
+                    loaded++;
+                }
+                return loaded;
+            } finally {
+                loadFence.readLock().unlock();
+            }
+        }).thenAccept(loaded -> {
+            long elapsed = System.nanoTime() - start;
+            preloads.add(loaded);
+            preloadNanos.add(elapsed);
+            preloadLatency.record(elapsed);
+        });
+    }
+
+    /**
+     * Loads the balance from database into the Economy manager if it was not loaded before the player joined,
+     * and pins it for as long as the player is online
      * @param uuid UUID for player to load
      */
     public void deserializePlayerData(UUID uuid) {
-        Player player = Bukkit.getPlayer(uuid);
-        if(player == null) {
-            LOGGER.error("Player was null for uuid in loadPlayerData: " + uuid);
+        long start = System.nanoTime();
+        // Online players are pinned, so their account is never evicted
+        if(econ.setPinned(uuid, true)) {
+            long elapsed = System.nanoTime() - start;
+            joinPreloadedLatency.record(elapsed);
+            threadGuard.record("join", elapsed);
             return;
         }
 
-        /* Create default data if player is not in database */
-        this.query("SELECT COUNT(*) FROM `" + TABLE_NAME + "` WHERE uuid = '" + uuid + "';",
-                statement -> {},
-                resultSet -> {
-                    resultSet.next();
-                    if(resultSet.getInt(1) == 0) {
-                        // Data doesn't exist
-                        createDefaultData(uuid);
-                    }
-                    return null;
-                });
+        LOGGER.warn("Balance for " + uuid + " was not loaded before join, loading it now");
+        preloadPlayerData(uuid).whenComplete((v, e) -> {
+            if(e != null) {
+                LOGGER.error("Balance for " + uuid + " could not be loaded after join", e);
+                return;
+            }
+            joinLoadedLatency.recordSince(start);
+            // Completed on a database thread, the player is looked up on the server thread
+            Bukkit.getScheduler().runTask(orbitalTesting, () -> {
+                if(Bukkit.getPlayer(uuid) != null) {
+                    econ.setPinned(uuid, true);
+                }
+            });
+        });
+        threadGuard.record("join", System.nanoTime() - start);
+    }
+
+    /**
+     * Records a preload that did not finish within the time a login waits for it
+     */
+    public void recordPreloadTimeout() {
+        preloadTimeouts.increment();
+    }
+
+    /**
+     * @return Amount of balances loaded by {@link #preloadPlayerData(UUID)}
+     */
+    public long getPreloadCount() {
+        return preloads.sum();
+    }
+
+    /**
+     * @return Total time spent loading balances in nanoseconds
+     */
+    public long getPreloadNanos() {
+        return preloadNanos.sum();
+    }
 
+    /**
+     * @return Amount of accounts asked for by {@link #preloadPlayerData(Collection)} that were already in memory
+     */
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
 
-        /* Update player data */
-        this.query("SELECT * FROM " + TABLE_NAME + " WHERE uuid = '" + uuid + "';",
-                statement -> {},
-                resultSet -> {
-                    resultSet.next();
-                    double balance = resultSet.getDouble("balance");
+    /**
+     * @return Amount of accounts that had to be loaded from the database
+     */
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
 
-                    econ.getBalances().put(player, balance);
-                    return null;
-                }
-        );
+    /**
+     * @return Amount of accounts asked for while a load of them was already running
+     */
+    public long getCoalescedLoads() {
+        return coalescedLoads.sum();
     }
 
     /**
-     * Saves balance from Economy manager into database
+     * @return Amount of accounts evicted from memory
+     */
+    public long getEvictions() {
+        return econ.getEvictionCount();
+    }
+
+    /**
+     * @return Amount of logins whose balance was not loaded within the preload timeout
+     */
+    public long getPreloadTimeouts() {
+        return preloadTimeouts.sum();
+    }
+
+    /**
+     * Saves balance from Economy manager into database, and unpins it so it can be evicted once saved
      * @param uuid UUID for player to save
+     * @return A {@link CompletableFuture} completed once the balance is saved
      */
-    public void serializePlayerData(UUID uuid){
+    public CompletableFuture<Void> serializePlayerData(UUID uuid){
+        long start = System.nanoTime();
+        threadGuard.checkMainThread("Bukkit.getPlayer in serializePlayerData");
         Player player = Bukkit.getPlayer(uuid);
         if(player == null) {
             LOGGER.error("Player was null for uuid in serializePlayerData: " + uuid);
-            return;
+            return CompletableFuture.completedFuture(null);
+        }
+        // Writing the default balance of an account that was never loaded would overwrite the stored one
+        if(!econ.hasAccount(uuid)) {
+            LOGGER.warn("Balance for " + uuid + " was not loaded, nothing to save on quit");
+            return CompletableFuture.completedFuture(null);
         }
 
-        this.update("UPDATE " + TABLE_NAME +
-                        " SET balance = ?" +
-                        " WHERE uuid = ?",
-                statement -> {
-                    statement.setString(2, player.getUniqueId().toString());
-                    statement.setDouble(1, econ.getBalance(player));
-                });
+        // Read now, the account may be evicted before the write runs
+        AccountStore.Account account = new AccountStore.Account(uuid, econ.getBalanceMinor(uuid));
+        econ.setPinned(uuid, false);
+        CompletableFuture<Void> saved = writeBalances("quit", List.of(account));
+        threadGuard.record("quit", System.nanoTime() - start);
+        return saved;
     }
 
     /**
-     * Saves the data for all players
+     * Saves the data for all players whose balance changed since the last save
+     * Blocks until the data is written
+     * @return Amount of players saved
      */
-    public void serializePlayerDatas() {
-        for (OfflinePlayer player : econ.getBalances().keySet()) {
-            serializePlayerData(player.getUniqueId());
-        }
+    public int serializePlayerDatas() {
+        threadGuard.checkBlocking("Saving changed balances");
+        return flusher.flush();
     }
 
     /**
-     * Makes sure that every task is stopped before closing the JVM
+     * Writes every balance and closes the store, called once when the plugin stops, blocks for at most database.shutdown-timeout
+     * Balance changes are rejected from here on, so the balances written are the final ones
+     * Queued database work gets half of the time to finish, then the balances are written in one transaction on a dedicated thread
+     * If that write does not finish in time the journal is kept, or without a journal the balances are written into a
+     * pending file, and either is restored on the next start. The write is interrupted then, and the store is closed either way
      */
     public void shutdown() {
-        EXECUTOR.shutdown(); // Stops new tasks from being scheduled to the executor.
+        long start = System.nanoTime();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(ConfigManager.getSettings().shutdownTimeoutMillis());
+        long deadline = start + timeout;
+        econ.freeze();
+        if(store == null) {
+            return;
+        }
 
+        boolean drained;
         try {
-            if (!EXECUTOR.awaitTermination(30, TimeUnit.SECONDS)) { // Wait for existing tasks to terminate.
-                EXECUTOR.shutdownNow(); // Cancel currently executing tasks that didn't finish in the time.
+            drained = executor.shutdown(timeout / 2, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
 
-                if (!EXECUTOR.awaitTermination(30, TimeUnit.SECONDS)) { // Wait for tasks to respond to cancellation.
-                    LOGGER.error("Pool failed to terminate");
-                }
+        List<AccountStore.Account> accounts;
+        if(drained) {
+            accounts = flusher.drain();
+            accounts.addAll(deadLetters.takeUnloaded());
+        } else {
+            // Dropped writes hold balances of loaded accounts that are at least as old as the ones in memory,
+            // and a write still running finishes first as the store has a single writer, so every loaded balance is written
+            int dropped = executor.dropQueued();
+            accounts = new ArrayList<>();
+            econ.getAccounts().forEach((mostSigBits, leastSigBits, balance, version) ->
+                    accounts.add(new AccountStore.Account(new UUID(mostSigBits, leastSigBits), balance)));
+            accounts.addAll(deadLetters.takeUnloaded());
+            LOGGER.warn("Database work did not finish within " + TimeUnit.NANOSECONDS.toMillis(timeout / 2) + " ms, dropped "
+                    + dropped + " queued tasks and writing all " + accounts.size() + " loaded balances instead");
+        }
+
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        Thread writer = new Thread(() -> {
+            try {
+                store.upsertBatch(accounts);
+                written.complete(null);
+            } catch (Throwable e) {
+                written.completeExceptionally(e);
+            }
+        }, "Orbital-shutdown-save");
+        writer.setDaemon(true);
+        writer.start();
+
+        try {
+            written.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            if(e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            if(e instanceof TimeoutException) {
+                LOGGER.error("Final save did not finish within " + TimeUnit.NANOSECONDS.toMillis(timeout) + " ms, 0 of "
+                        + accounts.size() + " balances were confirmed written");
+            } else {
+                LOGGER.error("Final save failed, 0 of " + accounts.size() + " balances were written", e.getCause() != null ? e.getCause() : e);
             }
+            keepUnsaved(accounts);
+            return;
+        } finally {
+            // A write still running is abandoned, closing the store rolls back its transaction or leaves an incomplete
+            // record that is cut off on the next start, and its balances are restored from the journal or pending file
+            stopWriter(writer);
+            store.close();
+        }
+
+        if(journal != null) {
+            // Nothing changed since the freeze, so every segment holds only balances that are now written
+            journal.close();
+            journal.truncate(Long.MAX_VALUE);
+        }
+        deletePending();
+        savedAccounts.add(accounts.size());
+        LOGGER.info("Saved " + accounts.size() + " balances in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms on shutdown");
+    }
+
+    /**
+     * Interrupts the thread of the final save if it is still running and waits a moment for it to stop
+     */
+    private static void stopWriter(Thread writer) {
+        if(!writer.isAlive()) {
+            return;
+        }
+        writer.interrupt();
+        try {
+            writer.join(SHUTDOWN_WRITER_JOIN_MILLIS);
         } catch (InterruptedException e) {
-            EXECUTOR.shutdownNow(); // Cancel currently executing tasks if interrupted.
-            Thread.currentThread().interrupt(); // Preserve interrupt status.
+            Thread.currentThread().interrupt();
+        }
+        if(writer.isAlive()) {
+            LOGGER.warn("Final save did not stop within " + SHUTDOWN_WRITER_JOIN_MILLIS + " ms of being interrupted, closing the store under it");
         }
     }
 
     /**
-     * Serializes the data synchronized to avoid running task after server has stopped
-     * @param shutdown Whether the current tasks running should stop or not
+     * Keeps balances the final save could not write, so they are restored on the next start
+     * The journal already holds every change since the last save, without one the balances are written into the pending file
+     * @param accounts Balances that were not written
      */
-    public void save(boolean shutdown) {
-        serializePlayerDatas();
+    private void keepUnsaved(List<AccountStore.Account> accounts) {
+        if(journal != null) {
+            journal.close();
+            LOGGER.warn("Changes since the last save are kept in the journal and restored on the next start");
+            return;
+        }
+        try {
+            Snapshot.Info info = Snapshot.write(consumer -> {
+                for (AccountStore.Account account : accounts) {
+                    consumer.accept(account.uuid().getMostSignificantBits(), account.uuid().getLeastSignificantBits(), account.balance());
+                }
+                return accounts.size();
+            }, pendingPath);
+            LOGGER.warn("Wrote " + info.records() + " balances into " + pendingPath.getFileName() + ", they are restored on the next start");
+        } catch (Exception e) {
+            LOGGER.error("Could not write " + accounts.size() + " balances into " + pendingPath.getFileName() + ", they are lost", e);
+        }
+    }
 
-        if(shutdown) {
-            shutdown();
+    private void deletePending() {
+        if(!pendingRestored) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(pendingPath);
+            pendingRestored = false;
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete " + pendingPath.getFileName() + ", its balances are restored again on the next start", e);
+        }
+    }
+
+    /**
+     * Serializes the data synchronized so two saves never run at once
+     * Balances in the dead letter queue are written after the changed ones
+     * The journal is truncated once every change in it is written, and the snapshot is replaced once its interval passed
+     */
+    public synchronized void save() {
+        threadGuard.checkBlocking("Database save");
+        long start = System.nanoTime();
+        long sealed = journal != null ? journal.rotate() : 0;
+        int saved = serializePlayerDatas();
+        boolean written = flusher.lastFlushSucceeded() && redeliverDeadLetters();
+        if(journal != null && written) {
+            journal.truncate(sealed);
         }
+        if(written) {
+            deletePending();
+        }
+        if(snapshotPath != null && written && System.currentTimeMillis() >= nextSnapshotAt) {
+            writeSnapshot();
+        }
+        savedAccounts.add(saved);
+        lastSaveAccounts = saved;
+        saveLatency.recordSince(start);
+    }
+
+    /**
+     * Writes the balances in the dead letter queue of accounts that are not loaded, blocks until they are written
+     * Balances of loaded accounts were written by the flush before
+     * @return Whether every balance was written
+     */
+    private boolean redeliverDeadLetters() {
+        if(deadLetters.size() == 0) {
+            return true;
+        }
+        try {
+            // Loads wait, so none reads a row between taking its balance from the queue and writing it
+            int written = this.writeThrough(store -> {
+                List<AccountStore.Account> accounts = deadLetters.takeUnloaded();
+                try {
+                    store.upsertBatch(accounts);
+                } catch (StorageException e) {
+                    deadLetters.restore(accounts);
+                    throw e;
+                }
+                return accounts.size();
+            }).join();
+            deadLetters.redelivered(written);
+            if(written > 0) {
+                LOGGER.info("Wrote " + written + " balances whose earlier write had failed");
+            }
+            return true;
+        } catch (CompletionException e) {
+            // Logged by write, the balances are kept for the next save
+            return false;
+        }
+    }
+
+    /**
+     * Removes saved accounts of offline players that are not needed in memory, see {@link Economy#evict(int, long)}
+     * @return Amount of accounts removed
+     */
+    public int evictAccounts() {
+        Settings settings = ConfigManager.getSettings();
+        return econ.evict(settings.cacheMaxSize(), settings.cacheExpireAfterMillis());
     }
 
     /**
-     * Runs at given interval to autosave the data into database
+     * Runs at given interval to write changed data into database
      */
     private void autoSave() {
         new BukkitRunnable() {
             @Override
             public void run() {
-                save(false);
+                save();
+                evictAccounts();
             }
-        }.runTaskTimerAsynchronously(orbitalTesting, 1, ConfigManager.getDataSaveInterval());
+        }.runTaskTimerAsynchronously(orbitalTesting, 1, ConfigManager.getSettings().flushIntervalTicks());
     }
 }
@@ -0,0 +1,220 @@
+package net.foster.testing.orbital.data;
+
+import net.foster.testing.orbital.metrics.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor for database work, split into a read lane and a single-thread write lane
+ * SQLite only allows one writer, so writes are queued instead of holding threads that wait on the file lock
+ * Both lanes have a bounded queue, what happens when it is full is decided by the {@link RejectionPolicy}
+ */
+public class DatabaseExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseExecutor.class);
+
+    private final ThreadPoolExecutor reads;
+    private final ThreadPoolExecutor writes;
+
+    /* Statistics */
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
+    private final LatencyHistogram executionLatency = new LatencyHistogram();
+
+    /**
+     * What to do with a task when the queue of its lane is full
+     */
+    public enum RejectionPolicy {
+        /**
+         * Wait until the queue has room, slowing down the caller
+         */
+        BLOCK,
+        /**
+         * Run the task on the thread that submitted it
+         */
+        CALLER_RUNS,
+        /**
+         * Throw a {@link RejectedExecutionException}
+         */
+        ABORT;
+
+        /**
+         * @param name Name from config.yml, like "caller-runs"
+         * @return The matching policy, {@link #BLOCK} if the name is unknown
+         */
+        public static RejectionPolicy fromName(String name) {
+            if(name == null) {
+                return BLOCK;
+            }
+            try {
+                return valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Unknown rejection policy \"" + name + "\", using block");
+                return BLOCK;
+            }
+        }
+    }
+
+    /**
+     * @param readThreads Amount of threads reading from the database
+     * @param queueCapacity Max amount of queued tasks per lane
+     * @param rejectionPolicy What to do when a queue is full
+     * @param virtualThreads Whether to use virtual threads, ignored before Java 21
+     */
+    public DatabaseExecutor(int readThreads, int queueCapacity, RejectionPolicy rejectionPolicy, boolean virtualThreads) {
+        RejectedExecutionHandler handler = switch (rejectionPolicy) {
+            case BLOCK -> DatabaseExecutor::blockUntilQueued;
+            case CALLER_RUNS -> new ThreadPoolExecutor.CallerRunsPolicy();
+            case ABORT -> new ThreadPoolExecutor.AbortPolicy();
+        };
+
+        ThreadFactory readFactory = null;
+        ThreadFactory writeFactory = null;
+        if(virtualThreads) {
+            readFactory = virtualThreadFactory("Orbital-DB-read-");
+            writeFactory = virtualThreadFactory("Orbital-DB-write-");
+            if(readFactory == null) {
+                LOGGER.warn("Virtual threads require Java 21, using platform threads");
+            }
+        }
+        if(readFactory == null || writeFactory == null) {
+            readFactory = daemonThreadFactory("Orbital-DB-read-");
+            writeFactory = daemonThreadFactory("Orbital-DB-write-");
+        }
+
+        int threads = Math.max(1, readThreads);
+        reads = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), readFactory, handler);
+        writes = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), writeFactory, handler);
+    }
+
+    /**
+     * @return An {@link Executor} for tasks that only read from the database
+     */
+    public Executor reads() {
+        return task -> reads.execute(timed(task));
+    }
+
+    /**
+     * @return An {@link Executor} for tasks that write to the database, tasks run one at a time in submission order
+     */
+    public Executor writes() {
+        return task -> writes.execute(timed(task));
+    }
+
+    private Runnable timed(Runnable task) {
+        long submitted = System.nanoTime();
+        return () -> {
+            long start = System.nanoTime();
+            queueLatency.record(start - submitted);
+            try {
+                task.run();
+            } finally {
+                executionLatency.recordSince(start);
+            }
+        };
+    }
+
+    /**
+     * @return Amount of tasks waiting in both lanes
+     */
+    public int getQueueDepth() {
+        return reads.getQueue().size() + writes.getQueue().size();
+    }
+
+    /**
+     * @return Amount of tasks currently running in both lanes
+     */
+    public int getActiveTasks() {
+        return reads.getActiveCount() + writes.getActiveCount();
+    }
+
+    /**
+     * @return Time tasks spent waiting in a queue
+     */
+    public LatencyHistogram getQueueLatency() {
+        return queueLatency;
+    }
+
+    /**
+     * @return Time tasks spent running
+     */
+    public LatencyHistogram getExecutionLatency() {
+        return executionLatency;
+    }
+
+    /**
+     * Stops accepting tasks and waits for queued tasks to finish
+     * @param timeout Max time to wait for both lanes together
+     * @param unit Unit of the timeout
+     * @return Whether every task finished in time
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        reads.shutdown();
+        writes.shutdown();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return reads.awaitTermination(timeout, unit) & writes.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Removes every queued task without running it, running tasks are not interrupted
+     * The futures of removed tasks never complete, so this is only meant for when the plugin stops
+     * @return Amount of tasks removed
+     */
+    public int dropQueued() {
+        List<Runnable> dropped = new ArrayList<>();
+        reads.getQueue().drainTo(dropped);
+        writes.getQueue().drainTo(dropped);
+        return dropped.size();
+    }
+
+    /**
+     * Cancels running tasks and drops queued tasks
+     */
+    public void shutdownNow() {
+        reads.shutdownNow();
+        writes.shutdownNow();
+    }
+
+    private static void blockUntilQueued(Runnable task, ThreadPoolExecutor executor) {
+        if(executor.isShutdown()) {
+            throw new RejectedExecutionException("Database executor is shut down");
+        }
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for room in the database queue", e);
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Creates a virtual thread factory through reflection, since the plugin is compiled for Java 17
+     * @return The factory, or null if virtual threads are not available
+     */
+    private static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            builder = ofVirtual.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) ofVirtual.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package net.foster.testing.orbital.data;
+
+import net.foster.testing.orbital.data.store.AccountStore;
+import net.foster.testing.orbital.managers.BalanceRule;
+import net.foster.testing.orbital.managers.Economy;
+import net.foster.testing.orbital.managers.KeyRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Balances whose write failed for good, kept so they are not lost until a later write succeeds
+ * Only the latest balance per account is kept. An account that is loaded is also marked as changed, so the next save writes
+ * it from memory, which holds the same balance or a newer one. Balances of accounts that are not loaded are written again by
+ * every save, and an account loaded in the meantime takes its balance from here instead of from the store
+ * Balances are only taken out for a write while {@link Database#writeThrough} holds off loads, so no load of the same account runs in between
+ */
+public class DeadLetterQueue {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeadLetterQueue.class);
+
+    private final Economy econ;
+    private final Map<UUID, Long> balances = new LinkedHashMap<>();
+
+    /* Statistics */
+    private final LongAdder received = new LongAdder();
+    private final LongAdder redelivered = new LongAdder();
+
+    /**
+     * @param econ Economy manager holding the loaded accounts
+     */
+    public DeadLetterQueue(Economy econ) {
+        this.econ = econ;
+    }
+
+    /**
+     * Keeps balances that could not be written
+     * @param operation Name of the write, used in the log
+     * @param accounts Balances that were not written
+     * @param cause Error of the last attempt
+     */
+    public synchronized void add(String operation, Collection<AccountStore.Account> accounts, Throwable cause) {
+        for (AccountStore.Account account : accounts) {
+            balances.put(account.uuid(), account.balance());
+            econ.markDirty(account.uuid());
+        }
+        received.add(accounts.size());
+        LOGGER.warn(accounts.size() + " balances of " + operation + " could not be written (" + cause + "), "
+                + balances.size() + " are now kept until a save writes them");
+    }
+
+    /**
+     * Removes the balance of an account that is being loaded
+     * @param uuid UUID of the account
+     * @return The balance that was not written, null if there is none
+     */
+    public synchronized Long claim(UUID uuid) {
+        return balances.isEmpty() ? null : balances.remove(uuid);
+    }
+
+    /**
+     * Removes every balance so it can be written again
+     * Balances of accounts that are loaded are dropped, as the account in memory was marked as changed when it was added
+     * @return Balances of accounts that are not loaded
+     */
+    public synchronized List<AccountStore.Account> takeUnloaded() {
+        List<AccountStore.Account> unloaded = new ArrayList<>(balances.size());
+        balances.forEach((uuid, balance) -> {
+            if(!econ.hasAccount(uuid)) {
+                unloaded.add(new AccountStore.Account(uuid, balance));
+            }
+        });
+        balances.clear();
+        return unloaded;
+    }
+
+    /**
+     * Puts back balances taken by {@link #takeUnloaded()} whose write failed again, a balance added since is kept instead
+     * @param accounts Balances that were not written
+     */
+    public synchronized void restore(Collection<AccountStore.Account> accounts) {
+        for (AccountStore.Account account : accounts) {
+            balances.putIfAbsent(account.uuid(), account.balance());
+        }
+    }
+
+    /**
+     * Applies a rule to the kept balances in a key range, called by a payout while it changes the stored balances of the range
+     * A kept balance replaces the stored one once it is written or loaded, so it needs the rule as well
+     * @param rule Rule to apply
+     * @param range Accounts to change
+     * @return Amount of balances changed
+     */
+    public synchronized int applyRule(BalanceRule rule, KeyRange range) {
+        int changed = 0;
+        for (Map.Entry<UUID, Long> entry : balances.entrySet()) {
+            if(!range.contains(entry.getKey().getMostSignificantBits())) {
+                continue;
+            }
+            long updated = rule.apply(entry.getValue());
+            if(updated != entry.getValue()) {
+                entry.setValue(updated);
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Records balances taken by {@link #takeUnloaded()} that are now written
+     * @param accounts Amount of balances written
+     */
+    public void redelivered(int accounts) {
+        redelivered.add(accounts);
+    }
+
+    /**
+     * @return Amount of balances waiting to be written
+     */
+    public synchronized int size() {
+        return balances.size();
+    }
+
+    /**
+     * @return Amount of balances added since the start
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * @return Amount of balances that were written after being added
+     */
+    public long getRedelivered() {
+        return redelivered.sum();
+    }
+}
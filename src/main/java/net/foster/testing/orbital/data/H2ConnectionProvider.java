@@ -0,0 +1,40 @@
+package net.foster.testing.orbital.data;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+/**
+ * Connection provider for an embedded H2 database file
+ * H2 is bundled with the plugin, so the driver is loaded through the plugin class loader
+ */
+public class H2ConnectionProvider extends JdbcConnectionProvider {
+    private final String url;
+
+    /**
+     * Opens every connection to the database file
+     * @param path Path to the database without the ".mv.db" extension, the file is created if missing
+     * @param readConnections Amount of read connections to keep open
+     * @throws SQLException If the driver is missing or a connection could not be opened
+     */
+    public H2ConnectionProvider(String path, int readConnections) throws SQLException {
+        super(readConnections);
+        try {
+            // Registers the driver, DriverManager only finds drivers on the server class path by itself
+            Class.forName("org.h2.Driver");
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("H2 driver is not on the class path", e);
+        }
+        this.url = "jdbc:h2:file:" + path + ";DB_CLOSE_ON_EXIT=FALSE";
+        openConnections();
+    }
+
+    @Override
+    protected Connection connect(boolean readOnly) throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        if(readOnly) {
+            connection.setReadOnly(true);
+        }
+        return connection;
+    }
+}
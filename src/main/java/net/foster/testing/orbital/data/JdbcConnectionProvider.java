@@ -0,0 +1,128 @@
+package net.foster.testing.orbital.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connection provider holding a single writer connection and a small pool of read connections
+ * Subclasses open and configure the connections for their database
+ */
+public abstract class JdbcConnectionProvider implements ConnectionProvider {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JdbcConnectionProvider.class);
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
+    private final List<PooledConnection> connections = new ArrayList<>();
+    private final BlockingQueue<PooledConnection> writers = new ArrayBlockingQueue<>(1);
+    private final BlockingQueue<PooledConnection> readers;
+    private final int readConnections;
+
+    /* Statistics */
+    private final LongAdder checkouts = new LongAdder();
+    private final LongAdder contendedCheckouts = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    /**
+     * @param readConnections Amount of read connections to keep open
+     */
+    protected JdbcConnectionProvider(int readConnections) {
+        this.readConnections = Math.max(1, readConnections);
+        this.readers = new ArrayBlockingQueue<>(this.readConnections);
+    }
+
+    /**
+     * Opens every connection, call once at the end of the subclass constructor
+     * The writer is opened first, so settings it applies to the database are in place before any reader connects
+     * @throws SQLException If a connection could not be opened, every opened connection is closed again
+     */
+    protected final void openConnections() throws SQLException {
+        try {
+            add(connect(false), writers);
+            for (int i = 0; i < readConnections; i++) {
+                add(connect(true), readers);
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens and configures a new connection
+     * @param readOnly Whether the connection is only used for reading
+     * @return The connection
+     * @throws SQLException If the connection could not be opened
+     */
+    protected abstract Connection connect(boolean readOnly) throws SQLException;
+
+    private void add(Connection connection, BlockingQueue<PooledConnection> pool) {
+        PooledConnection pooled = new PooledConnection(connection, STATEMENT_CACHE_SIZE, pool::offer);
+        synchronized (connections) {
+            connections.add(pooled);
+        }
+        pool.add(pooled);
+    }
+
+    @Override
+    public PooledConnection reader() throws SQLException {
+        return checkout(readers);
+    }
+
+    @Override
+    public PooledConnection writer() throws SQLException {
+        return checkout(writers);
+    }
+
+    private PooledConnection checkout(BlockingQueue<PooledConnection> pool) throws SQLException {
+        checkouts.increment();
+        PooledConnection connection = pool.poll();
+        if(connection != null) {
+            return connection;
+        }
+
+        contendedCheckouts.increment();
+        long start = System.nanoTime();
+        try {
+            return pool.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        } finally {
+            waitNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public long getCheckouts() {
+        return checkouts.sum();
+    }
+
+    @Override
+    public long getContendedCheckouts() {
+        return contendedCheckouts.sum();
+    }
+
+    @Override
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    @Override
+    public void close() {
+        synchronized (connections) {
+            connections.forEach(PooledConnection::closeConnection);
+            connections.clear();
+        }
+        writers.clear();
+        readers.clear();
+        LOGGER.info("Connection pool closed after " + getCheckouts() + " checkouts ("
+                + getContendedCheckouts() + " waited, " + getWaitNanos() / 1_000_000 + "ms total wait)");
+    }
+}
@@ -0,0 +1,319 @@
+package net.foster.testing.orbital.data;
+
+import net.foster.testing.orbital.managers.BalanceListener;
+import net.foster.testing.orbital.managers.Economy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of every balance change since the last successful save
+ * Records are buffered and written with a single fsync per sync interval (group commit)
+ * Only appending to the buffer holds the lock of the journal, full buffers are swapped out and written and forced outside it
+ * The journal is split into segments, a save seals the current segment and deletes sealed segments once it succeeded
+ */
+public class Journal implements BalanceListener, AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Journal.class);
+
+    /* Record layout: type, most, least, amount, balance, version, crc of the previous fields */
+    private static final int RECORD_SIZE = 1 + Long.BYTES * 5 + Integer.BYTES;
+    private static final int BUFFER_SIZE = RECORD_SIZE * 4096;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+    private final Thread syncThread;
+    private final long syncIntervalMillis;
+
+    /* Guarded by this */
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ArrayDeque<Batch> sealed = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> spareBuffers = new ArrayDeque<>();
+    private long segment;
+    private long segmentRecords;
+    private volatile boolean closed;
+
+    /* Guarded by writeLock, held while writing and forcing so only one thread touches the files */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private FileChannel channel;
+    private long channelSegment;
+
+    /**
+     * Records swapped out of the buffer, waiting to be written into their segment
+     */
+    private record Batch(long segment, ByteBuffer records) {}
+
+    /**
+     * Opens a new segment in the journal directory and starts the sync thread
+     * Existing segments are kept, so they must be replayed with {@link #replay(Path, Economy)} first
+     * @param directory Directory holding the segments
+     * @param syncIntervalMillis Max time between a change and its fsync
+     * @throws IOException If the segment could not be created
+     */
+    public Journal(Path directory, long syncIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.syncIntervalMillis = Math.max(1, syncIntervalMillis);
+        Files.createDirectories(directory);
+
+        List<Path> existing = segments(directory);
+        segment = existing.isEmpty() ? 0 : segmentNumber(existing.get(existing.size() - 1)) + 1;
+        channel = openSegment(segment);
+        channelSegment = segment;
+
+        syncThread = new Thread(this::syncLoop, "Orbital-Journal");
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    @Override
+    public synchronized void onBalanceChange(long mostSigBits, long leastSigBits, int type, long amount, long balance, long version) {
+        // Loaded balances are already in the database
+        if(closed || type == LOAD) {
+            return;
+        }
+        if(buffer.remaining() < RECORD_SIZE) {
+            seal();
+            LockSupport.unpark(syncThread);
+        }
+
+        record.clear();
+        record.put((byte) (type & ~REMOTE))
+                .putLong(mostSigBits)
+                .putLong(leastSigBits)
+                .putLong(amount)
+                .putLong(balance)
+                .putLong(version);
+        crc.reset();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        buffer.put(record.array(), 0, RECORD_SIZE);
+        segmentRecords++;
+    }
+
+    /**
+     * Seals the current segment and starts a new one
+     * Every change made before this call is in a sealed segment
+     * Nothing is done if the current segment is empty
+     * @return Number of the first segment that is not sealed
+     */
+    public long rotate() {
+        long next;
+        synchronized (this) {
+            if(closed || segmentRecords == 0) {
+                return segment;
+            }
+            seal();
+            next = ++segment;
+            segmentRecords = 0;
+        }
+        sync();
+        return next;
+    }
+
+    /**
+     * Deletes segments sealed by {@link #rotate()}, call once the changes in them are saved
+     * @param before Number returned by {@link #rotate()}, segments below it are deleted
+     */
+    public void truncate(long before) {
+        try {
+            for (Path path : segments(directory)) {
+                if(segmentNumber(path) < before) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Could not truncate journal", e);
+        }
+    }
+
+    /**
+     * Writes buffered records and forces them to disk
+     * Only swapping the buffer holds the lock of the journal, so changes are not blocked by the disk
+     */
+    public void sync() {
+        writeLock.lock();
+        try {
+            if(closed && !channel.isOpen()) {
+                return;
+            }
+            List<Batch> batches;
+            long current;
+            synchronized (this) {
+                seal();
+                batches = new ArrayList<>(sealed);
+                sealed.clear();
+                current = segment;
+            }
+
+            for (Batch batch : batches) {
+                if(batch.segment() != channelSegment) {
+                    switchSegment(batch.segment());
+                }
+                write(batch.records());
+            }
+            // A rotation without records since then still seals the old segment
+            if(current != channelSegment) {
+                switchSegment(current);
+            }
+            channel.force(false);
+
+            synchronized (this) {
+                for (Batch batch : batches) {
+                    // Two spares are enough to swap while the sync thread writes, more only after a burst
+                    if(spareBuffers.size() < 2) {
+                        spareBuffers.add(batch.records());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Could not sync journal", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void syncLoop() {
+        while (!closed) {
+            // Woken early once a buffer is full
+            LockSupport.parkNanos(this, syncIntervalMillis * 1_000_000);
+            if(Thread.interrupted()) {
+                break;
+            }
+            sync();
+        }
+    }
+
+    /**
+     * Moves the buffered records into the batches waiting to be written, must hold the lock
+     */
+    private void seal() {
+        if(buffer.position() == 0) {
+            return;
+        }
+        sealed.add(new Batch(segment, buffer));
+        ByteBuffer spare = spareBuffers.poll();
+        buffer = spare != null ? spare : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    /**
+     * Writes records into the open segment, must hold the write lock
+     */
+    private void write(ByteBuffer records) {
+        records.flip();
+        try {
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Could not write " + records.remaining() / RECORD_SIZE + " journal records", e);
+        } finally {
+            records.clear();
+        }
+    }
+
+    /**
+     * Forces and closes the open segment and opens another one, must hold the write lock
+     */
+    private void switchSegment(long number) throws IOException {
+        channel.force(false);
+        channel.close();
+        channel = openSegment(number);
+        channelSegment = number;
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(directory.resolve(SEGMENT_PREFIX + number + SEGMENT_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public void close() {
+        // Changes after this are dropped, the ones before are written by the last sync
+        closed = true;
+        sync();
+        writeLock.lock();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.error("Could not close journal", e);
+        } finally {
+            writeLock.unlock();
+        }
+        // Interrupting earlier could close the channel in the middle of the last write
+        syncThread.interrupt();
+    }
+
+    /**
+     * Restores the latest balance of every account found in the journal
+     * Restored balances are marked as changed, so the next save writes them into the database
+     * Reading a segment stops at the first incomplete or corrupt record, which is where a crash cut it off
+     * @param directory Directory holding the segments
+     * @param econ Economy manager to restore the balances into
+     * @return Amount of accounts restored
+     * @throws IOException If a segment could not be read
+     */
+    public static int replay(Path directory, Economy econ) throws IOException {
+        if(!Files.isDirectory(directory)) {
+            return 0;
+        }
+
+        Map<UUID, Long> balances = new HashMap<>();
+        CRC32 crc = new CRC32();
+        for (Path path : segments(directory)) {
+            ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(path));
+            while (records.remaining() >= RECORD_SIZE) {
+                int start = records.position();
+                crc.reset();
+                crc.update(records.array(), start, RECORD_SIZE - Integer.BYTES);
+
+                records.get(); // Type, only the resulting balance is needed
+                long mostSigBits = records.getLong();
+                long leastSigBits = records.getLong();
+                records.getLong(); // Amount
+                long balance = records.getLong();
+                records.getLong(); // Version
+                if(records.getInt() != (int) crc.getValue()) {
+                    LOGGER.warn("Journal segment " + path.getFileName() + " is corrupt after " + start / RECORD_SIZE + " records");
+                    break;
+                }
+                balances.put(new UUID(mostSigBits, leastSigBits), balance);
+            }
+        }
+
+        balances.forEach(econ::setBalanceMinor);
+        return balances.size();
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                        String name = path.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted(Comparator.comparingLong(Journal::segmentNumber))
+                    .toList();
+        }
+    }
+
+    private static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package net.foster.testing.orbital.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A connection owned by a {@link ConnectionProvider}
+ * Prepared statements are cached per connection, so they must never be closed by the caller
+ * Only one thread may use the connection between checkout and {@link #close()}
+ */
+public final class PooledConnection implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PooledConnection.class);
+
+    private final Connection connection;
+    private final Consumer<PooledConnection> release;
+    private final Map<String, PreparedStatement> statements;
+
+    PooledConnection(Connection connection, int statementCacheSize, Consumer<PooledConnection> release) {
+        this.connection = connection;
+        this.release = release;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if(size() <= statementCacheSize) {
+                    return false;
+                }
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Gets a cached prepared statement or prepares a new one
+     * Parameters from the previous use are cleared
+     * @param sql SQL of the statement
+     * @return A {@link PreparedStatement} that must not be closed
+     * @throws SQLException If the statement could not be prepared
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if(statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        } else {
+            statement.clearParameters();
+        }
+        return statement;
+    }
+
+    /**
+     * @return The underlying JDBC connection
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns the connection to its provider
+     */
+    @Override
+    public void close() {
+        release.accept(this);
+    }
+
+    /**
+     * Closes cached statements and the underlying connection
+     */
+    void closeConnection() {
+        statements.values().forEach(PooledConnection::closeQuietly);
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOGGER.error("Could not close database connection", e);
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            LOGGER.warn("Could not close cached statement", e);
+        }
+    }
+}
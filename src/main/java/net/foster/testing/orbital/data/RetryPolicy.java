@@ -0,0 +1,39 @@
+package net.foster.testing.orbital.data;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How often and how fast a database task is tried again after the database was locked by another connection
+ * Delays grow exponentially up to the max, each randomized by up to half, so tasks that failed together do not retry together
+ *
+ * @param attempts Times a task is tried, at least 1
+ * @param initialDelayMillis Time before the first retry
+ * @param maxDelayMillis Max time between two retries
+ */
+public record RetryPolicy(int attempts, long initialDelayMillis, long maxDelayMillis) {
+    public static final RetryPolicy DEFAULT = new RetryPolicy(5, 20, 1000);
+
+    public RetryPolicy {
+        attempts = Math.max(1, attempts);
+        initialDelayMillis = Math.max(1, initialDelayMillis);
+        maxDelayMillis = Math.max(initialDelayMillis, maxDelayMillis);
+    }
+
+    /**
+     * @param settings Settings read from config.yml
+     * @return The policy set under database.retry
+     */
+    public static RetryPolicy from(Settings settings) {
+        return new RetryPolicy(settings.retryAttempts(), settings.retryInitialDelayMillis(), settings.retryMaxDelayMillis());
+    }
+
+    /**
+     * @param attempt Number of the attempt that failed, starting at 1
+     * @return Time to wait before the next attempt in nanoseconds
+     */
+    public long delayNanos(int attempt) {
+        long delay = TimeUnit.MILLISECONDS.toNanos(Math.min(maxDelayMillis, initialDelayMillis << Math.min(attempt - 1, 30)));
+        return delay - ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+}
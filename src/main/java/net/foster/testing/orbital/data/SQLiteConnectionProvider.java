@@ -0,0 +1,46 @@
+package net.foster.testing.orbital.data;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Connection provider for a local SQLite file
+ * Holds a single writer connection, since SQLite only allows one writer at a time,
+ * and a small pool of read connections that can run alongside it in WAL mode
+ */
+public class SQLiteConnectionProvider extends JdbcConnectionProvider {
+    private final String path;
+
+    /**
+     * Opens every connection to the database file
+     * @param path Path to the SQLite file, the file is created if missing
+     * @param readConnections Amount of read connections to keep open
+     * @throws SQLException If a connection could not be opened
+     */
+    public SQLiteConnectionProvider(String path, int readConnections) throws SQLException {
+        super(readConnections);
+        this.path = path;
+        openConnections();
+    }
+
+    @Override
+    protected Connection connect(boolean readOnly) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+        try (Statement statement = connection.createStatement()) {
+            if(!readOnly) {
+                statement.execute("PRAGMA journal_mode=WAL");
+            }
+            statement.execute("PRAGMA synchronous=NORMAL");
+            statement.execute("PRAGMA busy_timeout=5000");
+            if(readOnly) {
+                statement.execute("PRAGMA query_only=true");
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+}
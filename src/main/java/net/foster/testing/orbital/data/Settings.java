@@ -0,0 +1,191 @@
+package net.foster.testing.orbital.data;
+
+import net.foster.testing.orbital.data.store.AccountStore;
+import net.foster.testing.orbital.utils.Money;
+import net.foster.testing.orbital.utils.ThreadGuard;
+import org.bukkit.ChatColor;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typed values of config.yml, read once per load instead of looked up by path on every use
+ * Immutable, a reload publishes a new instance through {@link ConfigManager#getSettings()}
+ * Database settings are only read when the database starts, so changing them requires a restart
+ *
+ * @param databaseBackend Kind of storage balances are saved in
+ * @param tableName Name of the balance table
+ * @param databasePath Path of the storage file without extension, relative to the plugin folder
+ * @param flushIntervalTicks Interval for writing changed balances into the database
+ * @param flushBatchSize Max amount of balances written in a single transaction
+ * @param readConnections Amount of pooled connections used for reading
+ * @param cacheMaxSize Amount of accounts kept in memory at most, online players are always kept
+ * @param cacheExpireAfterMillis Time since last use after which an offline account is removed from memory
+ * @param preloadTimeoutMillis Max time a login waits for the balance to load
+ * @param preloadKickOnTimeout Whether to deny the login at the timeout instead of waiting until the balance is loaded,
+ *                             which waits at most the operation timeout and denies the login at once if it is 0
+ * @param preloadKickMessage Message shown when a login is denied, with colors translated
+ * @param snapshotEnabled Whether a snapshot of every balance is written for fast startup
+ * @param snapshotIntervalMillis Time between two snapshots
+ * @param journalEnabled Whether balance changes are journaled between saves
+ * @param journalSyncIntervalMillis Max time between a balance change and it being forced to disk
+ * @param shutdownTimeoutMillis Max time the final save may take when the server stops
+ * @param operationTimeoutMillis Max time a database task may take including its time in the queue, 0 if it may take any time
+ * @param retryAttempts Times a database task is tried when the database is locked by another connection
+ * @param retryInitialDelayMillis Time before the first retry, doubled on every further one
+ * @param retryMaxDelayMillis Max time between two retries
+ * @param executorReadThreads Threads running database reads
+ * @param executorQueueCapacity Max amount of queued database tasks per lane
+ * @param executorRejectionPolicy What to do when a database queue is full
+ * @param executorVirtualThreads Whether database tasks run on virtual threads
+ * @param syncEnabled Whether balances are kept in sync with other servers
+ * @param syncNodeId Id of this server among the synced servers, 0 picks a random one
+ * @param syncTransport Transport to the other servers, "socket" or "loopback"
+ * @param syncBind Address the socket transport listens on
+ * @param syncPort Port the socket transport listens on
+ * @param syncPeers Addresses of the other servers as "host:port"
+ * @param syncSecret Secret shared by the servers to authenticate sync connections, empty for loopback only
+ * @param metricsDumpEnabled Whether every metric is written to a file in the Prometheus text format
+ * @param metricsDumpPath Path of the metrics file, relative to the plugin folder
+ * @param metricsDumpIntervalTicks Interval for writing the metrics file
+ * @param guardMode What to do with blocking calls on the server thread
+ * @param guardTickBudgetNanos Time economy code may spend on the server thread per tick
+ * @param payoutIntervalMillis Time between two payouts, 0 if payouts are disabled
+ * @param payoutThreads Threads applying payout rules to loaded accounts
+ * @param interestPercent Percent of every positive balance paid on each payout
+ * @param wealthTaxPercent Percent of the part of a balance above the threshold taken on each payout
+ * @param wealthTaxThreshold Balance in minor units that is never taxed
+ * @param payroll Wage in minor units paid on each payout per rank, by name of the rank
+ * @param startMoney Balance of new players
+ * @param earnCooldownSeconds Time until "/earn" can be used again
+ * @param baltopPageSize Amount of players per page of "/baltop"
+ */
+public record Settings(AccountStore.Backend databaseBackend,
+                       String tableName,
+                       String databasePath,
+                       long flushIntervalTicks,
+                       int flushBatchSize,
+                       int readConnections,
+                       int cacheMaxSize,
+                       long cacheExpireAfterMillis,
+                       long preloadTimeoutMillis,
+                       boolean preloadKickOnTimeout,
+                       String preloadKickMessage,
+                       boolean snapshotEnabled,
+                       long snapshotIntervalMillis,
+                       boolean journalEnabled,
+                       long journalSyncIntervalMillis,
+                       long shutdownTimeoutMillis,
+                       long operationTimeoutMillis,
+                       int retryAttempts,
+                       long retryInitialDelayMillis,
+                       long retryMaxDelayMillis,
+                       int executorReadThreads,
+                       int executorQueueCapacity,
+                       DatabaseExecutor.RejectionPolicy executorRejectionPolicy,
+                       boolean executorVirtualThreads,
+                       boolean syncEnabled,
+                       int syncNodeId,
+                       String syncTransport,
+                       String syncBind,
+                       int syncPort,
+                       List<String> syncPeers,
+                       String syncSecret,
+                       boolean metricsDumpEnabled,
+                       String metricsDumpPath,
+                       long metricsDumpIntervalTicks,
+                       ThreadGuard.Mode guardMode,
+                       long guardTickBudgetNanos,
+                       long payoutIntervalMillis,
+                       int payoutThreads,
+                       double interestPercent,
+                       double wealthTaxPercent,
+                       long wealthTaxThreshold,
+                       Map<String, Long> payroll,
+                       double startMoney,
+                       long earnCooldownSeconds,
+                       int baltopPageSize) {
+
+    /**
+     * Reads every setting from a loaded config.yml
+     * @param config Root of the configuration
+     * @return The settings
+     */
+    public static Settings from(ConfigurationSection config) {
+        return new Settings(
+                AccountStore.Backend.fromName(config.getString("database.backend")),
+                config.getString("database.table-name"),
+                config.getString("database.path"),
+                Math.max(1, readFlushIntervalSeconds(config)) * 20 /* Seconds */,
+                Math.max(1, config.getInt("database.flush-batch-size")),
+                Math.max(1, config.getInt("database.read-connections")),
+                Math.max(1, config.getInt("database.cache.max-size")),
+                Math.max(0, config.getLong("database.cache.expire-after")) * 1000 /* Seconds */,
+                config.getLong("database.preload-timeout"),
+                config.getBoolean("database.preload-kick-on-timeout"),
+                ChatColor.translateAlternateColorCodes('&', config.getString("database.preload-kick-message", "")),
+                config.getBoolean("database.snapshot.enabled"),
+                Math.max(1, config.getLong("database.snapshot.interval")) * 1000 /* Seconds */,
+                config.getBoolean("database.journal.enabled"),
+                config.getLong("database.journal.sync-interval"),
+                Math.max(1, config.getLong("database.shutdown-timeout", 10_000)),
+                Math.max(0, config.getLong("database.operation-timeout", 30_000)),
+                Math.max(1, config.getInt("database.retry.attempts", 5)),
+                Math.max(1, config.getLong("database.retry.initial-delay", 20)),
+                Math.max(1, config.getLong("database.retry.max-delay", 1000)),
+                config.getInt("database.executor.read-threads"),
+                config.getInt("database.executor.queue-capacity"),
+                DatabaseExecutor.RejectionPolicy.fromName(config.getString("database.executor.rejection-policy")),
+                config.getBoolean("database.executor.virtual-threads"),
+                config.getBoolean("sync.enabled"),
+                config.getInt("sync.node-id"),
+                config.getString("sync.transport", "socket"),
+                config.getString("sync.socket.bind", "127.0.0.1"),
+                config.getInt("sync.socket.port"),
+                List.copyOf(config.getStringList("sync.socket.peers")),
+                config.getString("sync.socket.secret", ""),
+                config.getBoolean("metrics.dump.enabled"),
+                config.getString("metrics.dump.path", "metrics/orbital.prom"),
+                Math.max(1, config.getLong("metrics.dump.interval")) * 20 /* Seconds */,
+                ThreadGuard.Mode.fromName(config.getString("guard.mode")),
+                (long) (Math.max(0, config.getDouble("guard.tick-budget")) * 1_000_000) /* Milliseconds */,
+                Math.max(0, config.getLong("payouts.interval")) * 60_000 /* Minutes */,
+                config.getInt("payouts.threads") > 0 ? config.getInt("payouts.threads") : Runtime.getRuntime().availableProcessors(),
+                Math.max(0, config.getDouble("payouts.interest")),
+                Math.max(0, Math.min(100, config.getDouble("payouts.wealth-tax.rate"))),
+                Money.toMinor(Math.max(0, config.getDouble("payouts.wealth-tax.threshold"))),
+                readPayroll(config.getConfigurationSection("payouts.payroll")),
+                config.getDouble("start-money"),
+                Math.max(0, config.getLong("earn-cooldown")),
+                Math.max(1, config.getInt("baltop-page-size")));
+    }
+
+    /**
+     * Reads database.flush-interval, or database.save-interval of older config.yml files, which was set in minutes
+     * The old key wins while it is present, as flush-interval was only added to the file with its default value
+     * The plugin replaces the old key on load, see {@link ConfigManager}, so it is only found in configurations read otherwise
+     */
+    private static long readFlushIntervalSeconds(ConfigurationSection config) {
+        if(!config.isSet("database.save-interval")) {
+            return config.getLong("database.flush-interval");
+        }
+        return config.getLong("database.save-interval") * 60;
+    }
+
+    private static Map<String, Long> readPayroll(ConfigurationSection section) {
+        if(section == null) {
+            return Map.of();
+        }
+        Map<String, Long> payroll = new LinkedHashMap<>();
+        for (String rank : section.getKeys(false)) {
+            long wage = Money.toMinor(section.getDouble(rank));
+            if(wage > 0) {
+                payroll.put(rank, wage);
+            }
+        }
+        return Collections.unmodifiableMap(payroll);
+    }
+}
@@ -0,0 +1,229 @@
+package net.foster.testing.orbital.data;
+
+import net.foster.testing.orbital.data.store.AccountStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * A binary file holding the balance of every account at one point in time
+ * Records have a fixed width, so the file can be mapped and decoded in parallel chunks without parsing
+ * Also used as the export format of "/eco export"
+ */
+public final class Snapshot {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Snapshot.class);
+
+    /* Header: magic, format version, creation time, record count, crc of the records, reserved */
+    private static final int MAGIC = 0x4F524253; // "ORBS"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES * 2 + Integer.BYTES * 2;
+    /* Record layout: most, least, balance in minor units */
+    private static final int RECORD_SIZE = Long.BYTES * 3;
+    private static final int WRITE_BUFFER_RECORDS = 8192;
+    /* Smallest chunk decoded by one thread */
+    private static final int MIN_CHUNK_RECORDS = 65_536;
+
+    /**
+     * Receives the accounts of one chunk at once, called from several threads
+     */
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        void accept(long[] most, long[] least, long[] balances, int count);
+    }
+
+    /**
+     * Passes accounts to be written into a snapshot
+     */
+    @FunctionalInterface
+    public interface Source {
+        /**
+         * @param consumer Consumer called once per account
+         * @return Amount of accounts passed
+         */
+        int scan(AccountStore.BalanceConsumer consumer) throws Exception;
+    }
+
+    /**
+     * Header of a snapshot file
+     * @param createdAtMillis Time the snapshot was started, every write before it is included
+     * @param records Amount of accounts in the snapshot
+     */
+    public record Info(long createdAtMillis, long records) {}
+
+    private Snapshot() {}
+
+    /**
+     * Writes every account of a store into a snapshot
+     * The file is written next to the target and moved over it, so a crash leaves either the old or the new snapshot
+     * @param store Store to read the accounts from
+     * @param path Path of the snapshot file
+     * @return Header of the written snapshot
+     * @throws Exception If the accounts could not be read or the file could not be written
+     */
+    public static Info write(AccountStore store, Path path) throws Exception {
+        return write(store::scanAll, path);
+    }
+
+    /**
+     * Writes the accounts of any source into a snapshot, see {@link #write(AccountStore, Path)}
+     * @param source Source of the accounts
+     * @param path Path of the snapshot file
+     * @return Header of the written snapshot
+     * @throws Exception If the accounts could not be read or the file could not be written
+     */
+    public static Info write(Source source, Path path) throws Exception {
+        // Taken before reading, so writes during the scan are newer than the snapshot and read again on load
+        long createdAt = System.currentTimeMillis();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        long records;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * WRITE_BUFFER_RECORDS);
+            CRC32 crc = new CRC32();
+            IOException[] failure = new IOException[1];
+            channel.position(HEADER_SIZE);
+
+            records = source.scan((mostSigBits, leastSigBits, balance) -> {
+                if(failure[0] != null) {
+                    return;
+                }
+                if(buffer.remaining() < RECORD_SIZE) {
+                    failure[0] = drain(buffer, crc, channel);
+                }
+                buffer.putLong(mostSigBits).putLong(leastSigBits).putLong(balance);
+            });
+            if(failure[0] == null) {
+                failure[0] = drain(buffer, crc, channel);
+            }
+            if(failure[0] != null) {
+                throw failure[0];
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .putInt(MAGIC)
+                    .putInt(FORMAT_VERSION)
+                    .putLong(createdAt)
+                    .putLong(records)
+                    .putInt((int) crc.getValue())
+                    .putInt(0)
+                    .flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        } catch (Exception e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return new Info(createdAt, records);
+    }
+
+    private static IOException drain(ByteBuffer buffer, CRC32 crc, FileChannel channel) {
+        buffer.flip();
+        crc.update(buffer.array(), 0, buffer.limit());
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            return null;
+        } catch (IOException e) {
+            return e;
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reads only the header of a snapshot
+     * @param path Path of the snapshot file
+     * @return Header of the snapshot
+     * @throws IOException If the file could not be read or is not a snapshot
+     */
+    public static Info readInfo(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Read until the header is complete or the file ends
+            }
+            header.flip();
+            if(header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException("Not a snapshot: " + path.getFileName());
+            }
+            int version = header.getInt();
+            if(version != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + path.getFileName());
+            }
+            return new Info(header.getLong(), header.getLong());
+        }
+    }
+
+    /**
+     * Reads every account of a snapshot
+     * The file is mapped into memory, checked against its checksum and decoded in parallel chunks
+     * @param path Path of the snapshot file
+     * @param consumer Consumer called once per chunk, from several threads at once
+     * @return Header of the snapshot
+     * @throws IOException If the file could not be read, is not a snapshot or is corrupt, the consumer is not called then
+     */
+    public static Info read(Path path, ChunkConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size < HEADER_SIZE) {
+                throw new IOException("Snapshot " + path.getFileName() + " is too short");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if(mapped.getInt(0) != MAGIC) {
+                throw new IOException("Not a snapshot: " + path.getFileName());
+            }
+            int version = mapped.getInt(Integer.BYTES);
+            if(version != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + path.getFileName());
+            }
+            long createdAt = mapped.getLong(Integer.BYTES * 2);
+            long records = mapped.getLong(Integer.BYTES * 2 + Long.BYTES);
+            int expectedCrc = mapped.getInt(Integer.BYTES * 2 + Long.BYTES * 2);
+            if(records < 0 || HEADER_SIZE + records * RECORD_SIZE != size || records > Integer.MAX_VALUE / RECORD_SIZE) {
+                throw new IOException("Snapshot " + path.getFileName() + " is cut off, " + records + " records expected");
+            }
+
+            // Checked before any account is used, so a corrupt snapshot falls back to the database as a whole
+            CRC32 crc = new CRC32();
+            crc.update(mapped.slice(HEADER_SIZE, (int) (size - HEADER_SIZE)));
+            if((int) crc.getValue() != expectedCrc) {
+                throw new IOException("Snapshot " + path.getFileName() + " is corrupt, checksum does not match");
+            }
+
+            int total = (int) records;
+            int chunks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), total / MIN_CHUNK_RECORDS));
+            int chunkSize = (total + chunks - 1) / chunks;
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                int from = chunk * chunkSize;
+                int count = Math.max(0, Math.min(chunkSize, total - from));
+                ByteBuffer slice = mapped.slice(HEADER_SIZE + from * RECORD_SIZE, count * RECORD_SIZE);
+                long[] most = new long[count];
+                long[] least = new long[count];
+                long[] balances = new long[count];
+                for (int i = 0; i < count; i++) {
+                    most[i] = slice.getLong();
+                    least[i] = slice.getLong();
+                    balances[i] = slice.getLong();
+                }
+                consumer.accept(most, least, balances, count);
+            });
+            LOGGER.debug("Read " + total + " accounts from snapshot in " + chunks + " chunks");
+            return new Info(createdAt, records);
+        }
+    }
+}
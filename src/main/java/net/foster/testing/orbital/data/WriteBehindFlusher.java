@@ -0,0 +1,91 @@
+package net.foster.testing.orbital.data;
+
+import net.foster.testing.orbital.data.store.AccountStore;
+import net.foster.testing.orbital.managers.Economy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Writes changed balances from the Economy manager into the database
+ * Only accounts marked as dirty are written, in batches that are each written by one {@link AccountStore#upsertBatch}
+ */
+public class WriteBehindFlusher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindFlusher.class);
+
+    private final Database database;
+    private final Economy econ;
+    private final int maxBatchSize;
+    private volatile boolean lastFlushSucceeded = true;
+
+    public WriteBehindFlusher(Database database, Economy econ, int maxBatchSize) {
+        this.database = database;
+        this.econ = econ;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    /**
+     * Writes every dirty account into the database
+     * Blocks until all batches are written, so it must not be called from the main thread
+     * @return Amount of accounts written
+     */
+    public synchronized int flush() {
+        List<AccountStore.Account> pending = drain();
+
+        int written = 0;
+        boolean succeeded = true;
+        for (int from = 0; from < pending.size(); from += maxBatchSize) {
+            List<AccountStore.Account> batch = pending.subList(from, Math.min(pending.size(), from + maxBatchSize));
+            try {
+                database.writeBalances("save", batch).join();
+            } catch (Exception e) {
+                if(e instanceof CompletionException && e.getCause() instanceof TimeoutException) {
+                    // The write may still run, so the batch is only dead lettered by it if it fails. Until then the accounts
+                    // must not be evicted, as a load would read the row from before the write
+                    LOGGER.error("Flush of " + (pending.size() - from) + " accounts timed out, they will be written again on next save", e);
+                    markDirty(pending.subList(from, pending.size()));
+                } else {
+                    // The failed batch is kept by the dead letter queue, the batches after it are not tried while the store fails
+                    List<AccountStore.Account> skipped = pending.subList(from + batch.size(), pending.size());
+                    LOGGER.error("Could not flush " + (pending.size() - from) + " accounts, they will be retried on next save", e);
+                    database.deadLetter("save", List.copyOf(skipped), e);
+                }
+                succeeded = false;
+                break;
+            }
+            written += batch.size();
+        }
+        lastFlushSucceeded = succeeded;
+        return written;
+    }
+
+    private void markDirty(List<AccountStore.Account> accounts) {
+        for (AccountStore.Account account : accounts) {
+            econ.markDirty(account.uuid());
+        }
+    }
+
+    /**
+     * Takes every dirty account and marks it as clean without writing it, used by the final save when the server stops
+     * Waits for a running flush, so the accounts it failed to write are marked as dirty again before the drain
+     * @return The drained accounts
+     */
+    public synchronized List<AccountStore.Account> drain() {
+        List<AccountStore.Account> pending = new ArrayList<>();
+        econ.drainDirty((mostSigBits, leastSigBits, balance, version) ->
+                pending.add(new AccountStore.Account(new UUID(mostSigBits, leastSigBits), balance)));
+        return pending;
+    }
+
+    /**
+     * @return Whether every account drained by the last flush was written
+     */
+    public boolean lastFlushSucceeded() {
+        return lastFlushSucceeded;
+    }
+}
@@ -0,0 +1,168 @@
+package net.foster.testing.orbital.data.store;
+
+import net.foster.testing.orbital.managers.BalanceRule;
+import net.foster.testing.orbital.managers.KeyRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Storage for the balance of every account, balances are in minor units
+ * Methods block and are called from the threads of {@link net.foster.testing.orbital.data.DatabaseExecutor},
+ * reads may run at the same time as each other and as writes, writes are never run at the same time
+ */
+public interface AccountStore extends AutoCloseable {
+    /**
+     * A stored balance
+     * @param uuid UUID of the account
+     * @param balance Balance in minor units
+     */
+    record Account(UUID uuid, long balance) {}
+
+    /**
+     * Receives an account without boxing it
+     */
+    @FunctionalInterface
+    interface BalanceConsumer {
+        void accept(long mostSigBits, long leastSigBits, long balance);
+    }
+
+    /**
+     * Creates the storage if missing, called once before any other method
+     * @throws StorageException If the storage could not be created
+     */
+    void initialize() throws StorageException;
+
+    /**
+     * Loads the balance of an account, creating the account if missing
+     * @param uuid UUID of the account
+     * @param defaultBalance Balance of a created account
+     * @return The balance in minor units
+     * @throws StorageException If the account could not be read or created
+     */
+    long load(UUID uuid, long defaultBalance) throws StorageException;
+
+    /**
+     * Loads the balance of many accounts at once, creating the accounts that are missing
+     * @param uuids UUIDs of the accounts, without duplicates
+     * @param defaultBalance Balance of a created account
+     * @return Balance of every account in minor units
+     * @throws StorageException If the accounts could not be read or created, none of them are created then
+     */
+    Map<UUID, Long> loadMany(Collection<UUID> uuids, long defaultBalance) throws StorageException;
+
+    /**
+     * Reads the balance of many accounts at once without creating any, so it can run as a read
+     * @param uuids UUIDs of the accounts, without duplicates
+     * @return Balance of every stored account in minor units, accounts that are missing are left out
+     * @throws StorageException If the accounts could not be read
+     */
+    Map<UUID, Long> findMany(Collection<UUID> uuids) throws StorageException;
+
+    /**
+     * Writes the balance of many accounts at once, creating the accounts that are missing
+     * Either every balance is written or none of them
+     * @param accounts Accounts to write, without duplicates
+     * @throws StorageException If the balances could not be written
+     */
+    void upsertBatch(Collection<Account> accounts) throws StorageException;
+
+    /**
+     * Applies a rule to every stored account in a key range in one transaction, see {@link BalanceRule#apply(long)}
+     * Either every balance in the range is changed or none of them
+     * @param rule Rule to apply
+     * @param range Accounts to change, {@link KeyRange#ALL} for every account
+     * @return Amount of accounts changed
+     * @throws StorageException If the balances could not be changed
+     */
+    int applyRule(BalanceRule rule, KeyRange range) throws StorageException;
+
+    /**
+     * Passes every stored account to the consumer, in no particular order
+     * @param consumer Consumer called for each account
+     * @return Amount of accounts read
+     * @throws StorageException If the accounts could not be read
+     */
+    int scanAll(BalanceConsumer consumer) throws StorageException;
+
+    /**
+     * Passes every account written at or after a point in time to the consumer, in no particular order
+     * Used to catch up on a snapshot, stores that do not record write times pass every account
+     * @param sinceMillis Time in epoch milliseconds
+     * @param consumer Consumer called for each account
+     * @return Amount of accounts read
+     * @throws StorageException If the accounts could not be read
+     */
+    int scanSince(long sinceMillis, BalanceConsumer consumer) throws StorageException;
+
+    /**
+     * @param limit Amount of accounts to return at most
+     * @return The accounts with the highest balance, highest first
+     * @throws StorageException If the accounts could not be read
+     */
+    List<Account> topN(int limit) throws StorageException;
+
+    /**
+     * Closes the storage, no method may be called afterwards
+     */
+    @Override
+    void close();
+
+    /**
+     * Kind of storage, selected by "database.backend" in config.yml
+     */
+    enum Backend {
+        /**
+         * A SQLite file, the default
+         */
+        SQLITE,
+        /**
+         * An embedded H2 file, bundled with the plugin
+         */
+        H2,
+        /**
+         * An append-only binary file, see {@link FileAccountStore}
+         */
+        FILE;
+
+        private static final Logger LOGGER = LoggerFactory.getLogger(Backend.class);
+
+        /**
+         * Opens a store of this kind, {@link AccountStore#initialize()} must be called afterwards
+         * @param path Path of the storage without extension
+         * @param tableName Name of the table, for backends with tables
+         * @param readConnections Amount of connections used for reading, for backends with connections
+         * @return The store
+         * @throws StorageException If the store could not be opened
+         */
+        public AccountStore open(Path path, String tableName, int readConnections) throws StorageException {
+            return switch (this) {
+                case SQLITE -> SQLiteAccountStore.open(path.resolveSibling(path.getFileName() + ".db"), tableName, readConnections);
+                case H2 -> H2AccountStore.open(path, tableName, readConnections);
+                case FILE -> new FileAccountStore(path.resolveSibling(path.getFileName() + ".bin"));
+            };
+        }
+
+        /**
+         * @param name Name from config.yml, like "sqlite"
+         * @return The matching backend, {@link #SQLITE} if the name is unknown
+         */
+        public static Backend fromName(String name) {
+            if(name == null) {
+                return SQLITE;
+            }
+            try {
+                return valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Unknown database backend \"" + name + "\", using sqlite");
+                return SQLITE;
+            }
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package net.foster.testing.orbital.data.store;
+
+import net.foster.testing.orbital.managers.BalanceRule;
+import net.foster.testing.orbital.managers.KeyRange;
+import net.foster.testing.orbital.utils.UUIDLongMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Account store in a single append-only binary file, without a database
+ * Every write appends one fixed-size record per account and forces the file once per batch,
+ * the latest record of an account wins. The balance of every account is indexed in memory,
+ * so reads never touch the disk. The file is rewritten with only the latest records once most of it is outdated
+ */
+public class FileAccountStore implements AccountStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileAccountStore.class);
+
+    /* Header: magic, format version */
+    private static final int MAGIC = 0x4F524241; // "ORBA"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+    /* Record layout: most, least, balance, crc of the previous fields */
+    private static final int RECORD_SIZE = Long.BYTES * 3 + Integer.BYTES;
+    /* Compacted once the file holds this many times more records than accounts */
+    private static final int COMPACTION_RATIO = 4;
+    private static final int MIN_COMPACTION_RECORDS = 65_536;
+
+    private final Path path;
+    private final UUIDLongMap balances = new UUIDLongMap();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final CRC32 crc = new CRC32();
+
+    private FileChannel channel;
+    private long records;
+
+    /**
+     * @param path Path of the file, created by {@link #initialize()} if missing
+     */
+    public FileAccountStore(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Reads every record into memory
+     * Reading stops at the first incomplete or corrupt record, which is where a crash cut the file off, and the rest is cut off
+     */
+    @Override
+    public void initialize() throws StorageException {
+        lock.writeLock().lock();
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if(channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+                channel.write(header, 0);
+                channel.force(true);
+            }
+            long end = replay();
+            if(end < channel.size()) {
+                LOGGER.warn("Account file " + path.getFileName() + " is corrupt after " + records + " records, cutting off "
+                        + (channel.size() - end) + " bytes");
+                channel.truncate(end);
+            }
+            channel.position(end);
+        } catch (IOException e) {
+            throw new StorageException("Could not open account file " + path, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private long replay() throws IOException, StorageException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if(header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+            throw new StorageException("Not an account file: " + path);
+        }
+        int version = header.getInt();
+        if(version != FORMAT_VERSION) {
+            throw new StorageException("Unsupported account file version " + version + ": " + path);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+        long position = HEADER_SIZE;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if(read < RECORD_SIZE) {
+                return position;
+            }
+            buffer.flip();
+            while (buffer.remaining() >= RECORD_SIZE) {
+                int start = buffer.position();
+                crc.reset();
+                crc.update(buffer.array(), start, RECORD_SIZE - Integer.BYTES);
+                long mostSigBits = buffer.getLong();
+                long leastSigBits = buffer.getLong();
+                long balance = buffer.getLong();
+                if(buffer.getInt() != (int) crc.getValue()) {
+                    return position;
+                }
+                balances.put(mostSigBits, leastSigBits, balance);
+                records++;
+                position += RECORD_SIZE;
+            }
+        }
+    }
+
+    @Override
+    public long load(UUID uuid, long defaultBalance) throws StorageException {
+        return loadMany(List.of(uuid), defaultBalance).get(uuid);
+    }
+
+    @Override
+    public Map<UUID, Long> loadMany(Collection<UUID> uuids, long defaultBalance) throws StorageException {
+        Map<UUID, Long> loaded = new HashMap<>(uuids.size() * 2);
+        List<Account> missing = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (UUID uuid : uuids) {
+                long most = uuid.getMostSignificantBits();
+                long least = uuid.getLeastSignificantBits();
+                if(balances.containsKey(most, least)) {
+                    loaded.put(uuid, balances.get(most, least, defaultBalance));
+                } else {
+                    missing.add(new Account(uuid, defaultBalance));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if(missing.isEmpty()) {
+            return loaded;
+        }
+
+        lock.writeLock().lock();
+        try {
+            // Created by another load in the meantime
+            missing.removeIf(account -> {
+                long most = account.uuid().getMostSignificantBits();
+                long least = account.uuid().getLeastSignificantBits();
+                if(!balances.containsKey(most, least)) {
+                    return false;
+                }
+                loaded.put(account.uuid(), balances.get(most, least, defaultBalance));
+                return true;
+            });
+            append(missing);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        missing.forEach(account -> loaded.put(account.uuid(), account.balance()));
+        return loaded;
+    }
+
+    @Override
+    public Map<UUID, Long> findMany(Collection<UUID> uuids) {
+        Map<UUID, Long> found = new HashMap<>(uuids.size() * 2);
+        lock.readLock().lock();
+        try {
+            for (UUID uuid : uuids) {
+                long most = uuid.getMostSignificantBits();
+                long least = uuid.getLeastSignificantBits();
+                if(balances.containsKey(most, least)) {
+                    found.put(uuid, balances.get(most, least, 0));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return found;
+    }
+
+    @Override
+    public void upsertBatch(Collection<Account> accounts) throws StorageException {
+        if(accounts.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            append(accounts);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Changed accounts are appended in one write, so either all of them are kept or none
+     */
+    @Override
+    public int applyRule(BalanceRule rule, KeyRange range) throws StorageException {
+        lock.writeLock().lock();
+        try {
+            List<Account> changed = new ArrayList<>();
+            balances.forEach((mostSigBits, leastSigBits, balance) -> {
+                if(!range.contains(mostSigBits)) {
+                    return;
+                }
+                long updated = rule.apply(balance);
+                if(updated != balance) {
+                    changed.add(new Account(new UUID(mostSigBits, leastSigBits), updated));
+                }
+            });
+            append(changed);
+            compactIfNeeded();
+            return changed.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the file once most of its records are outdated, must hold the write lock
+     */
+    private void compactIfNeeded() throws StorageException {
+        if(records >= MIN_COMPACTION_RECORDS && records > (long) balances.size() * COMPACTION_RATIO) {
+            compact();
+        }
+    }
+
+    /**
+     * Appends a record for every account and forces them to disk, must hold the write lock
+     * If writing fails, the file is cut back so none of the records are kept
+     */
+    private void append(Collection<Account> accounts) throws StorageException {
+        if(accounts.isEmpty()) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(accounts.size() * RECORD_SIZE);
+        for (Account account : accounts) {
+            int start = buffer.position();
+            buffer.putLong(account.uuid().getMostSignificantBits())
+                    .putLong(account.uuid().getLeastSignificantBits())
+                    .putLong(account.balance());
+            crc.reset();
+            crc.update(buffer.array(), start, RECORD_SIZE - Integer.BYTES);
+            buffer.putInt((int) crc.getValue());
+        }
+        buffer.flip();
+
+        long end;
+        try {
+            end = channel.position();
+        } catch (IOException e) {
+            throw new StorageException("Could not write account file " + path, e);
+        }
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            try {
+                channel.truncate(end);
+                channel.position(end);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw new StorageException("Could not write " + accounts.size() + " accounts to " + path, e);
+        }
+
+        for (Account account : accounts) {
+            balances.put(account.uuid().getMostSignificantBits(), account.uuid().getLeastSignificantBits(), account.balance());
+        }
+        records += accounts.size();
+    }
+
+    /**
+     * Rewrites the file with one record per account, must hold the write lock
+     * The new file replaces the old one atomically, so a crash leaves one of them complete
+     */
+    private void compact() throws StorageException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        int accounts = balances.size();
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION);
+            IOException[] failure = new IOException[1];
+            balances.forEach((mostSigBits, leastSigBits, balance) -> {
+                if(failure[0] != null) {
+                    return;
+                }
+                if(buffer.remaining() < RECORD_SIZE) {
+                    failure[0] = drain(buffer, out);
+                }
+                int start = buffer.position();
+                buffer.putLong(mostSigBits).putLong(leastSigBits).putLong(balance);
+                crc.reset();
+                crc.update(buffer.array(), start, RECORD_SIZE - Integer.BYTES);
+                buffer.putInt((int) crc.getValue());
+            });
+            if(failure[0] == null) {
+                failure[0] = drain(buffer, out);
+            }
+            if(failure[0] != null) {
+                throw failure[0];
+            }
+            out.force(true);
+        } catch (IOException e) {
+            LOGGER.error("Could not compact account file " + path + ", the current one is kept", e);
+            return;
+        }
+
+        try {
+            channel.close();
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        } catch (IOException e) {
+            throw new StorageException("Could not replace account file " + path + " after compaction", e);
+        }
+        LOGGER.info("Compacted account file from " + records + " to " + accounts + " records");
+        records = accounts;
+    }
+
+    private static IOException drain(ByteBuffer buffer, FileChannel out) {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            return null;
+        } catch (IOException e) {
+            return e;
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public int scanAll(BalanceConsumer consumer) {
+        lock.readLock().lock();
+        try {
+            balances.forEach(consumer::accept);
+            return balances.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write times are not recorded, so every account is passed, reading them is as fast as a snapshot
+     */
+    @Override
+    public int scanSince(long sinceMillis, BalanceConsumer consumer) {
+        return scanAll(consumer);
+    }
+
+    @Override
+    public List<Account> topN(int limit) {
+        if(limit <= 0) {
+            return List.of();
+        }
+        // Min-heap of the highest balances seen so far
+        PriorityQueue<Account> top = new PriorityQueue<>(limit, Comparator.comparingLong(Account::balance));
+        lock.readLock().lock();
+        try {
+            balances.forEach((mostSigBits, leastSigBits, balance) -> {
+                if(top.size() < limit) {
+                    top.add(new Account(new UUID(mostSigBits, leastSigBits), balance));
+                } else if(balance > top.peek().balance()) {
+                    top.poll();
+                    top.add(new Account(new UUID(mostSigBits, leastSigBits), balance));
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Account> sorted = new ArrayList<>(top);
+        sorted.sort(Comparator.comparingLong(Account::balance).reversed());
+        return sorted;
+    }
+
+    /**
+     * @return Amount of records in the file, including outdated ones
+     */
+    public long getRecordCount() {
+        lock.readLock().lock();
+        try {
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if(channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Could not close account file " + path, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
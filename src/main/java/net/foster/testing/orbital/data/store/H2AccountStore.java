@@ -0,0 +1,97 @@
+package net.foster.testing.orbital.data.store;
+
+import net.foster.testing.orbital.data.H2ConnectionProvider;
+import net.foster.testing.orbital.data.PooledConnection;
+import org.h2.api.ErrorCode;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Account store on an embedded H2 file
+ * UUIDs are stored as native UUIDs with a primary key and balances as minor units, so writes are a single MERGE
+ */
+public class H2AccountStore extends JdbcAccountStore {
+    public H2AccountStore(H2ConnectionProvider connectionProvider, String tableName) {
+        super(connectionProvider, tableName);
+    }
+
+    /**
+     * Opens an H2 file, the file is created if missing
+     * @param path Path of the file without the ".mv.db" extension
+     * @param tableName Name of the balance table
+     * @param readConnections Amount of read connections to keep open
+     * @return The store
+     * @throws StorageException If the file could not be opened
+     */
+    public static H2AccountStore open(Path path, String tableName, int readConnections) throws StorageException {
+        try {
+            return new H2AccountStore(new H2ConnectionProvider(path.toAbsolutePath().toString(), readConnections), tableName);
+        } catch (SQLException e) {
+            throw new StorageException("Could not open H2 file " + path, e);
+        }
+    }
+
+    /**
+     * Tables created before migrations existed are brought to the same state, since every step is idempotent
+     */
+    @Override
+    protected List<Migration> migrations() {
+        return List.of(
+                Migration.of(1, "Create the balance table", connection -> {
+                    connection.prepareStatement("CREATE TABLE IF NOT EXISTS " + table +
+                            " (uuid UUID PRIMARY KEY, balance BIGINT NOT NULL, updated_at BIGINT NOT NULL DEFAULT 0)").executeUpdate();
+                    connection.prepareStatement("ALTER TABLE " + table +
+                            " ADD COLUMN IF NOT EXISTS updated_at BIGINT NOT NULL DEFAULT 0").executeUpdate();
+                }),
+                Migration.of(2, "Index balances and write times", connection -> {
+                    connection.prepareStatement("CREATE INDEX IF NOT EXISTS " + table + "_balance ON " + table + " (balance DESC)").executeUpdate();
+                    connection.prepareStatement("CREATE INDEX IF NOT EXISTS " + table + "_updated_at ON " + table + " (updated_at)").executeUpdate();
+                }));
+    }
+
+    @Override
+    protected void bindUuid(PreparedStatement statement, int index, UUID uuid) throws SQLException {
+        statement.setObject(index, uuid);
+    }
+
+    @Override
+    protected UUID readUuid(ResultSet resultSet, int index) throws SQLException {
+        return resultSet.getObject(index, UUID.class);
+    }
+
+    @Override
+    protected void bindBalance(PreparedStatement statement, int index, long balance) throws SQLException {
+        statement.setLong(index, balance);
+    }
+
+    @Override
+    protected long readBalance(ResultSet resultSet, int index) throws SQLException {
+        return resultSet.getLong(index);
+    }
+
+    /**
+     * Rows locked by another connection past the lock timeout, or a deadlock H2 resolved by failing this transaction
+     */
+    @Override
+    protected boolean isLockConflict(SQLException e) {
+        return e.getErrorCode() == ErrorCode.LOCK_TIMEOUT_1 || e.getErrorCode() == ErrorCode.DEADLOCK_1;
+    }
+
+    @Override
+    protected void upsert(PooledConnection connection, Collection<Account> accounts, long now) throws SQLException {
+        PreparedStatement merge = connection.prepareStatement("MERGE INTO " + table + " (uuid, balance, updated_at) KEY (uuid) VALUES (?, ?, ?)");
+        for (Account account : accounts) {
+            bindUuid(merge, 1, account.uuid());
+            bindBalance(merge, 2, account.balance());
+            merge.setLong(3, now);
+            merge.addBatch();
+        }
+        merge.executeBatch();
+    }
+}
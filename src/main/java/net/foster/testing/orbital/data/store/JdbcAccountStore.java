@@ -0,0 +1,287 @@
+package net.foster.testing.orbital.data.store;
+
+import net.foster.testing.orbital.data.ConnectionProvider;
+import net.foster.testing.orbital.data.PooledConnection;
+import net.foster.testing.orbital.lambda.SafeFunction;
+import net.foster.testing.orbital.managers.BalanceRule;
+import net.foster.testing.orbital.managers.KeyRange;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Account store on a SQL database, subclasses supply the schema and the statements that differ between databases
+ * Reads use the read connections of the {@link ConnectionProvider}, writes run as one transaction on the writer
+ */
+public abstract class JdbcAccountStore implements AccountStore {
+    /* Amounts of UUIDs an "IN" list is padded to, the last is below the bound parameter limit of older SQLite versions */
+    private static final int[] CHUNK_SIZES = {1, 8, 64, 500};
+    private static final int CHUNK_SIZE = CHUNK_SIZES[CHUNK_SIZES.length - 1];
+
+    protected final ConnectionProvider connectionProvider;
+    protected final String table;
+    /* One per entry of CHUNK_SIZES, so every lookup reuses one of a few cached statements */
+    private final String[] selectChunks;
+
+    protected JdbcAccountStore(ConnectionProvider connectionProvider, String tableName) {
+        this.connectionProvider = connectionProvider;
+        this.table = tableName;
+        this.selectChunks = new String[CHUNK_SIZES.length];
+        for (int i = 0; i < CHUNK_SIZES.length; i++) {
+            selectChunks[i] = "SELECT uuid, balance FROM " + tableName + " WHERE uuid IN (" + "?, ".repeat(CHUNK_SIZES[i] - 1) + "?)";
+        }
+    }
+
+    /**
+     * Every migration of the table, the first one creates it
+     * The table must end up with the columns "uuid", "balance" and "updated_at", with an index on the last two
+     * @return The migrations in any order
+     */
+    protected abstract List<Migration> migrations();
+
+    protected abstract void bindUuid(PreparedStatement statement, int index, UUID uuid) throws SQLException;
+
+    protected abstract UUID readUuid(ResultSet resultSet, int index) throws SQLException;
+
+    protected abstract void bindBalance(PreparedStatement statement, int index, long balance) throws SQLException;
+
+    protected abstract long readBalance(ResultSet resultSet, int index) throws SQLException;
+
+    /**
+     * Writes the balances inside the running transaction, creating missing rows
+     * @param connection Writer connection
+     * @param accounts Accounts to write
+     * @param now Time of the write in epoch milliseconds, stored as "updated_at"
+     * @throws SQLException If a balance could not be written
+     */
+    protected abstract void upsert(PooledConnection connection, Collection<Account> accounts, long now) throws SQLException;
+
+    /**
+     * Whether an error means another connection holds a lock the statement needed, so the rolled back transaction may
+     * succeed when run again
+     * @param e Error thrown by a statement or the commit
+     * @return Whether the error is a lock conflict, false unless the database reports them in a known way
+     */
+    protected boolean isLockConflict(SQLException e) {
+        return false;
+    }
+
+    /**
+     * @return The provider every statement runs on
+     */
+    public ConnectionProvider getConnectionProvider() {
+        return connectionProvider;
+    }
+
+    /**
+     * Creates the table or brings it to the latest schema, see {@link SchemaMigrator}
+     */
+    @Override
+    public void initialize() throws StorageException {
+        SchemaMigrator.migrate(this, migrations());
+    }
+
+    @Override
+    public long load(UUID uuid, long defaultBalance) throws StorageException {
+        return loadMany(List.of(uuid), defaultBalance).getOrDefault(uuid, defaultBalance);
+    }
+
+    @Override
+    public Map<UUID, Long> loadMany(Collection<UUID> uuids, long defaultBalance) throws StorageException {
+        List<UUID> missing = List.copyOf(uuids);
+        // The insert and the read run in one transaction, so the read always sees the row
+        long now = System.currentTimeMillis();
+        return write(connection -> {
+            PreparedStatement insert = connection.prepareStatement("INSERT INTO " + table + " (uuid, balance, updated_at)" +
+                    " SELECT ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM " + table + " WHERE uuid = ?)");
+            for (UUID uuid : missing) {
+                bindUuid(insert, 1, uuid);
+                bindBalance(insert, 2, defaultBalance);
+                insert.setLong(3, now);
+                bindUuid(insert, 4, uuid);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            return select(connection, missing);
+        });
+    }
+
+    @Override
+    public Map<UUID, Long> findMany(Collection<UUID> uuids) throws StorageException {
+        List<UUID> wanted = List.copyOf(uuids);
+        return read(connection -> select(connection, wanted));
+    }
+
+    /**
+     * Reads the balances of the accounts that exist, in chunks of {@link #CHUNK_SIZE}
+     * A shorter chunk is padded to the next of {@link #CHUNK_SIZES} by repeating its last UUID, which matches the same row again
+     */
+    private Map<UUID, Long> select(PooledConnection connection, List<UUID> uuids) throws SQLException {
+        Map<UUID, Long> balances = new HashMap<>(uuids.size() * 2);
+        for (int from = 0; from < uuids.size(); from += CHUNK_SIZE) {
+            List<UUID> chunk = uuids.subList(from, Math.min(uuids.size(), from + CHUNK_SIZE));
+            int size = 0;
+            while (CHUNK_SIZES[size] < chunk.size()) {
+                size++;
+            }
+            PreparedStatement select = connection.prepareStatement(selectChunks[size]);
+            for (int i = 0; i < CHUNK_SIZES[size]; i++) {
+                bindUuid(select, i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+            }
+            try(ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    balances.put(readUuid(resultSet, 1), readBalance(resultSet, 2));
+                }
+            }
+        }
+        return balances;
+    }
+
+    @Override
+    public void upsertBatch(Collection<Account> accounts) throws StorageException {
+        if(accounts.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        write(connection -> {
+            upsert(connection, accounts, now);
+            return null;
+        });
+    }
+
+    /**
+     * A single UPDATE over the rows of the range, rows the rule does not change are not written
+     */
+    @Override
+    public int applyRule(BalanceRule rule, KeyRange range) throws StorageException {
+        if(rule.isNoop()) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        return write(connection -> {
+            // Integer division truncates towards 0 in SQL as in Java, so cached and stored balances get the same result
+            // The bound comes first, so no row it excludes is computed, which SQLite would turn into a REAL and H2 reject
+            PreparedStatement update = connection.prepareStatement("UPDATE " + table +
+                    " SET balance = balance + (balance - ?) * ? / " + BalanceRule.PPM + ", updated_at = ?" +
+                    " WHERE balance > ? AND balance <= ? AND (balance - ?) * ? / " + BalanceRule.PPM + " <> 0" +
+                    (range.from() != null ? " AND uuid >= ?" : "") + (range.to() != null ? " AND uuid < ?" : ""));
+            update.setLong(1, rule.threshold());
+            update.setLong(2, rule.ratePpm());
+            update.setLong(3, now);
+            update.setLong(4, rule.threshold());
+            update.setLong(5, rule.maxBalance());
+            update.setLong(6, rule.threshold());
+            update.setLong(7, rule.ratePpm());
+            int index = 8;
+            if(range.from() != null) {
+                bindUuid(update, index++, range.from());
+            }
+            if(range.to() != null) {
+                bindUuid(update, index, range.to());
+            }
+            return update.executeUpdate();
+        });
+    }
+
+    @Override
+    public int scanAll(BalanceConsumer consumer) throws StorageException {
+        return read(connection -> scan(connection.prepareStatement("SELECT uuid, balance FROM " + table), consumer));
+    }
+
+    @Override
+    public int scanSince(long sinceMillis, BalanceConsumer consumer) throws StorageException {
+        return read(connection -> {
+            PreparedStatement select = connection.prepareStatement("SELECT uuid, balance FROM " + table + " WHERE updated_at >= ?");
+            select.setLong(1, sinceMillis);
+            return scan(select, consumer);
+        });
+    }
+
+    private int scan(PreparedStatement select, BalanceConsumer consumer) throws SQLException {
+        int rows = 0;
+        try(ResultSet resultSet = select.executeQuery()) {
+            while (resultSet.next()) {
+                UUID uuid = readUuid(resultSet, 1);
+                consumer.accept(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), readBalance(resultSet, 2));
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public List<Account> topN(int limit) throws StorageException {
+        return read(connection -> {
+            PreparedStatement select = connection.prepareStatement("SELECT uuid, balance FROM " + table + " ORDER BY balance DESC LIMIT ?");
+            select.setInt(1, limit);
+            List<Account> accounts = new ArrayList<>(limit);
+            try(ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    accounts.add(new Account(readUuid(resultSet, 1), readBalance(resultSet, 2)));
+                }
+            }
+            return accounts;
+        });
+    }
+
+    /**
+     * Runs work on a read connection
+     */
+    protected <T> T read(SafeFunction<PooledConnection, T> work) throws StorageException {
+        try(PooledConnection connection = connectionProvider.reader()) {
+            return work.apply(connection);
+        } catch (Exception e) {
+            throw new StorageException("Could not read from table " + table, e, isRetryable(e));
+        }
+    }
+
+    /**
+     * Runs work on the writer connection inside a single transaction
+     * The transaction is committed if the work returns and rolled back if it throws
+     */
+    protected <T> T write(SafeFunction<PooledConnection, T> work) throws StorageException {
+        try(PooledConnection pooled = connectionProvider.writer()) {
+            Connection connection = pooled.getConnection();
+            connection.setAutoCommit(false);
+            T result;
+            try {
+                result = work.apply(pooled);
+                connection.commit();
+            } catch(Exception e) {
+                // The error of the work decides whether the write is retried, so a failed rollback must not replace it
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackFailure) {
+                    e.addSuppressed(rollbackFailure);
+                }
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException autoCommitFailure) {
+                    e.addSuppressed(autoCommitFailure);
+                }
+                throw e;
+            }
+            connection.setAutoCommit(true);
+            return result;
+        } catch (Exception e) {
+            throw new StorageException("Could not write to table " + table, e, isRetryable(e));
+        }
+    }
+
+    private boolean isRetryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if(cause instanceof SQLException sqlException && isLockConflict(sqlException)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        connectionProvider.close();
+    }
+}
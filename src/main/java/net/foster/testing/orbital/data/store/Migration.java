@@ -0,0 +1,60 @@
+package net.foster.testing.orbital.data.store;
+
+import net.foster.testing.orbital.data.PooledConnection;
+import net.foster.testing.orbital.lambda.SafeConsumer;
+
+/**
+ * A change to the schema of a {@link JdbcAccountStore}, applied once by {@link SchemaMigrator} in the order of the versions
+ */
+public interface Migration {
+    /**
+     * @return Version the schema has after this migration, unique and increasing within a store
+     */
+    int version();
+
+    /**
+     * @return Description of the change, used in the log and stored in the schema version table
+     */
+    String description();
+
+    /**
+     * Does the bulk of the work in many small transactions before the migration is applied, so the writer is never held for long
+     * Nothing is recorded until {@link #apply(PooledConnection)} commits, so this must be safe to run again after a crash
+     * @param store Store being migrated
+     * @throws Exception If the work failed, the migration is not applied then
+     */
+    default void prepare(JdbcAccountStore store) throws Exception {}
+
+    /**
+     * Applies the change, runs in the transaction that records the new version
+     * @param connection Writer connection
+     * @throws Exception If the change failed, the transaction is rolled back then
+     */
+    void apply(PooledConnection connection) throws Exception;
+
+    /**
+     * Creates a migration that only runs in a single transaction
+     * @param version Version the schema has after this migration
+     * @param description Description of the change
+     * @param apply The change
+     * @return The migration
+     */
+    static Migration of(int version, String description, SafeConsumer<PooledConnection> apply) {
+        return new Migration() {
+            @Override
+            public int version() {
+                return version;
+            }
+
+            @Override
+            public String description() {
+                return description;
+            }
+
+            @Override
+            public void apply(PooledConnection connection) throws Exception {
+                apply.consume(connection);
+            }
+        };
+    }
+}
@@ -0,0 +1,250 @@
+package net.foster.testing.orbital.data.store;
+
+import net.foster.testing.orbital.data.PooledConnection;
+import net.foster.testing.orbital.data.SQLiteConnectionProvider;
+import net.foster.testing.orbital.utils.Money;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * Account store on a local SQLite file
+ * Balances are kept in a WITHOUT ROWID table keyed by the UUID as 16 bytes, so a lookup is a single B-tree search
+ * instead of a scan, and balances are minor units. Files in the text keyed layout the plugin used before are migrated on startup
+ */
+public class SQLiteAccountStore extends JdbcAccountStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SQLiteAccountStore.class);
+    /* Primary result codes of SQLITE_BUSY and SQLITE_LOCKED, extended codes like SQLITE_BUSY_SNAPSHOT keep them in the low byte */
+    private static final int SQLITE_BUSY = 5;
+    private static final int SQLITE_LOCKED = 6;
+    /* Rows copied per transaction while migrating, small enough that the writer is never held for long */
+    private static final int MIGRATION_BATCH_SIZE = 10_000;
+
+    private final CompactTableMigration compactTable = new CompactTableMigration();
+
+    public SQLiteAccountStore(SQLiteConnectionProvider connectionProvider, String tableName) {
+        super(connectionProvider, tableName);
+    }
+
+    /**
+     * Opens a SQLite file, the file is created if missing
+     * @param path Path of the file
+     * @param tableName Name of the balance table
+     * @param readConnections Amount of read connections to keep open
+     * @return The store
+     * @throws StorageException If the file could not be opened
+     */
+    public static SQLiteAccountStore open(Path path, String tableName, int readConnections) throws StorageException {
+        try {
+            return new SQLiteAccountStore(new SQLiteConnectionProvider(path.toString(), readConnections), tableName);
+        } catch (SQLException e) {
+            throw new StorageException("Could not open SQLite file " + path, e);
+        }
+    }
+
+    @Override
+    protected List<Migration> migrations() {
+        return List.of(
+                Migration.of(1, "Create the text keyed balance table", this::createLegacyTable),
+                compactTable);
+    }
+
+    /**
+     * Also shrinks the file once the text keyed table was dropped, the pages it used are otherwise kept as free pages
+     */
+    @Override
+    public void initialize() throws StorageException {
+        super.initialize();
+        if(!compactTable.applied) {
+            return;
+        }
+        long start = System.nanoTime();
+        // VACUUM cannot run inside a transaction
+        try(PooledConnection connection = connectionProvider.writer(); Statement statement = connection.getConnection().createStatement()) {
+            statement.execute("VACUUM");
+        } catch (SQLException e) {
+            LOGGER.warn("Could not shrink the database file after migrating, it is shrunk on the next VACUUM", e);
+            return;
+        }
+        LOGGER.info("Shrunk the database file in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * The layout files had before migrations existed, kept so every file takes the same path to the latest version
+     */
+    private void createLegacyTable(PooledConnection connection) throws SQLException {
+        connection.prepareStatement("CREATE TABLE IF NOT EXISTS " + table +
+                " (uuid VARCHAR(36), balance DOUBLE, updated_at INTEGER NOT NULL DEFAULT 0)").executeUpdate();
+        // Files from before snapshots lack the column, and SQLite has no "ADD COLUMN IF NOT EXISTS"
+        try(ResultSet columns = connection.prepareStatement("PRAGMA table_info(" + table + ")").executeQuery()) {
+            while (columns.next()) {
+                if("updated_at".equalsIgnoreCase(columns.getString("name"))) {
+                    return;
+                }
+            }
+        }
+        connection.prepareStatement("ALTER TABLE " + table + " ADD COLUMN updated_at INTEGER NOT NULL DEFAULT 0").executeUpdate();
+    }
+
+    /**
+     * Moves every row of the text keyed table into a WITHOUT ROWID table keyed by the UUID as 16 bytes, with balances in minor units
+     * The old table has no unique key, so a UUID may have several rows, the most recently written one is kept
+     * Rows are copied in batches by rowid before the migration is applied, and rows written in the meantime are copied
+     * again in the transaction that swaps the tables, so no write is lost
+     */
+    private final class CompactTableMigration implements Migration {
+        private final String target = table + "_migrating";
+        private long copiedUpTo;
+        private boolean applied;
+
+        @Override
+        public int version() {
+            return 2;
+        }
+
+        @Override
+        public String description() {
+            return "Move balances into a WITHOUT ROWID table keyed by the 16-byte UUID";
+        }
+
+        @Override
+        public void prepare(JdbcAccountStore store) throws Exception {
+            // Left over from an interrupted migration, copying again overwrites it
+            write(connection -> {
+                connection.prepareStatement("CREATE TABLE IF NOT EXISTS " + target +
+                        " (uuid BLOB PRIMARY KEY, balance INTEGER NOT NULL, updated_at INTEGER NOT NULL DEFAULT 0) WITHOUT ROWID").executeUpdate();
+                return null;
+            });
+
+            long copied = 0;
+            while (true) {
+                long from = copiedUpTo;
+                int rows = write(connection -> copyBatch(connection, from));
+                copied += rows;
+                if(rows < MIGRATION_BATCH_SIZE) {
+                    break;
+                }
+                if(copied % (MIGRATION_BATCH_SIZE * 10L) == 0) {
+                    LOGGER.info("Copied " + copied + " rows of table " + table);
+                }
+            }
+            LOGGER.info("Copied " + copied + " rows of table " + table);
+        }
+
+        @Override
+        public void apply(PooledConnection connection) throws Exception {
+            while (copyBatch(connection, copiedUpTo) == MIGRATION_BATCH_SIZE) {
+                // Catches up on rows written while the batches were copied
+            }
+            connection.prepareStatement("DROP TABLE " + table).executeUpdate();
+            connection.prepareStatement("ALTER TABLE " + target + " RENAME TO " + table).executeUpdate();
+            connection.prepareStatement("CREATE INDEX IF NOT EXISTS " + table + "_balance ON " + table + " (balance DESC)").executeUpdate();
+            connection.prepareStatement("CREATE INDEX IF NOT EXISTS " + table + "_updated_at ON " + table + " (updated_at)").executeUpdate();
+            applied = true;
+        }
+
+        /**
+         * Copies the rows after a rowid, sorted by key so the inserts walk the B-tree in order
+         * @return Amount of rows read
+         */
+        private int copyBatch(PooledConnection connection, long afterRowId) throws SQLException {
+            PreparedStatement select = connection.prepareStatement("SELECT rowid, uuid, balance, updated_at FROM " + table +
+                    " WHERE rowid > ? ORDER BY rowid LIMIT ?");
+            select.setLong(1, afterRowId);
+            select.setInt(2, MIGRATION_BATCH_SIZE);
+
+            List<LegacyRow> rows = new ArrayList<>(MIGRATION_BATCH_SIZE);
+            int read = 0;
+            long lastRowId = afterRowId;
+            try(ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    read++;
+                    lastRowId = resultSet.getLong(1);
+                    String uuid = resultSet.getString(2);
+                    try {
+                        rows.add(new LegacyRow(toBytes(UUID.fromString(uuid)), Money.toMinor(resultSet.getDouble(3)), resultSet.getLong(4)));
+                    } catch (IllegalArgumentException | NullPointerException e) {
+                        LOGGER.warn("Skipping row " + lastRowId + " of table " + table + " with invalid UUID \"" + uuid + "\"");
+                    }
+                }
+            }
+            // Stable, so of two rows of one UUID written at the same time the later one still wins
+            rows.sort((a, b) -> Arrays.compareUnsigned(a.uuid(), b.uuid()));
+
+            PreparedStatement insert = connection.prepareStatement("INSERT INTO " + target + " (uuid, balance, updated_at) VALUES (?, ?, ?)" +
+                    " ON CONFLICT (uuid) DO UPDATE SET balance = excluded.balance, updated_at = excluded.updated_at" +
+                    " WHERE excluded.updated_at >= " + target + ".updated_at");
+            for (LegacyRow row : rows) {
+                insert.setBytes(1, row.uuid());
+                insert.setLong(2, row.balance());
+                insert.setLong(3, row.updatedAt());
+                insert.addBatch();
+            }
+            if(!rows.isEmpty()) {
+                insert.executeBatch();
+            }
+            copiedUpTo = lastRowId;
+            return read;
+        }
+    }
+
+    /**
+     * A row of the text keyed table, converted to the new layout
+     */
+    private record LegacyRow(byte[] uuid, long balance, long updatedAt) {}
+
+    private static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+    }
+
+    @Override
+    protected void bindUuid(PreparedStatement statement, int index, UUID uuid) throws SQLException {
+        statement.setBytes(index, toBytes(uuid));
+    }
+
+    @Override
+    protected UUID readUuid(ResultSet resultSet, int index) throws SQLException {
+        ByteBuffer bytes = ByteBuffer.wrap(resultSet.getBytes(index));
+        return new UUID(bytes.getLong(), bytes.getLong());
+    }
+
+    @Override
+    protected void bindBalance(PreparedStatement statement, int index, long balance) throws SQLException {
+        statement.setLong(index, balance);
+    }
+
+    @Override
+    protected long readBalance(ResultSet resultSet, int index) throws SQLException {
+        return resultSet.getLong(index);
+    }
+
+    /**
+     * Another process, like a backup or the sqlite3 shell, holds the file lock past the busy timeout, or a read transaction
+     * cannot be upgraded to a write after another connection wrote
+     */
+    @Override
+    protected boolean isLockConflict(SQLException e) {
+        int code = e.getErrorCode() & 0xff;
+        return code == SQLITE_BUSY || code == SQLITE_LOCKED;
+    }
+
+    @Override
+    protected void upsert(PooledConnection connection, Collection<Account> accounts, long now) throws SQLException {
+        PreparedStatement upsert = connection.prepareStatement("INSERT INTO " + table + " (uuid, balance, updated_at) VALUES (?, ?, ?)" +
+                " ON CONFLICT (uuid) DO UPDATE SET balance = excluded.balance, updated_at = excluded.updated_at");
+        for (Account account : accounts) {
+            bindUuid(upsert, 1, account.uuid());
+            bindBalance(upsert, 2, account.balance());
+            upsert.setLong(3, now);
+            upsert.addBatch();
+        }
+        upsert.executeBatch();
+    }
+}
@@ -0,0 +1,83 @@
+package net.foster.testing.orbital.data.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Brings the table of a {@link JdbcAccountStore} to the latest schema
+ * The version of every table is kept in the "schema_version" table, and every migration newer than it is applied in order,
+ * each committed together with its version, so an interrupted upgrade continues with the migration that did not finish
+ */
+public final class SchemaMigrator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SchemaMigrator.class);
+    private static final String VERSION_TABLE = "schema_version";
+
+    private SchemaMigrator() {}
+
+    /**
+     * Applies every migration newer than the current version of the table
+     * @param store Store to migrate
+     * @param migrations Every migration of the store, in any order
+     * @return Version of the table afterwards
+     * @throws StorageException If a migration failed, or the table is newer than the migrations
+     */
+    public static int migrate(JdbcAccountStore store, List<Migration> migrations) throws StorageException {
+        List<Migration> ordered = new ArrayList<>(migrations);
+        ordered.sort(Comparator.comparingInt(Migration::version));
+        for (int i = 1; i < ordered.size(); i++) {
+            if(ordered.get(i).version() == ordered.get(i - 1).version()) {
+                throw new IllegalArgumentException("Migration version " + ordered.get(i).version() + " is used twice");
+            }
+        }
+        int latest = ordered.isEmpty() ? 0 : ordered.get(ordered.size() - 1).version();
+
+        int current = store.write(connection -> {
+            connection.prepareStatement("CREATE TABLE IF NOT EXISTS " + VERSION_TABLE + " (table_name VARCHAR(255) NOT NULL," +
+                    " version INTEGER NOT NULL, description VARCHAR(255) NOT NULL, applied_at BIGINT NOT NULL," +
+                    " PRIMARY KEY (table_name, version))").executeUpdate();
+            PreparedStatement select = connection.prepareStatement("SELECT MAX(version) FROM " + VERSION_TABLE + " WHERE table_name = ?");
+            select.setString(1, store.table);
+            try(ResultSet resultSet = select.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : 0;
+            }
+        });
+        if(current > latest) {
+            throw new StorageException("Table " + store.table + " has schema version " + current
+                    + ", this version of the plugin only knows up to " + latest);
+        }
+
+        for (Migration migration : ordered) {
+            if(migration.version() <= current) {
+                continue;
+            }
+            LOGGER.info("Migrating table " + store.table + " to version " + migration.version() + ": " + migration.description());
+            long start = System.nanoTime();
+            try {
+                migration.prepare(store);
+            } catch (Exception e) {
+                throw new StorageException("Migration " + migration.version() + " of table " + store.table + " failed", e);
+            }
+            store.write(connection -> {
+                migration.apply(connection);
+                PreparedStatement insert = connection.prepareStatement("INSERT INTO " + VERSION_TABLE +
+                        " (table_name, version, description, applied_at) VALUES (?, ?, ?, ?)");
+                insert.setString(1, store.table);
+                insert.setInt(2, migration.version());
+                insert.setString(3, migration.description());
+                insert.setLong(4, System.currentTimeMillis());
+                insert.executeUpdate();
+                return null;
+            });
+            current = migration.version();
+            LOGGER.info("Migrated table " + store.table + " to version " + current + " in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+        return current;
+    }
+}
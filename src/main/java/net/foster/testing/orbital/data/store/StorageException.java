@@ -0,0 +1,33 @@
+package net.foster.testing.orbital.data.store;
+
+/**
+ * Thrown by an {@link AccountStore} when its storage could not be read or written
+ */
+public class StorageException extends Exception {
+    private final boolean retryable;
+
+    public StorageException(String message) {
+        this(message, null, false);
+    }
+
+    public StorageException(String message, Throwable cause) {
+        this(message, cause, false);
+    }
+
+    /**
+     * @param message Message of the exception
+     * @param cause Error of the underlying storage
+     * @param retryable Whether nothing was changed and the same call may succeed when tried again, like when the database is busy
+     */
+    public StorageException(String message, Throwable cause, boolean retryable) {
+        super(message, cause);
+        this.retryable = retryable;
+    }
+
+    /**
+     * @return Whether nothing was changed and the same call may succeed when tried again
+     */
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
@@ -0,0 +1,395 @@
+package net.foster.testing.orbital.hooks;
+
+import net.foster.testing.orbital.api.EconomyService;
+import net.foster.testing.orbital.data.ConfigManager;
+import net.foster.testing.orbital.managers.AccountNotLoadedException;
+import net.foster.testing.orbital.managers.Economy;
+import net.foster.testing.orbital.utils.Money;
+import net.foster.testing.orbital.utils.ThreadGuard;
+import net.milkbowl.vault.economy.EconomyResponse;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Vault economy backed by the Economy manager, so shops and other plugins using Vault share the same balances
+ * Vault is synchronous, so off the server thread an account that is not loaded is waited for, up to the preload timeout
+ * The server thread never waits: the account is loaded in the background, and until then it reads as missing with a balance of 0
+ * and changes to it fail
+ * Only creating an account or changing its balance creates it, looking it up only reads
+ * Worlds are ignored and banks are not supported
+ */
+public class VaultEconomy implements net.milkbowl.vault.economy.Economy {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VaultEconomy.class);
+    private final Economy econ;
+    private final EconomyService service;
+    private final ThreadGuard threadGuard;
+    /* Lookups started on the server thread, so an account asked for on every tick is looked up once */
+    private final Map<UUID, CompletableFuture<Boolean>> lookups = new ConcurrentHashMap<>();
+
+    public VaultEconomy(Economy econ, EconomyService service, ThreadGuard threadGuard) {
+        this.econ = econ;
+        this.service = service;
+        this.threadGuard = threadGuard;
+    }
+
+    /**
+     * Loads the account of a player if it exists, without creating it
+     * @return Whether the account is loaded
+     */
+    private boolean find(OfflinePlayer player) {
+        UUID uuid = player.getUniqueId();
+        if(service.isLoaded(uuid)) {
+            return true;
+        }
+        if(threadGuard.isMainThread()) {
+            CompletableFuture<Boolean> lookup = new CompletableFuture<>();
+            if(lookups.putIfAbsent(uuid, lookup) == null) {
+                service.find(uuid).whenComplete((found, e) -> {
+                    lookups.remove(uuid, lookup);
+                    if(e != null) {
+                        LOGGER.warn("Balance for " + uuid + " could not be looked up for Vault", e);
+                    }
+                });
+            }
+            return false;
+        }
+        return await(uuid, service.find(uuid));
+    }
+
+    /**
+     * Loads the account of a player if needed, creating it with the start money if it does not exist
+     * @return Whether the account is loaded
+     */
+    private boolean load(OfflinePlayer player) {
+        UUID uuid = player.getUniqueId();
+        if(service.isLoaded(uuid)) {
+            return true;
+        }
+        CompletableFuture<Void> loaded = service.load(List.of(uuid));
+        if(threadGuard.isMainThread()) {
+            // Loads of the same account are shared, so asking again on the next tick does not load it twice
+            loaded.exceptionally(e -> {
+                LOGGER.warn("Balance for " + uuid + " could not be loaded for Vault", e);
+                return null;
+            });
+            return false;
+        }
+        return await(uuid, loaded.thenApply(v -> true));
+    }
+
+    /**
+     * Waits for a load off the server thread, up to the preload timeout
+     * Goes through the guard as well, so a wait that still reaches the server thread is logged or, when rejected, fails
+     */
+    private boolean await(UUID uuid, CompletableFuture<Boolean> loaded) {
+        try {
+            threadGuard.checkBlocking("Vault balance load");
+            return loaded.get(ConfigManager.getSettings().preloadTimeoutMillis(), TimeUnit.MILLISECONDS) && service.isLoaded(uuid);
+        } catch (IllegalStateException e) {
+            // Rejected by the guard, which already logged it
+            return false;
+        } catch (TimeoutException | ExecutionException e) {
+            LOGGER.warn("Balance for " + uuid + " could not be loaded for Vault", e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static OfflinePlayer player(String playerName) {
+        return Bukkit.getOfflinePlayer(playerName);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "OrbitalTesting";
+    }
+
+    @Override
+    public boolean hasBankSupport() {
+        return false;
+    }
+
+    @Override
+    public int fractionalDigits() {
+        return 2;
+    }
+
+    @Override
+    public String format(double amount) {
+        return Money.format(Money.toMinor(amount));
+    }
+
+    @Override
+    public String currencyNamePlural() {
+        return "dollars";
+    }
+
+    @Override
+    public String currencyNameSingular() {
+        return "dollar";
+    }
+
+    @Override
+    public boolean hasAccount(OfflinePlayer player) {
+        return find(player);
+    }
+
+    @Override
+    public boolean hasAccount(OfflinePlayer player, String worldName) {
+        return hasAccount(player);
+    }
+
+    @Override
+    @Deprecated
+    public boolean hasAccount(String playerName) {
+        return hasAccount(player(playerName));
+    }
+
+    @Override
+    @Deprecated
+    public boolean hasAccount(String playerName, String worldName) {
+        return hasAccount(player(playerName));
+    }
+
+    @Override
+    public double getBalance(OfflinePlayer player) {
+        return find(player) ? econ.getBalance(player.getUniqueId()) : 0;
+    }
+
+    @Override
+    public double getBalance(OfflinePlayer player, String world) {
+        return getBalance(player);
+    }
+
+    @Override
+    @Deprecated
+    public double getBalance(String playerName) {
+        return getBalance(player(playerName));
+    }
+
+    @Override
+    @Deprecated
+    public double getBalance(String playerName, String world) {
+        return getBalance(player(playerName));
+    }
+
+    @Override
+    public boolean has(OfflinePlayer player, double amount) {
+        return getBalance(player) >= amount;
+    }
+
+    @Override
+    public boolean has(OfflinePlayer player, String worldName, double amount) {
+        return has(player, amount);
+    }
+
+    @Override
+    @Deprecated
+    public boolean has(String playerName, double amount) {
+        return has(player(playerName), amount);
+    }
+
+    @Override
+    @Deprecated
+    public boolean has(String playerName, String worldName, double amount) {
+        return has(player(playerName), amount);
+    }
+
+    @Override
+    public EconomyResponse withdrawPlayer(OfflinePlayer player, double amount) {
+        // NaN passes the check below, and amounts beyond the range of minor units would be clamped
+        if(!Money.inRange(amount)) {
+            return failure(player, amount, "Invalid amount");
+        }
+        if(amount < 0) {
+            return failure(player, amount, "Cannot withdraw negative funds");
+        }
+        if(!load(player)) {
+            return failure(player, amount, "Account is not loaded yet, try again in a moment");
+        }
+        try {
+            if(!econ.tryWithdrawMinor(player.getUniqueId(), Money.toMinor(amount))) {
+                return failure(player, amount, "Insufficient funds");
+            }
+        } catch (AccountNotLoadedException e) {
+            // Evicted again between the load and the change
+            return failure(player, amount, "Account could not be loaded");
+        } catch (ArithmeticException e) {
+            return failure(player, amount, "Balance would be out of range");
+        }
+        return new EconomyResponse(amount, econ.getBalance(player.getUniqueId()), EconomyResponse.ResponseType.SUCCESS, null);
+    }
+
+    @Override
+    public EconomyResponse withdrawPlayer(OfflinePlayer player, String worldName, double amount) {
+        return withdrawPlayer(player, amount);
+    }
+
+    @Override
+    @Deprecated
+    public EconomyResponse withdrawPlayer(String playerName, double amount) {
+        return withdrawPlayer(player(playerName), amount);
+    }
+
+    @Override
+    @Deprecated
+    public EconomyResponse withdrawPlayer(String playerName, String worldName, double amount) {
+        return withdrawPlayer(player(playerName), amount);
+    }
+
+    @Override
+    public EconomyResponse depositPlayer(OfflinePlayer player, double amount) {
+        // NaN passes the check below, and amounts beyond the range of minor units would be clamped
+        if(!Money.inRange(amount)) {
+            return failure(player, amount, "Invalid amount");
+        }
+        if(amount < 0) {
+            return failure(player, amount, "Cannot deposit negative funds");
+        }
+        if(!load(player)) {
+            return failure(player, amount, "Account is not loaded yet, try again in a moment");
+        }
+        long balance;
+        try {
+            balance = econ.addMinor(player.getUniqueId(), Money.toMinor(amount));
+        } catch (AccountNotLoadedException e) {
+            return failure(player, amount, "Account could not be loaded");
+        } catch (ArithmeticException e) {
+            return failure(player, amount, "Balance would be out of range");
+        }
+        return new EconomyResponse(amount, Money.toMajor(balance), EconomyResponse.ResponseType.SUCCESS, null);
+    }
+
+    @Override
+    public EconomyResponse depositPlayer(OfflinePlayer player, String worldName, double amount) {
+        return depositPlayer(player, amount);
+    }
+
+    @Override
+    @Deprecated
+    public EconomyResponse depositPlayer(String playerName, double amount) {
+        return depositPlayer(player(playerName), amount);
+    }
+
+    @Override
+    @Deprecated
+    public EconomyResponse depositPlayer(String playerName, String worldName, double amount) {
+        return depositPlayer(player(playerName), amount);
+    }
+
+    private EconomyResponse failure(OfflinePlayer player, double amount, String message) {
+        double balance = service.isLoaded(player.getUniqueId()) ? econ.getBalance(player.getUniqueId()) : 0;
+        return new EconomyResponse(amount, balance, EconomyResponse.ResponseType.FAILURE, message);
+    }
+
+    @Override
+    public boolean createPlayerAccount(OfflinePlayer player) {
+        return load(player);
+    }
+
+    @Override
+    public boolean createPlayerAccount(OfflinePlayer player, String worldName) {
+        return createPlayerAccount(player);
+    }
+
+    @Override
+    @Deprecated
+    public boolean createPlayerAccount(String playerName) {
+        return createPlayerAccount(player(playerName));
+    }
+
+    @Override
+    @Deprecated
+    public boolean createPlayerAccount(String playerName, String worldName) {
+        return createPlayerAccount(player(playerName));
+    }
+
+    /* Banks are not supported */
+
+    private static EconomyResponse noBanks() {
+        return new EconomyResponse(0, 0, EconomyResponse.ResponseType.NOT_IMPLEMENTED, "Banks are not supported");
+    }
+
+    @Override
+    @Deprecated
+    public EconomyResponse createBank(String name, String player) {
+        return noBanks();
+    }
+
+    @Override
+    public EconomyResponse createBank(String name, OfflinePlayer player) {
+        return noBanks();
+    }
+
+    @Override
+    public EconomyResponse deleteBank(String name) {
+        return noBanks();
+    }
+
+    @Override
+    public EconomyResponse bankBalance(String name) {
+        return noBanks();
+    }
+
+    @Override
+    public EconomyResponse bankHas(String name, double amount) {
+        return noBanks();
+    }
+
+    @Override
+    public EconomyResponse bankWithdraw(String name, double amount) {
+        return noBanks();
+    }
+
+    @Override
+    public EconomyResponse bankDeposit(String name, double amount) {
+        return noBanks();
+    }
+
+    @Override
+    @Deprecated
+    public EconomyResponse isBankOwner(String name, String playerName) {
+        return noBanks();
+    }
+
+    @Override
+    public EconomyResponse isBankOwner(String name, OfflinePlayer player) {
+        return noBanks();
+    }
+
+    @Override
+    @Deprecated
+    public EconomyResponse isBankMember(String name, String playerName) {
+        return noBanks();
+    }
+
+    @Override
+    public EconomyResponse isBankMember(String name, OfflinePlayer player) {
+        return noBanks();
+    }
+
+    @Override
+    public List<String> getBanks() {
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,26 @@
+package net.foster.testing.orbital.hooks;
+
+import net.foster.testing.orbital.api.EconomyService;
+import net.foster.testing.orbital.managers.Economy;
+import net.foster.testing.orbital.utils.ThreadGuard;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.ServicePriority;
+
+/**
+ * Registers the Vault economy
+ * Kept apart from the plugin class, so Vault classes are only loaded when Vault is installed
+ */
+public final class VaultHook {
+    private VaultHook() {}
+
+    /**
+     * @param plugin Plugin owning the registration
+     * @param econ Economy manager holding the balances
+     * @param service Service used to load accounts of offline players
+     * @param threadGuard Guard knowing the server thread, which must never wait for a load
+     */
+    public static void register(Plugin plugin, Economy econ, EconomyService service, ThreadGuard threadGuard) {
+        plugin.getServer().getServicesManager().register(net.milkbowl.vault.economy.Economy.class,
+                new VaultEconomy(econ, service, threadGuard), plugin, ServicePriority.Normal);
+    }
+}
@@ -0,0 +1,37 @@
+package net.foster.testing.orbital.lambda;
+
+import net.foster.testing.orbital.utils.Errors;
+
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link BiConsumer} that can throw a checked exception.
+ *
+ * @param <T> the type of the first input
+ * @param <U> the type of the second input
+ */
+@FunctionalInterface
+public interface SafeBiConsumer<T, U> {
+    /**
+     * Consume the inputs, possibly throwing an exception.
+     *
+     * @param t the first input
+     * @param u the second input
+     */
+    void consume(T t, U u) throws Exception;
+
+    /**
+     * Turn this {@link SafeBiConsumer} into a {@link BiConsumer} that sneaky throws any exceptions.
+     *
+     * @return a {@link BiConsumer} that sneaky throws any exceptions
+     */
+    default BiConsumer<T, U> asBiConsumer() {
+        return (t, u) -> {
+            try {
+                consume(t, u);
+            } catch (Exception e) {
+                Errors.sneakyThrow(e);
+            }
+        };
+    }
+}
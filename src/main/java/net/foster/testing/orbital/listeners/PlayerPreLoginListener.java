@@ -0,0 +1,67 @@
+package net.foster.testing.orbital.listeners;
+
+import net.foster.testing.orbital.data.ConfigManager;
+import net.foster.testing.orbital.data.Database;
+import net.foster.testing.orbital.data.Settings;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Loads the balance of a player while they log in, so it is cached before they enter the world
+ * The event runs on its own thread, so waiting for the database here does not block the server
+ * A player never joins without their balance, since every change before the load would be lost once it is saved
+ */
+public class PlayerPreLoginListener implements Listener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PlayerPreLoginListener.class);
+    private final Database database;
+    public PlayerPreLoginListener(Database database) {
+        this.database = database;
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onPreLogin(AsyncPlayerPreLoginEvent e) {
+        if(e.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+
+        Settings settings = ConfigManager.getSettings();
+        // The event is asynchronous unless another plugin fires it itself
+        database.getThreadGuard().checkBlocking("Balance preload");
+        CompletableFuture<Void> loaded = database.preloadPlayerData(e.getUniqueId());
+        try {
+            try {
+                loaded.get(settings.preloadTimeoutMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                database.recordPreloadTimeout();
+                if(settings.preloadKickOnTimeout()) {
+                    e.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, settings.preloadKickMessage());
+                    return;
+                }
+                // The load is bounded by the database operation timeout, so waiting that long again covers it
+                // Without an operation timeout the load may never end, so the login is denied instead
+                LOGGER.warn("Balance for " + e.getName() + " was not loaded in time, the login waits until it is");
+                try {
+                    loaded.get(settings.operationTimeoutMillis(), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException timeout) {
+                    LOGGER.error("Balance for " + e.getName() + " was still not loaded, denying the login");
+                    e.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, settings.preloadKickMessage());
+                }
+            }
+        } catch (ExecutionException ex) {
+            LOGGER.error("Balance for " + e.getName() + " could not be loaded, denying the login", ex.getCause());
+            e.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, settings.preloadKickMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            e.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, settings.preloadKickMessage());
+        }
+    }
+}
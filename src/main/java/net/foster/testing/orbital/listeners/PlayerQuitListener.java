@@ -1,18 +1,29 @@
 package net.foster.testing.orbital.listeners;
 
 import net.foster.testing.orbital.data.Database;
+import net.foster.testing.orbital.sync.BalanceSync;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerQuitEvent;
 
+import java.util.UUID;
+
 public class PlayerQuitListener implements Listener {
     private final Database database;
-    public PlayerQuitListener(Database database) {
+    private final BalanceSync balanceSync;
+    public PlayerQuitListener(Database database, BalanceSync balanceSync) {
         this.database = database;
+        this.balanceSync = balanceSync;
     }
 
     @EventHandler
     public void onQuit(PlayerQuitEvent e) {
-        database.serializePlayerData(e.getPlayer().getUniqueId());
+        UUID uuid = e.getPlayer().getUniqueId();
+        if(balanceSync == null) {
+            database.serializePlayerData(uuid);
+            return;
+        }
+        // Other servers drop their copy once the balance is saved, so the next server the player joins loads it fresh
+        database.serializePlayerData(uuid).thenRun(() -> balanceSync.invalidate(uuid));
     }
 }
@@ -0,0 +1,23 @@
+package net.foster.testing.orbital.managers;
+
+import java.util.UUID;
+
+/**
+ * Thrown when the balance of an account that is not loaded would be changed
+ * Such a change would start from 0 and overwrite the stored balance once saved, so the account must be loaded first
+ */
+public class AccountNotLoadedException extends IllegalStateException {
+    private final UUID uuid;
+
+    public AccountNotLoadedException(UUID uuid) {
+        super("Balance of " + uuid + " is not loaded");
+        this.uuid = uuid;
+    }
+
+    /**
+     * @return UUID of the account that is not loaded
+     */
+    public UUID getUuid() {
+        return uuid;
+    }
+}
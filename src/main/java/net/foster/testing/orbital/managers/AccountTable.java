@@ -0,0 +1,990 @@
+package net.foster.testing.orbital.managers;
+
+import net.foster.testing.orbital.utils.UUIDLongMap;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.IntStream;
+
+/**
+ * A primitive account table keyed by the two longs of a UUID
+ * Balances are stored as fixed-point minor units, nothing is boxed and no player objects are referenced
+ * The table is split into segments that each have their own lock, so writes to different accounts rarely contend
+ * Accounts that are not pinned or dirty can be evicted by {@link #evict(int, long)}, so the table stays bounded
+ * Once {@link #freeze()} is called every change is rejected, so the final save sees balances that no longer move
+ * A change that would overflow a balance is rejected with an {@link ArithmeticException} before anything is changed
+ * Changes are queued per segment under its lock and delivered to the listeners by a single dispatcher thread,
+ * so a slow or locking listener never holds up a change or makes changes to different segments wait on each other
+ */
+public final class AccountTable {
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    /* Accounts used this recently are never evicted, so a load is not undone before the caller uses it */
+    private static final long MIN_IDLE_MILLIS = 5_000;
+    /* Accounts compared per eviction, like the sampled LRU of Redis */
+    private static final int EVICTION_SAMPLES = 8;
+    private static final int MAX_FAILED_SAMPLES = 16;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    private volatile BalanceListener[] listeners = new BalanceListener[0];
+    private final LongAdder evictions = new LongAdder();
+    /* Held while delivering queued changes, so the changes of one account are never delivered by two threads at once */
+    private final ReentrantLock dispatchLock = new ReentrantLock();
+    /* Published before the listeners, so a change that sees a listener also sees the thread delivering to it */
+    private volatile Thread dispatcher;
+    /* Set by the first change queued after the dispatcher started a round, so it does not park with changes queued */
+    private volatile boolean dispatchPending;
+    /* Read under the segment lock, so a change either finishes before the freeze or sees it */
+    private volatile boolean frozen;
+
+    /**
+     * Receives an account without boxing it
+     */
+    @FunctionalInterface
+    public interface AccountConsumer {
+        void accept(long mostSigBits, long leastSigBits, long balance, long version);
+    }
+
+    public AccountTable() {
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Adds a listener that is called for every change that marks an account as dirty, and for every loaded account
+     * @param listener Listener to add
+     */
+    public synchronized void addListener(BalanceListener listener) {
+        if(dispatcher == null && !frozen) {
+            Thread thread = new Thread(this::dispatchLoop, "Orbital-balance-listeners");
+            thread.setDaemon(true);
+            thread.start();
+            dispatcher = thread;
+        }
+        BalanceListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * Delivers every change queued before this call to the listeners, on the calling thread
+     * Used where a listener must have seen every change, like before closing the journal
+     */
+    public void flushListeners() {
+        dispatch();
+    }
+
+    /**
+     * Rejects every later change with an {@link IllegalStateException}, loads are still accepted
+     * Returns once changes that already hold a segment lock are finished, so no balance changes after this call
+     */
+    public void freeze() {
+        frozen = true;
+        for (Segment segment : segments) {
+            segment.lock.unlockWrite(segment.lock.writeLock());
+        }
+        // Loads after this are delivered directly, the dispatcher stops once the queued changes are delivered
+        dispatch();
+        synchronized (this) {
+            if(dispatcher != null) {
+                LockSupport.unpark(dispatcher);
+            }
+        }
+    }
+
+    /**
+     * @return Whether {@link #freeze()} was called
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Must be called while holding a segment write lock, before anything is changed
+     */
+    private void checkNotFrozen() {
+        if(frozen) {
+            throw new IllegalStateException("Balances cannot change while the economy is shutting down");
+        }
+    }
+
+    /**
+     * Queues a change for the listeners, must hold the write lock of the segment
+     */
+    private void fire(Segment segment, int type, long mostSigBits, long leastSigBits, long amount, long balance, long version) {
+        BalanceListener[] listeners = this.listeners;
+        if(listeners.length == 0) {
+            return;
+        }
+        if(frozen) {
+            // Only loads happen once frozen, and nothing is left to contend with
+            for (BalanceListener listener : listeners) {
+                listener.onBalanceChange(mostSigBits, leastSigBits, type, amount, balance, version);
+            }
+            return;
+        }
+        segment.events.add(type, mostSigBits, leastSigBits, amount, balance, version);
+        if(!dispatchPending) {
+            dispatchPending = true;
+            LockSupport.unpark(dispatcher);
+        }
+    }
+
+    private void dispatchLoop() {
+        while (!frozen) {
+            dispatchPending = false;
+            if(!dispatch() && !dispatchPending) {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    /**
+     * Takes the queued changes of every segment and delivers them, the segment lock is only held to swap the queue
+     * @return Whether any change was delivered
+     */
+    private boolean dispatch() {
+        dispatchLock.lock();
+        try {
+            boolean delivered = false;
+            BalanceListener[] listeners = this.listeners;
+            for (Segment segment : segments) {
+                Events events;
+                long stamp = segment.lock.writeLock();
+                try {
+                    if(segment.events.count == 0) {
+                        continue;
+                    }
+                    events = segment.events;
+                    segment.events = segment.spareEvents;
+                    segment.spareEvents = events;
+                } finally {
+                    segment.lock.unlockWrite(stamp);
+                }
+
+                // The swapped out queue is only used by the thread holding the dispatch lock until the next swap
+                for (int i = 0; i < events.count; i++) {
+                    for (BalanceListener listener : listeners) {
+                        listener.onBalanceChange(events.most[i], events.least[i], events.types[i],
+                                events.amounts[i], events.balances[i], events.versions[i]);
+                    }
+                }
+                events.count = 0;
+                delivered = true;
+            }
+            return delivered;
+        } finally {
+            dispatchLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the balance of an account
+     * @return The balance in minor units, or the default if the account does not exist
+     */
+    public long get(long mostSigBits, long leastSigBits, long defaultBalance) {
+        long hash = hash(mostSigBits, leastSigBits);
+        Segment segment = segmentFor(hash);
+
+        long stamp = segment.lock.tryOptimisticRead();
+        Slots slots = segment.slots;
+        int index = slots.indexOf(mostSigBits, leastSigBits, hash);
+        long balance = index >= 0 ? slots.balances[index] : defaultBalance;
+        if(segment.lock.validate(stamp)) {
+            if(index >= 0) {
+                // Racy on purpose, a lost update only makes the eviction order slightly less exact
+                slots.lastAccess[index] = System.currentTimeMillis();
+            }
+            return balance;
+        }
+
+        stamp = segment.lock.readLock();
+        try {
+            slots = segment.slots;
+            index = slots.indexOf(mostSigBits, leastSigBits, hash);
+            if(index >= 0) {
+                slots.lastAccess[index] = System.currentTimeMillis();
+            }
+            return index >= 0 ? slots.balances[index] : defaultBalance;
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return Whether the account exists in the table
+     */
+    public boolean contains(long mostSigBits, long leastSigBits) {
+        long hash = hash(mostSigBits, leastSigBits);
+        Segment segment = segmentFor(hash);
+
+        long stamp = segment.lock.readLock();
+        try {
+            return segment.slots.indexOf(mostSigBits, leastSigBits, hash) >= 0;
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Adds to the balance of an account
+     * The account is marked as dirty and listeners are called
+     * @param delta Amount to add in minor units, negative to subtract
+     * @return The new balance in minor units
+     * @throws AccountNotLoadedException If the account is not loaded
+     * @throws ArithmeticException If the balance would overflow, nothing is changed then
+     */
+    public long add(long mostSigBits, long leastSigBits, long delta) {
+        long hash = hash(mostSigBits, leastSigBits);
+        Segment segment = segmentFor(hash);
+
+        long stamp = segment.lock.writeLock();
+        try {
+            checkNotFrozen();
+            int index = segment.slots.indexOf(mostSigBits, leastSigBits, hash);
+            if(index < 0) {
+                throw new AccountNotLoadedException(new UUID(mostSigBits, leastSigBits));
+            }
+            Slots slots = segment.slots;
+            slots.balances[index] = Math.addExact(slots.balances[index], delta);
+            segment.changed(index);
+            fire(segment, delta < 0 ? BalanceListener.WITHDRAW : BalanceListener.DEPOSIT,
+                    mostSigBits, leastSigBits, delta, slots.balances[index], slots.versions[index]);
+            return slots.balances[index];
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds to the balance of an account, unless the new balance would be below a minimum
+     * The check and the change happen under the same lock, so concurrent withdrawals cannot overdraw the account
+     * @param delta Amount to add in minor units, negative to subtract
+     * @param minBalance Lowest allowed balance after the change
+     * @return Whether the balance was changed
+     * @throws AccountNotLoadedException If the account is not loaded
+     * @throws ArithmeticException If the balance would overflow, nothing is changed then
+     */
+    public boolean tryAdd(long mostSigBits, long leastSigBits, long delta, long minBalance) {
+        long hash = hash(mostSigBits, leastSigBits);
+        Segment segment = segmentFor(hash);
+
+        long stamp = segment.lock.writeLock();
+        try {
+            checkNotFrozen();
+            int index = segment.slots.indexOf(mostSigBits, leastSigBits, hash);
+            if(index < 0) {
+                throw new AccountNotLoadedException(new UUID(mostSigBits, leastSigBits));
+            }
+            long balance = Math.addExact(segment.slots.balances[index], delta);
+            if(balance < minBalance) {
+                return false;
+            }
+            Slots slots = segment.slots;
+            slots.balances[index] = balance;
+            segment.changed(index);
+            fire(segment, delta < 0 ? BalanceListener.WITHDRAW : BalanceListener.DEPOSIT,
+                    mostSigBits, leastSigBits, delta, slots.balances[index], slots.versions[index]);
+            return true;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds to the balance of many accounts, taking the lock of each segment once
+     * Each change is applied as by {@link #add(long, long, long)}
+     * Not atomic as a whole, a {@link #freeze()}, an account that is not loaded or an overflow keeps the segments already changed
+     * and rejects the rest
+     * @param most Most significant bits of the UUIDs
+     * @param least Least significant bits of the UUIDs
+     * @param deltas Amounts to add in minor units
+     * @param count Amount of entries to read from the arrays
+     * @throws AccountNotLoadedException If an account is not loaded
+     * @throws ArithmeticException If a balance would overflow
+     */
+    public void addAll(long[] most, long[] least, long[] deltas, int count) {
+        checkNotFrozen();
+        // Counting sort of the entries by segment
+        int[] segmentOf = new int[count];
+        int[] starts = new int[SEGMENT_COUNT + 1];
+        for (int i = 0; i < count; i++) {
+            segmentOf[i] = (int) (hash(most[i], least[i]) >>> (Long.SIZE - SEGMENT_BITS));
+            starts[segmentOf[i] + 1]++;
+        }
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            starts[i + 1] += starts[i];
+        }
+        int[] order = new int[count];
+        int[] next = Arrays.copyOf(starts, SEGMENT_COUNT);
+        for (int i = 0; i < count; i++) {
+            order[next[segmentOf[i]]++] = i;
+        }
+
+        for (int s = 0; s < SEGMENT_COUNT; s++) {
+            if(starts[s] == starts[s + 1]) {
+                continue;
+            }
+            Segment segment = segments[s];
+            long stamp = segment.lock.writeLock();
+            try {
+                checkNotFrozen();
+                // Checked before changing any account of the segment, so a segment is changed completely or not at all
+                int[] indexes = new int[starts[s + 1] - starts[s]];
+                long[] balances = new long[indexes.length];
+                for (int o = starts[s]; o < starts[s + 1]; o++) {
+                    int i = order[o];
+                    int index = segment.slots.indexOf(most[i], least[i], hash(most[i], least[i]));
+                    if(index < 0) {
+                        throw new AccountNotLoadedException(new UUID(most[i], least[i]));
+                    }
+                    indexes[o - starts[s]] = index;
+                    balances[o - starts[s]] = Math.addExact(segment.slots.balances[index], deltas[i]);
+                }
+                for (int o = starts[s]; o < starts[s + 1]; o++) {
+                    int i = order[o];
+                    int index = indexes[o - starts[s]];
+                    Slots slots = segment.slots;
+                    slots.balances[index] = balances[o - starts[s]];
+                    segment.changed(index);
+                    fire(segment, deltas[i] < 0 ? BalanceListener.WITHDRAW : BalanceListener.DEPOSIT,
+                            most[i], least[i], deltas[i], slots.balances[index], slots.versions[index]);
+                }
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Applies a rule to every account in a key range, each segment is changed under its lock, so a change is as atomic as {@link #add(long, long, long)}
+     * Segments are split across the threads of the ForkJoin pool the call is made from
+     * Not atomic as a whole, a {@link #freeze()} landing midway keeps the segments already changed and rejects the rest
+     * Changed accounts are marked as dirty, but not as used, so the eviction order is kept
+     * @param rule Rule to apply
+     * @param range Accounts to change, {@link KeyRange#ALL} for every account
+     * @param progress Incremented by every account in the range, for reporting progress from another thread
+     * @return Amount of accounts changed
+     */
+    public long applyRule(BalanceRule rule, KeyRange range, LongAdder progress) {
+        return IntStream.range(0, SEGMENT_COUNT).parallel().mapToLong(s -> {
+            Segment segment = segments[s];
+            long stamp = segment.lock.writeLock();
+            try {
+                checkNotFrozen();
+                Slots slots = segment.slots;
+                long changed = 0;
+                long visited = 0;
+                for (int i = 0; i < slots.used.length; i++) {
+                    if(!slots.used[i] || !range.contains(slots.most[i])) {
+                        continue;
+                    }
+                    visited++;
+                    long balance = slots.balances[i];
+                    long updated = rule.apply(balance);
+                    if(updated == balance) {
+                        continue;
+                    }
+                    slots.balances[i] = updated;
+                    slots.versions[i]++;
+                    segment.enqueueDirty(i);
+                    long delta = updated - balance;
+                    fire(segment, delta < 0 ? BalanceListener.WITHDRAW : BalanceListener.DEPOSIT,
+                            slots.most[i], slots.least[i], delta, updated, slots.versions[i]);
+                    changed++;
+                }
+                progress.add(visited);
+                return changed;
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }).sum();
+    }
+
+    /**
+     * Applies every change of a transaction, or none if an account would be overdrawn
+     * The locks of all touched segments are taken in segment order, so two transactions can never deadlock
+     * An account fails the check if it ends below 0 and below its balance before the transaction
+     * Only an account whose first change is a set may be missing, it is created with that balance
+     * @param transaction Changes to apply
+     * @return Whether the transaction was applied
+     * @throws AccountNotLoadedException If an account that is not loaded would be changed by an amount, nothing is changed then
+     * @throws ArithmeticException If a balance would overflow, nothing is changed then
+     */
+    boolean apply(Transaction transaction) {
+        int count = transaction.size;
+        long[] hashes = new long[count];
+        boolean[] touched = new boolean[SEGMENT_COUNT];
+        for (int i = 0; i < count; i++) {
+            hashes[i] = hash(transaction.most[i], transaction.least[i]);
+            touched[(int) (hashes[i] >>> (Long.SIZE - SEGMENT_BITS))] = true;
+        }
+
+        long[] stamps = new long[SEGMENT_COUNT];
+        for (int s = 0; s < SEGMENT_COUNT; s++) {
+            if(touched[s]) {
+                stamps[s] = segments[s].lock.writeLock();
+            }
+        }
+        try {
+            checkNotFrozen();
+            // Work out the resulting balances before changing anything
+            UUIDLongMap initial = new UUIDLongMap();
+            UUIDLongMap running = new UUIDLongMap();
+            long[] results = new long[count];
+            for (int i = 0; i < count; i++) {
+                long mostSigBits = transaction.most[i];
+                long leastSigBits = transaction.least[i];
+                if(!running.containsKey(mostSigBits, leastSigBits)) {
+                    Slots slots = segmentFor(hashes[i]).slots;
+                    int index = slots.indexOf(mostSigBits, leastSigBits, hashes[i]);
+                    if(index < 0 && !transaction.sets[i]) {
+                        throw new AccountNotLoadedException(new UUID(mostSigBits, leastSigBits));
+                    }
+                    long balance = index >= 0 ? slots.balances[index] : 0;
+                    initial.put(mostSigBits, leastSigBits, balance);
+                    running.put(mostSigBits, leastSigBits, balance);
+                }
+                long current = running.get(mostSigBits, leastSigBits, 0);
+                results[i] = transaction.sets[i] ? transaction.amounts[i] : Math.addExact(current, transaction.amounts[i]);
+                running.put(mostSigBits, leastSigBits, results[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                long result = running.get(transaction.most[i], transaction.least[i], 0);
+                if(result < 0 && result < initial.get(transaction.most[i], transaction.least[i], 0)) {
+                    return false;
+                }
+            }
+
+            for (int i = 0; i < count; i++) {
+                Segment segment = segmentFor(hashes[i]);
+                int index = segment.insert(transaction.most[i], transaction.least[i], hashes[i]);
+                Slots slots = segment.slots;
+                slots.balances[index] = results[i];
+                segment.changed(index);
+                int type = transaction.sets[i] ? BalanceListener.SET
+                        : transaction.amounts[i] < 0 ? BalanceListener.WITHDRAW : BalanceListener.DEPOSIT;
+                fire(segment, type, transaction.most[i], transaction.least[i], transaction.amounts[i], results[i], slots.versions[index]);
+            }
+            transaction.applied(results);
+            return true;
+        } finally {
+            for (int s = SEGMENT_COUNT - 1; s >= 0; s--) {
+                if(touched[s]) {
+                    segments[s].lock.unlockWrite(stamps[s]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the balance of an account, creating it if missing
+     * Listeners are only called if the account is marked as dirty
+     * @param balance Balance in minor units
+     * @param dirty Whether the account should be marked as dirty, false when the balance comes from storage
+     */
+    public void set(long mostSigBits, long leastSigBits, long balance, boolean dirty) {
+        long hash = hash(mostSigBits, leastSigBits);
+        Segment segment = segmentFor(hash);
+
+        long stamp = segment.lock.writeLock();
+        try {
+            if(dirty) {
+                checkNotFrozen();
+            }
+            int index = segment.insert(mostSigBits, leastSigBits, hash);
+            Slots slots = segment.slots;
+            slots.balances[index] = balance;
+            if(dirty) {
+                segment.changed(index);
+                fire(segment, BalanceListener.SET, mostSigBits, leastSigBits, balance, balance, slots.versions[index]);
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Applies a change received from another server and marks the account as dirty
+     * Listeners get the change with {@link BalanceListener#REMOTE}, so it is not sent back
+     * Nothing is done if the account is not loaded, the caller changes the stored balance then
+     * @param type {@link BalanceListener#SET} to set the balance to the amount, any other type adds the amount
+     * @param amount Amount to add or balance to set in minor units
+     * @return Whether the account is loaded and was changed
+     * @throws ArithmeticException If the balance would overflow, nothing is changed then
+     */
+    public boolean applyRemote(long mostSigBits, long leastSigBits, int type, long amount) {
+        long hash = hash(mostSigBits, leastSigBits);
+        Segment segment = segmentFor(hash);
+
+        long stamp = segment.lock.writeLock();
+        try {
+            checkNotFrozen();
+            int index = segment.slots.indexOf(mostSigBits, leastSigBits, hash);
+            if(index < 0) {
+                return false;
+            }
+            Slots slots = segment.slots;
+            int change;
+            if(type == BalanceListener.SET) {
+                slots.balances[index] = amount;
+                change = BalanceListener.SET;
+            } else {
+                slots.balances[index] = Math.addExact(slots.balances[index], amount);
+                change = amount < 0 ? BalanceListener.WITHDRAW : BalanceListener.DEPOSIT;
+            }
+            segment.changed(index);
+            fire(segment, change | BalanceListener.REMOTE, mostSigBits, leastSigBits, amount, slots.balances[index], slots.versions[index]);
+            return true;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Creates an account with the given balance, unless it already exists
+     * The account is not marked as dirty, since the balance comes from storage, and listeners get a {@link BalanceListener#LOAD}
+     * @param balance Balance in minor units
+     * @return Whether the account was created
+     */
+    public boolean putIfAbsent(long mostSigBits, long leastSigBits, long balance) {
+        long hash = hash(mostSigBits, leastSigBits);
+        Segment segment = segmentFor(hash);
+
+        long stamp = segment.lock.writeLock();
+        try {
+            if(segment.slots.indexOf(mostSigBits, leastSigBits, hash) >= 0) {
+                return false;
+            }
+            int index = segment.insert(mostSigBits, leastSigBits, hash);
+            segment.slots.balances[index] = balance;
+            fire(segment, BalanceListener.LOAD, mostSigBits, leastSigBits, balance, balance, segment.slots.versions[index]);
+            return true;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Marks an existing account as dirty without changing it, used when a write has to be retried
+     */
+    public void markDirty(long mostSigBits, long leastSigBits) {
+        long hash = hash(mostSigBits, leastSigBits);
+        Segment segment = segmentFor(hash);
+
+        long stamp = segment.lock.writeLock();
+        try {
+            int index = segment.slots.indexOf(mostSigBits, leastSigBits, hash);
+            if(index >= 0) {
+                segment.enqueueDirty(index);
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Passes every dirty account to the consumer and marks it as clean
+     * A change made after an account was drained marks it as dirty again
+     * The consumer is called while a segment is locked, so it must not use the table
+     * @return Amount of accounts drained
+     */
+    public int drainDirty(AccountConsumer consumer) {
+        int drained = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.lock.writeLock();
+            try {
+                Slots slots = segment.slots;
+                for (int i = 0; i < segment.dirtyCount; i++) {
+                    int index = segment.dirtyQueue[i];
+                    slots.dirty[index] = false;
+                    consumer.accept(slots.most[index], slots.least[index], slots.balances[index], slots.versions[index]);
+                }
+                drained += segment.dirtyCount;
+                segment.dirtyCount = 0;
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Passes every account to the consumer, one segment at a time
+     * The consumer is called while a segment is locked, so it must not use the table
+     */
+    public void forEach(AccountConsumer consumer) {
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                Slots slots = segment.slots;
+                for (int i = 0; i < slots.used.length; i++) {
+                    if(slots.used[i]) {
+                        consumer.accept(slots.most[i], slots.least[i], slots.balances[i], slots.versions[i]);
+                    }
+                }
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * Pins an account so it is never evicted, used while the player is online
+     * @param pinned Whether the account should be pinned
+     * @return Whether the account exists
+     */
+    public boolean setPinned(long mostSigBits, long leastSigBits, boolean pinned) {
+        long hash = hash(mostSigBits, leastSigBits);
+        Segment segment = segmentFor(hash);
+
+        long stamp = segment.lock.writeLock();
+        try {
+            int index = segment.slots.indexOf(mostSigBits, leastSigBits, hash);
+            if(index < 0) {
+                return false;
+            }
+            segment.slots.pinned[index] = pinned;
+            segment.slots.lastAccess[index] = System.currentTimeMillis();
+            return true;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes an account so the next use loads it from the database again
+     * Used when another server changed the account, pinned and dirty accounts are kept
+     * @return Whether the account was removed
+     */
+    public boolean invalidate(long mostSigBits, long leastSigBits) {
+        long hash = hash(mostSigBits, leastSigBits);
+        Segment segment = segmentFor(hash);
+
+        long stamp = segment.lock.writeLock();
+        try {
+            int index = segment.slots.indexOf(mostSigBits, leastSigBits, hash);
+            if(index < 0 || segment.slots.dirty[index] || segment.slots.pinned[index]) {
+                return false;
+            }
+            segment.removeAt(index);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+        evictions.increment();
+        return true;
+    }
+
+    /**
+     * Removes accounts that do not need to be in memory, pinned and dirty accounts are always kept
+     * First every account not used within the expiry time is removed,
+     * then the least recently used of a few sampled accounts until the table fits the max size
+     * @param maxSize Amount of accounts to keep at most, more are kept if they cannot be evicted
+     * @param expireAfterMillis Time since last use after which an account is removed
+     * @return Amount of accounts removed
+     */
+    public int evict(int maxSize, long expireAfterMillis) {
+        long now = System.currentTimeMillis();
+        int segmentMaxSize = Math.max(1, (maxSize + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+        long idleBefore = now - MIN_IDLE_MILLIS;
+        long expiredBefore = Math.min(idleBefore, now - expireAfterMillis);
+
+        int evicted = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.lock.writeLock();
+            try {
+                evicted += segment.evict(segmentMaxSize, expiredBefore, idleBefore);
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+        evictions.add(evicted);
+        return evicted;
+    }
+
+    /**
+     * @return Amount of accounts removed by {@link #evict(int, long)}
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Amount of accounts in the table
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> (Long.SIZE - SEGMENT_BITS))];
+    }
+
+    private static long hash(long mostSigBits, long leastSigBits) {
+        long hash = mostSigBits * 0x9E3779B97F4A7C15L ^ leastSigBits;
+        hash ^= hash >>> 32;
+        hash *= 0xD6E8FEB86659FD93L;
+        return hash ^ (hash >>> 32);
+    }
+
+    /**
+     * One lock and its open-addressing slots, resized when more than 3/4 full
+     */
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private Slots slots = new Slots(INITIAL_SEGMENT_CAPACITY);
+        private int size;
+
+        /* Slots changed since last drain */
+        private int[] dirtyQueue = new int[INITIAL_SEGMENT_CAPACITY];
+        private int dirtyCount;
+
+        /* Changes not yet delivered to the listeners, swapped with the spare by the dispatcher */
+        private Events events = new Events();
+        private Events spareEvents = new Events();
+
+        /**
+         * Finds or creates the slot of an account, must hold the write lock
+         * @return Index of the slot
+         */
+        int insert(long mostSigBits, long leastSigBits, long hash) {
+            int index = slots.indexOf(mostSigBits, leastSigBits, hash);
+            if(index >= 0) {
+                return index;
+            }
+
+            if((size + 1) * 4L > slots.used.length * 3L) {
+                resize(slots.used.length * 2);
+                index = slots.indexOf(mostSigBits, leastSigBits, hash);
+            }
+            index = ~index;
+            slots.used[index] = true;
+            slots.most[index] = mostSigBits;
+            slots.least[index] = leastSigBits;
+            slots.lastAccess[index] = System.currentTimeMillis();
+            size++;
+            return index;
+        }
+
+        /**
+         * Removes the account in a slot, shifting later entries of the probe chain back so no tombstones are needed
+         * Must hold the write lock, and the account must not be dirty
+         */
+        void removeAt(int index) {
+            Slots slots = this.slots;
+            int mask = slots.used.length - 1;
+            int hole = index;
+            int next = (hole + 1) & mask;
+            while (slots.used[next]) {
+                int home = (int) hash(slots.most[next], slots.least[next]) & mask;
+                // Move the entry into the hole if the hole lies between its home slot and its current slot
+                if(((next - home) & mask) >= ((next - hole) & mask)) {
+                    slots.move(next, hole);
+                    if(slots.dirty[hole]) {
+                        for (int i = 0; i < dirtyCount; i++) {
+                            if(dirtyQueue[i] == next) {
+                                dirtyQueue[i] = hole;
+                                break;
+                            }
+                        }
+                    }
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            // Cleared, since insert expects a free slot to hold a zero balance
+            slots.used[hole] = false;
+            slots.dirty[hole] = false;
+            slots.pinned[hole] = false;
+            slots.balances[hole] = 0;
+            slots.versions[hole] = 0;
+            size--;
+        }
+
+        private boolean evictable(int index, long idleBefore) {
+            return slots.used[index] && !slots.dirty[index] && !slots.pinned[index] && slots.lastAccess[index] < idleBefore;
+        }
+
+        /**
+         * Removes expired accounts, then the least recently used of a few sampled accounts until the segment fits
+         * Must hold the write lock
+         * @return Amount of accounts removed
+         */
+        int evict(int maxSize, long expiredBefore, long idleBefore) {
+            int evicted = 0;
+            for (int i = 0; i < slots.used.length; i++) {
+                // A removal can shift the next entry into this slot, so check it again
+                while (evictable(i, expiredBefore)) {
+                    removeAt(i);
+                    evicted++;
+                }
+            }
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int failed = 0;
+            while (size > maxSize && failed < MAX_FAILED_SAMPLES) {
+                int oldest = -1;
+                for (int sample = 0; sample < EVICTION_SAMPLES; sample++) {
+                    int index = random.nextInt(slots.used.length);
+                    if(evictable(index, idleBefore) && (oldest < 0 || slots.lastAccess[index] < slots.lastAccess[oldest])) {
+                        oldest = index;
+                    }
+                }
+                if(oldest < 0) {
+                    failed++;
+                    continue;
+                }
+                failed = 0;
+                removeAt(oldest);
+                evicted++;
+            }
+
+            if(slots.used.length > INITIAL_SEGMENT_CAPACITY && size * 8L < slots.used.length) {
+                resize(Math.max(INITIAL_SEGMENT_CAPACITY, Integer.highestOneBit(Math.max(1, size) * 4)));
+            }
+            return evicted;
+        }
+
+        void changed(int index) {
+            slots.versions[index]++;
+            slots.lastAccess[index] = System.currentTimeMillis();
+            enqueueDirty(index);
+        }
+
+        void enqueueDirty(int index) {
+            if(slots.dirty[index]) {
+                return;
+            }
+            slots.dirty[index] = true;
+            dirtyQueue[dirtyCount++] = index;
+        }
+
+        private void resize(int capacity) {
+            Slots old = slots;
+            Slots resized = new Slots(capacity);
+            int[] queue = new int[resized.used.length];
+            int queued = 0;
+
+            for (int i = 0; i < old.used.length; i++) {
+                if(!old.used[i]) {
+                    continue;
+                }
+                int index = ~resized.indexOf(old.most[i], old.least[i], hash(old.most[i], old.least[i]));
+                resized.used[index] = true;
+                resized.most[index] = old.most[i];
+                resized.least[index] = old.least[i];
+                resized.balances[index] = old.balances[i];
+                resized.versions[index] = old.versions[i];
+                resized.lastAccess[index] = old.lastAccess[i];
+                resized.pinned[index] = old.pinned[i];
+                if(old.dirty[i]) {
+                    resized.dirty[index] = true;
+                    queue[queued++] = index;
+                }
+            }
+
+            slots = resized;
+            dirtyQueue = queue;
+            dirtyCount = queued;
+        }
+    }
+
+    /**
+     * Queue of changes as parallel arrays, so queueing a change does not allocate once the arrays are large enough
+     */
+    private static final class Events {
+        private int count;
+        private int[] types = new int[INITIAL_SEGMENT_CAPACITY];
+        private long[] most = new long[INITIAL_SEGMENT_CAPACITY];
+        private long[] least = new long[INITIAL_SEGMENT_CAPACITY];
+        private long[] amounts = new long[INITIAL_SEGMENT_CAPACITY];
+        private long[] balances = new long[INITIAL_SEGMENT_CAPACITY];
+        private long[] versions = new long[INITIAL_SEGMENT_CAPACITY];
+
+        void add(int type, long mostSigBits, long leastSigBits, long amount, long balance, long version) {
+            if(count == types.length) {
+                int capacity = count * 2;
+                types = Arrays.copyOf(types, capacity);
+                most = Arrays.copyOf(most, capacity);
+                least = Arrays.copyOf(least, capacity);
+                amounts = Arrays.copyOf(amounts, capacity);
+                balances = Arrays.copyOf(balances, capacity);
+                versions = Arrays.copyOf(versions, capacity);
+            }
+            types[count] = type;
+            most[count] = mostSigBits;
+            least[count] = leastSigBits;
+            amounts[count] = amount;
+            balances[count] = balance;
+            versions[count++] = version;
+        }
+    }
+
+    /**
+     * Parallel arrays for one segment, replaced as a whole on resize so an optimistic read sees consistent lengths
+     */
+    private static final class Slots {
+        final boolean[] used;
+        final boolean[] dirty;
+        final long[] most;
+        final long[] least;
+        final long[] balances;
+        final long[] versions;
+        final long[] lastAccess;
+        final boolean[] pinned;
+
+        Slots(int capacity) {
+            used = new boolean[capacity];
+            dirty = new boolean[capacity];
+            most = new long[capacity];
+            least = new long[capacity];
+            balances = new long[capacity];
+            versions = new long[capacity];
+            lastAccess = new long[capacity];
+            pinned = new boolean[capacity];
+        }
+
+        void move(int from, int to) {
+            used[to] = true;
+            dirty[to] = dirty[from];
+            most[to] = most[from];
+            least[to] = least[from];
+            balances[to] = balances[from];
+            versions[to] = versions[from];
+            lastAccess[to] = lastAccess[from];
+            pinned[to] = pinned[from];
+        }
+
+        /**
+         * @return Index of the account, or the inverted index of the free slot where it belongs
+         */
+        int indexOf(long mostSigBits, long leastSigBits, long hash) {
+            int mask = used.length - 1;
+            int index = (int) hash & mask;
+            // Bounded so a torn optimistic read can never loop forever
+            for (int probes = 0; probes < used.length && used[index]; probes++) {
+                if(most[index] == mostSigBits && least[index] == leastSigBits) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+            return ~index;
+        }
+    }
+}
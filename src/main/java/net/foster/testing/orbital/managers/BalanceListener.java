@@ -0,0 +1,28 @@
+package net.foster.testing.orbital.managers;
+
+/**
+ * Receives every change made to a balance in the {@link Economy} manager
+ * Called on the dispatcher thread of the {@link AccountTable} after the change, never while an account is locked
+ * Changes to one account arrive in order, a listener added late may still get changes made shortly before
+ * Implementations must keep up with every change and must not allocate on the hot path
+ */
+@FunctionalInterface
+public interface BalanceListener {
+    int DEPOSIT = 0;
+    int WITHDRAW = 1;
+    int SET = 2;
+    int LOAD = 3;
+    /* Added to the type of changes received from another server */
+    int REMOTE = 0x10;
+
+    /**
+     * @param mostSigBits Most significant bits of the UUID of the account
+     * @param leastSigBits Least significant bits of the UUID of the account
+     * @param type {@link #DEPOSIT}, {@link #WITHDRAW}, {@link #SET} or {@link #LOAD} for a balance loaded from storage,
+     *             with {@link #REMOTE} added for changes received from another server
+     * @param amount Amount added in minor units, or the new balance for {@link #SET} and {@link #LOAD}
+     * @param balance Balance after the change in minor units
+     * @param version Version of the account after the change
+     */
+    void onBalanceChange(long mostSigBits, long leastSigBits, int type, long amount, long balance, long version);
+}
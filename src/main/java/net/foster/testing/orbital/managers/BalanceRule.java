@@ -0,0 +1,73 @@
+package net.foster.testing.orbital.managers;
+
+/**
+ * A change applied to every account at once, like interest or a wealth tax
+ * The part of a balance above the threshold is multiplied by the rate and added, balances at or below it are kept
+ * Integer arithmetic truncating towards 0 is used, so the stores can compute the same result in SQL
+ * Balances above {@link #maxBalance()} are kept, as the result could overflow, which SQL databases do not handle alike
+ *
+ * @param name Name used in logs and metrics, like "interest"
+ * @param threshold Balance in minor units above which the rule applies
+ * @param ratePpm Rate in millionths of the part above the threshold, negative to take money, at least -1,000,000
+ */
+public record BalanceRule(String name, long threshold, long ratePpm) {
+    public static final long PPM = 1_000_000;
+
+    public BalanceRule {
+        if(ratePpm < -PPM || ratePpm > PPM) {
+            throw new IllegalArgumentException("Rate of " + name + " must be between -100% and 100%");
+        }
+        if(threshold < 0) {
+            throw new IllegalArgumentException("Threshold of " + name + " must not be negative");
+        }
+    }
+
+    /**
+     * @param percent Percent of every positive balance that is paid
+     * @return Rule paying interest
+     */
+    public static BalanceRule interest(double percent) {
+        return new BalanceRule("interest", 0, Math.round(percent * PPM / 100));
+    }
+
+    /**
+     * @param percent Percent of the part above the threshold that is taken
+     * @param threshold Balance in minor units that is never taxed
+     * @return Rule taking a wealth tax, it never takes a balance below the threshold
+     */
+    public static BalanceRule wealthTax(double percent, long threshold) {
+        return new BalanceRule("wealth-tax", threshold, -Math.round(percent * PPM / 100));
+    }
+
+    /**
+     * @param balance Balance in minor units
+     * @return Balance after the rule, in minor units
+     */
+    public long apply(long balance) {
+        return balance > threshold && balance <= maxBalance() ? balance + (balance - threshold) * ratePpm / PPM : balance;
+    }
+
+    /**
+     * Gets the highest balance the rule changes, for which neither the product of the part above the threshold and the
+     * rate nor the result can overflow
+     * @return Balance in minor units
+     */
+    public long maxBalance() {
+        if(ratePpm == 0) {
+            return threshold;
+        }
+        long maxExcess = Long.MAX_VALUE / Math.abs(ratePpm);
+        if(ratePpm > 0) {
+            // The result is at most the threshold plus twice the part above it
+            maxExcess = Math.min(maxExcess, (Long.MAX_VALUE - threshold) / 2);
+        }
+        return maxExcess > Long.MAX_VALUE - threshold ? Long.MAX_VALUE : threshold + maxExcess;
+    }
+
+    /**
+     * @return Whether the rule never changes a balance
+     */
+    public boolean isNoop() {
+        return ratePpm == 0;
+    }
+}
@@ -0,0 +1,104 @@
+package net.foster.testing.orbital.managers;
+
+import net.foster.testing.orbital.utils.UUIDLongMap;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks a cooldown per player as the time it expires
+ * Expired cooldowns are removed when they are looked up, or in an occasional sweep when the map has grown,
+ * so no task has to tick every player
+ */
+public class CooldownService {
+    private static final int MIN_SWEEP_SIZE = 64;
+
+    private volatile long durationNanos;
+    private final UUIDLongMap deadlines = new UUIDLongMap();
+    private int sweepSize = MIN_SWEEP_SIZE;
+
+    /**
+     * @param duration How long the cooldown lasts
+     * @param unit Unit of the duration
+     */
+    public CooldownService(long duration, TimeUnit unit) {
+        this.durationNanos = unit.toNanos(duration);
+    }
+
+    /**
+     * Changes how long new cooldowns last, active cooldowns keep the time they expire
+     * @param duration How long the cooldown lasts
+     * @param unit Unit of the duration
+     */
+    public void setDuration(long duration, TimeUnit unit) {
+        this.durationNanos = unit.toNanos(duration);
+    }
+
+    /**
+     * Starts the cooldown for a player, unless it is already active
+     * @param uuid UUID of player
+     * @return Whether the cooldown was started, false if the player is still on cooldown
+     */
+    public synchronized boolean tryStart(UUID uuid) {
+        if(getRemainingNanos(uuid) > 0) {
+            return false;
+        }
+        start(uuid);
+        return true;
+    }
+
+    /**
+     * Starts the cooldown for a player, replacing an active one
+     * @param uuid UUID of player
+     */
+    public synchronized void start(UUID uuid) {
+        deadlines.put(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), System.nanoTime() + durationNanos);
+
+        if(deadlines.size() >= sweepSize) {
+            long now = System.nanoTime();
+            deadlines.removeValues(deadline -> deadline - now <= 0);
+            sweepSize = Math.max(MIN_SWEEP_SIZE, deadlines.size() * 2);
+        }
+    }
+
+    /**
+     * Ends the cooldown for a player
+     * @param uuid UUID of player
+     */
+    public synchronized void reset(UUID uuid) {
+        deadlines.remove(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * @param uuid UUID of player
+     * @return Whether the player is on cooldown
+     */
+    public boolean isActive(UUID uuid) {
+        return getRemainingNanos(uuid) > 0;
+    }
+
+    /**
+     * Gets the time left of the cooldown, rounded up to whole seconds
+     * @param uuid UUID of player
+     * @return Seconds left, 0 if the player is not on cooldown
+     */
+    public long getRemainingSeconds(UUID uuid) {
+        long remaining = getRemainingNanos(uuid);
+        return remaining <= 0 ? 0 : (remaining + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private synchronized long getRemainingNanos(UUID uuid) {
+        long mostSigBits = uuid.getMostSignificantBits();
+        long leastSigBits = uuid.getLeastSignificantBits();
+        if(!deadlines.containsKey(mostSigBits, leastSigBits)) {
+            return 0;
+        }
+
+        long remaining = deadlines.get(mostSigBits, leastSigBits, 0) - System.nanoTime();
+        if(remaining <= 0) {
+            deadlines.remove(mostSigBits, leastSigBits);
+            return 0;
+        }
+        return remaining;
+    }
+}
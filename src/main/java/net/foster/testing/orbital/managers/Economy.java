@@ -1,14 +1,19 @@
 package net.foster.testing.orbital.managers;
 
+import net.foster.testing.orbital.utils.Money;
 import org.bukkit.OfflinePlayer;
 
-import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * An economy manager used to handle all players balances
+ * Safe to use from any thread, every balance change is applied atomically
+ * Balances are kept as minor units in an {@link AccountTable}, the double methods convert at the boundary
  */
 public class Economy {
-    private final HashMap<OfflinePlayer, Double> balances = new HashMap<>();
+    private final AccountTable accounts = new AccountTable();
 
     /**
      * Get the balance for a player
@@ -16,31 +21,228 @@ public class Economy {
      * @return A double containing the balance
      */
     public double getBalance(OfflinePlayer player) {
-        return balances.computeIfAbsent(player, k -> 0.0);
+        return getBalance(player.getUniqueId());
+    }
+
+    /**
+     * Get the balance for a player
+     * @param uuid UUID of player to get balance from
+     * @return A double containing the balance, 0 if the account is not loaded
+     */
+    public double getBalance(UUID uuid) {
+        return Money.toMajor(getBalanceMinor(uuid));
+    }
+
+    /**
+     * Get the balance for a player in minor units
+     * @param uuid UUID of player to get balance from
+     * @return Balance in minor units, 0 if the account is not loaded
+     */
+    public long getBalanceMinor(UUID uuid) {
+        return accounts.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), 0);
+    }
+
+    /**
+     * @param uuid UUID of player to check
+     * @return Whether the account of the player is loaded
+     */
+    public boolean hasAccount(UUID uuid) {
+        return accounts.contains(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
     }
 
     /**
      * Withdraws given amount from players balance
      * @param player Player to withdraw from
      * @param amount Amount to withdraw as a double
+     * @throws AccountNotLoadedException If the account of the player is not loaded
      */
     public void withdrawPlayer(OfflinePlayer player, double amount) {
-        balances.put(player, getBalance(player) - amount);
+        addMinor(player.getUniqueId(), -Money.toMinor(amount));
     }
 
     /**
      * Deposits given amount to players balance
      * @param player Player to deposit money to
      * @param amount Amount to deposit as a double
+     * @throws AccountNotLoadedException If the account of the player is not loaded
      */
     public void depositPlayer(OfflinePlayer player, double amount) {
-        balances.put(player, getBalance(player) + amount);
+        addMinor(player.getUniqueId(), Money.toMinor(amount));
+    }
+
+    /**
+     * Adds to the balance of a player
+     * @param uuid UUID of player
+     * @param amount Amount in minor units, negative to withdraw
+     * @return The new balance in minor units
+     * @throws AccountNotLoadedException If the account of the player is not loaded
+     */
+    public long addMinor(UUID uuid, long amount) {
+        return accounts.add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), amount);
+    }
+
+    /**
+     * Withdraws from the balance of a player, unless the balance is too low
+     * @param uuid UUID of player
+     * @param amount Amount in minor units
+     * @return Whether the amount was withdrawn
+     * @throws AccountNotLoadedException If the account of the player is not loaded
+     */
+    public boolean tryWithdrawMinor(UUID uuid, long amount) {
+        return accounts.tryAdd(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), -amount, 0);
+    }
+
+    /**
+     * Adds to the balance of many players at once
+     * @param amounts Amount in minor units for each player, negative to withdraw
+     * @throws AccountNotLoadedException If the account of a player is not loaded, see {@link AccountTable#addAll}
+     */
+    public void addAllMinor(Map<UUID, Long> amounts) {
+        long[] most = new long[amounts.size()];
+        long[] least = new long[amounts.size()];
+        long[] deltas = new long[amounts.size()];
+        int count = 0;
+        for (Map.Entry<UUID, Long> entry : amounts.entrySet()) {
+            most[count] = entry.getKey().getMostSignificantBits();
+            least[count] = entry.getKey().getLeastSignificantBits();
+            deltas[count++] = entry.getValue();
+        }
+        accounts.addAll(most, least, deltas, count);
+    }
+
+    /**
+     * Applies every change of a transaction atomically, or none of them
+     * @param transaction Transaction to apply, {@link Transaction#getBalances()} holds the resulting balances afterwards
+     * @return Whether the transaction was applied, false if an account would be overdrawn
+     * @throws AccountNotLoadedException If an account changed by an amount is not loaded, nothing is changed then
+     */
+    public boolean execute(Transaction transaction) {
+        return accounts.apply(transaction);
+    }
+
+    /**
+     * Applies a rule to every loaded account in a key range, see {@link AccountTable#applyRule(BalanceRule, KeyRange, LongAdder)}
+     * @param rule Rule to apply
+     * @param range Accounts to change, {@link KeyRange#ALL} for every account
+     * @param progress Incremented by every account visited
+     * @return Amount of accounts changed
+     */
+    public long applyRule(BalanceRule rule, KeyRange range, LongAdder progress) {
+        return accounts.applyRule(rule, range, progress);
+    }
+
+    /**
+     * Sets the balance of a player
+     * @param player Player to set the balance for
+     * @param amount New balance as a double
+     */
+    public void setBalance(OfflinePlayer player, double amount) {
+        setBalanceMinor(player.getUniqueId(), Money.toMinor(amount));
+    }
+
+    /**
+     * Sets the balance of a player
+     * @param uuid UUID of player
+     * @param balance New balance in minor units
+     */
+    public void setBalanceMinor(UUID uuid, long balance) {
+        accounts.set(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), balance, true);
+    }
+
+    /**
+     * Sets a balance loaded from the database, without marking it as changed
+     * An account that is already loaded is kept, since it may have changes that are not saved yet
+     * @param uuid UUID of player the balance belongs to
+     * @param balance Balance stored in the database
+     * @return Whether the balance was loaded
+     */
+    public boolean loadBalance(UUID uuid, double balance) {
+        return loadBalanceMinor(uuid, Money.toMinor(balance));
+    }
+
+    /**
+     * Sets a balance loaded from the database, see {@link #loadBalance(UUID, double)}
+     * @param uuid UUID of player the balance belongs to
+     * @param balance Balance stored in the database in minor units
+     * @return Whether the balance was loaded
+     */
+    public boolean loadBalanceMinor(UUID uuid, long balance) {
+        return accounts.putIfAbsent(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), balance);
+    }
+
+    /**
+     * Passes every account changed since the last drain to the consumer and marks it as saved
+     * @param consumer Consumer called for each changed account, must not use this Economy
+     * @return Amount of accounts drained
+     */
+    public int drainDirty(AccountTable.AccountConsumer consumer) {
+        return accounts.drainDirty(consumer);
+    }
+
+    /**
+     * Marks the balance of a player as changed again, used when saving it failed
+     * @param uuid UUID of player
+     */
+    public void markDirty(UUID uuid) {
+        accounts.markDirty(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Pins the account of a player so it is never evicted, used while the player is online
+     * @param uuid UUID of player
+     * @param pinned Whether the account should be pinned
+     * @return Whether the account is loaded
+     */
+    public boolean setPinned(UUID uuid, boolean pinned) {
+        return accounts.setPinned(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), pinned);
+    }
+
+    /**
+     * Rejects every later balance change, used when the server stops so the final save is complete
+     * Returns once changes already running are finished, see {@link AccountTable#freeze()}
+     */
+    public void freeze() {
+        accounts.freeze();
+    }
+
+    /**
+     * Removes saved accounts of offline players that are not needed in memory
+     * @param maxSize Amount of accounts to keep at most
+     * @param expireAfterMillis Time since last use after which an account is removed
+     * @return Amount of accounts removed
+     */
+    public int evict(int maxSize, long expireAfterMillis) {
+        return accounts.evict(maxSize, expireAfterMillis);
+    }
+
+    /**
+     * Removes the account of a player so it is loaded from the database again, unless it is pinned or has unsaved changes
+     * @param uuid UUID of player
+     * @return Whether the account was removed
+     */
+    public boolean invalidate(UUID uuid) {
+        return accounts.invalidate(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * @return Amount of accounts removed by {@link #evict(int, long)}
+     */
+    public long getEvictionCount() {
+        return accounts.getEvictionCount();
+    }
+
+    /**
+     * Adds a listener that is called for every balance change
+     * @param listener Listener to add
+     */
+    public void addListener(BalanceListener listener) {
+        accounts.addListener(listener);
     }
 
     /**
-     * @return A Map containing all players balances
+     * @return The table holding every loaded account
      */
-    public HashMap<OfflinePlayer, Double> getBalances() {
-        return balances;
+    public AccountTable getAccounts() {
+        return accounts;
     }
 }
@@ -0,0 +1,93 @@
+package net.foster.testing.orbital.managers;
+
+import net.foster.testing.orbital.api.EconomyService;
+import net.foster.testing.orbital.data.Database;
+import net.foster.testing.orbital.utils.Money;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link EconomyService} backed by the Economy manager, loading missing accounts through the database
+ */
+public class EconomyProvider implements EconomyService {
+    private final Economy econ;
+    private final Database database;
+
+    public EconomyProvider(Economy econ, Database database) {
+        this.econ = econ;
+        this.database = database;
+    }
+
+    @Override
+    public CompletableFuture<Long> getBalance(UUID uuid) {
+        return load(List.of(uuid)).thenApply(v -> econ.getBalanceMinor(uuid));
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, Long>> getBalances(Collection<UUID> uuids) {
+        return load(uuids).thenApply(v -> {
+            Map<UUID, Long> balances = new HashMap<>(uuids.size() * 2);
+            for (UUID uuid : uuids) {
+                balances.put(uuid, econ.getBalanceMinor(uuid));
+            }
+            return balances;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Long> deposit(UUID uuid, long amount) {
+        if(amount < 0) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Cannot deposit a negative amount"));
+        }
+        if(!Money.inRange(Money.toMajor(amount))) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Amount is too large: " + amount));
+        }
+        return load(List.of(uuid)).thenApply(v -> econ.addMinor(uuid, amount));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> withdraw(UUID uuid, long amount) {
+        if(amount < 0) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Cannot withdraw a negative amount"));
+        }
+        return load(List.of(uuid)).thenApply(v -> econ.tryWithdrawMinor(uuid, amount));
+    }
+
+    @Override
+    public CompletableFuture<Void> depositAll(Map<UUID, Long> amounts) {
+        Transaction transaction = new Transaction();
+        try {
+            amounts.forEach((uuid, amount) -> {
+                if(!Money.inRange(Money.toMajor(amount))) {
+                    throw new IllegalArgumentException("Amount is too large: " + amount);
+                }
+                transaction.deposit(uuid, amount);
+            });
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        // A transaction, so an account evicted before it runs fails every deposit and a retry pays nobody twice
+        return load(amounts.keySet()).thenRun(() -> econ.execute(transaction));
+    }
+
+    @Override
+    public CompletableFuture<Void> load(Collection<UUID> uuids) {
+        return database.preloadPlayerData(uuids);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> find(UUID uuid) {
+        return database.findPlayerData(uuid);
+    }
+
+    @Override
+    public boolean isLoaded(UUID uuid) {
+        return econ.hasAccount(uuid);
+    }
+
+    @Override
+    public String format(long amount) {
+        return Money.format(amount);
+    }
+}
@@ -0,0 +1,56 @@
+package net.foster.testing.orbital.managers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Accounts whose UUID starts with the same bits, used to split work over every account into chunks
+ * UUIDs are ordered unsigned, most significant bits first, which is how SQLite compares blobs and H2 compares UUIDs
+ *
+ * @param index Value of the leading bits shared by every account in the range
+ * @param bits Amount of leading bits, 0 for a single range holding every account
+ */
+public record KeyRange(int index, int bits) {
+    public static final KeyRange ALL = new KeyRange(0, 0);
+
+    public KeyRange {
+        if(bits < 0 || bits > 16 || index < 0 || index >= 1 << bits) {
+            throw new IllegalArgumentException("Key range needs 0 to 16 bits and an index below 2^bits: " + index + "/" + bits);
+        }
+    }
+
+    /**
+     * @param bits Amount of leading bits, between 0 and 16
+     * @return Every range with that amount of bits, in key order, together holding every account
+     */
+    public static List<KeyRange> split(int bits) {
+        List<KeyRange> ranges = new ArrayList<>(1 << bits);
+        for (int index = 0; index < 1 << bits; index++) {
+            ranges.add(new KeyRange(index, bits));
+        }
+        return ranges;
+    }
+
+    /**
+     * @param mostSigBits Most significant bits of the UUID of the account
+     * @return Whether the account is in this range
+     */
+    public boolean contains(long mostSigBits) {
+        return bits == 0 || mostSigBits >>> (Long.SIZE - bits) == index;
+    }
+
+    /**
+     * @return Lowest UUID in the range, null if the range starts at the lowest UUID
+     */
+    public UUID from() {
+        return index == 0 ? null : new UUID((long) index << (Long.SIZE - bits), 0);
+    }
+
+    /**
+     * @return Lowest UUID above the range, null if the range ends at the highest UUID
+     */
+    public UUID to() {
+        return index == (1 << bits) - 1 ? null : new UUID((long) (index + 1) << (Long.SIZE - bits), 0);
+    }
+}
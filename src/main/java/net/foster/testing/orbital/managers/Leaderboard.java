@@ -0,0 +1,329 @@
+package net.foster.testing.orbital.managers;
+
+import net.foster.testing.orbital.utils.UUIDLongMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Index of every known balance ordered from highest to lowest, used for "/baltop"
+ * Kept up to date by listening to the Economy manager, so lookups never touch the database
+ * Backed by an order-statistic treap, updates, page lookups and ranks run in O(log n)
+ */
+public class Leaderboard implements BalanceListener {
+    private final UUIDLongMap balances = new UUIDLongMap();
+    private Node root;
+    private long seed = 0x2545F4914F6CDD1DL;
+
+    /**
+     * A balance at a position in the leaderboard
+     * @param rank Position starting at 1
+     * @param uuid UUID of the player
+     * @param balance Balance in minor units
+     */
+    public record Entry(int rank, UUID uuid, long balance) {}
+
+    @Override
+    public void onBalanceChange(long mostSigBits, long leastSigBits, int type, long amount, long balance, long version) {
+        if(type == LOAD) {
+            seed(mostSigBits, leastSigBits, balance);
+        } else {
+            update(mostSigBits, leastSigBits, balance);
+        }
+    }
+
+    /**
+     * Sets the balance of a player in the leaderboard
+     * @param balance Balance in minor units
+     */
+    public synchronized void update(long mostSigBits, long leastSigBits, long balance) {
+        Node node = null;
+        if(balances.containsKey(mostSigBits, leastSigBits)) {
+            long current = balances.get(mostSigBits, leastSigBits, 0);
+            if(current == balance) {
+                return;
+            }
+            // The removed node is reused, so moving a player does not allocate
+            node = find(current, mostSigBits, leastSigBits);
+            root = remove(root, current, mostSigBits, leastSigBits);
+        }
+
+        if(node == null) {
+            node = new Node(mostSigBits, leastSigBits, nextPriority());
+        }
+        node.balance = balance;
+        node.left = null;
+        node.right = null;
+        node.size = 1;
+        root = insert(root, node);
+        balances.put(mostSigBits, leastSigBits, balance);
+    }
+
+    /**
+     * Adds a balance from storage, unless the player already is in the leaderboard with a newer balance
+     * @param balance Balance in minor units
+     */
+    public synchronized void seed(long mostSigBits, long leastSigBits, long balance) {
+        if(!balances.containsKey(mostSigBits, leastSigBits)) {
+            update(mostSigBits, leastSigBits, balance);
+        }
+    }
+
+    /**
+     * Adds many balances from storage at once, see {@link #seed(long, long, long)}
+     * The lock is taken once, so chunks loaded in parallel do not contend per entry
+     * @param count Amount of entries to read from the arrays
+     */
+    public synchronized void seedAll(long[] most, long[] least, long[] balances, int count) {
+        for (int i = 0; i < count; i++) {
+            seed(most[i], least[i], balances[i]);
+        }
+    }
+
+    /**
+     * Applies a rule to the players whose account is not loaded, after the store applied it to their rows
+     * Loaded accounts are skipped, they are ranked by the changes the Economy manager reports
+     * An entry that changed in the meantime is kept, since its balance is newer than the rule
+     * @param rule Rule to apply
+     * @param loaded Accounts that are loaded, checked without holding the leaderboard lock
+     * @return Amount of entries changed
+     */
+    public int applyRule(BalanceRule rule, AccountTable loaded) {
+        final long[] most;
+        final long[] least;
+        final long[] current;
+        int[] count = {0};
+        synchronized (this) {
+            most = new long[balances.size()];
+            least = new long[balances.size()];
+            current = new long[balances.size()];
+            balances.forEach((mostSigBits, leastSigBits, balance) -> {
+                if(rule.apply(balance) != balance) {
+                    most[count[0]] = mostSigBits;
+                    least[count[0]] = leastSigBits;
+                    current[count[0]++] = balance;
+                }
+            });
+        }
+
+        // Looked up before taking the leaderboard lock, so changes delivered meanwhile do not wait on the table
+        boolean[] skip = new boolean[count[0]];
+        for (int i = 0; i < count[0]; i++) {
+            skip[i] = loaded.contains(most[i], least[i]);
+        }
+
+        int changed = 0;
+        synchronized (this) {
+            for (int i = 0; i < count[0]; i++) {
+                if(skip[i] || !balances.containsKey(most[i], least[i]) || balances.get(most[i], least[i], 0) != current[i]) {
+                    continue;
+                }
+                update(most[i], least[i], rule.apply(current[i]));
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Gets a page of the leaderboard
+     * @param page Page starting at 1
+     * @param pageSize Amount of entries per page
+     * @return Entries on the page, empty if the page is before the start or past the end
+     */
+    public synchronized List<Entry> getPage(int page, int pageSize) {
+        // Computed as long, a large page times the page size would wrap around to a valid offset
+        long offset = (page - 1L) * pageSize;
+        int size = size(root);
+        if(page < 1 || pageSize < 1 || offset >= size) {
+            return List.of();
+        }
+        int from = (int) offset;
+        int to = (int) Math.min(size, offset + pageSize);
+        List<Entry> entries = new ArrayList<>(to - from);
+        for (int rank = from; rank < to; rank++) {
+            Node node = select(rank);
+            entries.add(new Entry(rank + 1, new UUID(node.most, node.least), node.balance));
+        }
+        return entries;
+    }
+
+    /**
+     * Gets the position of a player
+     * @param uuid UUID of player
+     * @return Position starting at 1, or 0 if the player is not in the leaderboard
+     */
+    public synchronized int getRank(UUID uuid) {
+        long mostSigBits = uuid.getMostSignificantBits();
+        long leastSigBits = uuid.getLeastSignificantBits();
+        if(!balances.containsKey(mostSigBits, leastSigBits)) {
+            return 0;
+        }
+
+        long balance = balances.get(mostSigBits, leastSigBits, 0);
+        int rank = 0;
+        Node node = root;
+        while (node != null) {
+            int compared = compare(balance, mostSigBits, leastSigBits, node);
+            if(compared < 0) {
+                node = node.left;
+            } else if(compared == 0) {
+                return rank + size(node.left) + 1;
+            } else {
+                rank += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return Amount of players in the leaderboard
+     */
+    public synchronized int size() {
+        return size(root);
+    }
+
+    /**
+     * Orders by highest balance first, then by UUID so every key is unique
+     */
+    private static int compare(long balance, long mostSigBits, long leastSigBits, Node node) {
+        if(balance != node.balance) {
+            return balance > node.balance ? -1 : 1;
+        }
+        int compared = Long.compare(mostSigBits, node.most);
+        return compared != 0 ? compared : Long.compare(leastSigBits, node.least);
+    }
+
+    private Node find(long balance, long mostSigBits, long leastSigBits) {
+        Node node = root;
+        while (node != null) {
+            int compared = compare(balance, mostSigBits, leastSigBits, node);
+            if(compared == 0) {
+                return node;
+            }
+            node = compared < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    private Node select(int rank) {
+        Node node = root;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if(rank < leftSize) {
+                node = node.left;
+            } else if(rank == leftSize) {
+                return node;
+            } else {
+                rank -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        throw new IndexOutOfBoundsException("Rank " + rank + " is outside the leaderboard");
+    }
+
+    private Node insert(Node parent, Node node) {
+        if(parent == null) {
+            return node;
+        }
+        if(compare(node.balance, node.most, node.least, parent) < 0) {
+            parent.left = insert(parent.left, node);
+            if(parent.left.priority > parent.priority) {
+                parent = rotateRight(parent);
+            }
+        } else {
+            parent.right = insert(parent.right, node);
+            if(parent.right.priority > parent.priority) {
+                parent = rotateLeft(parent);
+            }
+        }
+        updateSize(parent);
+        return parent;
+    }
+
+    private Node remove(Node parent, long balance, long mostSigBits, long leastSigBits) {
+        if(parent == null) {
+            return null;
+        }
+        int compared = compare(balance, mostSigBits, leastSigBits, parent);
+        if(compared == 0) {
+            return merge(parent.left, parent.right);
+        }
+        if(compared < 0) {
+            parent.left = remove(parent.left, balance, mostSigBits, leastSigBits);
+        } else {
+            parent.right = remove(parent.right, balance, mostSigBits, leastSigBits);
+        }
+        updateSize(parent);
+        return parent;
+    }
+
+    private Node merge(Node left, Node right) {
+        if(left == null) {
+            return right;
+        }
+        if(right == null) {
+            return left;
+        }
+        if(left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            updateSize(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        updateSize(right);
+        return right;
+    }
+
+    private Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        updateSize(node);
+        updateSize(left);
+        return left;
+    }
+
+    private Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        updateSize(node);
+        updateSize(right);
+        return right;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void updateSize(Node node) {
+        node.size = size(node.left) + size(node.right) + 1;
+    }
+
+    private int nextPriority() {
+        // xorshift, the leaderboard lock makes a shared Random unnecessary
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        return (int) seed;
+    }
+
+    private static final class Node {
+        private final long most;
+        private final long least;
+        private final int priority;
+        private long balance;
+        private int size = 1;
+        private Node left;
+        private Node right;
+
+        private Node(long most, long least, int priority) {
+            this.most = most;
+            this.least = least;
+            this.priority = priority;
+        }
+    }
+}
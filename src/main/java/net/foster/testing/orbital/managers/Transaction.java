@@ -0,0 +1,132 @@
+package net.foster.testing.orbital.managers;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A group of balance changes applied all at once by {@link Economy#execute(Transaction)}
+ * Either every change is applied or none is, and no account touched by a withdrawal may end below 0
+ * Not thread-safe, build it on one thread and execute it once
+ */
+public final class Transaction {
+    /* One entry per change, in the order they were added */
+    long[] most = new long[4];
+    long[] least = new long[4];
+    long[] amounts = new long[4];
+    boolean[] sets = new boolean[4];
+    int size;
+
+    /* Balance of each account after the transaction, filled in when it is applied */
+    private Map<UUID, Long> balances;
+
+    /**
+     * Adds to the balance of a player
+     * @param uuid UUID of player
+     * @param amount Amount in minor units, negative to withdraw
+     * @return This transaction
+     */
+    public Transaction add(UUID uuid, long amount) {
+        return append(uuid, amount, false);
+    }
+
+    /**
+     * @param uuid UUID of player
+     * @param amount Amount in minor units
+     * @return This transaction
+     */
+    public Transaction deposit(UUID uuid, long amount) {
+        if(amount < 0) {
+            throw new IllegalArgumentException("Cannot deposit a negative amount");
+        }
+        return add(uuid, amount);
+    }
+
+    /**
+     * @param uuid UUID of player
+     * @param amount Amount in minor units
+     * @return This transaction
+     */
+    public Transaction withdraw(UUID uuid, long amount) {
+        if(amount < 0) {
+            throw new IllegalArgumentException("Cannot withdraw a negative amount");
+        }
+        return add(uuid, -amount);
+    }
+
+    /**
+     * Moves money from one player to another
+     * @param from UUID of player paying
+     * @param to UUID of player receiving
+     * @param amount Amount in minor units
+     * @return This transaction
+     */
+    public Transaction transfer(UUID from, UUID to, long amount) {
+        return withdraw(from, amount).deposit(to, amount);
+    }
+
+    /**
+     * Replaces the balance of a player, changes added after this one apply on top of it
+     * @param uuid UUID of player
+     * @param balance New balance in minor units
+     * @return This transaction
+     */
+    public Transaction set(UUID uuid, long balance) {
+        return append(uuid, balance, true);
+    }
+
+    private Transaction append(UUID uuid, long amount, boolean set) {
+        if(balances != null) {
+            throw new IllegalStateException("Transaction was already applied");
+        }
+        if(size == most.length) {
+            int capacity = size * 2;
+            most = Arrays.copyOf(most, capacity);
+            least = Arrays.copyOf(least, capacity);
+            amounts = Arrays.copyOf(amounts, capacity);
+            sets = Arrays.copyOf(sets, capacity);
+        }
+        most[size] = uuid.getMostSignificantBits();
+        least[size] = uuid.getLeastSignificantBits();
+        amounts[size] = amount;
+        sets[size++] = set;
+        return this;
+    }
+
+    /**
+     * @return Amount of changes in the transaction
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Whether the transaction was applied
+     */
+    public boolean isApplied() {
+        return balances != null;
+    }
+
+    /**
+     * @return Balance in minor units of every account after the transaction, in the order they were first added
+     * @throws IllegalStateException If the transaction was not applied
+     */
+    public Map<UUID, Long> getBalances() {
+        if(balances == null) {
+            throw new IllegalStateException("Transaction was not applied");
+        }
+        return balances;
+    }
+
+    /**
+     * Records the resulting balances, called by the account table while it holds the locks
+     */
+    void applied(long[] results) {
+        Map<UUID, Long> applied = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            applied.put(new UUID(most[i], least[i]), results[i]);
+        }
+        balances = applied;
+    }
+}
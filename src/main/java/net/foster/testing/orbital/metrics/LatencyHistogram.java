@@ -0,0 +1,128 @@
+package net.foster.testing.orbital.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A log-linear latency histogram in the style of HdrHistogram
+ * Every power of two is split into 16 linear buckets, so a reported percentile is at most ~6% above the real value
+ * Recording is lock-free and does not allocate
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a single value
+     * @param nanos Value in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Records the time passed since the given start
+     * @param startNanos Start time from {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return Amount of recorded values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return Sum of every recorded value in nanoseconds
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return The highest recorded value in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return The mean of the recorded values in nanoseconds, 0 if nothing was recorded
+     */
+    public double getMean() {
+        long recorded = getCount();
+        return recorded == 0 ? 0 : (double) getSum() / recorded;
+    }
+
+    /**
+     * Gets the value below which the given fraction of recorded values fall
+     * @param percentile Percentile between 0 and 100
+     * @return Upper bound of the bucket holding the percentile in nanoseconds, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if(total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if(seen >= target) {
+                return Math.min(highestValueIn(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Formats the common percentiles for display
+     * @param unit Unit to display the values in
+     * @return A String like "n=10 mean=1.20 p50=1.00 p99=3.00 max=4.00 ms"
+     */
+    public String summary(TimeUnit unit) {
+        double divisor = unit.toNanos(1);
+        return String.format("n=%d mean=%.2f p50=%.2f p95=%.2f p99=%.2f p999=%.2f max=%.2f %s",
+                getCount(), getMean() / divisor, getPercentile(50) / divisor, getPercentile(95) / divisor,
+                getPercentile(99) / divisor, getPercentile(99.9) / divisor, getMax() / divisor,
+                unit.name().toLowerCase());
+    }
+
+    private static int indexOf(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = (Long.SIZE - 1) - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueIn(int index) {
+        if(index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,174 @@
+package net.foster.testing.orbital.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters, gauges and latency histograms of the plugin, shown by "/eco stats" and dumped in the Prometheus text format
+ * Metrics are registered once on startup, recording goes straight to the registered {@link LatencyHistogram}
+ * or to the counter the supplier reads, so the registry is never touched on a hot path
+ */
+public class MetricsRegistry {
+    private static final String PREFIX = "orbital_";
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99, 0.999};
+
+    private enum Type {
+        COUNTER, GAUGE, SUMMARY
+    }
+
+    /* Metrics with the same name and different labels, in registration order */
+    private record Family(String name, String help, Type type, Map<String, Object> series) {}
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * Registers a value that only goes up
+     * @param name Name without prefix, should end with "_total"
+     * @param help Description of the metric
+     * @param value Supplier of the current value, called from any thread
+     * @param labels Label names and values in turns, like "lane", "read"
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, Type.COUNTER, value, labels);
+    }
+
+    /**
+     * Registers a value that goes up and down
+     * @param name Name without prefix
+     * @param help Description of the metric
+     * @param value Supplier of the current value, called from any thread
+     * @param labels Label names and values in turns
+     */
+    public void gauge(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, Type.GAUGE, value, labels);
+    }
+
+    /**
+     * Registers a new latency histogram
+     * @param name Name without prefix, should end with "_seconds"
+     * @param help Description of the metric
+     * @param labels Label names and values in turns
+     * @return The histogram to record into
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return histogram(name, help, new LatencyHistogram(), labels);
+    }
+
+    /**
+     * Registers an existing latency histogram
+     * @param name Name without prefix, should end with "_seconds"
+     * @param help Description of the metric
+     * @param histogram Histogram to publish
+     * @param labels Label names and values in turns
+     * @return The given histogram
+     */
+    public LatencyHistogram histogram(String name, String help, LatencyHistogram histogram, String... labels) {
+        register(name, help, Type.SUMMARY, histogram, labels);
+        return histogram;
+    }
+
+    private synchronized void register(String name, String help, Type type, Object metric, String... labels) {
+        if(labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels of " + name + " must be pairs of name and value");
+        }
+        StringBuilder labelText = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if(!labelText.isEmpty()) {
+                labelText.append(',');
+            }
+            labelText.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+
+        Family family = families.computeIfAbsent(PREFIX + name, key -> new Family(key, help, type, new LinkedHashMap<>()));
+        if(family.type() != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type().name().toLowerCase(Locale.ROOT));
+        }
+        if(family.series().putIfAbsent(labelText.toString(), metric) != null) {
+            throw new IllegalArgumentException("Metric " + name + "{" + labelText + "} is already registered");
+        }
+    }
+
+    /**
+     * Formats every metric for display, histograms as their common percentiles in milliseconds
+     * @param filter Only metrics whose name contains this are included, null for every metric
+     * @return Name with labels and formatted value of each metric, in registration order
+     */
+    public synchronized Map<String, String> describe(String filter) {
+        Map<String, String> described = new LinkedHashMap<>();
+        for (Family family : families.values()) {
+            String name = family.name().substring(PREFIX.length());
+            if(filter != null && !name.contains(filter)) {
+                continue;
+            }
+            family.series().forEach((labels, metric) -> {
+                String key = labels.isEmpty() ? name : name + "{" + labels + "}";
+                described.put(key, metric instanceof LatencyHistogram histogram
+                        ? histogram.summary(TimeUnit.MILLISECONDS)
+                        : String.valueOf(((LongSupplier) metric).getAsLong()));
+            });
+        }
+        return described;
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format, histograms as summaries in seconds
+     * @param out Writer to write to
+     * @throws IOException If writing failed
+     */
+    public synchronized void writePrometheus(Writer out) throws IOException {
+        for (Family family : families.values()) {
+            out.write("# HELP " + family.name() + " " + family.help() + "\n");
+            out.write("# TYPE " + family.name() + " " + family.type().name().toLowerCase(Locale.ROOT) + "\n");
+            for (Map.Entry<String, Object> series : family.series().entrySet()) {
+                String labels = series.getKey();
+                if(series.getValue() instanceof LatencyHistogram histogram) {
+                    String separator = labels.isEmpty() ? "" : labels + ",";
+                    for (double quantile : QUANTILES) {
+                        out.write(family.name() + "{" + separator + "quantile=\"" + quantile + "\"} "
+                                + seconds(histogram.getPercentile(quantile * 100)) + "\n");
+                    }
+                    String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+                    out.write(family.name() + "_sum" + suffix + " " + seconds(histogram.getSum()) + "\n");
+                    out.write(family.name() + "_count" + suffix + " " + histogram.getCount() + "\n");
+                } else {
+                    String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+                    out.write(family.name() + suffix + " " + ((LongSupplier) series.getValue()).getAsLong() + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces a file with every metric in the Prometheus text format
+     * The file is written next to the target and moved over it, so a scraper never reads half of it
+     * @param path Path of the file, its directory is created if missing
+     * @throws IOException If the file could not be written
+     */
+    public void dump(Path path) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = directory.resolve(path.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writePrometheus(out);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
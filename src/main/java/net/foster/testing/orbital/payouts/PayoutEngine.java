@@ -0,0 +1,280 @@
+package net.foster.testing.orbital.payouts;
+
+import net.foster.testing.orbital.data.ConfigManager;
+import net.foster.testing.orbital.data.Database;
+import net.foster.testing.orbital.data.Settings;
+import net.foster.testing.orbital.managers.BalanceRule;
+import net.foster.testing.orbital.managers.Economy;
+import net.foster.testing.orbital.managers.KeyRange;
+import net.foster.testing.orbital.managers.Leaderboard;
+import net.foster.testing.orbital.metrics.LatencyHistogram;
+import net.foster.testing.orbital.metrics.MetricsRegistry;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pays interest, takes a wealth tax and pays wages to ranks at a fixed interval
+ * Interest and tax are rules applied to every account, one key range at a time: stored rows of the range by one set-based
+ * UPDATE, then loaded accounts of the range in parallel segments on a ForkJoin pool. Each range is one task on the write lane
+ * that loads wait for, see {@link Database#writeThrough}, so each account gets the rule once and a login waits for one range
+ * at most. The next save writes the loaded balances over whatever the UPDATE computed for them
+ * Balances in the dead letter queue of the range get the rule in the same task, as they replace the stored ones later
+ * A crash during a rule keeps the ranges already changed, the payout is not run again
+ * Wages go to online players only, since ranks are permissions that are unknown for offline players
+ */
+public class PayoutEngine implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PayoutEngine.class);
+    private static final String PAYROLL = "payroll";
+    private static final String WAGE_PERMISSION = "orbital.payroll.";
+    /* Leading UUID bits of the key ranges, 64 ranges keep each UPDATE short even with millions of rows */
+    private static final int RANGE_BITS = 6;
+
+    private final Economy econ;
+    private final Database database;
+    private final Leaderboard leaderboard;
+    private final ForkJoinPool pool;
+    private final Path lastRunFile;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile String phase = "idle";
+
+    /* Statistics */
+    private final LongAdder progress = new LongAdder();
+    private final LongAdder storedChanges = new LongAdder();
+    private final LongAdder loadedChanges = new LongAdder();
+    private final LongAdder wagesPaid = new LongAdder();
+    private final MetricsRegistry metrics;
+    private final Map<String, LatencyHistogram> latencies = new HashMap<>();
+
+    /**
+     * A finished step of a payout
+     * @param rule Name of the step, like "interest"
+     * @param accounts Amount of accounts changed
+     * @param nanos Time the step took
+     */
+    public record Result(String rule, long accounts, long nanos) {
+        /**
+         * @return Accounts changed per second
+         */
+        public long accountsPerSecond() {
+            return nanos == 0 ? 0 : accounts * 1_000_000_000L / nanos;
+        }
+    }
+
+    /**
+     * @param econ Economy manager holding the loaded accounts
+     * @param database Database the stored accounts are changed through
+     * @param leaderboard Leaderboard to keep in line with stored accounts that are not loaded
+     * @param threads Threads applying rules to loaded accounts
+     * @param lastRunFile File holding the time of the last payout, so a restart does not reset the interval
+     */
+    public PayoutEngine(Economy econ, Database database, Leaderboard leaderboard, int threads, Path lastRunFile) {
+        this.econ = econ;
+        this.database = database;
+        this.leaderboard = leaderboard;
+        this.lastRunFile = lastRunFile;
+        this.metrics = database.getMetrics();
+        pool = new ForkJoinPool(Math.max(1, threads), forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("Orbital-payout-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+
+        metrics.counter("payout_accounts_total", "Accounts changed by payouts", storedChanges::sum, "source", "stored");
+        metrics.counter("payout_accounts_total", "Accounts changed by payouts", loadedChanges::sum, "source", "loaded");
+        metrics.counter("payout_accounts_total", "Accounts changed by payouts", wagesPaid::sum, "source", PAYROLL);
+        metrics.gauge("payout_progress_accounts", "Loaded accounts the running payout step went through", progress::sum);
+    }
+
+    /**
+     * Runs a payout every interval on the server thread, the first one an interval after the last payout before the restart
+     * @param plugin Plugin owning the task
+     * @param intervalMillis Time between two payouts
+     */
+    public void start(Plugin plugin, long intervalMillis) {
+        long delayMillis = Math.max(0, readLastRun() + intervalMillis - System.currentTimeMillis());
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                CompletableFuture<List<Result>> payout = PayoutEngine.this.run();
+                if(payout == null) {
+                    LOGGER.warn("Skipping payout, the previous one is still running: " + phase);
+                }
+            }
+        }.runTaskTimer(plugin, Math.max(1, delayMillis / 50), Math.max(1, intervalMillis / 50));
+        LOGGER.info("Paying out every " + intervalMillis / 60_000 + " minutes, next in " + delayMillis / 60_000 + " minutes");
+    }
+
+    /**
+     * Runs every step of a payout now with the current settings, must be called on the server thread
+     * Wages are paid right away, as permissions can only be checked on the server thread, the rules run on the write lane
+     * @return A {@link CompletableFuture} containing the result of every step, null if a payout is already running
+     */
+    public CompletableFuture<List<Result>> run() {
+        if(!running.compareAndSet(false, true)) {
+            return null;
+        }
+        // Written first, so a crash during the payout skips it instead of paying it twice
+        writeLastRun();
+        Settings settings = ConfigManager.getSettings();
+        List<Result> results = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Void> steps;
+        try {
+            if(!settings.payroll().isEmpty()) {
+                results.add(payWages(settings.payroll()));
+            }
+            steps = CompletableFuture.completedFuture(null);
+            for (BalanceRule rule : List.of(BalanceRule.interest(settings.interestPercent()),
+                    BalanceRule.wealthTax(settings.wealthTaxPercent(), settings.wealthTaxThreshold()))) {
+                if(!rule.isNoop()) {
+                    steps = steps.thenCompose(v -> apply(rule)).thenAccept(results::add);
+                }
+            }
+        } catch (RuntimeException e) {
+            steps = CompletableFuture.failedFuture(e);
+        }
+        return steps.handle((v, e) -> {
+            phase = "idle";
+            running.set(false);
+            if(e != null) {
+                LOGGER.error("Payout stopped after " + results.size() + " steps", e);
+                throw e instanceof CompletionException completion ? completion : new CompletionException(e);
+            }
+            return List.copyOf(results);
+        });
+    }
+
+    /**
+     * Applies a rule to every stored and every loaded account, see the class description
+     * Each key range is bound by the operation timeout, a range that fails stops the rule
+     * @param rule Rule to apply
+     * @return A {@link CompletableFuture} containing the result once every range is changed
+     */
+    public CompletableFuture<Result> apply(BalanceRule rule) {
+        long start = System.nanoTime();
+        LongAdder stored = new LongAdder();
+        LongAdder loaded = new LongAdder();
+        progress.reset();
+        List<KeyRange> ranges = KeyRange.split(RANGE_BITS);
+        CompletableFuture<Void> applied = CompletableFuture.completedFuture(null);
+        for (KeyRange range : ranges) {
+            // Queued one after another, so other writes and the loads get in between two ranges
+            applied = applied.thenCompose(v -> database.writeThrough(store -> {
+                phase = rule.name() + " on key range " + (range.index() + 1) + "/" + ranges.size();
+                int storedInRange = store.applyRule(rule, range);
+                // Balances whose write failed replace the stored ones later, changed after the store call so a retry changes them once
+                storedInRange += database.getDeadLetters().applyRule(rule, range);
+                stored.add(storedInRange);
+                storedChanges.add(storedInRange);
+
+                long loadedInRange = pool.submit(() -> econ.applyRule(rule, range, progress)).get();
+                loaded.add(loadedInRange);
+                loadedChanges.add(loadedInRange);
+                return null;
+            }));
+        }
+
+        // Off the write lane, which completes the last range
+        return applied.thenApplyAsync(v -> {
+            leaderboard.applyRule(rule, econ.getAccounts());
+
+            Result result = new Result(rule.name(), stored.sum() + loaded.sum(), System.nanoTime() - start);
+            latency(rule.name()).record(result.nanos());
+            LOGGER.info("Applied " + rule.name() + " to " + stored.sum() + " stored and " + loaded.sum() + " loaded accounts in "
+                    + result.nanos() / 1_000_000 + " ms (" + result.accountsPerSecond() + " accounts/s)");
+            return result;
+        }, pool);
+    }
+
+    /**
+     * Pays the highest wage of each online player's ranks, all in one batch
+     * @param wages Wage in minor units by name of the rank
+     * @return Result of the step
+     */
+    private Result payWages(Map<String, Long> wages) {
+        long start = System.nanoTime();
+        phase = PAYROLL;
+        Map<UUID, Long> paid = new HashMap<>();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            long wage = 0;
+            for (Map.Entry<String, Long> entry : wages.entrySet()) {
+                if(entry.getValue() > wage && player.hasPermission(WAGE_PERMISSION + entry.getKey())) {
+                    wage = entry.getValue();
+                }
+            }
+            // An account that is not loaded yet cannot be changed, it would fail the batch
+            if(wage > 0 && econ.hasAccount(player.getUniqueId())) {
+                paid.put(player.getUniqueId(), wage);
+            }
+        }
+        econ.addAllMinor(paid);
+        wagesPaid.add(paid.size());
+
+        Result result = new Result(PAYROLL, paid.size(), System.nanoTime() - start);
+        latency(PAYROLL).record(result.nanos());
+        database.getThreadGuard().record(PAYROLL, result.nanos());
+        LOGGER.info("Paid wages to " + paid.size() + " players in " + result.nanos() / 1_000_000 + " ms");
+        return result;
+    }
+
+    private synchronized LatencyHistogram latency(String rule) {
+        return latencies.computeIfAbsent(rule, name -> metrics.histogram("payout_seconds", "Time of a payout step", "rule", name));
+    }
+
+    /**
+     * @return Whether a payout is running
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return What the running payout is doing, "idle" if none is running
+     */
+    public String getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return Loaded accounts the running step went through
+     */
+    public long getProgress() {
+        return progress.sum();
+    }
+
+    private long readLastRun() {
+        try {
+            return Files.exists(lastRunFile) ? Long.parseLong(Files.readString(lastRunFile).trim()) : System.currentTimeMillis();
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.warn("Could not read the time of the last payout from " + lastRunFile.getFileName(), e);
+            return System.currentTimeMillis();
+        }
+    }
+
+    private void writeLastRun() {
+        try {
+            Files.writeString(lastRunFile, Long.toString(System.currentTimeMillis()));
+        } catch (IOException e) {
+            LOGGER.warn("Could not write the time of the last payout to " + lastRunFile.getFileName(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
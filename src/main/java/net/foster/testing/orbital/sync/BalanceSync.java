@@ -0,0 +1,322 @@
+package net.foster.testing.orbital.sync;
+
+import net.foster.testing.orbital.managers.BalanceListener;
+import net.foster.testing.orbital.managers.Economy;
+import net.foster.testing.orbital.utils.UUIDLongMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the balances of several servers in sync through a {@link SyncTransport}
+ * Every local change is published with a version, deposits and withdrawals as the amount added and sets as the new balance
+ * Added amounts are applied on top of the local balance, so concurrent changes on different servers all count
+ * A set replaces every change with a lower version, changes with a higher version that arrived before it are added on top again
+ * Versions come from a hybrid clock: the time in milliseconds, raised past every version seen, with the node id in the low bits
+ * So every change has a unique version and concurrent changes to one account resolve the same way on every server
+ * Changes to accounts that are not loaded are written into the {@link Storage} of this server, so every server holds every change
+ */
+public class BalanceSync implements BalanceListener, AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BalanceSync.class);
+    private static final int NODE_BITS = 16;
+    private static final long NODE_MASK = (1L << NODE_BITS) - 1;
+    /* Amount of recent added amounts kept to rebase a set arriving after them */
+    private static final int HISTORY_SIZE = 65_536;
+
+    private final Economy econ;
+    private final SyncTransport transport;
+    private final long nodeId;
+    private final AtomicLong clock = new AtomicLong();
+    private volatile Storage storage;
+
+    /* Everything below is guarded by versions, which is also held while publishing so versions leave in order */
+    /* Version of the last set applied to each account */
+    private final UUIDLongMap versions = new UUIDLongMap();
+    /* Version of the last message received from each node, keyed by the node id */
+    private final UUIDLongMap nodeVersions = new UUIDLongMap();
+    /* Ring of the latest amounts added to any account */
+    private final long[] historyMost = new long[HISTORY_SIZE];
+    private final long[] historyLeast = new long[HISTORY_SIZE];
+    private final long[] historyAmounts = new long[HISTORY_SIZE];
+    private final long[] historyVersions = new long[HISTORY_SIZE];
+    private long historyCount;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder invalidated = new LongAdder();
+
+    /**
+     * Storage of this server, changed for accounts that are not loaded
+     */
+    @FunctionalInterface
+    public interface Storage {
+        /**
+         * Applies a remote change to the stored balance of an account, or to the account in memory if it was loaded in the meantime
+         * @param uuid UUID of the account
+         * @param set Whether the amount replaces the balance, otherwise it is added
+         * @param amount Amount to add or balance to set in minor units
+         * @return A {@link CompletableFuture<Void>} completed once the change is applied
+         */
+        CompletableFuture<Void> apply(UUID uuid, boolean set, long amount);
+    }
+
+    /**
+     * Subscribes to the transport, the sync must also be added as a listener of the economy
+     * @param econ Economy manager to keep in sync
+     * @param transport Transport to the other servers
+     * @param nodeId Id of this server between 1 and 65535, unique among the servers, 0 picks a random one
+     */
+    public BalanceSync(Economy econ, SyncTransport transport, int nodeId) {
+        if(nodeId < 0 || nodeId > NODE_MASK) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + NODE_MASK + ": " + nodeId);
+        }
+        this.econ = econ;
+        this.transport = transport;
+        this.nodeId = nodeId != 0 ? nodeId : ThreadLocalRandom.current().nextInt(1, (int) NODE_MASK + 1);
+        transport.subscribe(this::receive);
+        LOGGER.info("Balance sync started as node " + this.nodeId);
+    }
+
+    @Override
+    public void onBalanceChange(long mostSigBits, long leastSigBits, int type, long amount, long balance, long version) {
+        // Loaded balances are not changes, and remote changes are already known to the other servers
+        if(type == LOAD || (type & REMOTE) != 0) {
+            return;
+        }
+
+        synchronized (versions) {
+            long syncVersion = nextVersion();
+            if(type == SET) {
+                versions.put(mostSigBits, leastSigBits, syncVersion);
+                transport.publish(new SyncMessage(SyncMessage.SET, nodeId, mostSigBits, leastSigBits, amount, balance, syncVersion));
+            } else {
+                remember(mostSigBits, leastSigBits, amount, syncVersion);
+                transport.publish(new SyncMessage(SyncMessage.CHANGE, nodeId, mostSigBits, leastSigBits, amount, balance, syncVersion));
+            }
+        }
+        published.increment();
+    }
+
+    /**
+     * Sets the storage that changes to accounts that are not loaded are written into
+     * Until it is set such changes are skipped, and invalidated accounts are dropped so they are read from storage again
+     * @param storage Storage of this server
+     */
+    public void setStorage(Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Tells the other servers to drop their cached copy of an account, call once it is saved
+     * Servers with a {@link Storage} keep their copy, as every change reached it or their storage
+     * @param uuid UUID of the account
+     */
+    public void invalidate(UUID uuid) {
+        synchronized (versions) {
+            transport.publish(new SyncMessage(SyncMessage.INVALIDATE, nodeId,
+                    uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), 0, 0, nextVersion()));
+        }
+        published.increment();
+    }
+
+    private void receive(SyncMessage message) {
+        if(message.node() == nodeId) {
+            return;
+        }
+        observe(message.version());
+
+        synchronized (versions) {
+            // Messages of a node arrive in order, so an older version is a message received twice
+            if(message.version() <= nodeVersions.get(message.node(), 0, Long.MIN_VALUE)) {
+                stale.increment();
+                return;
+            }
+            nodeVersions.put(message.node(), 0, message.version());
+
+            switch (message.type()) {
+                case SyncMessage.CHANGE -> {
+                    // Already replaced by a set made after it
+                    if(message.version() <= versions.get(message.mostSigBits(), message.leastSigBits(), Long.MIN_VALUE)) {
+                        stale.increment();
+                        return;
+                    }
+                    remember(message.mostSigBits(), message.leastSigBits(), message.amount(), message.version());
+                    apply(message, BalanceListener.DEPOSIT, message.amount());
+                }
+                case SyncMessage.SET -> {
+                    if(message.version() <= versions.get(message.mostSigBits(), message.leastSigBits(), Long.MIN_VALUE)) {
+                        stale.increment();
+                        return;
+                    }
+                    versions.put(message.mostSigBits(), message.leastSigBits(), message.version());
+                    apply(message, BalanceListener.SET, message.amount() + addedSince(message));
+                }
+                case SyncMessage.INVALIDATE -> {
+                    // Every change reached the copy in memory, and dropping it while its write is running would read an older row
+                    if(storage != null) {
+                        stale.increment();
+                    } else if(econ.invalidate(message.uuid())) {
+                        invalidated.increment();
+                    }
+                }
+                default -> LOGGER.warn("Unknown sync message type " + message.type() + " from node " + message.node());
+            }
+        }
+    }
+
+    /**
+     * Applies a remote change to the account, or to the storage if the account is not loaded, must hold the lock of the versions
+     * A stored change is waited for under the lock, so no later change of the account is applied before it
+     */
+    private void apply(SyncMessage message, int type, long amount) {
+        try {
+            if(econ.getAccounts().applyRemote(message.mostSigBits(), message.leastSigBits(), type, amount)) {
+                applied.increment();
+                return;
+            }
+            Storage storage = this.storage;
+            if(storage == null) {
+                skipped.increment();
+                return;
+            }
+            storage.apply(message.uuid(), type == BalanceListener.SET, amount).join();
+            stored.increment();
+        } catch (IllegalStateException e) {
+            // The economy is shutting down
+            skipped.increment();
+        } catch (ArithmeticException e) {
+            LOGGER.error("Change of " + message.uuid() + " from node " + message.node() + " would overflow the balance", e);
+            skipped.increment();
+        } catch (CompletionException | RejectedExecutionException e) {
+            LOGGER.error("Change of " + message.uuid() + " from node " + message.node() + " could not be stored", e);
+            skipped.increment();
+        }
+    }
+
+    /**
+     * Records an amount added to an account, must hold the lock of the versions
+     */
+    private void remember(long mostSigBits, long leastSigBits, long amount, long version) {
+        int slot = (int) (historyCount++ % HISTORY_SIZE);
+        historyMost[slot] = mostSigBits;
+        historyLeast[slot] = leastSigBits;
+        historyAmounts[slot] = amount;
+        historyVersions[slot] = version;
+    }
+
+    /**
+     * Sums the amounts already added to the account of a set with a higher version than the set, must hold the lock of the versions
+     */
+    private long addedSince(SyncMessage set) {
+        long sum = 0;
+        long oldest = Long.MAX_VALUE;
+        int size = (int) Math.min(historyCount, HISTORY_SIZE);
+        for (int slot = 0; slot < size; slot++) {
+            oldest = Math.min(oldest, historyVersions[slot]);
+            if(historyVersions[slot] > set.version() && historyMost[slot] == set.mostSigBits() && historyLeast[slot] == set.leastSigBits()) {
+                sum += historyAmounts[slot];
+            }
+        }
+        if(historyCount > HISTORY_SIZE && oldest > set.version()) {
+            LOGGER.warn("Set of " + set.uuid() + " from node " + set.node() + " arrived after " + HISTORY_SIZE
+                    + " later changes, some of them to the account may be lost");
+        }
+        return sum;
+    }
+
+    private long nextVersion() {
+        long now = System.currentTimeMillis();
+        long time = clock.updateAndGet(last -> Math.max(last + 1, now));
+        return time << NODE_BITS | nodeId;
+    }
+
+    private void observe(long version) {
+        long time = version >>> NODE_BITS;
+        clock.accumulateAndGet(time, Math::max);
+    }
+
+    /**
+     * Forgets the versions of sets made a while ago
+     * A change older than a forgotten set arriving afterwards is applied, so the age must be well above the delivery delay
+     * @param maxAgeMillis Age after which a version is forgotten
+     * @return Amount of versions forgotten
+     */
+    public int prune(long maxAgeMillis) {
+        long before = (System.currentTimeMillis() - maxAgeMillis) << NODE_BITS;
+        synchronized (versions) {
+            return versions.removeValues(version -> version < before);
+        }
+    }
+
+    /**
+     * @return Id of this server
+     */
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return Amount of messages published
+     */
+    public long getPublished() {
+        return published.sum();
+    }
+
+    /**
+     * @return Amount of remote changes applied
+     */
+    public long getApplied() {
+        return applied.sum();
+    }
+
+    /**
+     * @return Amount of remote changes to accounts not loaded on this server, written into its storage
+     */
+    public long getStored() {
+        return stored.sum();
+    }
+
+    /**
+     * @return Amount of remote messages ignored, since a newer set was already applied, they were received twice or they
+     * invalidate a copy that is kept
+     */
+    public long getStale() {
+        return stale.sum();
+    }
+
+    /**
+     * @return Amount of remote changes that were lost, since there is no storage, it failed or the economy is shutting down
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * @return Amount of accounts dropped because another server invalidated them
+     */
+    public long getInvalidated() {
+        return invalidated.sum();
+    }
+
+    /**
+     * @return Amount of messages the transport could not send
+     */
+    public long getDropped() {
+        return transport.getDropped();
+    }
+
+    @Override
+    public void close() {
+        transport.close();
+    }
+}
@@ -0,0 +1,79 @@
+package net.foster.testing.orbital.sync;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Transport between nodes in the same JVM, used to run several economies side by side without a network
+ * Every transport joined to a {@link Hub} receives the messages published by the others
+ */
+public class LoopbackTransport implements SyncTransport {
+    private final Hub hub;
+    private volatile Consumer<SyncMessage> handler = message -> {};
+
+    /**
+     * Connects nodes in one JVM, messages are delivered on a single thread in publish order
+     */
+    public static final class Hub implements AutoCloseable {
+        private final List<LoopbackTransport> members = new CopyOnWriteArrayList<>();
+        private final LongAdder dropped = new LongAdder();
+        private final ExecutorService delivery = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "Orbital-Sync-loopback");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        private void deliver(LoopbackTransport sender, SyncMessage message) {
+            try {
+                delivery.execute(() -> {
+                    for (LoopbackTransport member : members) {
+                        if(member != sender) {
+                            member.handler.accept(message);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                dropped.increment();
+            }
+        }
+
+        @Override
+        public void close() {
+            delivery.shutdown();
+        }
+    }
+
+    /**
+     * Joins a hub
+     * @param hub Hub shared with the other nodes
+     */
+    public LoopbackTransport(Hub hub) {
+        this.hub = hub;
+        hub.members.add(this);
+    }
+
+    @Override
+    public void publish(SyncMessage message) {
+        hub.deliver(this, message);
+    }
+
+    @Override
+    public void subscribe(Consumer<SyncMessage> handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public long getDropped() {
+        return hub.dropped.sum();
+    }
+
+    @Override
+    public void close() {
+        hub.members.remove(this);
+    }
+}
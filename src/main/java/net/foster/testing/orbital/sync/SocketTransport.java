@@ -0,0 +1,347 @@
+package net.foster.testing.orbital.sync;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Transport over plain TCP between servers, without a broker
+ * Every node listens on a port and connects to the port of every peer, messages are fixed-size frames
+ * Each peer has a bounded queue and its own writer thread, so publishing never waits on the network
+ * A peer that is down is reconnected with backoff, messages are dropped while its queue is full
+ * Without a secret only loopback is allowed. With one, every connection starts with a challenge answered with an HMAC of the secret,
+ * and every frame carries an HMAC over the connection and its position, so frames cannot be forged, replayed or reordered
+ */
+public class SocketTransport implements SyncTransport {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SocketTransport.class);
+    private static final int QUEUE_CAPACITY = 65_536;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5_000;
+    private static final int NONCE_SIZE = 16;
+    private static final int PROOF_SIZE = 32;
+    private static final int TAG_SIZE = 16;
+    private static final byte[] PROOF_LABEL = "orbital-sync-proof".getBytes(StandardCharsets.US_ASCII);
+
+    private final ServerSocket server;
+    /* Empty if connections are not authenticated */
+    private final byte[] secret;
+    private final SecureRandom random = new SecureRandom();
+    private final List<Peer> peers = new ArrayList<>();
+    private final List<Socket> inbound = new CopyOnWriteArrayList<>();
+    private final LongAdder dropped = new LongAdder();
+    private volatile Consumer<SyncMessage> handler = message -> {};
+    private volatile boolean closed;
+
+    /**
+     * Starts listening and connecting
+     * @param bindAddress Address and port to listen on, port 0 picks a free port
+     * @param peerAddresses Addresses of the other servers
+     * @param secret Secret shared by every server, empty to allow loopback only
+     * @throws IOException If the port could not be opened
+     * @throws IllegalArgumentException If the secret is empty and an address is not loopback
+     */
+    public SocketTransport(InetSocketAddress bindAddress, List<InetSocketAddress> peerAddresses, String secret) throws IOException {
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        if(this.secret.length == 0) {
+            requireLoopback(bindAddress);
+            peerAddresses.forEach(SocketTransport::requireLoopback);
+        }
+        server = new ServerSocket();
+        server.bind(bindAddress);
+        daemon(this::acceptLoop, "Orbital-Sync-accept").start();
+        for (InetSocketAddress address : peerAddresses) {
+            Peer peer = new Peer(address);
+            peers.add(peer);
+            peer.thread.start();
+        }
+    }
+
+    /**
+     * @return Port this transport listens on
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void publish(SyncMessage message) {
+        for (Peer peer : peers) {
+            if(!peer.queue.offer(message)) {
+                dropped.increment();
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<SyncMessage> handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                inbound.add(socket);
+                daemon(() -> readLoop(socket), "Orbital-Sync-read-" + socket.getRemoteSocketAddress()).start();
+            } catch (IOException e) {
+                if(!closed) {
+                    LOGGER.error("Could not accept sync connection", e);
+                }
+            }
+        }
+    }
+
+    private void readLoop(Socket socket) {
+        byte[] frame = new byte[SyncMessage.SIZE];
+        byte[] tag = new byte[TAG_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            Session session = null;
+            if(secret.length > 0) {
+                session = challenge(socket, input);
+                if(session == null) {
+                    LOGGER.warn("Rejected sync connection from " + socket.getRemoteSocketAddress() + ", it does not know the secret");
+                    return;
+                }
+            }
+            while (!closed) {
+                input.readFully(frame);
+                if(session != null) {
+                    input.readFully(tag);
+                    if(!session.verify(frame, tag)) {
+                        LOGGER.warn("Dropped sync connection from " + socket.getRemoteSocketAddress() + ", a frame failed authentication");
+                        return;
+                    }
+                }
+                buffer.clear();
+                handler.accept(SyncMessage.decode(buffer));
+            }
+        } catch (EOFException e) {
+            // Peer disconnected, it reconnects on its own
+        } catch (IOException e) {
+            if(!closed) {
+                LOGGER.warn("Sync connection from " + socket.getRemoteSocketAddress() + " was lost", e);
+            }
+        } finally {
+            inbound.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Closing anyway
+            }
+        }
+    }
+
+    /**
+     * Sends a fresh nonce to a connecting server and checks its answer
+     * @return Session to verify the frames with, null if the answer is wrong
+     */
+    private Session challenge(Socket socket, DataInputStream input) throws IOException {
+        byte[] nonce = new byte[NONCE_SIZE];
+        random.nextBytes(nonce);
+        OutputStream output = socket.getOutputStream();
+        output.write(nonce);
+        output.flush();
+
+        byte[] proof = new byte[PROOF_SIZE];
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+        input.readFully(proof);
+        socket.setSoTimeout(0);
+        Session session = new Session(secret, nonce);
+        return MessageDigest.isEqual(proof, session.proof()) ? session : null;
+    }
+
+    /**
+     * Answers the challenge of the server connected to
+     * @return Session to sign the frames with
+     */
+    private Session answer(Socket socket, OutputStream output) throws IOException {
+        byte[] nonce = new byte[NONCE_SIZE];
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+        new DataInputStream(socket.getInputStream()).readFully(nonce);
+        socket.setSoTimeout(0);
+        Session session = new Session(secret, nonce);
+        output.write(session.proof());
+        output.flush();
+        return session;
+    }
+
+    private static void requireLoopback(InetSocketAddress address) {
+        if(address.getAddress() == null || !address.getAddress().isLoopbackAddress()) {
+            throw new IllegalArgumentException("Sync address " + address + " is not loopback, set a secret to use it");
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            LOGGER.error("Could not close sync server socket", e);
+        }
+        for (Socket socket : inbound) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Closing anyway
+            }
+        }
+        for (Peer peer : peers) {
+            peer.thread.interrupt();
+        }
+    }
+
+    private static Thread daemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Outgoing connection to one server
+     */
+    private final class Peer {
+        private final InetSocketAddress address;
+        private final BlockingQueue<SyncMessage> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final Thread thread;
+
+        private Peer(InetSocketAddress address) {
+            this.address = address;
+            this.thread = daemon(this::writeLoop, "Orbital-Sync-write-" + address);
+        }
+
+        private void writeLoop() {
+            ByteBuffer buffer = ByteBuffer.allocate(SyncMessage.SIZE);
+            long backoff = 500;
+            while (!closed) {
+                try (Socket socket = new Socket()) {
+                    socket.connect(address, 5_000);
+                    socket.setTcpNoDelay(true);
+                    backoff = 500;
+                    LOGGER.info("Connected to sync peer " + address);
+
+                    OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+                    Session session = secret.length > 0 ? answer(socket, output) : null;
+                    byte[] tag = new byte[TAG_SIZE];
+                    while (!closed) {
+                        SyncMessage message = queue.take();
+                        do {
+                            buffer.clear();
+                            message.encode(buffer);
+                            output.write(buffer.array(), 0, SyncMessage.SIZE);
+                            if(session != null) {
+                                session.sign(buffer.array(), tag);
+                                output.write(tag);
+                            }
+                            message = queue.poll();
+                        } while (message != null);
+                        // Flushed once the queue is empty, so bursts share packets
+                        output.flush();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    if(closed) {
+                        return;
+                    }
+                    LOGGER.debug("Sync peer " + address + " is not reachable, retrying in " + backoff + "ms", e);
+                }
+
+                try {
+                    TimeUnit.MILLISECONDS.sleep(backoff);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+            }
+        }
+    }
+
+    /**
+     * Authentication of one connection, keyed with an HMAC of the secret and the nonce of the connection
+     * Frames are numbered, so a frame only verifies at its position in the connection it was sent on
+     */
+    private static final class Session {
+        private final Mac mac;
+        private final byte[] digest;
+        private long sequence;
+
+        private Session(byte[] secret, byte[] nonce) {
+            try {
+                Mac keyMac = Mac.getInstance("HmacSHA256");
+                keyMac.init(new SecretKeySpec(secret, "HmacSHA256"));
+                mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(keyMac.doFinal(nonce), "HmacSHA256"));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 is not available", e);
+            }
+            digest = new byte[mac.getMacLength()];
+        }
+
+        /**
+         * @return Answer to the challenge, proving the secret is known
+         */
+        private byte[] proof() {
+            return mac.doFinal(PROOF_LABEL);
+        }
+
+        /**
+         * Writes the tag of the next frame
+         */
+        private void sign(byte[] frame, byte[] tag) {
+            compute(frame);
+            System.arraycopy(digest, 0, tag, 0, TAG_SIZE);
+        }
+
+        /**
+         * @return Whether the tag belongs to the frame as the next frame of the connection
+         */
+        private boolean verify(byte[] frame, byte[] tag) {
+            compute(frame);
+            // Compared in constant time like MessageDigest.isEqual, without copying the digest
+            int difference = 0;
+            for (int i = 0; i < TAG_SIZE; i++) {
+                difference |= digest[i] ^ tag[i];
+            }
+            return difference == 0;
+        }
+
+        private void compute(byte[] frame) {
+            long position = sequence++;
+            for (int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+                mac.update((byte) (position >>> shift));
+            }
+            mac.update(frame, 0, SyncMessage.SIZE);
+            try {
+                mac.doFinal(digest, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Could not compute sync frame tag", e);
+            }
+        }
+    }
+}
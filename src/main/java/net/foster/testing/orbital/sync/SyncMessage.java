@@ -0,0 +1,62 @@
+package net.foster.testing.orbital.sync;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * A balance change sent between servers
+ * @param type {@link #CHANGE}, {@link #SET} or {@link #INVALIDATE}
+ * @param node Id of the server that made the change
+ * @param mostSigBits Most significant bits of the UUID
+ * @param leastSigBits Least significant bits of the UUID
+ * @param amount Amount added in minor units, or the new balance for {@link #SET}
+ * @param balance Balance in minor units after the change on the server that made it
+ * @param version Version of the change, increasing with every message of a server
+ */
+public record SyncMessage(byte type, long node, long mostSigBits, long leastSigBits, long amount, long balance, long version) {
+    /**
+     * An amount was added to the balance of an account
+     */
+    public static final byte CHANGE = 0;
+    /**
+     * An account was saved by the server a player left, cached copies should be dropped
+     */
+    public static final byte INVALIDATE = 1;
+    /**
+     * The balance of an account was set, replacing every change with a lower version
+     */
+    public static final byte SET = 2;
+
+    /**
+     * Size of an encoded message in bytes
+     */
+    public static final int SIZE = 1 + Long.BYTES * 6;
+
+    /**
+     * @return UUID of the account
+     */
+    public UUID uuid() {
+        return new UUID(mostSigBits, leastSigBits);
+    }
+
+    /**
+     * Writes the message into a buffer with at least {@link #SIZE} bytes remaining
+     */
+    public void encode(ByteBuffer buffer) {
+        buffer.put(type)
+                .putLong(node)
+                .putLong(mostSigBits)
+                .putLong(leastSigBits)
+                .putLong(amount)
+                .putLong(balance)
+                .putLong(version);
+    }
+
+    /**
+     * Reads a message written by {@link #encode(ByteBuffer)}
+     */
+    public static SyncMessage decode(ByteBuffer buffer) {
+        return new SyncMessage(buffer.get(), buffer.getLong(), buffer.getLong(), buffer.getLong(),
+                buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+}
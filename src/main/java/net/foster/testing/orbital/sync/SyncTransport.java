@@ -0,0 +1,30 @@
+package net.foster.testing.orbital.sync;
+
+import java.util.function.Consumer;
+
+/**
+ * Carries {@link SyncMessage}s between servers
+ * Implementations must not block in {@link #publish(SyncMessage)}, it is called while the sync is locked so versions leave in order
+ */
+public interface SyncTransport extends AutoCloseable {
+    /**
+     * Sends a message to every other server
+     * @param message Message to send
+     */
+    void publish(SyncMessage message);
+
+    /**
+     * Sets the handler called for every message received from another server
+     * Messages from one server are handled in the order they were published
+     * @param handler Handler for received messages
+     */
+    void subscribe(Consumer<SyncMessage> handler);
+
+    /**
+     * @return Amount of messages that could not be sent
+     */
+    long getDropped();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,78 @@
+package net.foster.testing.orbital.utils;
+
+/**
+ * Conversion between decimal amounts and the fixed-point minor units balances are stored in
+ */
+public class Money {
+    /**
+     * Minor units per major unit, balances are kept in cents
+     */
+    public static final long SCALE = 100;
+
+    /**
+     * Converts a decimal amount into minor units, rounding to the nearest unit
+     * @param amount Amount as a double
+     * @return Amount in minor units
+     */
+    public static long toMinor(double amount) {
+        return Math.round(amount * SCALE);
+    }
+
+    /**
+     * Converts minor units into a decimal amount
+     * @param minor Amount in minor units
+     * @return Amount as a double
+     */
+    public static double toMajor(long minor) {
+        return (double) minor / SCALE;
+    }
+
+    /**
+     * @param amount Decimal amount
+     * @return Whether the amount is finite and below the largest balance, so {@link #toMinor(double)} does not clamp it
+     */
+    public static boolean inRange(double amount) {
+        return Double.isFinite(amount) && Math.abs(amount) < toMajor(Long.MAX_VALUE);
+    }
+
+    /**
+     * Formats minor units as US dollars, like "$1,234.56" or "-$1.00"
+     * Safe to use from any thread, unlike a shared {@link java.text.NumberFormat}
+     * @param minor Amount in minor units
+     * @return The formatted amount
+     */
+    public static String format(long minor) {
+        return appendFormatted(new StringBuilder(16), minor).toString();
+    }
+
+    /**
+     * Appends minor units formatted as US dollars, see {@link #format(long)}
+     * @param builder Builder to append to
+     * @param minor Amount in minor units
+     * @return The builder
+     */
+    public static StringBuilder appendFormatted(StringBuilder builder, long minor) {
+        if(minor < 0) {
+            builder.append('-');
+        }
+        builder.append('$');
+
+        // Unsigned division handles Long.MIN_VALUE, which has no positive counterpart
+        long absolute = minor < 0 ? -minor : minor;
+        long major = Long.divideUnsigned(absolute, SCALE);
+        long cents = Long.remainderUnsigned(absolute, SCALE);
+
+        String digits = Long.toUnsignedString(major);
+        int firstGroup = digits.length() % 3 == 0 ? 3 : digits.length() % 3;
+        builder.append(digits, 0, firstGroup);
+        for (int i = firstGroup; i < digits.length(); i += 3) {
+            builder.append(',').append(digits, i, i + 3);
+        }
+
+        builder.append('.');
+        if(cents < 10) {
+            builder.append('0');
+        }
+        return builder.append(cents);
+    }
+}
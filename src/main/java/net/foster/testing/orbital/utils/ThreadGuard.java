@@ -0,0 +1,235 @@
+package net.foster.testing.orbital.utils;
+
+import net.foster.testing.orbital.metrics.LatencyHistogram;
+import net.foster.testing.orbital.metrics.MetricsRegistry;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Watches which thread economy code runs on
+ * Blocking calls on the server thread are flagged, or rejected, since they stall every player for as long as they wait,
+ * and Bukkit calls off the server thread are flagged, since most of the Bukkit API is not thread-safe
+ * Time economy code spends on the server thread is added up per tick and reported with a stack sample once it exceeds the budget
+ */
+public class ThreadGuard {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ThreadGuard.class);
+    /* The same violation is logged at most once per interval, every occurrence is still counted */
+    private static final long LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * What to do when a blocking call is made on the server thread
+     */
+    public enum Mode {
+        /**
+         * Check nothing
+         */
+        OFF,
+        /**
+         * Log the call with its stack trace
+         */
+        WARN,
+        /**
+         * Log the call and throw an {@link IllegalStateException}, so the caller fails instead of stalling the server
+         */
+        REJECT;
+
+        /**
+         * @param name Name from config.yml, like "warn"
+         * @return The matching mode, {@link #WARN} if the name is unknown
+         */
+        public static Mode fromName(String name) {
+            if(name == null) {
+                return WARN;
+            }
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Unknown guard mode \"" + name + "\", using warn");
+                return WARN;
+            }
+        }
+    }
+
+    private final Thread mainThread;
+    private volatile Mode mode;
+    private volatile long tickBudgetNanos;
+
+    /* Time spent in the current tick, only used on the server thread */
+    private long tickNanos;
+    private String slowestSection;
+    private long slowestNanos;
+    private Throwable sample;
+
+    /* Statistics */
+    private final LongAdder blockingCalls = new LongAdder();
+    private final LongAdder offMainCalls = new LongAdder();
+    private final LongAdder overBudgetTicks = new LongAdder();
+    private final LatencyHistogram tickTime = new LatencyHistogram();
+    private final Map<String, Long> lastLogged = new ConcurrentHashMap<>();
+
+    /**
+     * @param mainThread The server thread
+     * @param mode What to do with blocking calls on the server thread
+     * @param tickBudgetNanos Time economy code may spend on the server thread per tick
+     */
+    public ThreadGuard(Thread mainThread, Mode mode, long tickBudgetNanos) {
+        this.mainThread = mainThread;
+        this.mode = mode;
+        this.tickBudgetNanos = tickBudgetNanos;
+    }
+
+    /**
+     * Registers the violation counters and the time spent per tick
+     * @param metrics Registry to register in
+     */
+    public void registerMetrics(MetricsRegistry metrics) {
+        metrics.counter("guard_violations_total", "Calls made on the wrong thread or over the tick budget", blockingCalls::sum, "kind", "blocking");
+        metrics.counter("guard_violations_total", "Calls made on the wrong thread or over the tick budget", offMainCalls::sum, "kind", "off_main");
+        metrics.counter("guard_violations_total", "Calls made on the wrong thread or over the tick budget", overBudgetTicks::sum, "kind", "tick_budget");
+        metrics.histogram("guard_tick_seconds", "Time economy code spent on the server thread in a tick", tickTime);
+    }
+
+    /**
+     * Closes the accounting of every tick, must be called once, as the server thread has no hook at the end of a tick
+     * @param plugin Plugin owning the task
+     */
+    public void start(Plugin plugin) {
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                endTick();
+            }
+        }.runTaskTimer(plugin, 1, 1);
+    }
+
+    /**
+     * @return Whether the current thread is the server thread
+     */
+    public boolean isMainThread() {
+        return Thread.currentThread() == mainThread;
+    }
+
+    /**
+     * Flags a call that waits for the database or a future, if it is made on the server thread
+     * @param operation Name of the call, used in the log
+     * @throws IllegalStateException If made on the server thread in {@link Mode#REJECT}
+     */
+    public void checkBlocking(String operation) {
+        Mode mode = this.mode;
+        if(mode == Mode.OFF || !isMainThread()) {
+            return;
+        }
+        blockingCalls.increment();
+        IllegalStateException violation = new IllegalStateException(operation + " blocks the server thread");
+        report("blocking " + operation, violation.getMessage(), violation);
+        if(mode == Mode.REJECT) {
+            throw violation;
+        }
+    }
+
+    /**
+     * Flags a call to the Bukkit API made off the server thread, the call is never rejected
+     * @param operation Name of the call, used in the log
+     */
+    public void checkMainThread(String operation) {
+        if(mode == Mode.OFF || isMainThread()) {
+            return;
+        }
+        offMainCalls.increment();
+        report("off-main " + operation, operation + " called from " + Thread.currentThread().getName()
+                + " instead of the server thread", new IllegalStateException("Stack sample"));
+    }
+
+    /**
+     * Adds time spent by economy code to the current tick, if it ran on the server thread
+     * The stack of the call that exceeds the budget is kept, it is reported when the tick ends
+     * @param section Name of the code, like "give"
+     * @param nanos Time spent in nanoseconds
+     */
+    public void record(String section, long nanos) {
+        if(mode == Mode.OFF || !isMainThread()) {
+            return;
+        }
+        tickNanos += nanos;
+        if(nanos > slowestNanos) {
+            slowestNanos = nanos;
+            slowestSection = section;
+        }
+        if(sample == null && tickNanos > tickBudgetNanos) {
+            sample = new IllegalStateException("Stack sample of " + section + " exceeding the tick budget");
+        }
+    }
+
+    /**
+     * Reports the current tick if it exceeded the budget and starts the next one, called on the server thread
+     */
+    public void endTick() {
+        if(tickNanos == 0) {
+            return;
+        }
+        tickTime.record(tickNanos);
+        if(tickNanos > tickBudgetNanos) {
+            overBudgetTicks.increment();
+            report("tick-budget", String.format(Locale.ROOT,
+                    "Economy code used %.2f ms of the server thread in one tick, the budget is %.2f ms, slowest was %s with %.2f ms",
+                    tickNanos / 1e6, tickBudgetNanos / 1e6, slowestSection, slowestNanos / 1e6), sample);
+        }
+        tickNanos = 0;
+        slowestNanos = 0;
+        slowestSection = null;
+        sample = null;
+    }
+
+    private void report(String key, String message, Throwable sample) {
+        long now = System.nanoTime();
+        Long last = lastLogged.get(key);
+        if(last != null && now - last < LOG_INTERVAL_NANOS) {
+            return;
+        }
+        lastLogged.put(key, now);
+        LOGGER.warn(message, sample);
+    }
+
+    /**
+     * @param mode What to do with blocking calls on the server thread
+     */
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * @param tickBudgetNanos Time economy code may spend on the server thread per tick
+     */
+    public void setTickBudgetNanos(long tickBudgetNanos) {
+        this.tickBudgetNanos = tickBudgetNanos;
+    }
+
+    /**
+     * @return Amount of blocking calls made on the server thread
+     */
+    public long getBlockingCalls() {
+        return blockingCalls.sum();
+    }
+
+    /**
+     * @return Amount of Bukkit calls made off the server thread
+     */
+    public long getOffMainCalls() {
+        return offMainCalls.sum();
+    }
+
+    /**
+     * @return Amount of ticks in which economy code exceeded the budget
+     */
+    public long getOverBudgetTicks() {
+        return overBudgetTicks.sum();
+    }
+}
@@ -0,0 +1,174 @@
+package net.foster.testing.orbital.utils;
+
+import java.util.function.LongPredicate;
+
+/**
+ * An open-addressing map from a UUID, given as its two longs, to a primitive long
+ * Nothing is boxed, so lookups and updates do not allocate
+ * Not thread-safe, callers must synchronize
+ */
+public class UUIDLongMap {
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Receives an entry without boxing it
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long mostSigBits, long leastSigBits, long value);
+    }
+
+    private boolean[] used;
+    private long[] most;
+    private long[] least;
+    private long[] values;
+    private int size;
+
+    public UUIDLongMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return The value for the key, or the default if the key is missing
+     */
+    public long get(long mostSigBits, long leastSigBits, long defaultValue) {
+        int index = indexOf(mostSigBits, leastSigBits);
+        return index >= 0 ? values[index] : defaultValue;
+    }
+
+    /**
+     * @return Whether the key is in the map
+     */
+    public boolean containsKey(long mostSigBits, long leastSigBits) {
+        return indexOf(mostSigBits, leastSigBits) >= 0;
+    }
+
+    /**
+     * Sets the value for a key
+     */
+    public void put(long mostSigBits, long leastSigBits, long value) {
+        int index = indexOf(mostSigBits, leastSigBits);
+        if(index < 0) {
+            if((size + 1) * 4L > used.length * 3L) {
+                rehash(used.length * 2);
+                index = indexOf(mostSigBits, leastSigBits);
+            }
+            index = ~index;
+            used[index] = true;
+            most[index] = mostSigBits;
+            least[index] = leastSigBits;
+            size++;
+        }
+        values[index] = value;
+    }
+
+    /**
+     * Removes a key, shifting later entries of the probe chain back so no tombstones are needed
+     * @return Whether the key was in the map
+     */
+    public boolean remove(long mostSigBits, long leastSigBits) {
+        int index = indexOf(mostSigBits, leastSigBits);
+        if(index < 0) {
+            return false;
+        }
+
+        int mask = used.length - 1;
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (used[next]) {
+            int home = slotOf(most[next], least[next], mask);
+            // Move the entry into the hole if the hole lies between its home slot and its current slot
+            if(((next - home) & mask) >= ((next - hole) & mask)) {
+                used[hole] = true;
+                most[hole] = most[next];
+                least[hole] = least[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        used[hole] = false;
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes every entry whose value matches the filter
+     * @return Amount of entries removed
+     */
+    public int removeValues(LongPredicate filter) {
+        int before = size;
+        boolean[] oldUsed = used;
+        long[] oldMost = most;
+        long[] oldLeast = least;
+        long[] oldValues = values;
+
+        allocate(oldUsed.length);
+        for (int i = 0; i < oldUsed.length; i++) {
+            if(oldUsed[i] && !filter.test(oldValues[i])) {
+                put(oldMost[i], oldLeast[i], oldValues[i]);
+            }
+        }
+        return before - size;
+    }
+
+    /**
+     * Passes every entry to the consumer, in no particular order
+     * @param consumer Consumer called for each entry, must not change the map
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < used.length; i++) {
+            if(used[i]) {
+                consumer.accept(most[i], least[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * @return Amount of entries in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    private int indexOf(long mostSigBits, long leastSigBits) {
+        int mask = used.length - 1;
+        int index = slotOf(mostSigBits, leastSigBits, mask);
+        while (used[index]) {
+            if(most[index] == mostSigBits && least[index] == leastSigBits) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return ~index;
+    }
+
+    private static int slotOf(long mostSigBits, long leastSigBits, int mask) {
+        long hash = mostSigBits * 0x9E3779B97F4A7C15L ^ leastSigBits;
+        hash ^= hash >>> 32;
+        hash *= 0xD6E8FEB86659FD93L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        boolean[] oldUsed = used;
+        long[] oldMost = most;
+        long[] oldLeast = least;
+        long[] oldValues = values;
+
+        allocate(capacity);
+        for (int i = 0; i < oldUsed.length; i++) {
+            if(oldUsed[i]) {
+                put(oldMost[i], oldLeast[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        used = new boolean[capacity];
+        most = new long[capacity];
+        least = new long[capacity];
+        values = new long[capacity];
+        size = 0;
+    }
+}
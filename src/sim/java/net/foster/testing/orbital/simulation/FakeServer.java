@@ -0,0 +1,190 @@
+package net.foster.testing.orbital.simulation;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitScheduler;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Minimal stand-in for the Bukkit server, installed with {@link Bukkit#setServer(Server)}
+ * Only what the plugin calls while players join, quit and run commands is implemented: online players, the server thread
+ * and {@link BukkitScheduler#runTask(org.bukkit.plugin.Plugin, Runnable)}, whose tasks run when the simulation calls
+ * {@link #runTasks()} on its server thread. Every other call throws, so new dependencies on the server show up at once
+ */
+final class FakeServer {
+    private final Thread mainThread;
+    private final Map<UUID, Player> online = new ConcurrentHashMap<>();
+    private final Map<UUID, Player> players = new ConcurrentHashMap<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Logger logger = Logger.getLogger("Server");
+
+    /* Statistics */
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder scheduledTasks = new LongAdder();
+
+    private FakeServer(Thread mainThread) {
+        this.mainThread = mainThread;
+    }
+
+    /**
+     * Creates the server and makes it the one {@link Bukkit} delegates to, can only be called once per JVM
+     * @param mainThread Thread acting as the server thread
+     * @return The installed server
+     */
+    static FakeServer install(Thread mainThread) {
+        FakeServer server = new FakeServer(mainThread);
+        Bukkit.setServer(proxy(Server.class, server::invokeServer));
+        return server;
+    }
+
+    /**
+     * Creates an offline player known to the server
+     * @param uuid UUID of the player
+     * @param name Name of the player
+     * @return A {@link Player} answering identity, name and messages
+     */
+    Player createPlayer(UUID uuid, String name) {
+        Player player = proxy(Player.class, (proxy, method, args) -> switch (method.getName()) {
+            case "getUniqueId" -> uuid;
+            case "getName", "getDisplayName" -> name;
+            case "isOnline" -> online.containsKey(uuid);
+            case "sendMessage" -> {
+                messages.increment();
+                yield null;
+            }
+            case "equals" -> proxy == args[0];
+            case "hashCode" -> uuid.hashCode();
+            case "toString" -> "SimulatedPlayer{" + name + "}";
+            default -> throw unsupported(method);
+        });
+        players.put(uuid, player);
+        return player;
+    }
+
+    /**
+     * Makes a player visible to {@link Bukkit#getPlayer(UUID)}, like the server does before calling join listeners
+     */
+    void addOnline(Player player) {
+        online.put(player.getUniqueId(), player);
+    }
+
+    /**
+     * Hides a player from {@link Bukkit#getPlayer(UUID)}, like the server does after calling quit listeners
+     */
+    void removeOnline(Player player) {
+        online.remove(player.getUniqueId());
+    }
+
+    /**
+     * Queues a task for the server thread
+     */
+    void runTask(Runnable task) {
+        scheduledTasks.increment();
+        tasks.add(task);
+    }
+
+    /**
+     * Runs the queued tasks, must be called on the server thread
+     * @return Amount of tasks run
+     */
+    int runTasks() {
+        int run = 0;
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+            run++;
+        }
+        return run;
+    }
+
+    /**
+     * @return Amount of messages sent to players
+     */
+    long getMessages() {
+        return messages.sum();
+    }
+
+    /**
+     * @return Amount of tasks queued for the server thread
+     */
+    long getScheduledTasks() {
+        return scheduledTasks.sum();
+    }
+
+    private Object invokeServer(Object proxy, Method method, Object[] args) {
+        return switch (method.getName()) {
+            case "getPlayer" -> args[0] instanceof UUID uuid ? online.get(uuid) : online.values().stream()
+                    .filter(player -> player.getName().equalsIgnoreCase((String) args[0])).findFirst().orElse(null);
+            case "getOfflinePlayer" -> {
+                if(!(args[0] instanceof UUID uuid)) {
+                    throw unsupported(method);
+                }
+                Player player = players.get(uuid);
+                yield player != null ? player : createPlayer(uuid, null);
+            }
+            case "getOnlinePlayers" -> List.copyOf(online.values());
+            case "isPrimaryThread" -> Thread.currentThread() == mainThread;
+            case "getScheduler" -> proxy(BukkitScheduler.class, this::invokeScheduler);
+            case "getLogger" -> logger;
+            case "getName" -> "OrbitalSimulation";
+            case "getVersion", "getBukkitVersion" -> "1.18.2-R0.1-SNAPSHOT";
+            // Asked for by the constructor of AsyncPlayerPreLoginEvent
+            case "createProfile" -> proxy(method.getReturnType(), (profile, profileMethod, profileArgs) -> switch (profileMethod.getName()) {
+                case "getId" -> args[0];
+                case "getName" -> args.length > 1 ? args[1] : null;
+                case "equals" -> profile == profileArgs[0];
+                case "hashCode" -> System.identityHashCode(profile);
+                case "toString" -> "SimulatedProfile{" + args[0] + "}";
+                default -> throw unsupported(profileMethod);
+            });
+            case "equals" -> proxy == args[0];
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "toString" -> "FakeServer";
+            default -> throw unsupported(method);
+        };
+    }
+
+    private Object invokeScheduler(Object proxy, Method method, Object[] args) {
+        return switch (method.getName()) {
+            case "runTask" -> {
+                if(!(args[1] instanceof Runnable task)) {
+                    throw unsupported(method);
+                }
+                runTask(task);
+                yield null;
+            }
+            case "equals" -> proxy == args[0];
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "toString" -> "FakeScheduler";
+            default -> throw unsupported(method);
+        };
+    }
+
+    private static UnsupportedOperationException unsupported(Method method) {
+        return new UnsupportedOperationException("Not simulated: " + method.getDeclaringClass().getSimpleName() + "." + method.getName());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(FakeServer.class.getClassLoader(), new Class<?>[]{type}, handler::invoke);
+    }
+
+    /**
+     * {@link java.lang.reflect.InvocationHandler} that throws no checked exceptions
+     */
+    @FunctionalInterface
+    private interface Handler {
+        Object invoke(Object proxy, Method method, Object[] args);
+    }
+}
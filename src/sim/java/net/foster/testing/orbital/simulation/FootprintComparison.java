@@ -0,0 +1,62 @@
+package net.foster.testing.orbital.simulation;
+
+import net.foster.testing.orbital.managers.AccountTable;
+
+import java.lang.ref.Reference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+/**
+ * Measures the heap used per account by the old map of boxed balances and by the {@link AccountTable}
+ * Each structure is filled with the same random UUIDs and measured as the growth of the used heap after full collections
+ * The player objects the old map was keyed by are not included, it is keyed by UUIDs here, which favours it
+ * Run with "gradlew footprint --args='1000000'", the argument is the amount of accounts, 1,000,000 by default
+ */
+public final class FootprintComparison {
+    private static final long SEED = 42;
+    private static final int GC_ROUNDS = 5;
+
+    private FootprintComparison() {}
+
+    public static void main(String[] args) throws InterruptedException {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0].replace("_", "")) : 1_000_000;
+        System.out.println("Heap used by " + accounts + " accounts on Java " + Runtime.version().feature());
+
+        measure("HashMap<UUID, Double>", accounts, count -> {
+            Map<UUID, Double> balances = new HashMap<>();
+            SplittableRandom random = new SplittableRandom(SEED);
+            for (int i = 0; i < count; i++) {
+                balances.put(new UUID(random.nextLong(), random.nextLong()), (double) random.nextInt(1_000_000) / 100);
+            }
+            return balances;
+        });
+        measure("AccountTable", accounts, count -> {
+            AccountTable table = new AccountTable();
+            SplittableRandom random = new SplittableRandom(SEED);
+            for (int i = 0; i < count; i++) {
+                table.putIfAbsent(random.nextLong(), random.nextLong(), random.nextInt(1_000_000));
+            }
+            return table;
+        });
+    }
+
+    private static void measure(String name, int accounts, IntFunction<Object> fill) throws InterruptedException {
+        long before = usedHeap();
+        Object structure = fill.apply(accounts);
+        long after = usedHeap();
+        Reference.reachabilityFence(structure);
+        System.out.printf("  %-24s %,14d bytes  %6.1f bytes/account%n", name, after - before, (double) (after - before) / accounts);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < GC_ROUNDS; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,478 @@
+package net.foster.testing.orbital.simulation;
+
+import co.aikar.commands.bukkit.contexts.OnlinePlayer;
+import net.foster.testing.orbital.commands.PlayerCommands;
+import net.foster.testing.orbital.data.ConfigManager;
+import net.foster.testing.orbital.data.Database;
+import net.foster.testing.orbital.data.Settings;
+import net.foster.testing.orbital.data.store.AccountStore;
+import net.foster.testing.orbital.data.store.StorageException;
+import net.foster.testing.orbital.listeners.PlayerJoinListener;
+import net.foster.testing.orbital.listeners.PlayerPreLoginListener;
+import net.foster.testing.orbital.listeners.PlayerQuitListener;
+import net.foster.testing.orbital.managers.CooldownService;
+import net.foster.testing.orbital.managers.Economy;
+import net.foster.testing.orbital.managers.Leaderboard;
+import net.foster.testing.orbital.metrics.LatencyHistogram;
+import net.foster.testing.orbital.metrics.MetricsRegistry;
+import net.foster.testing.orbital.simulation.SimulationOptions.Command;
+import net.foster.testing.orbital.utils.Money;
+import net.foster.testing.orbital.utils.ThreadGuard;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives the join, quit and command handlers with synthetic players against a temporary SQLite database, without a server
+ * Everything the server thread does runs on the thread calling {@link #main(String[])} in ticks of 50 ms: tasks queued by
+ * the plugin, quits, joins of players whose pre-login finished on a login thread, and commands picked from the mix
+ * Saves and evictions run on their own thread at the autosave interval, like the autosave of the plugin
+ * Every balance change of a command is mirrored into a ledger, which must match the database after the final save
+ * Run with "gradlew simulate --args='--players 20000 --commands 5000'", see {@link SimulationOptions} for every option
+ */
+public final class LoadSimulation {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadSimulation.class);
+    private static final int TICKS_PER_SECOND = 20;
+    private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(1) / TICKS_PER_SECOND;
+    private static final String TABLE_NAME = "orbital";
+    private static final int SEED_BATCH_SIZE = 10_000;
+    /* Mismatching balances listed at most, every one is counted */
+    private static final int LISTED_MISMATCHES = 10;
+
+    private final SimulationOptions options;
+    private final FakeServer server;
+    private final Path path;
+    private final Random random;
+    private final Economy econ = new Economy();
+    private final Leaderboard leaderboard = new Leaderboard();
+    private final Database database;
+    private final MetricsRegistry metrics;
+    private final ThreadGuard threadGuard;
+    private final PlayerCommands commands;
+    private final PlayerPreLoginListener preLoginListener;
+    private final PlayerJoinListener joinListener;
+    private final PlayerQuitListener quitListener;
+    private final ExecutorService loginThreads;
+
+    /* Players, only used on the server thread */
+    private final List<Player> offline = new ArrayList<>();
+    private final List<Player> online = new ArrayList<>();
+    private int loggingIn;
+    /* Balance every player must have in the database after the final save */
+    private final Map<UUID, Long> ledger = new HashMap<>();
+    private final int[] cumulativeWeights = new int[Command.values().length];
+
+    /* Statistics, only used on the server thread */
+    private final long[] commandCounts = new long[Command.values().length];
+    private long skippedCommands;
+    private long logins;
+    private long kickedLogins;
+    private long quits;
+    private long lateTicks;
+    private long earned;
+    private final LatencyHistogram tickTime;
+    private final LatencyHistogram loginTime;
+
+    private LoadSimulation(SimulationOptions options, YamlConfiguration config, FakeServer server, Path path) throws StorageException {
+        this.options = options;
+        this.server = server;
+        this.path = path;
+        this.random = new Random(options.seed());
+
+        Settings settings = Settings.from(config);
+        ConfigManager.useSettings(settings);
+
+        int weights = 0;
+        for (Command command : Command.values()) {
+            weights += options.mix().get(command);
+            cumulativeWeights[command.ordinal()] = weights;
+        }
+
+        // Every player has a row, so the ledger starts from known balances
+        long startBalance = Money.toMinor(options.startBalance());
+        AccountStore store = AccountStore.Backend.SQLITE.open(path, TABLE_NAME, settings.readConnections());
+        store.initialize();
+        List<AccountStore.Account> batch = new ArrayList<>(SEED_BATCH_SIZE);
+        for (int i = 0; i < options.players(); i++) {
+            UUID uuid = new UUID(random.nextLong(), random.nextLong());
+            offline.add(server.createPlayer(uuid, "Player" + i));
+            ledger.put(uuid, startBalance);
+            batch.add(new AccountStore.Account(uuid, startBalance));
+            if(batch.size() == SEED_BATCH_SIZE || i == options.players() - 1) {
+                store.upsertBatch(batch);
+                batch.clear();
+            }
+        }
+
+        econ.addListener(leaderboard);
+        database = new Database(econ, store, settings.flushBatchSize());
+        metrics = database.getMetrics();
+        // Created on the simulated server thread, so commands are counted against the tick budget
+        threadGuard = new ThreadGuard(Thread.currentThread(), ThreadGuard.Mode.WARN, settings.guardTickBudgetNanos());
+        threadGuard.registerMetrics(metrics);
+        commands = new PlayerCommands(econ, database, leaderboard, new CooldownService(settings.earnCooldownSeconds(), TimeUnit.SECONDS),
+                metrics, threadGuard, config.getConfigurationSection("commands"));
+        preLoginListener = new PlayerPreLoginListener(database);
+        joinListener = new PlayerJoinListener(database);
+        quitListener = new PlayerQuitListener(database, null);
+
+        tickTime = metrics.histogram("simulation_tick_seconds", "Time of a simulated server tick");
+        loginTime = metrics.histogram("simulation_login_seconds", "Time from the start of a login until the join listener ran");
+        AtomicInteger threads = new AtomicInteger();
+        loginThreads = Executors.newFixedThreadPool(options.loginThreads(), task -> {
+            Thread thread = new Thread(task, "Orbital-sim-login-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimulationOptions options;
+        try {
+            options = SimulationOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        Path directory = options.database() == null ? Files.createTempDirectory("orbital-sim") : null;
+        Path path = directory != null ? directory.resolve("players") : options.database();
+        LoadSimulation simulation = new LoadSimulation(options, loadConfig(options), FakeServer.install(Thread.currentThread()), path);
+        boolean passed = simulation.run();
+
+        if(directory != null && passed) {
+            try (var files = Files.list(directory)) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        } else {
+            System.out.println("Database kept in " + path.resolveSibling(path.getFileName() + ".db"));
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Loads the bundled config.yml, with the settings the options replace
+     */
+    private static YamlConfiguration loadConfig(SimulationOptions options) throws IOException {
+        YamlConfiguration config;
+        try (Reader reader = new InputStreamReader(Objects.requireNonNull(
+                PlayerCommands.class.getClassLoader().getResourceAsStream("config.yml")), StandardCharsets.UTF_8)) {
+            config = YamlConfiguration.loadConfiguration(reader);
+        }
+        config.set("database.cache.max-size", options.cacheSize());
+        config.set("earn-cooldown", options.earnCooldownSeconds());
+        config.set("start-money", options.startBalance());
+        return config;
+    }
+
+    /**
+     * Runs the ramp-up, the measurement and the final save, then prints the report
+     * @return Whether every balance in the database matches the ledger
+     */
+    private boolean run() throws InterruptedException, StorageException {
+        int loaded = database.loadLeaderboard(leaderboard).join();
+        LOGGER.info("Seeded " + loaded + " balances into " + path.getFileName() + ".db");
+
+        ScheduledExecutorService autosave = Executors.newSingleThreadScheduledExecutor(task -> new Thread(task, "Orbital-sim-autosave"));
+        autosave.scheduleWithFixedDelay(this::autosave, options.autosaveSeconds(), options.autosaveSeconds(), TimeUnit.SECONDS);
+
+        // Logins of the ramp-up are not part of the measurement
+        long rampStart = System.nanoTime();
+        for (int i = 0; i < options.online(); i++) {
+            login();
+        }
+        while (loggingIn > 0) {
+            tick(0, 0);
+        }
+        long rampNanos = System.nanoTime() - rampStart;
+        int rampOnline = online.size();
+        logins = 0;
+        kickedLogins = 0;
+
+        double churnPerTick = options.churn() / TICKS_PER_SECOND;
+        double commandsPerTick = options.commandsPerSecond() / TICKS_PER_SECOND;
+        double churnDue = 0;
+        double commandsDue = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < options.seconds() * TICKS_PER_SECOND; i++) {
+            churnDue += churnPerTick;
+            commandsDue += commandsPerTick;
+            int churn = (int) churnDue;
+            int commands = (int) commandsDue;
+            churnDue -= churn;
+            commandsDue -= commands;
+            tick(churn, commands);
+        }
+        long measuredNanos = System.nanoTime() - start;
+
+        // Logins still running join before everyone quits, like players online when the server stops
+        loginThreads.shutdown();
+        if(!loginThreads.awaitTermination(1, TimeUnit.MINUTES)) {
+            LOGGER.warn("Logins did not finish within a minute");
+        }
+        server.runTasks();
+        while (!online.isEmpty()) {
+            quit(online.size() - 1);
+        }
+        server.runTasks();
+        autosave.shutdown();
+        if(!autosave.awaitTermination(1, TimeUnit.MINUTES)) {
+            LOGGER.warn("Autosave did not finish within a minute");
+        }
+        long shutdownStart = System.nanoTime();
+        database.shutdown();
+        long shutdownNanos = System.nanoTime() - shutdownStart;
+
+        report(rampOnline, rampNanos, measuredNanos, shutdownNanos);
+        return verify();
+    }
+
+    /**
+     * Runs one server tick, then waits for the next one unless the tick took too long
+     * @param churn Logins and quits to start, each
+     * @param commands Commands to run
+     */
+    private void tick(int churn, int commands) throws InterruptedException {
+        long start = System.nanoTime();
+        server.runTasks();
+        for (int i = 0; i < churn; i++) {
+            // At least two players stay online, so "/give" has a target
+            if(online.size() > 2) {
+                quit(random.nextInt(online.size()));
+            }
+            login();
+        }
+        for (int i = 0; i < commands; i++) {
+            runCommand(pickCommand());
+        }
+        threadGuard.endTick();
+
+        long elapsed = System.nanoTime() - start;
+        tickTime.record(elapsed);
+        if(elapsed > TICK_NANOS) {
+            lateTicks++;
+            return;
+        }
+        TimeUnit.NANOSECONDS.sleep(TICK_NANOS - elapsed);
+    }
+
+    /**
+     * Starts the login of a random offline player, the pre-login runs on a login thread and the join on the server thread
+     */
+    private void login() {
+        if(offline.isEmpty()) {
+            return;
+        }
+        Player player = removeRandom(offline);
+        loggingIn++;
+        long start = System.nanoTime();
+        loginThreads.execute(() -> {
+            AsyncPlayerPreLoginEvent event = createPreLoginEvent(player);
+            preLoginListener.onPreLogin(event);
+            boolean allowed = event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED;
+            server.runTask(() -> join(player, allowed, start));
+        });
+    }
+
+    private void join(Player player, boolean allowed, long start) {
+        loggingIn--;
+        logins++;
+        if(!allowed) {
+            kickedLogins++;
+            offline.add(player);
+            return;
+        }
+        server.addOnline(player);
+        online.add(player);
+        joinListener.onJoin(createJoinEvent(player));
+        loginTime.recordSince(start);
+    }
+
+    private void quit(int index) {
+        Player player = removeAt(online, index);
+        quitListener.onQuit(createQuitEvent(player));
+        server.removeOnline(player);
+        offline.add(player);
+        quits++;
+    }
+
+    private Command pickCommand() {
+        int roll = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (Command command : Command.values()) {
+            if(roll < cumulativeWeights[command.ordinal()]) {
+                return command;
+            }
+        }
+        throw new IllegalStateException("Roll " + roll + " is above every weight");
+    }
+
+    /**
+     * Runs a command as a random online player and records its effect in the ledger
+     * The ledger follows what the command should have done, while the balance read before and after only tells whether it did
+     */
+    private void runCommand(Command command) {
+        if(online.size() < 2) {
+            skippedCommands++;
+            return;
+        }
+        Player sender = online.get(random.nextInt(online.size()));
+        Player target;
+        do {
+            target = online.get(random.nextInt(online.size()));
+        } while (target == sender);
+        UUID senderId = sender.getUniqueId();
+        UUID targetId = target.getUniqueId();
+
+        switch (command) {
+            case GIVE -> {
+                long amount = 1 + random.nextInt(1000);
+                long before = econ.getBalanceMinor(senderId);
+                commands.onGive(sender, new OnlinePlayer(target), new String[]{BigDecimal.valueOf(amount, 2).toPlainString()});
+                // Sender and target are different accounts, so only a successful transfer lowers the balance of the sender
+                if(before - econ.getBalanceMinor(senderId) == amount) {
+                    ledger.merge(senderId, -amount, Long::sum);
+                    ledger.merge(targetId, amount, Long::sum);
+                }
+            }
+            case EARN -> {
+                long before = econ.getBalanceMinor(senderId);
+                commands.onEarn(sender);
+                // The amount is random, so it is taken from the balance
+                long amount = econ.getBalanceMinor(senderId) - before;
+                earned += amount;
+                ledger.merge(senderId, amount, Long::sum);
+            }
+            case BAL -> commands.onBal(sender, random.nextBoolean() ? null : new OnlinePlayer(target));
+            case SETBAL -> {
+                long amount = random.nextInt(100_000);
+                commands.onSetBal(sender, new OnlinePlayer(target), new String[]{BigDecimal.valueOf(amount, 2).toPlainString()});
+                ledger.put(targetId, amount);
+            }
+        }
+        commandCounts[command.ordinal()]++;
+    }
+
+    private void autosave() {
+        try {
+            database.save();
+            database.evictAccounts();
+        } catch (RuntimeException e) {
+            // A failing task would stop every later save
+            LOGGER.error("Autosave failed", e);
+        }
+    }
+
+    private void report(int rampOnline, long rampNanos, long measuredNanos, long shutdownNanos) {
+        double seconds = measuredNanos / 1e9;
+        long total = Arrays.stream(commandCounts).sum();
+        StringBuilder mix = new StringBuilder();
+        for (Command command : Command.values()) {
+            mix.append(mix.length() == 0 ? "" : ", ").append(command.name().toLowerCase(Locale.ROOT)).append(' ').append(commandCounts[command.ordinal()]);
+        }
+
+        System.out.println();
+        System.out.println("--- Orbital load simulation, latencies in milliseconds ---");
+        System.out.println(options);
+        System.out.printf(Locale.ROOT, "Ramp-up: %d players online after %.2f s%n", rampOnline, rampNanos / 1e9);
+        System.out.printf(Locale.ROOT, "Commands: %d in %.2f s (%.0f/s), %s, %d skipped%n", total, seconds, total / seconds, mix, skippedCommands);
+        System.out.printf(Locale.ROOT, "Churn: %d logins (%.1f/s, %d kicked), %d quits, %d messages, %d tasks on the server thread%n",
+                logins, logins / seconds, kickedLogins, quits, server.getMessages(), server.getScheduledTasks());
+        System.out.printf(Locale.ROOT, "Ticks: %d of %d took longer than %d ms%n",
+                lateTicks, tickTime.getCount(), TimeUnit.NANOSECONDS.toMillis(TICK_NANOS));
+        System.out.printf(Locale.ROOT, "Final save: %.0f ms, %d dead letters received, %d redelivered%n", shutdownNanos / 1e6,
+                database.getDeadLetters().getReceived(), database.getDeadLetters().getRedelivered());
+        metrics.describe(null).forEach((name, value) -> System.out.println("  " + name + ": " + value));
+    }
+
+    /**
+     * Compares the balance of every player in the database with the ledger
+     * @return Whether every balance and the total match
+     */
+    private boolean verify() throws StorageException {
+        Map<UUID, Long> stored = new HashMap<>();
+        AccountStore store = AccountStore.Backend.SQLITE.open(path, TABLE_NAME, 1);
+        try {
+            store.scanAll((mostSigBits, leastSigBits, balance) -> stored.put(new UUID(mostSigBits, leastSigBits), balance));
+        } finally {
+            store.close();
+        }
+
+        long expectedTotal = 0;
+        long storedTotal = 0;
+        int mismatches = 0;
+        for (Map.Entry<UUID, Long> entry : ledger.entrySet()) {
+            Long balance = stored.remove(entry.getKey());
+            expectedTotal += entry.getValue();
+            storedTotal += balance != null ? balance : 0;
+            if(balance == null || balance.longValue() != entry.getValue()) {
+                if(mismatches++ < LISTED_MISMATCHES) {
+                    System.out.println("  Mismatch " + entry.getKey() + ": expected " + Money.format(entry.getValue())
+                            + ", stored " + (balance != null ? Money.format(balance) : "nothing"));
+                }
+            }
+        }
+        for (long balance : stored.values()) {
+            storedTotal += balance;
+        }
+
+        boolean passed = mismatches == 0 && stored.isEmpty() && expectedTotal == storedTotal;
+        long startTotal = Money.toMinor(options.startBalance()) * options.players();
+        System.out.printf(Locale.ROOT, "Conservation: expected %s (%s at the start, %s earned, %s changed by /setbal), stored %s, "
+                        + "%d mismatching and %d unknown balances: %s%n", Money.format(expectedTotal), Money.format(startTotal),
+                Money.format(earned), Money.format(expectedTotal - startTotal - earned), Money.format(storedTotal), mismatches,
+                stored.size(), passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    private Player removeRandom(List<Player> players) {
+        return removeAt(players, random.nextInt(players.size()));
+    }
+
+    /**
+     * Removes a player by moving the last one into its place, the order of the players does not matter
+     */
+    private static Player removeAt(List<Player> players, int index) {
+        Player player = players.get(index);
+        players.set(index, players.get(players.size() - 1));
+        players.remove(players.size() - 1);
+        return player;
+    }
+
+    @SuppressWarnings("deprecation") // The String constructors do not need the Adventure API, which the fake server does not set up
+    private static AsyncPlayerPreLoginEvent createPreLoginEvent(Player player) {
+        return new AsyncPlayerPreLoginEvent(player.getName(), InetAddress.getLoopbackAddress(), player.getUniqueId());
+    }
+
+    @SuppressWarnings("deprecation")
+    private static PlayerJoinEvent createJoinEvent(Player player) {
+        return new PlayerJoinEvent(player, (String) null);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static PlayerQuitEvent createQuitEvent(Player player) {
+        return new PlayerQuitEvent(player, (String) null);
+    }
+}
@@ -0,0 +1,152 @@
+package net.foster.testing.orbital.simulation;
+
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Settings of a {@link LoadSimulation}, read from arguments like "--players 10000 --mix give=50,bal=50"
+ *
+ * @param players Synthetic players, every one starts with a row in the database
+ * @param online Players logged in before the measurement starts
+ * @param churn Logins and quits per second, each, so the amount of online players stays the same
+ * @param commandsPerSecond Commands run on the server thread per second
+ * @param mix Weight of every command, commands with weight 0 are never run
+ * @param seconds Length of the measurement
+ * @param autosaveSeconds Time between two saves, which also evict accounts
+ * @param cacheSize Max amount of accounts in memory, kept small by default so accounts are evicted and loaded again
+ * @param startBalance Balance of every player in the database at the start
+ * @param earnCooldownSeconds Cooldown of "/earn", 0 so every call pays
+ * @param loginThreads Threads running the asynchronous pre-login, like the login threads of the server
+ * @param seed Seed of the players and the traffic, the timing of the threads still differs between runs
+ * @param database Path of the SQLite file without extension, null for a temporary file deleted after a passing run
+ */
+public record SimulationOptions(int players,
+                                int online,
+                                double churn,
+                                double commandsPerSecond,
+                                Map<Command, Integer> mix,
+                                int seconds,
+                                int autosaveSeconds,
+                                int cacheSize,
+                                double startBalance,
+                                long earnCooldownSeconds,
+                                int loginThreads,
+                                long seed,
+                                Path database) {
+
+    /**
+     * Commands of {@link net.foster.testing.orbital.commands.PlayerCommands} the simulation runs
+     */
+    public enum Command {
+        GIVE, EARN, BAL, SETBAL
+    }
+
+    private static final String USAGE = """
+            Options, each followed by a value:
+              --players <n>          Synthetic players in the database (5000)
+              --online <n>           Players logged in before the measurement (500)
+              --churn <n>            Logins and quits per second, each (20)
+              --commands <n>         Commands per second (2000)
+              --mix <weights>        Weight per command (give=40,earn=20,bal=30,setbal=10)
+              --seconds <n>          Length of the measurement (60)
+              --autosave <n>         Seconds between two saves (10)
+              --cache-size <n>       Max accounts in memory (1000)
+              --start-balance <n>    Starting balance of every player (100)
+              --earn-cooldown <n>    Cooldown of /earn in seconds (0)
+              --login-threads <n>    Threads running the pre-login (16)
+              --seed <n>             Seed of the players and the traffic (1)
+              --database <path>      SQLite file without extension (a temporary file)""";
+
+    public SimulationOptions {
+        if(players < 2 || online < 2 || online > players) {
+            throw new IllegalArgumentException("Needs at least 2 players and 2 online players, and no more online than players");
+        }
+        if(churn < 0 || commandsPerSecond < 0 || seconds < 1 || autosaveSeconds < 1 || cacheSize < 1 || loginThreads < 1) {
+            throw new IllegalArgumentException("Rates must not be negative, and times, cache size and threads must be at least 1");
+        }
+        if(mix.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("At least one command needs a positive weight");
+        }
+        mix = Map.copyOf(mix);
+    }
+
+    /**
+     * @param args Arguments of the command line
+     * @return The options, defaults for every option not given
+     * @throws IllegalArgumentException If an option is unknown, has no value or an invalid one
+     */
+    public static SimulationOptions parse(String[] args) {
+        int players = 5000;
+        int online = 500;
+        double churn = 20;
+        double commandsPerSecond = 2000;
+        Map<Command, Integer> mix = parseMix("give=40,earn=20,bal=30,setbal=10");
+        int seconds = 60;
+        int autosaveSeconds = 10;
+        int cacheSize = 1000;
+        double startBalance = 100;
+        long earnCooldownSeconds = 0;
+        int loginThreads = 16;
+        long seed = 1;
+        Path database = null;
+
+        for (int i = 0; i < args.length; i += 2) {
+            if(i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value of " + args[i] + "\n" + USAGE);
+            }
+            String value = args[i + 1];
+            try {
+                switch (args[i]) {
+                    case "--players" -> players = Integer.parseInt(value);
+                    case "--online" -> online = Integer.parseInt(value);
+                    case "--churn" -> churn = Double.parseDouble(value);
+                    case "--commands" -> commandsPerSecond = Double.parseDouble(value);
+                    case "--mix" -> mix = parseMix(value);
+                    case "--seconds" -> seconds = Integer.parseInt(value);
+                    case "--autosave" -> autosaveSeconds = Integer.parseInt(value);
+                    case "--cache-size" -> cacheSize = Integer.parseInt(value);
+                    case "--start-balance" -> startBalance = Double.parseDouble(value);
+                    case "--earn-cooldown" -> earnCooldownSeconds = Long.parseLong(value);
+                    case "--login-threads" -> loginThreads = Integer.parseInt(value);
+                    case "--seed" -> seed = Long.parseLong(value);
+                    case "--database" -> database = Path.of(value);
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i] + "\n" + USAGE);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value of " + args[i] + ": " + value);
+            }
+        }
+        return new SimulationOptions(players, online, churn, commandsPerSecond, mix, seconds, autosaveSeconds, cacheSize,
+                startBalance, earnCooldownSeconds, loginThreads, seed, database);
+    }
+
+    /**
+     * @param value Weights like "give=40,bal=60", commands not listed get weight 0
+     */
+    private static Map<Command, Integer> parseMix(String value) {
+        Map<Command, Integer> mix = new EnumMap<>(Command.class);
+        for (Command command : Command.values()) {
+            mix.put(command, 0);
+        }
+        for (String entry : value.split(",")) {
+            int separator = entry.indexOf('=');
+            if(separator < 0) {
+                throw new IllegalArgumentException("Command weight must be \"command=weight\": " + entry);
+            }
+            Command command;
+            try {
+                command = Command.valueOf(entry.substring(0, separator).trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown command in mix: " + entry);
+            }
+            int weight = Integer.parseInt(entry.substring(separator + 1).trim());
+            if(weight < 0) {
+                throw new IllegalArgumentException("Command weight must not be negative: " + entry);
+            }
+            mix.put(command, weight);
+        }
+        return mix;
+    }
+}
@@ -0,0 +1,94 @@
+package net.foster.testing.orbital.data;
+
+import net.foster.testing.orbital.managers.BalanceListener;
+import net.foster.testing.orbital.managers.Economy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalTest {
+    private static final int RECORD_SIZE = 45;
+
+    private final UUID first = UUID.randomUUID();
+    private final UUID second = UUID.randomUUID();
+    @TempDir
+    Path directory;
+
+    @Test
+    void latestBalancesAreReplayedAndLoadsAreSkipped() throws Exception {
+        try (Journal journal = new Journal(directory, 60_000)) {
+            change(journal, first, BalanceListener.LOAD, 100);
+            change(journal, first, BalanceListener.DEPOSIT, 150);
+            change(journal, second, BalanceListener.SET, 7);
+            change(journal, first, BalanceListener.WITHDRAW | BalanceListener.REMOTE, 120);
+        }
+        assertEquals(3 * RECORD_SIZE, Files.size(segment(0)));
+
+        Economy econ = new Economy();
+        assertEquals(2, Journal.replay(directory, econ));
+        assertEquals(120, econ.getBalanceMinor(first));
+        assertEquals(7, econ.getBalanceMinor(second));
+    }
+
+    @Test
+    void replayStopsAtATornOrCorruptRecord() throws Exception {
+        try (Journal journal = new Journal(directory, 60_000)) {
+            change(journal, first, BalanceListener.DEPOSIT, 100);
+            change(journal, first, BalanceListener.DEPOSIT, 200);
+        }
+        // A crash in the middle of a write leaves part of a record
+        Files.write(segment(0), new byte[RECORD_SIZE / 2], StandardOpenOption.APPEND);
+        Economy econ = new Economy();
+        assertEquals(1, Journal.replay(directory, econ));
+        assertEquals(200, econ.getBalanceMinor(first));
+
+        // A flipped bit in the balance of the second record fails its checksum, so the first is the last one replayed
+        byte[] records = Files.readAllBytes(segment(0));
+        records[RECORD_SIZE + 1 + Long.BYTES * 3 + Long.BYTES - 1] ^= 1;
+        Files.write(segment(0), records);
+        econ = new Economy();
+        assertEquals(1, Journal.replay(directory, econ));
+        assertEquals(100, econ.getBalanceMinor(first));
+    }
+
+    @Test
+    void truncateDeletesOnlySealedSegments() throws Exception {
+        try (Journal journal = new Journal(directory, 60_000)) {
+            assertEquals(0, journal.rotate(), "An empty segment was sealed");
+            change(journal, first, BalanceListener.DEPOSIT, 100);
+            long sealed = journal.rotate();
+            assertEquals(1, sealed);
+            assertTrue(Files.exists(segment(0)));
+
+            change(journal, second, BalanceListener.DEPOSIT, 200);
+            journal.truncate(sealed);
+            assertFalse(Files.exists(segment(0)));
+        }
+
+        Economy econ = new Economy();
+        assertEquals(1, Journal.replay(directory, econ));
+        assertFalse(econ.hasAccount(first), "A saved change was replayed");
+        assertEquals(200, econ.getBalanceMinor(second));
+
+        // A new journal keeps the segments that were not replayed yet
+        try (Journal journal = new Journal(directory, 60_000)) {
+            change(journal, first, BalanceListener.DEPOSIT, 300);
+        }
+        assertTrue(Files.exists(segment(1)));
+        assertEquals(RECORD_SIZE, Files.size(segment(2)));
+    }
+
+    private static void change(Journal journal, UUID uuid, int type, long balance) {
+        journal.onBalanceChange(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), type, 1, balance, 1);
+    }
+
+    private Path segment(long number) {
+        return directory.resolve("journal-" + number + ".log");
+    }
+}
@@ -0,0 +1,92 @@
+package net.foster.testing.orbital.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotTest {
+    /* Enough for more than one chunk, so the accounts are decoded by several threads */
+    private static final int ACCOUNTS = 200_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void everyAccountIsReadBack() throws Exception {
+        Path path = directory.resolve("balances.snapshot");
+        Map<UUID, Long> written = new HashMap<>();
+        Snapshot.Info info = Snapshot.write(consumer -> {
+            SplittableRandom random = new SplittableRandom(42);
+            for (int i = 0; i < ACCOUNTS; i++) {
+                UUID uuid = new UUID(random.nextLong(), random.nextLong());
+                long balance = random.nextLong(Long.MAX_VALUE);
+                written.put(uuid, balance);
+                consumer.accept(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), balance);
+            }
+            return ACCOUNTS;
+        }, path);
+        assertEquals(ACCOUNTS, info.records());
+        assertEquals(info, Snapshot.readInfo(path));
+        assertFalse(Files.exists(directory.resolve("balances.snapshot.tmp")));
+
+        Map<UUID, Long> read = new ConcurrentHashMap<>();
+        assertEquals(info, Snapshot.read(path, (most, least, balances, count) -> {
+            for (int i = 0; i < count; i++) {
+                read.put(new UUID(most[i], least[i]), balances[i]);
+            }
+        }));
+        assertEquals(written, read);
+    }
+
+    @Test
+    void corruptSnapshotIsRejectedBeforeAnyAccountIsUsed() throws Exception {
+        Path path = write(1_000);
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(path, bytes);
+
+        AtomicInteger chunks = new AtomicInteger();
+        IOException e = assertThrows(IOException.class, () -> Snapshot.read(path, (most, least, balances, count) -> chunks.incrementAndGet()));
+        assertTrue(e.getMessage().contains("checksum"), e.getMessage());
+        assertEquals(0, chunks.get());
+    }
+
+    @Test
+    void cutOffSnapshotIsRejected() throws Exception {
+        Path path = write(1_000);
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 5));
+
+        AtomicInteger chunks = new AtomicInteger();
+        IOException e = assertThrows(IOException.class, () -> Snapshot.read(path, (most, least, balances, count) -> chunks.incrementAndGet()));
+        assertTrue(e.getMessage().contains("cut off"), e.getMessage());
+        assertEquals(0, chunks.get());
+
+        Files.write(path, Arrays.copyOf(bytes, 10));
+        assertThrows(IOException.class, () -> Snapshot.readInfo(path));
+        assertThrows(IOException.class, () -> Snapshot.read(path, (most, least, balances, count) -> chunks.incrementAndGet()));
+    }
+
+    private Path write(int accounts) throws Exception {
+        Path path = directory.resolve("balances.snapshot");
+        Snapshot.write(consumer -> {
+            for (int i = 0; i < accounts; i++) {
+                consumer.accept(i, i, i * 100L);
+            }
+            return accounts;
+        }, path);
+        return path;
+    }
+}
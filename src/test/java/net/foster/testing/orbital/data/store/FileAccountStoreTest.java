@@ -0,0 +1,82 @@
+package net.foster.testing.orbital.data.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileAccountStoreTest {
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 28;
+
+    private final UUID first = UUID.randomUUID();
+    private final UUID second = UUID.randomUUID();
+    private final UUID third = UUID.randomUUID();
+    @TempDir
+    Path directory;
+
+    @Test
+    void fileIsCutOffAtATornOrCorruptRecord() throws Exception {
+        Path path = directory.resolve("accounts.bin");
+        try (FileAccountStore store = open(path)) {
+            store.upsertBatch(List.of(new AccountStore.Account(first, 100)));
+            store.upsertBatch(List.of(new AccountStore.Account(second, 200)));
+        }
+        // A crash in the middle of a write leaves part of a record
+        Files.write(path, new byte[RECORD_SIZE / 2], StandardOpenOption.APPEND);
+
+        try (FileAccountStore store = open(path)) {
+            assertEquals(HEADER_SIZE + 2 * RECORD_SIZE, Files.size(path));
+            assertEquals(Map.of(first, 100L, second, 200L), store.findMany(List.of(first, second, third)));
+            store.upsertBatch(List.of(new AccountStore.Account(third, 300)));
+        }
+        try (FileAccountStore store = open(path)) {
+            assertEquals(Map.of(first, 100L, second, 200L, third, 300L), store.findMany(List.of(first, second, third)));
+        }
+
+        // A flipped bit in the balance of the second record fails its checksum, so every record from there is dropped
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[HEADER_SIZE + RECORD_SIZE + Long.BYTES * 3 - 1] ^= 1;
+        Files.write(path, bytes);
+        try (FileAccountStore store = open(path)) {
+            assertEquals(HEADER_SIZE + RECORD_SIZE, Files.size(path));
+            assertEquals(Map.of(first, 100L), store.findMany(List.of(first, second, third)));
+        }
+    }
+
+    @Test
+    void outdatedRecordsAreCompactedAway() throws Exception {
+        Path path = directory.resolve("accounts.bin");
+        List<UUID> uuids = List.of(first, second, third);
+        List<AccountStore.Account> changes = new ArrayList<>();
+        for (int i = 0; i < 70_000; i++) {
+            changes.add(new AccountStore.Account(uuids.get(i % uuids.size()), i));
+        }
+        try (FileAccountStore store = open(path)) {
+            store.upsertBatch(changes);
+            assertEquals(HEADER_SIZE + uuids.size() * RECORD_SIZE, Files.size(path));
+            assertFalse(Files.exists(directory.resolve("accounts.bin.tmp")));
+
+            // Appends go to the compacted file
+            store.upsertBatch(List.of(new AccountStore.Account(first, 5)));
+        }
+        try (FileAccountStore store = open(path)) {
+            assertEquals(HEADER_SIZE + (uuids.size() + 1) * RECORD_SIZE, Files.size(path));
+            assertEquals(Map.of(first, 5L, second, 69_997L, third, 69_998L), store.findMany(uuids));
+        }
+    }
+
+    private static FileAccountStore open(Path path) throws StorageException {
+        FileAccountStore store = new FileAccountStore(path);
+        store.initialize();
+        return store;
+    }
+}
@@ -0,0 +1,46 @@
+package net.foster.testing.orbital.data.store;
+
+import net.foster.testing.orbital.managers.BalanceRule;
+import net.foster.testing.orbital.managers.KeyRange;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JdbcAccountStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void rulesChangeStoredBalancesLikeCachedOnes() throws Exception {
+        for (BalanceRule rule : List.of(BalanceRule.interest(10), BalanceRule.wealthTax(50, 1_000))) {
+            assertEquals(Long.MAX_VALUE, rule.apply(Long.MAX_VALUE), rule.name() + " wrapped around");
+            long[] balances = {0, 1_000, 10_000, 123_456_789, rule.maxBalance(), rule.maxBalance() + 1, Long.MAX_VALUE - 1, Long.MAX_VALUE};
+
+            for (JdbcAccountStore store : List.of(SQLiteAccountStore.open(directory.resolve(rule.name() + ".db"), "players", 1),
+                    H2AccountStore.open(directory.resolve(rule.name()), "players", 1))) {
+                try (store) {
+                    store.initialize();
+                    List<AccountStore.Account> accounts = new ArrayList<>();
+                    for (long balance : balances) {
+                        accounts.add(new AccountStore.Account(UUID.randomUUID(), balance));
+                    }
+                    store.upsertBatch(accounts);
+
+                    store.applyRule(rule, KeyRange.ALL);
+                    Map<UUID, Long> stored = store.findMany(accounts.stream().map(AccountStore.Account::uuid).toList());
+                    for (AccountStore.Account account : accounts) {
+                        assertEquals(rule.apply(account.balance()), (long) stored.get(account.uuid()),
+                                rule.name() + " of " + account.balance() + " in " + store.getClass().getSimpleName());
+                    }
+                }
+            }
+        }
+    }
+}
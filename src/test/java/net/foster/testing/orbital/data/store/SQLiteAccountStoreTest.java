@@ -0,0 +1,125 @@
+package net.foster.testing.orbital.data.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Migrates files in the text keyed layout the plugin used before, written with plain JDBC like the old plugin did
+ */
+class SQLiteAccountStoreTest {
+    /* More than two batches of the migration */
+    private static final int ACCOUNTS = 25_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void legacyRowsAreCopiedInBatchesKeepingTheLatestOfEachUuid() throws Exception {
+        Path path = directory.resolve("database.db");
+        List<UUID> uuids = new ArrayList<>();
+        UUID newer = UUID.randomUUID();
+        UUID later = UUID.randomUUID();
+        try (Connection connection = legacyFile(path)) {
+            insert(connection, newer.toString(), 1.0, 5);
+            insert(connection, later.toString(), 3.0, 0);
+            for (int i = 0; i < ACCOUNTS; i++) {
+                UUID uuid = UUID.randomUUID();
+                uuids.add(uuid);
+                insert(connection, uuid.toString(), i + 0.25, i);
+            }
+            // Written earlier despite the higher rowid, and a row from before write times existed, in a later batch
+            insert(connection, newer.toString(), 2.0, 3);
+            insert(connection, later.toString(), 4.0, 0);
+            insert(connection, "not-a-uuid", 5.0, 0);
+            connection.commit();
+        }
+
+        try (SQLiteAccountStore store = SQLiteAccountStore.open(path, "players", 1)) {
+            store.initialize();
+            Map<UUID, Long> balances = store.findMany(uuids);
+            for (int i = 0; i < ACCOUNTS; i++) {
+                assertEquals(i * 100L + 25, (long) balances.get(uuids.get(i)));
+            }
+            assertEquals(100, (long) store.findMany(List.of(newer)).get(newer));
+            assertEquals(400, (long) store.findMany(List.of(later)).get(later));
+            assertEquals(ACCOUNTS + 2, store.scanAll((most, least, balance) -> {}));
+        }
+        assertEquals(List.of("players", "schema_version"), tables(path));
+
+        // Opening the migrated file again applies nothing
+        try (SQLiteAccountStore store = SQLiteAccountStore.open(path, "players", 1)) {
+            store.initialize();
+            assertEquals(ACCOUNTS + 2, store.scanAll((most, least, balance) -> {}));
+        }
+    }
+
+    @Test
+    void migrationInterruptedWhileCopyingIsRunAgain() throws Exception {
+        Path path = directory.resolve("database.db");
+        UUID copied = UUID.randomUUID();
+        UUID notCopied = UUID.randomUUID();
+        try (Connection connection = legacyFile(path)) {
+            insert(connection, copied.toString(), 1.0, 7);
+            insert(connection, notCopied.toString(), 2.0, 7);
+            insert(connection, copied.toString(), 3.0, 7);
+            // The first batch was copied up to the second row of the first UUID, then the server stopped
+            connection.prepareStatement("CREATE TABLE players_migrating (uuid BLOB PRIMARY KEY, balance INTEGER NOT NULL," +
+                    " updated_at INTEGER NOT NULL DEFAULT 0) WITHOUT ROWID").executeUpdate();
+            PreparedStatement partial = connection.prepareStatement("INSERT INTO players_migrating (uuid, balance, updated_at) VALUES (?, ?, ?)");
+            partial.setBytes(1, ByteBuffer.allocate(16).putLong(copied.getMostSignificantBits()).putLong(copied.getLeastSignificantBits()).array());
+            partial.setLong(2, 100);
+            partial.setLong(3, 7);
+            partial.executeUpdate();
+            connection.commit();
+        }
+
+        try (SQLiteAccountStore store = SQLiteAccountStore.open(path, "players", 1)) {
+            store.initialize();
+            Map<UUID, Long> balances = store.findMany(List.of(copied, notCopied));
+            assertEquals(300, (long) balances.get(copied));
+            assertEquals(200, (long) balances.get(notCopied));
+            assertEquals(2, store.scanAll((most, least, balance) -> {}));
+        }
+        assertEquals(List.of("players", "schema_version"), tables(path));
+    }
+
+    private static Connection legacyFile(Path path) throws Exception {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+        connection.prepareStatement("CREATE TABLE players (uuid VARCHAR(36), balance DOUBLE, updated_at INTEGER NOT NULL DEFAULT 0)").executeUpdate();
+        connection.setAutoCommit(false);
+        return connection;
+    }
+
+    private static void insert(Connection connection, String uuid, double balance, long updatedAt) throws Exception {
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO players (uuid, balance, updated_at) VALUES (?, ?, ?)")) {
+            insert.setString(1, uuid);
+            insert.setDouble(2, balance);
+            insert.setLong(3, updatedAt);
+            insert.executeUpdate();
+        }
+    }
+
+    private static List<String> tables(Path path) throws Exception {
+        List<String> tables = new ArrayList<>();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+             ResultSet resultSet = connection.prepareStatement("SELECT name FROM sqlite_master WHERE type = 'table' ORDER BY name").executeQuery()) {
+            while (resultSet.next()) {
+                tables.add(resultSet.getString(1));
+            }
+        }
+        return tables;
+    }
+}
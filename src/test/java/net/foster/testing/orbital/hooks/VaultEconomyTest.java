@@ -0,0 +1,242 @@
+package net.foster.testing.orbital.hooks;
+
+import net.foster.testing.orbital.api.EconomyService;
+import net.foster.testing.orbital.data.ConfigManager;
+import net.foster.testing.orbital.data.Settings;
+import net.foster.testing.orbital.managers.Economy;
+import net.foster.testing.orbital.utils.ThreadGuard;
+import net.milkbowl.vault.economy.EconomyResponse;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.Server;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.RegisteredServiceProvider;
+import org.bukkit.plugin.ServicePriority;
+import org.bukkit.plugin.ServicesManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Uses the Vault economy the way other plugins do, through the services manager, with the test thread as the server thread
+ */
+class VaultEconomyTest {
+    private static final long START_BALANCE = 10_000;
+
+    private final Economy econ = new Economy();
+    private final StoredService service = new StoredService();
+    private final UUID stored = UUID.randomUUID();
+    private final UUID unknown = UUID.randomUUID();
+    private final ThreadGuard threadGuard = new ThreadGuard(Thread.currentThread(), ThreadGuard.Mode.REJECT, 0);
+    private final net.milkbowl.vault.economy.Economy vault;
+
+    VaultEconomyTest() throws Exception {
+        try (Reader reader = new InputStreamReader(Objects.requireNonNull(getClass().getResourceAsStream("/config.yml")), StandardCharsets.UTF_8)) {
+            ConfigManager.useSettings(Settings.from(YamlConfiguration.loadConfiguration(reader)));
+        }
+        service.rows.put(stored, 25_000L);
+
+        ServicesManager services = servicesManager();
+        VaultHook.register(plugin(services), econ, service, threadGuard);
+        vault = services.load(net.milkbowl.vault.economy.Economy.class);
+        assertNotNull(vault, "Vault economy was not registered");
+    }
+
+    @Test
+    void lookupsOnlyRead() throws Exception {
+        assertTrue(offServerThread(() -> vault.hasAccount(player(stored))));
+        assertEquals(250.0, (double) offServerThread(() -> vault.getBalance(player(stored))));
+
+        assertFalse(offServerThread(() -> vault.hasAccount(player(unknown))));
+        assertEquals(0.0, (double) offServerThread(() -> vault.getBalance(player(unknown))));
+        assertFalse(offServerThread(() -> vault.has(player(unknown), 1)));
+        assertFalse(econ.hasAccount(unknown), "Looking up a missing account created it");
+        assertTrue(service.created.isEmpty(), "Looking up a missing account created it");
+    }
+
+    @Test
+    void creatingAndChangingCreateTheAccount() throws Exception {
+        assertTrue(offServerThread(() -> vault.createPlayerAccount(player(unknown))));
+        assertEquals(List.of(unknown), service.created);
+        assertTrue(offServerThread(() -> vault.depositPlayer(player(unknown), 5).transactionSuccess()));
+        assertEquals(START_BALANCE + 500, econ.getBalanceMinor(unknown));
+    }
+
+    @Test
+    @Timeout(30)
+    void serverThreadNeverWaits() throws Exception {
+        service.gate = new CompletableFuture<>();
+
+        // The store does not answer, so any wait would hit the timeout of the test
+        assertFalse(vault.hasAccount(player(stored)));
+        assertEquals(0.0, vault.getBalance(player(stored)));
+        EconomyResponse response = vault.withdrawPlayer(player(stored), 1);
+        assertFalse(response.transactionSuccess());
+        assertFalse(econ.hasAccount(stored));
+
+        service.gate.complete(null);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!vault.hasAccount(player(stored)) && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(250.0, vault.getBalance(player(stored)));
+        assertTrue(vault.withdrawPlayer(player(stored), 1).transactionSuccess());
+        assertEquals(24_900, econ.getBalanceMinor(stored));
+        assertEquals(0, threadGuard.getBlockingCalls(), "A call blocked the server thread");
+    }
+
+    @Test
+    void amountsOutsideTheRangeOfBalancesAreRejected() throws Exception {
+        assertTrue(offServerThread(() -> vault.hasAccount(player(stored))));
+        for (double amount : new double[]{Double.NaN, Double.POSITIVE_INFINITY, 1e17}) {
+            assertFalse(offServerThread(() -> vault.depositPlayer(player(stored), amount).transactionSuccess()), "Deposit of " + amount);
+            assertFalse(offServerThread(() -> vault.withdrawPlayer(player(stored), amount).transactionSuccess()), "Withdrawal of " + amount);
+        }
+        assertEquals(25_000, econ.getBalanceMinor(stored));
+    }
+
+    @Test
+    void waitsOffTheServerThreadAreNotFlagged() throws Exception {
+        assertTrue(offServerThread(() -> vault.withdrawPlayer(player(stored), 1).transactionSuccess()));
+        assertEquals(0, threadGuard.getBlockingCalls());
+    }
+
+    private static <T> T offServerThread(java.util.concurrent.Callable<T> call) throws Exception {
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(call).get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static OfflinePlayer player(UUID uuid) {
+        return stub(OfflinePlayer.class, (method, args) -> switch (method) {
+            case "getUniqueId" -> uuid;
+            case "getName" -> "player";
+            default -> null;
+        });
+    }
+
+    /**
+     * Services manager keeping the last registered provider of each service
+     */
+    private static ServicesManager servicesManager() {
+        Map<Class<?>, RegisteredServiceProvider<?>> registrations = new ConcurrentHashMap<>();
+        return stub(ServicesManager.class, (method, args) -> switch (method) {
+            case "register" -> {
+                registrations.put((Class<?>) args[0], registration((Class<?>) args[0], args[1], (ServicePriority) args[3], (Plugin) args[2]));
+                yield null;
+            }
+            case "getRegistration" -> registrations.get((Class<?>) args[0]);
+            case "load" -> {
+                RegisteredServiceProvider<?> registration = registrations.get((Class<?>) args[0]);
+                yield registration != null ? registration.getProvider() : null;
+            }
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    private static <T> RegisteredServiceProvider<T> registration(Class<T> service, Object provider, ServicePriority priority, Plugin plugin) {
+        return new RegisteredServiceProvider<>(service, service.cast(provider), priority, plugin);
+    }
+
+    private static Plugin plugin(ServicesManager services) {
+        Server server = stub(Server.class, (method, args) -> method.equals("getServicesManager") ? services : null);
+        return stub(Plugin.class, (method, args) -> switch (method) {
+            case "getServer" -> server;
+            case "getName" -> "OrbitalTesting";
+            default -> null;
+        });
+    }
+
+    /**
+     * Implements an interface of the server API, which has far more methods than the code under test uses
+     */
+    private static <T> T stub(Class<T> type, java.util.function.BiFunction<String, Object[], Object> handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> switch (method.getName()) {
+            case "equals" -> proxy == args[0];
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "toString" -> type.getSimpleName() + " stub";
+            default -> handler.apply(method.getName(), args);
+        }));
+    }
+
+    /**
+     * Account storage answering on another thread once the gate opens, like the database
+     */
+    private final class StoredService implements EconomyService {
+        private final Map<UUID, Long> rows = new ConcurrentHashMap<>();
+        private final List<UUID> created = Collections.synchronizedList(new ArrayList<>());
+        private volatile CompletableFuture<Void> gate = CompletableFuture.completedFuture(null);
+
+        @Override
+        public CompletableFuture<Boolean> find(UUID uuid) {
+            return gate.thenApplyAsync(v -> {
+                Long row = rows.get(uuid);
+                if(row != null) {
+                    econ.loadBalanceMinor(uuid, row);
+                }
+                return row != null;
+            });
+        }
+
+        @Override
+        public CompletableFuture<Void> load(Collection<UUID> uuids) {
+            return gate.thenRunAsync(() -> {
+                for (UUID uuid : uuids) {
+                    Long row = rows.get(uuid);
+                    if(econ.loadBalanceMinor(uuid, row != null ? row : START_BALANCE) && row == null) {
+                        created.add(uuid);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public boolean isLoaded(UUID uuid) {
+            return econ.hasAccount(uuid);
+        }
+
+        @Override
+        public CompletableFuture<Long> getBalance(UUID uuid) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Map<UUID, Long>> getBalances(Collection<UUID> uuids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Long> deposit(UUID uuid, long amount) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Boolean> withdraw(UUID uuid, long amount) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Void> depositAll(Map<UUID, Long> amounts) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String format(long amount) {
+            return Long.toString(amount);
+        }
+    }
+}
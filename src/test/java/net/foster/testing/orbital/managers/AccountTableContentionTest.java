@@ -0,0 +1,175 @@
+package net.foster.testing.orbital.managers;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Mutates a small set of accounts from many threads, so every segment is contended, while listeners are registered
+ */
+class AccountTableContentionTest {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 50_000;
+    private static final int ACCOUNTS = 64;
+    private static final long START_BALANCE = 1_000_000;
+
+    @Test
+    @Timeout(60)
+    void listenersSeeEveryChangeInOrderOffTheMutatingThreads() throws Exception {
+        Economy econ = new Economy();
+        Leaderboard leaderboard = new Leaderboard();
+        Map<UUID, LongAdder> seenDeltas = new ConcurrentHashMap<>();
+        Map<UUID, Long> lastVersion = new ConcurrentHashMap<>();
+        Set<Thread> listenerThreads = ConcurrentHashMap.newKeySet();
+        LongAdder outOfOrder = new LongAdder();
+        econ.addListener(leaderboard);
+        econ.addListener((most, least, type, amount, balance, version) -> {
+            listenerThreads.add(Thread.currentThread());
+            UUID uuid = new UUID(most, least);
+            Long previous = lastVersion.put(uuid, version);
+            if(previous != null && previous >= version) {
+                outOfOrder.increment();
+            }
+            if(type == BalanceListener.DEPOSIT || type == BalanceListener.WITHDRAW) {
+                seenDeltas.computeIfAbsent(uuid, ignored -> new LongAdder()).add(amount);
+            }
+        });
+        UUID[] uuids = createAccounts(econ);
+
+        List<Thread> workers = runWorkers(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < OPERATIONS; i++) {
+                UUID from = uuids[random.nextInt(ACCOUNTS)];
+                UUID to = uuids[random.nextInt(ACCOUNTS)];
+                long amount = random.nextLong(1, 100);
+                switch (random.nextInt(3)) {
+                    case 0 -> econ.execute(new Transaction().transfer(from, to, amount));
+                    case 1 -> {
+                        if(econ.tryWithdrawMinor(from, amount)) {
+                            econ.addMinor(to, amount);
+                        }
+                    }
+                    default -> {
+                        econ.addMinor(from, amount);
+                        econ.addMinor(to, -amount);
+                    }
+                }
+            }
+        });
+
+        econ.getAccounts().flushListeners();
+        long total = 0;
+        for (UUID uuid : uuids) {
+            long balance = econ.getBalanceMinor(uuid);
+            total += balance;
+            LongAdder deltas = seenDeltas.get(uuid);
+            assertEquals(balance - START_BALANCE, deltas != null ? deltas.sum() : 0, "Changes delivered for " + uuid);
+            assertEquals(balance, leaderboard.getPage(leaderboard.getRank(uuid), 1).get(0).balance(), "Leaderboard balance of " + uuid);
+        }
+        assertEquals(START_BALANCE * ACCOUNTS, total, "Money supply");
+        assertEquals(0, outOfOrder.sum(), "Changes delivered out of order");
+        for (Thread worker : workers) {
+            assertFalse(listenerThreads.contains(worker), "Listener called on mutating thread " + worker.getName());
+        }
+    }
+
+    @Test
+    @Timeout(60)
+    void blockedListenerDoesNotHoldUpChanges() throws Exception {
+        Economy econ = new Economy();
+        UUID[] uuids = createAccounts(econ);
+
+        CountDownLatch release = new CountDownLatch(1);
+        LongAdder delivered = new LongAdder();
+        econ.addListener((most, least, type, amount, balance, version) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            delivered.increment();
+        });
+
+        // Would never finish if listeners were called while the segment is locked
+        runWorkers(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < OPERATIONS; i++) {
+                econ.addMinor(uuids[random.nextInt(ACCOUNTS)], 1);
+            }
+        });
+        assertTrue(delivered.sum() < (long) THREADS * OPERATIONS, "Changes were delivered while the listener was blocked");
+
+        release.countDown();
+        econ.getAccounts().flushListeners();
+        assertEquals((long) THREADS * OPERATIONS, delivered.sum());
+    }
+
+    @Test
+    @Timeout(60)
+    void freezeDeliversQueuedChanges() throws Exception {
+        Economy econ = new Economy();
+        UUID[] uuids = createAccounts(econ);
+        LongAdder delivered = new LongAdder();
+        econ.addListener((most, least, type, amount, balance, version) -> delivered.increment());
+
+        runWorkers(() -> {
+            for (int i = 0; i < OPERATIONS; i++) {
+                econ.addMinor(uuids[i % ACCOUNTS], 1);
+            }
+        });
+        econ.freeze();
+        assertEquals((long) THREADS * OPERATIONS, delivered.sum());
+    }
+
+    private static UUID[] createAccounts(Economy econ) {
+        UUID[] uuids = new UUID[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            uuids[i] = UUID.randomUUID();
+            econ.loadBalanceMinor(uuids[i], START_BALANCE);
+        }
+        return uuids;
+    }
+
+    /**
+     * Starts {@link #THREADS} threads running the work at the same time and waits for them
+     * @return The threads, already finished
+     */
+    private static List<Thread> runWorkers(Runnable work) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        Map<Thread, Throwable> failures = new ConcurrentHashMap<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    work.run();
+                } catch (Throwable e) {
+                    failures.put(Thread.currentThread(), e);
+                }
+            }, "worker-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(30));
+            assertFalse(worker.isAlive(), worker.getName() + " did not finish");
+        }
+        if(!failures.isEmpty()) {
+            throw new AssertionError("Worker failed", failures.values().iterator().next());
+        }
+        return workers;
+    }
+}
@@ -0,0 +1,42 @@
+package net.foster.testing.orbital.managers;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AccountTableTest {
+    private static final long RICH = Long.MAX_VALUE - 10;
+
+    @Test
+    void overflowingChangesAreRejectedBeforeAnythingChanges() {
+        Economy econ = new Economy();
+        List<Long> seen = new CopyOnWriteArrayList<>();
+        econ.addListener((most, least, type, amount, balance, version) -> {
+            if(type != BalanceListener.LOAD) {
+                seen.add(balance);
+            }
+        });
+        UUID rich = UUID.randomUUID();
+        UUID poor = UUID.randomUUID();
+        econ.loadBalanceMinor(rich, RICH);
+        econ.loadBalanceMinor(poor, 100);
+        AccountTable accounts = econ.getAccounts();
+
+        assertThrows(ArithmeticException.class, () -> econ.addMinor(rich, 11));
+        assertThrows(ArithmeticException.class, () -> econ.addAllMinor(Map.of(rich, 11L)));
+        assertThrows(ArithmeticException.class, () -> econ.execute(new Transaction().transfer(poor, rich, 11)));
+        assertThrows(ArithmeticException.class, () -> accounts.applyRemote(rich.getMostSignificantBits(), rich.getLeastSignificantBits(),
+                BalanceListener.DEPOSIT, 11));
+        assertEquals(RICH, econ.getBalanceMinor(rich));
+        assertEquals(100, econ.getBalanceMinor(poor));
+
+        assertEquals(Long.MAX_VALUE, econ.addMinor(rich, 10));
+        accounts.flushListeners();
+        assertEquals(List.of(Long.MAX_VALUE), seen, "Rejected changes reached the listeners");
+    }
+}
@@ -0,0 +1,42 @@
+package net.foster.testing.orbital.managers;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeaderboardTest {
+    private final Leaderboard leaderboard = new Leaderboard();
+
+    LeaderboardTest() {
+        for (int i = 1; i <= 25; i++) {
+            UUID uuid = UUID.randomUUID();
+            leaderboard.update(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), i * 100L);
+        }
+    }
+
+    @Test
+    void pagesAreRankedByBalance() {
+        List<Leaderboard.Entry> first = leaderboard.getPage(1, 10);
+        assertEquals(10, first.size());
+        assertEquals(1, first.get(0).rank());
+        assertEquals(2_500, first.get(0).balance());
+
+        List<Leaderboard.Entry> last = leaderboard.getPage(3, 10);
+        assertEquals(5, last.size());
+        assertEquals(25, last.get(4).rank());
+        assertEquals(100, last.get(4).balance());
+    }
+
+    @Test
+    void pagesOutsideTheBoardAreEmpty() {
+        assertTrue(leaderboard.getPage(0, 10).isEmpty());
+        assertTrue(leaderboard.getPage(-5, 10).isEmpty());
+        assertTrue(leaderboard.getPage(4, 10).isEmpty());
+        // (page - 1) * pageSize wraps around to a negative offset in int arithmetic, which used to return the first page
+        assertTrue(leaderboard.getPage(429_496_730, 10).isEmpty());
+        assertTrue(leaderboard.getPage(Integer.MAX_VALUE, Integer.MAX_VALUE).isEmpty());
+    }
+}
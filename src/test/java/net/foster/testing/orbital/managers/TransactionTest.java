@@ -0,0 +1,101 @@
+package net.foster.testing.orbital.managers;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs transfers between a few accounts from many threads, so transactions overlap on the same accounts and segments
+ */
+class TransactionTest {
+    private static final int THREADS = 8;
+    private static final int TRANSACTIONS = 50_000;
+    private static final int ACCOUNTS = 16;
+    private static final long START_BALANCE = 1_000;
+
+    @Test
+    @Timeout(60)
+    void concurrentTransfersConserveMoney() throws Exception {
+        Economy econ = new Economy();
+        UUID[] uuids = new UUID[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            uuids[i] = UUID.randomUUID();
+            econ.loadBalanceMinor(uuids[i], START_BALANCE);
+        }
+
+        LongAdder applied = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < TRANSACTIONS; i++) {
+                        UUID a = uuids[random.nextInt(ACCOUNTS)];
+                        UUID b = uuids[random.nextInt(ACCOUNTS)];
+                        UUID c = uuids[random.nextInt(ACCOUNTS)];
+                        // Amounts up to the start balance, so many transfers would overdraw and must be rejected whole
+                        Transaction transaction = random.nextBoolean()
+                                ? new Transaction().transfer(a, b, random.nextLong(1, START_BALANCE))
+                                : new Transaction().transfer(a, b, random.nextLong(1, START_BALANCE)).transfer(b, c, random.nextLong(1, START_BALANCE));
+                        if(econ.execute(transaction)) {
+                            applied.increment();
+                        } else {
+                            rejected.increment();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "transfers-" + t);
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(30));
+            assertFalse(worker.isAlive(), worker.getName() + " did not finish");
+        }
+        if(failure.get() != null) {
+            throw new AssertionError("Transfer failed", failure.get());
+        }
+
+        long total = 0;
+        for (UUID uuid : uuids) {
+            long balance = econ.getBalanceMinor(uuid);
+            assertTrue(balance >= 0, "Account was overdrawn: " + balance);
+            total += balance;
+        }
+        assertEquals(START_BALANCE * ACCOUNTS, total, "Money supply");
+        assertEquals((long) THREADS * TRANSACTIONS, applied.sum() + rejected.sum());
+        assertTrue(applied.sum() > 0 && rejected.sum() > 0, "Both outcomes should happen, applied " + applied.sum() + ", rejected " + rejected.sum());
+    }
+
+    @Test
+    void rejectedTransactionChangesNothing() {
+        Economy econ = new Economy();
+        UUID rich = UUID.randomUUID();
+        UUID poor = UUID.randomUUID();
+        econ.loadBalanceMinor(rich, 500);
+        econ.loadBalanceMinor(poor, 10);
+
+        Transaction transaction = new Transaction().transfer(rich, poor, 400).transfer(poor, rich, 1_000);
+        assertFalse(econ.execute(transaction));
+        assertFalse(transaction.isApplied());
+        assertEquals(500, econ.getBalanceMinor(rich));
+        assertEquals(10, econ.getBalanceMinor(poor));
+    }
+}
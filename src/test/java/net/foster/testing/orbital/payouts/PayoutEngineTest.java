@@ -0,0 +1,76 @@
+package net.foster.testing.orbital.payouts;
+
+import net.foster.testing.orbital.data.ConfigManager;
+import net.foster.testing.orbital.data.Database;
+import net.foster.testing.orbital.data.Settings;
+import net.foster.testing.orbital.data.store.AccountStore;
+import net.foster.testing.orbital.data.store.FileAccountStore;
+import net.foster.testing.orbital.data.store.StorageException;
+import net.foster.testing.orbital.managers.BalanceRule;
+import net.foster.testing.orbital.managers.Economy;
+import net.foster.testing.orbital.managers.Leaderboard;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PayoutEngineTest {
+    private final UUID saved = UUID.randomUUID();
+    private final UUID loaded = UUID.randomUUID();
+    private final UUID online = UUID.randomUUID();
+    private final Economy econ = new Economy();
+    @TempDir
+    Path directory;
+    private FileAccountStore store;
+    private Database database;
+    private PayoutEngine engine;
+
+    PayoutEngineTest() throws Exception {
+        try (Reader reader = new InputStreamReader(Objects.requireNonNull(getClass().getResourceAsStream("/config.yml")), StandardCharsets.UTF_8)) {
+            ConfigManager.useSettings(Settings.from(YamlConfiguration.loadConfiguration(reader)));
+        }
+    }
+
+    @AfterEach
+    void close() {
+        engine.close();
+        database.shutdown();
+    }
+
+    @Test
+    void ruleReachesBalancesWhoseWriteFailed() throws Exception {
+        store = new FileAccountStore(directory.resolve("players.bin"));
+        store.initialize();
+        store.upsertBatch(List.of(new AccountStore.Account(saved, 10_000), new AccountStore.Account(loaded, 10_000),
+                new AccountStore.Account(online, 10_000)));
+        database = new Database(econ, store, 100);
+        engine = new PayoutEngine(econ, database, new Leaderboard(), 2, directory.resolve("payouts.last"));
+        econ.loadBalanceMinor(online, 10_000);
+
+        // Both accounts were changed and evicted, then their write failed, so the store still holds the old balance
+        database.getDeadLetters().add("test", List.of(new AccountStore.Account(saved, 20_000), new AccountStore.Account(loaded, 30_000)),
+                new StorageException("database is locked"));
+
+        engine.apply(BalanceRule.interest(10)).join();
+        assertEquals(11_000, econ.getBalanceMinor(online));
+
+        // One is written by the next save, the other taken from the queue by a login
+        database.preloadPlayerData(loaded).join();
+        assertEquals(33_000, econ.getBalanceMinor(loaded));
+        database.save();
+        assertEquals(0, database.getDeadLetters().size());
+        assertEquals(22_000, (long) store.findMany(List.of(saved)).get(saved));
+        assertEquals(33_000, (long) store.findMany(List.of(loaded)).get(loaded));
+        assertEquals(11_000, (long) store.findMany(List.of(online)).get(online));
+    }
+}
@@ -0,0 +1,169 @@
+package net.foster.testing.orbital.sync;
+
+import net.foster.testing.orbital.data.ConfigManager;
+import net.foster.testing.orbital.data.Database;
+import net.foster.testing.orbital.data.Settings;
+import net.foster.testing.orbital.data.store.AccountStore;
+import net.foster.testing.orbital.data.store.FileAccountStore;
+import net.foster.testing.orbital.managers.Economy;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BalanceSyncTest {
+    private static final int DEPOSITS = 10_000;
+    private static final long START_BALANCE = 1_000;
+
+    private final UUID uuid = UUID.randomUUID();
+    private final List<AutoCloseable> closeables = new ArrayList<>();
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void close() throws Exception {
+        for (AutoCloseable closeable : closeables) {
+            closeable.close();
+        }
+    }
+
+    @Test
+    @Timeout(60)
+    void concurrentChangesOnEveryServerCount() throws Exception {
+        LoopbackTransport.Hub hub = new LoopbackTransport.Hub();
+        closeables.add(hub);
+        Economy first = node(new LoopbackTransport(hub), 1);
+        Economy second = node(new LoopbackTransport(hub), 2);
+
+        Thread depositor = new Thread(() -> {
+            for (int i = 0; i < DEPOSITS; i++) {
+                second.addMinor(uuid, 3);
+            }
+        });
+        depositor.start();
+        for (int i = 0; i < DEPOSITS; i++) {
+            first.addMinor(uuid, 2);
+        }
+        depositor.join();
+
+        long expected = START_BALANCE + DEPOSITS * 5L;
+        awaitBalance(first, expected);
+        awaitBalance(second, expected);
+    }
+
+    @Test
+    @Timeout(60)
+    void setReplacesEarlierChangesOnly() throws Exception {
+        LoopbackTransport.Hub hub = new LoopbackTransport.Hub();
+        closeables.add(hub);
+        Economy first = node(new LoopbackTransport(hub), 1);
+        Economy second = node(new LoopbackTransport(hub), 2);
+
+        first.addMinor(uuid, 100);
+        awaitBalance(second, START_BALANCE + 100);
+        second.setBalanceMinor(uuid, 50);
+        awaitBalance(first, 50);
+        first.addMinor(uuid, 7);
+
+        awaitBalance(first, 57);
+        awaitBalance(second, 57);
+    }
+
+    @Test
+    @Timeout(60)
+    void changesToAccountsNotLoadedAreStored() throws Exception {
+        try (Reader reader = new InputStreamReader(Objects.requireNonNull(getClass().getResourceAsStream("/config.yml")), StandardCharsets.UTF_8)) {
+            ConfigManager.useSettings(Settings.from(YamlConfiguration.loadConfiguration(reader)));
+        }
+        LoopbackTransport.Hub hub = new LoopbackTransport.Hub();
+        closeables.add(hub);
+        Economy first = node(new LoopbackTransport(hub), 1);
+
+        // Every server has its own storage, which holds the balance from before the changes
+        FileAccountStore store = new FileAccountStore(directory.resolve("players.bin"));
+        store.initialize();
+        store.upsertBatch(List.of(new AccountStore.Account(uuid, START_BALANCE)));
+        Economy second = new Economy();
+        Database database = new Database(second, store, 100);
+        BalanceSync sync = new BalanceSync(second, new LoopbackTransport(hub), 2);
+        closeables.add(sync);
+        closeables.add(database::shutdown);
+        second.addListener(sync);
+        sync.setStorage(database::applyRemote);
+
+        first.addMinor(uuid, 100);
+        first.setBalanceMinor(uuid, 400);
+        first.addMinor(uuid, -50);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (sync.getStored() < 3 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(350, (long) store.findMany(List.of(uuid)).get(uuid));
+        assertFalse(second.hasAccount(uuid), "Storing a change loaded the account");
+
+        // The player moves to the second server
+        database.preloadPlayerData(uuid).join();
+        assertEquals(350, second.getBalanceMinor(uuid));
+        first.addMinor(uuid, 5);
+        awaitBalance(second, 355);
+        assertEquals(0, sync.getSkipped());
+    }
+
+    @Test
+    @Timeout(60)
+    void socketsCarryChangesOnlyWithTheSameSecret() throws Exception {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        SocketTransport listening = new SocketTransport(new InetSocketAddress(loopback, 0), List.of(), "secret");
+        Economy receiver = node(listening, 1);
+        InetSocketAddress address = new InetSocketAddress(loopback, listening.getPort());
+
+        Economy intruder = node(new SocketTransport(new InetSocketAddress(loopback, 0), List.of(address), "guess"), 2);
+        intruder.addMinor(uuid, 1_000_000);
+        Economy sender = node(new SocketTransport(new InetSocketAddress(loopback, 0), List.of(address), "secret"), 3);
+        sender.addMinor(uuid, 5);
+
+        awaitBalance(receiver, START_BALANCE + 5);
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertEquals(START_BALANCE + 5, receiver.getBalanceMinor(uuid), "Change from a server with the wrong secret was applied");
+    }
+
+    @Test
+    void socketNeedsSecretBeyondLoopback() {
+        assertThrows(IllegalArgumentException.class, () -> new SocketTransport(new InetSocketAddress(0), List.of(), ""));
+        assertThrows(IllegalArgumentException.class, () -> new SocketTransport(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                List.of(new InetSocketAddress("192.0.2.1", 25601)), ""));
+    }
+
+    private Economy node(SyncTransport transport, int nodeId) {
+        Economy econ = new Economy();
+        BalanceSync sync = new BalanceSync(econ, transport, nodeId);
+        closeables.add(sync);
+        econ.addListener(sync);
+        econ.loadBalanceMinor(uuid, START_BALANCE);
+        return econ;
+    }
+
+    private void awaitBalance(Economy econ, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (econ.getBalanceMinor(uuid) != expected && System.nanoTime() < deadline) {
+            econ.getAccounts().flushListeners();
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(expected, econ.getBalanceMinor(uuid));
+    }
+}